@@ -0,0 +1,639 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import linalg.LinAlgException;
+import linalg.ExactNeighborIndex;
+import linalg.FloatMatrix;
+import linalg.FloatVector;
+import linalg.IVFNeighborIndex;
+import linalg.IterativeSolver;
+import linalg.Matrix;
+import linalg.NeighborIndex;
+import linalg.Neighbors;
+import linalg.SparseMatrix;
+import linalg.Strassen;
+import linalg.TopEigen;
+import linalg.TruncatedSVD;
+import linalg.Vector;
+import linalg.VectorBatch;
+import linalg.VectorExpr;
+
+/** Microbenchmarks for the operations of linalg.Vector and linalg.Matrix (constructors, accessors,
+ *  arithmetic, reductions, transpose and multiplies; not the into overloads or the views) and for
+ *  the main operations built on them: the Strassen, sparse (CSR) and single-precision multiplies,
+ *  fused VectorExpr evaluation, the LU, Cholesky, QR and mixed-precision refined solves, and the
+ *  Lanczos and randomized SVD solvers.  --list prints exactly what is covered.  Needs nothing
+ *  beyond the JDK, so it runs offline on any Linux box with the compiled classes.
+ *
+ *  Each (operation, size) pair runs in its own freshly forked JVM (several forks per pair) so that
+ *  JIT decisions made for one operation cannot leak into another.  Inside a fork the operation is
+ *  warmed up for a fixed time, then timed over several measurement iterations; allocation per op
+ *  comes from the per-thread allocation counter of the HotSpot ThreadMXBean.  Results are written as
+ *  CSV (default) or JSON with ns/op, GFLOP/s and bytes allocated per op.
+ *
+ *  With --knn it instead measures recall against latency of the nearest neighbor indexes, in this
+ *  process: on synthetic clustered data, ExactNeighborIndex gives the true top 10 of each query,
+ *  and IVFNeighborIndex (flat and product-quantized) is swept over the number of probes, reporting
+ *  recall@10 and the mean, median and 99th percentile single-query latency.
+ *
+ *  Usage: java -cp bin BenchLinAlg [options]
+ *    --ops name,name,...      operations to run (default: all; --list prints them)
+ *    --sizes 16,64,...        vector dimension / square matrix size (default: 16,64,256,1024,4096,8192)
+ *    --forks N                JVM forks per case (default 2)
+ *    --warmup-ms N            warmup time per fork (default 1000)
+ *    --iterations N           measurement iterations per fork (default 5)
+ *    --iteration-ms N         time per measurement iteration (default 500)
+ *    --max-quadratic N        largest size for O(n^2) matrix operations (default 4096)
+ *    --max-cubic N            largest size for O(n^3) operations (default 2048)
+ *    --format csv|json        output format (default csv)
+ *    --out FILE               write results to FILE instead of standard output
+ *    --knn                    run the nearest neighbor sweep below instead of the microbenchmarks
+ *    --knn-size N             vectors indexed by the sweep (default 100000)
+ *    --knn-dim N              their dimension (default 64)
+ *  JVM options given to this process (e.g. --add-modules jdk.incubator.vector) are passed to the forks.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+public class BenchLinAlg {
+
+	/** How the cost of an operation grows with the size n; used to cap the sweep */
+	enum Cost { CONSTANT, LINEAR, QUADRATIC, CUBIC }
+
+	/** One benchmarked operation: prepares its inputs for a size and returns the timed body */
+	enum Op {
+		VECTOR_NEW("Vector(int)", Cost.LINEAR) {
+			Body setup(int n, Random r) { return () -> new Vector(n); }
+		},
+		VECTOR_COPY("Vector(Vector)", Cost.LINEAR) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> new Vector(v); }
+		},
+		VECTOR_PARSE("Vector(String)", Cost.LINEAR) {
+			Body setup(int n, Random r) throws LinAlgException { String s = bracketed(n, r); return () -> new Vector(s); }
+		},
+		VECTOR_TO_STRING("Vector.toString", Cost.LINEAR) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> v.toString(); }
+		},
+		VECTOR_EQUALS("Vector.equals", Cost.LINEAR) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r), w = new Vector(v); return () -> v.equals(w); }
+		},
+		VECTOR_GET_DIM("Vector.getDim", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.getDim()); }
+		},
+		VECTOR_GET("Vector.get", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.get(n / 2)); }
+		},
+		VECTOR_SET("Vector.set", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> { v.set(n / 2, 1.5); return v; }; }
+		},
+		VECTOR_CHANGE_DIM("Vector.changeDim", Cost.LINEAR) {
+			Body setup(int n, Random r) throws LinAlgException {
+				Vector v = vector(n, r);
+				int[] dims = { n + 1, n }; // alternate so the size stays put
+				int[] next = { 0 };
+				return () -> { v.changeDim(dims[next[0] ^= 1]); return v; };
+			}
+		},
+		VECTOR_SCALAR_ADD_IN_PLACE("Vector.scalarAddInPlace", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> { v.scalarAddInPlace(1e-9); return v; }; }
+		},
+		VECTOR_SCALAR_ADD("Vector.scalarAdd", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> v.scalarAdd(1.5); }
+		},
+		VECTOR_SCALAR_MULT_IN_PLACE("Vector.scalarMultInPlace", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> { v.scalarMultInPlace(1.0); return v; }; }
+		},
+		VECTOR_SCALAR_MULT("Vector.scalarMult", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> v.scalarMult(1.5); }
+		},
+		VECTOR_ADD_IN_PLACE("Vector.elementwiseAddInPlace", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r), w = vector(n, r); w.scalarMultInPlace(1e-12); return () -> { v.elementwiseAddInPlace(w); return v; }; }
+		},
+		VECTOR_ADD("Vector.elementwiseAdd", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r), w = vector(n, r); return () -> v.elementwiseAdd(w); }
+		},
+		VECTOR_MULT_IN_PLACE("Vector.elementwiseMultInPlace", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r), w = ones(n); return () -> { v.elementwiseMultInPlace(w); return v; }; }
+		},
+		VECTOR_MULT("Vector.elementwiseMult", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r), w = vector(n, r); return () -> v.elementwiseMult(w); }
+		},
+		VECTOR_INNER_PROD("Vector.InnerProd", Cost.LINEAR, 2) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r), w = vector(n, r); return () -> consume(Vector.InnerProd(v, w)); }
+		},
+		VECTOR_SUM("Vector.sum", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.sum()); }
+		},
+		VECTOR_NORM1("Vector.norm1", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.norm1()); }
+		},
+		VECTOR_NORM2("Vector.norm2", Cost.LINEAR, 2) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.norm2()); }
+		},
+		VECTOR_NORM_INF("Vector.normInf", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.normInf()); }
+		},
+		VECTOR_MAX("Vector.max", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.max()); }
+		},
+		VECTOR_ARG_MAX("Vector.argMax", Cost.LINEAR, 1) {
+			Body setup(int n, Random r) throws LinAlgException { Vector v = vector(n, r); return () -> consume(v.argMax()); }
+		},
+		MATRIX_NEW("Matrix(int,int)", Cost.QUADRATIC) {
+			Body setup(int n, Random r) { return () -> new Matrix(n, n); }
+		},
+		MATRIX_COPY("Matrix(Matrix)", Cost.QUADRATIC) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = matrix(n, r); return () -> new Matrix(m); }
+		},
+		MATRIX_TO_STRING("Matrix.toString", Cost.QUADRATIC) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = matrix(n, r); return () -> m.toString(); }
+		},
+		MATRIX_EQUALS("Matrix.equals", Cost.QUADRATIC) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = matrix(n, r), c = new Matrix(m); return () -> m.equals(c); }
+		},
+		MATRIX_GET_NUM_ROWS("Matrix.getNumRows", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = new Matrix(n, n); return () -> consume(m.getNumRows()); }
+		},
+		MATRIX_GET_NUM_COLS("Matrix.getNumCols", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = new Matrix(n, n); return () -> consume(m.getNumCols()); }
+		},
+		MATRIX_GET("Matrix.get", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = new Matrix(n, n); return () -> consume(m.get(n / 2, n / 3)); }
+		},
+		MATRIX_SET("Matrix.set", Cost.CONSTANT) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = new Matrix(n, n); return () -> { m.set(n / 2, n / 3, 1.5); return m; }; }
+		},
+		MATRIX_GET_ROW("Matrix.getRow", Cost.LINEAR) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = matrix(n, r); return () -> m.getRow(n - 1); }
+		},
+		MATRIX_TRANSPOSE("Matrix.transpose", Cost.QUADRATIC) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix m = matrix(n, r); return () -> m.transpose(); }
+		},
+		MATRIX_IDENTITY("Matrix.GetIdentity", Cost.QUADRATIC) {
+			Body setup(int n, Random r) { return () -> Matrix.GetIdentity(n); }
+		},
+		MATRIX_MULTIPLY("Matrix.Multiply(Matrix,Matrix)", Cost.CUBIC, 2) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = matrix(n, r), b = matrix(n, r); return () -> Matrix.Multiply(a, b); }
+		},
+		STRASSEN_MULTIPLY("Strassen.Multiply(Matrix,Matrix)", Cost.CUBIC, 2) { // flops counted as for the classical product, so rates compare directly
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = matrix(n, r), b = matrix(n, r); return () -> Strassen.Multiply(a, b); }
+		},
+		MATRIX_VECTOR_MULTIPLY("Matrix.Multiply(Matrix,Vector)", Cost.QUADRATIC, 2) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = matrix(n, r); Vector v = vector(n, r); return () -> Matrix.Multiply(a, v); }
+		},
+		LU_SOLVE("Matrix.lu().solve(Vector)", Cost.CUBIC, 2.0 / 3) { // factorization flops; the O(n^2) solve is not counted
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = matrix(n, r); Vector b = vector(n, r); return () -> a.lu().solve(b); }
+		},
+		CHOLESKY_SOLVE("Matrix.cholesky().solve(Vector)", Cost.CUBIC, 1.0 / 3) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = spd(n, r); Vector b = vector(n, r); return () -> a.cholesky().solve(b); }
+		},
+		QR_SOLVE("Matrix.qr().solve(Vector)", Cost.CUBIC, 4.0 / 3) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = matrix(n, r); Vector b = vector(n, r); return () -> a.qr().solve(b); }
+		},
+		SPARSE_MATRIX_VECTOR_MULTIPLY("SparseMatrix.Multiply(SparseMatrix,Vector)", Cost.LINEAR, 2 * SPARSE_ROW) {
+			Body setup(int n, Random r) throws LinAlgException { SparseMatrix a = sparse(n, r); Vector v = vector(n, r); return () -> SparseMatrix.Multiply(a, v); }
+		},
+		SPARSE_MULTIPLY("SparseMatrix.Multiply(SparseMatrix,SparseMatrix)", Cost.LINEAR, 2 * SPARSE_ROW * SPARSE_ROW) { // expected multiply-adds
+			Body setup(int n, Random r) throws LinAlgException { SparseMatrix a = sparse(n, r), b = sparse(n, r); return () -> SparseMatrix.Multiply(a, b); }
+		},
+		VECTOR_EXPR_EVAL("VectorExpr.eval", Cost.LINEAR, 3) { // (2 v + w) .* u in one pass
+			Body setup(int n, Random r) throws LinAlgException {
+				Vector v = vector(n, r), w = vector(n, r), u = vector(n, r);
+				VectorExpr e = VectorExpr.of(v).scalarMult(2.0).elementwiseAdd(w).elementwiseMult(u);
+				return () -> e.eval();
+			}
+		},
+		TOP_EIGEN("TopEigen.Lanczos(k=8)", Cost.QUADRATIC) { // iterations depend on the spectrum, so flops are not counted
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = symmetric(n, r); return () -> TopEigen.Lanczos(a, Math.min(8, n)); }
+		},
+		TRUNCATED_SVD("TruncatedSVD.Randomized(k=8)", Cost.QUADRATIC) {
+			Body setup(int n, Random r) throws LinAlgException { Matrix a = matrix(n, r); return () -> TruncatedSVD.Randomized(a, Math.min(8, n)); }
+		},
+		FLOAT_VECTOR_INNER_PROD("FloatVector.InnerProd", Cost.LINEAR, 2) {
+			Body setup(int n, Random r) throws LinAlgException { FloatVector v = new FloatVector(vector(n, r)), w = new FloatVector(vector(n, r)); return () -> consume(FloatVector.InnerProd(v, w)); }
+		},
+		FLOAT_MATRIX_MULTIPLY("FloatMatrix.Multiply(FloatMatrix,FloatMatrix)", Cost.CUBIC, 2) {
+			Body setup(int n, Random r) throws LinAlgException { FloatMatrix a = new FloatMatrix(matrix(n, r)), b = new FloatMatrix(matrix(n, r)); return () -> FloatMatrix.Multiply(a, b); }
+		},
+		FLOAT_MATRIX_VECTOR_MULTIPLY("FloatMatrix.Multiply(FloatMatrix,FloatVector)", Cost.QUADRATIC, 2) {
+			Body setup(int n, Random r) throws LinAlgException { FloatMatrix a = new FloatMatrix(matrix(n, r)); FloatVector v = new FloatVector(vector(n, r)); return () -> FloatMatrix.Multiply(a, v); }
+		},
+		MIXED_REFINE_SOLVE("IterativeSolver.refine(FloatMatrix.lu())", Cost.CUBIC, 2.0 / 3) { // as LU_SOLVE: the float factorization flops
+			Body setup(int n, Random r) throws LinAlgException {
+				Matrix a = spd(n, r); Vector b = vector(n, r), x = new Vector(n);
+				return () -> { x.scalarMultInPlace(0.0); return new IterativeSolver().setPreconditioner(IterativeSolver.Inverse(new FloatMatrix(a).lu())).refine(a, b, x); };
+			}
+		};
+
+		final String _sLabel;   // Method name as reported in the results
+		final Cost _cost;       // Growth class, used to cap sizes
+		final double _dFlopsPerTerm; // Floating point operations per n, n^2 or n^3 (0 if not meaningful)
+
+		Op(String label, Cost cost) {
+			this(label, cost, 0); // no arithmetic worth counting (copies, formatting, accessors)
+		}
+
+		Op(String label, Cost cost, double flopsPerTerm) {
+			_sLabel = label;
+			_cost = cost;
+			_dFlopsPerTerm = flopsPerTerm;
+		}
+
+		/** Builds inputs for size n and returns the operation to time */
+		abstract Body setup(int n, Random r) throws LinAlgException;
+
+		/** Floating point operations done by one call at size n */
+		double flops(int n) {
+			switch (_cost) {
+				case LINEAR:    return _dFlopsPerTerm * n;
+				case QUADRATIC: return _dFlopsPerTerm * n * n;
+				case CUBIC:     return _dFlopsPerTerm * n * n * (double)n;
+				default:        return 0;
+			}
+		}
+	}
+
+	static final int SPARSE_ROW = 16; // Non-zeros per row of the sparse inputs
+
+	/** The timed body of a benchmark; returns something so the JIT cannot drop the work */
+	interface Body {
+		Object run() throws LinAlgException;
+	}
+
+	private static volatile int _nSink;    // results are folded in here so they stay live
+	private static volatile double _dSink; // primitive results go here instead of being boxed (boxing would show up as allocation)
+
+	/** Keeps a primitive result live without allocating */
+	static Object consume(double d) {
+		_dSink = d;
+		return null;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		if (args.length > 0 && args[0].equals("--child")) {
+			runChild(args);
+			return;
+		}
+
+		List<Op> ops = new ArrayList<Op>();
+		int[] sizes = { 16, 64, 256, 1024, 4096, 8192 };
+		int forks = 2, warmupMs = 1000, iterations = 5, iterationMs = 500;
+		int maxQuadratic = 4096, maxCubic = 2048;
+		String format = "csv", out = null;
+		boolean knn = false;
+		int knnSize = 100000, knnDim = 64;
+
+		for (int i = 0; i < args.length; i++) {
+			switch (args[i]) {
+				case "--list":
+					for (Op op : Op.values()) System.out.println(op.name() + "\t" + op._sLabel);
+					return;
+				case "--ops":
+					for (String name : args[++i].split(",")) ops.add(Op.valueOf(name.trim().toUpperCase()));
+					break;
+				case "--sizes":
+					String[] parts = args[++i].split(",");
+					sizes = new int[parts.length];
+					for (int j = 0; j < parts.length; j++) sizes[j] = Integer.parseInt(parts[j].trim());
+					break;
+				case "--forks":         forks = Integer.parseInt(args[++i]); break;
+				case "--warmup-ms":     warmupMs = Integer.parseInt(args[++i]); break;
+				case "--iterations":    iterations = Integer.parseInt(args[++i]); break;
+				case "--iteration-ms":  iterationMs = Integer.parseInt(args[++i]); break;
+				case "--max-quadratic": maxQuadratic = Integer.parseInt(args[++i]); break;
+				case "--max-cubic":     maxCubic = Integer.parseInt(args[++i]); break;
+				case "--format":        format = args[++i]; break;
+				case "--out":           out = args[++i]; break;
+				case "--knn":           knn = true; break;
+				case "--knn-size":      knnSize = Integer.parseInt(args[++i]); break;
+				case "--knn-dim":       knnDim = Integer.parseInt(args[++i]); break;
+				default: throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		if (knn) {
+			runKnn(knnSize, knnDim, format, out);
+			return;
+		}
+		if (ops.isEmpty()) {
+			for (Op op : Op.values()) ops.add(op);
+		}
+
+		List<Result> results = new ArrayList<Result>();
+		for (Op op : ops) {
+			for (int n : sizes) {
+				if ((op._cost == Cost.CUBIC && n > maxCubic) || (op._cost == Cost.QUADRATIC && n > maxQuadratic)) {
+					continue; // too slow or too large for this sweep
+				}
+				Result res = new Result(op, n);
+				for (int f = 0; f < forks; f++) {
+					fork(op, n, warmupMs, iterations, iterationMs, res);
+				}
+				results.add(res);
+				System.err.println(res.csv());
+			}
+		}
+
+		Writer w = (out == null) ? new PrintWriter(System.out) : new FileWriter(out);
+		try (PrintWriter pw = new PrintWriter(w)) {
+			if (format.equals("json")) {
+				pw.println("[");
+				for (int i = 0; i < results.size(); i++) {
+					pw.println("  " + results.get(i).json() + (i + 1 < results.size() ? "," : ""));
+				}
+				pw.println("]");
+			}
+			else {
+				pw.println(Result.CSV_HEADER);
+				for (Result res : results) pw.println(res.csv());
+			}
+		}
+	}
+
+	static final int KNN_QUERIES = 1000; // Queries per measurement
+	static final int KNN_K = 10;         // Neighbors per query (recall@KNN_K)
+
+	/** Nearest neighbor sweep: recall@KNN_K and per-query latency of each index against the exact search */
+	private static void runKnn(int n, int dim, String format, String out) throws Exception {
+
+		Random r = new Random(42);
+		int clusters = Math.max(1, n / 1000);
+		VectorBatch centers = batch(clusters, dim, null, 1.0, r);
+		VectorBatch data = batch(n, dim, centers, 0.5, r), queries = batch(KNN_QUERIES, dim, centers, 0.5, r);
+
+		int lists = Math.max(1, (int)Math.sqrt(n)), subspaces = Math.max(1, dim / 4);
+		ExactNeighborIndex exact = new ExactNeighborIndex(data);
+		Neighbors[] truth = exact.search(queries, KNN_K);
+
+		long t0 = System.nanoTime();
+		IVFNeighborIndex flat = IVFNeighborIndex.Build(data, lists, 42L);
+		long t1 = System.nanoTime();
+		IVFNeighborIndex pq = IVFNeighborIndex.Build(data, lists, subspaces, 42L);
+		long t2 = System.nanoTime();
+		System.err.printf("Built IVF (%d lists) in %.1f ms, IVF-PQ (%d subspaces) in %.1f ms%n",
+				lists, (t1 - t0) / 1e6, subspaces, (t2 - t1) / 1e6);
+
+		List<String[]> rows = new ArrayList<String[]>();
+		rows.add(knnRow("exact", 0, exact, queries, truth));
+		for (int probes = 1; probes <= Math.min(64, lists); probes *= 2) {
+			rows.add(knnRow("ivf", probes, flat.setProbes(probes), queries, truth));
+			rows.add(knnRow("ivf_pq" + subspaces, probes, pq.setProbes(probes), queries, truth));
+		}
+
+		String[] header = { "index", "probes", "recall_at_" + KNN_K, "ns_per_query", "ns_per_query_p50", "ns_per_query_p99" };
+		Writer w = (out == null) ? new PrintWriter(System.out) : new FileWriter(out);
+		try (PrintWriter pw = new PrintWriter(w)) {
+			if (format.equals("json")) {
+				pw.println("[");
+				for (int i = 0; i < rows.size(); i++) {
+					StringBuilder sb = new StringBuilder("  {");
+					for (int j = 0; j < header.length; j++) {
+						sb.append(j == 0 ? "" : ", ").append('"').append(header[j]).append("\": ");
+						sb.append(j == 0 ? "\"" + rows.get(i)[j] + "\"" : rows.get(i)[j]);
+					}
+					pw.println(sb.append(i + 1 < rows.size() ? "}," : "}"));
+				}
+				pw.println("]");
+			}
+			else {
+				pw.println(String.join(",", header));
+				for (String[] row : rows) pw.println(String.join(",", row));
+			}
+		}
+	}
+
+	/** Times single-query searches of index (after one warmup pass) and scores them against truth */
+	private static String[] knnRow(String name, int probes, NeighborIndex index, VectorBatch queries, Neighbors[] truth)
+			throws LinAlgException {
+
+		int nq = queries.getSize();
+		Neighbors[] found = new Neighbors[nq];
+		for (int q = 0; q < nq; q++) found[q] = index.search(queries.getView(q), KNN_K); // warmup
+		long[] ns = new long[nq];
+		for (int q = 0; q < nq; q++) {
+			Vector query = queries.getView(q);
+			long t = System.nanoTime();
+			found[q] = index.search(query, KNN_K);
+			ns[q] = System.nanoTime() - t;
+		}
+
+		int hits = 0;
+		for (int q = 0; q < nq; q++) {
+			Set<Integer> ids = new HashSet<Integer>();
+			for (int id : truth[q].getIds()) ids.add(id);
+			for (int id : found[q].getIds()) if (ids.contains(id)) hits++;
+		}
+		long total = 0;
+		for (long t : ns) total += t;
+		Arrays.sort(ns);
+		String[] row = { name, Integer.toString(probes), String.format("%.4f", (double)hits / (nq * KNN_K)),
+				String.format("%.1f", (double)total / nq), Long.toString(ns[nq / 2]), Long.toString(ns[(int)(0.99 * (nq - 1))]) };
+		System.err.println(String.join(",", row));
+		return row;
+	}
+
+	/** Runs one fork of op at size n and adds its measurements to res */
+	private static void fork(Op op, int n, int warmupMs, int iterations, int iterationMs, Result res)
+			throws IOException, InterruptedException {
+
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments()); // same heap, modules and flags as the parent
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(BenchLinAlg.class.getName());
+		cmd.add("--child");
+		cmd.add(op.name());
+		cmd.add(Integer.toString(n));
+		cmd.add(Integer.toString(warmupMs));
+		cmd.add(Integer.toString(iterations));
+		cmd.add(Integer.toString(iterationMs));
+
+		Process p = new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.startsWith("ITERATION ")) {
+					String[] f = line.split(" ");
+					res.add(Double.parseDouble(f[1]), Double.parseDouble(f[2]));
+				}
+			}
+		}
+		if (p.waitFor() != 0) {
+			throw new IOException("Fork for " + op._sLabel + " at size " + n + " failed");
+		}
+	}
+
+	/** Child JVM: warms up, then prints one "ITERATION nsPerOp bytesPerOp" line per measurement iteration */
+	private static void runChild(String[] args) throws Exception {
+
+		Op op = Op.valueOf(args[1]);
+		int n = Integer.parseInt(args[2]);
+		long warmupNs = Long.parseLong(args[3]) * 1000000L;
+		int iterations = Integer.parseInt(args[4]);
+		long iterationNs = Long.parseLong(args[5]) * 1000000L;
+
+		Body body = op.setup(n, new Random(42));
+
+		// Warmup also sizes the batch: enough calls per timing that clock overhead is negligible
+		long batch = 1;
+		long start = System.nanoTime();
+		while (System.nanoTime() - start < warmupNs) {
+			long t = System.nanoTime();
+			runBatch(body, batch);
+			long elapsed = System.nanoTime() - t;
+			if (elapsed < iterationNs / 10) batch *= 2;
+		}
+
+		for (int it = 0; it < iterations; it++) {
+			long calls = 0;
+			long bytes0 = allocatedBytes();
+			long t0 = System.nanoTime(), t;
+			do {
+				runBatch(body, batch);
+				calls += batch;
+				t = System.nanoTime();
+			} while (t - t0 < iterationNs);
+			long bytes = allocatedBytes() - bytes0;
+			System.out.println("ITERATION " + ((double)(t - t0) / calls) + " " + ((double)bytes / calls));
+		}
+	}
+
+	private static void runBatch(Body body, long calls) throws LinAlgException {
+		int sink = 0;
+		for (long c = 0; c < calls; c++) {
+			sink += System.identityHashCode(body.run());
+		}
+		_nSink += sink;
+	}
+
+	/** Bytes allocated so far by the current thread, or 0 if the JVM does not expose it */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean)bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	/** Measurements of one (operation, size) pair collected over all forks */
+	private static final class Result {
+
+		static final String CSV_HEADER = "operation,size,samples,ns_per_op,ns_per_op_stddev,gflops,bytes_per_op";
+
+		final Op _op;
+		final int _nSize;
+		final List<double[]> _samples = new ArrayList<double[]>(); // {nsPerOp, bytesPerOp}
+
+		Result(Op op, int size) { _op = op; _nSize = size; }
+
+		void add(double nsPerOp, double bytesPerOp) { _samples.add(new double[] { nsPerOp, bytesPerOp }); }
+
+		double mean(int k) {
+			double s = 0;
+			for (double[] x : _samples) s += x[k];
+			return _samples.isEmpty() ? Double.NaN : s / _samples.size();
+		}
+
+		double stddev() {
+			double m = mean(0), s = 0;
+			for (double[] x : _samples) s += (x[0] - m) * (x[0] - m);
+			return (_samples.size() < 2) ? 0 : Math.sqrt(s / (_samples.size() - 1));
+		}
+
+		double gflops() {
+			double f = _op.flops(_nSize);
+			return (f == 0) ? 0 : f / mean(0); // flops per ns is GFLOP/s
+		}
+
+		String csv() {
+			return String.format("%s,%d,%d,%.3f,%.3f,%.4f,%.1f", _op._sLabel, _nSize, _samples.size(),
+					mean(0), stddev(), gflops(), mean(1));
+		}
+
+		String json() {
+			return String.format("{\"operation\": \"%s\", \"size\": %d, \"samples\": %d, \"ns_per_op\": %.3f, "
+					+ "\"ns_per_op_stddev\": %.3f, \"gflops\": %.4f, \"bytes_per_op\": %.1f}",
+					_op._sLabel, _nSize, _samples.size(), mean(0), stddev(), gflops(), mean(1));
+		}
+	}
+
+	// ---- input generators ----
+
+	private static Vector vector(int n, Random r) throws LinAlgException {
+		Vector v = new Vector(n);
+		for (int i = 0; i < n; i++) v.set(i, r.nextDouble());
+		return v;
+	}
+
+	private static Vector ones(int n) throws LinAlgException {
+		Vector v = new Vector(n);
+		v.scalarAddInPlace(1.0);
+		return v;
+	}
+
+	private static Matrix matrix(int n, Random r) throws LinAlgException {
+		Matrix m = new Matrix(n, n);
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				m.set(i, j, r.nextDouble());
+		return m;
+	}
+
+	/** A symmetric positive definite n x n matrix: m m^T + n I */
+	private static Matrix spd(int n, Random r) throws LinAlgException {
+		Matrix m = matrix(n, r);
+		Matrix a = Matrix.Multiply(m, m.transpose());
+		for (int i = 0; i < n; i++) a.set(i, i, a.get(i, i) + n);
+		return a;
+	}
+
+	/** A symmetric n x n matrix: m + m^T */
+	private static Matrix symmetric(int n, Random r) throws LinAlgException {
+		Matrix m = matrix(n, r);
+		Matrix a = new Matrix(n, n);
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				a.set(i, j, m.get(i, j) + m.get(j, i));
+		return a;
+	}
+
+	/** An n x n CSR matrix with SPARSE_ROW (or n, if smaller) entries per row in random columns */
+	private static SparseMatrix sparse(int n, Random r) throws LinAlgException {
+		SparseMatrix.Builder b = new SparseMatrix.Builder(n, n);
+		for (int i = 0; i < n; i++)
+			for (int k = 0; k < Math.min(SPARSE_ROW, n); k++)
+				b.add(i, r.nextInt(n), r.nextDouble()); // a repeated column just sums
+		return b.build(SparseMatrix.Layout.CSR);
+	}
+
+	/** n vectors of dimension dim: Gaussian noise of standard deviation sigma around a random
+	 *  member of centers (around the origin if centers is null) */
+	private static VectorBatch batch(int n, int dim, VectorBatch centers, double sigma, Random r) throws LinAlgException {
+		VectorBatch b = new VectorBatch(n, dim);
+		for (int i = 0; i < n; i++) {
+			Vector v = b.getView(i);
+			Vector c = (centers == null) ? null : centers.getView(r.nextInt(centers.getSize()));
+			for (int j = 0; j < dim; j++) v.set(j, (c == null ? 0.0 : c.get(j)) + sigma * r.nextGaussian());
+		}
+		return b;
+	}
+
+	private static String bracketed(int n, Random r) {
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < n; i++) sb.append(' ').append(r.nextDouble());
+		return sb.append(" ]").toString();
+	}
+}
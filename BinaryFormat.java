@@ -0,0 +1,366 @@
+package linalg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/*** Versioned binary file format for Vector and Matrix, read and written through NIO channels.
+ *
+ *   A file is a fixed 64 byte header followed by the raw entries as little-endian doubles
+ *   (row-major for matrices).  All header fields are little-endian:
+ *
+ *     offset  size  field
+ *          0     8  magic "LNALGBIN"
+ *          8     2  format version (currently 1)
+ *         10     1  dtype (1 = float64)
+ *         11     1  layout (0 = row-major)
+ *         12     4  rank (1 = Vector, 2 = Matrix)
+ *         16     8  rows (the dimension for a Vector)
+ *         24     8  columns (1 for a Vector)
+ *         32     8  CRC32C of the payload bytes
+ *         40     4  CRC32C of header bytes 0..39
+ *         44    20  reserved, zero
+ *
+ *   Because the header is 64 bytes the payload is cache-line aligned, and map() can hand it
+ *   directly to a MappedMatrix without copying or converting anything.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class BinaryFormat {
+
+	static final int HEADER_BYTES = 64;
+	static final short VERSION = 1;
+	static final byte DTYPE_FLOAT64 = 1;
+	static final byte LAYOUT_ROW_MAJOR = 0;
+	private static final byte[] MAGIC = { 'L', 'N', 'A', 'L', 'G', 'B', 'I', 'N' };
+	private static final int BUFFER_BYTES = 1 << 20; // Payload is streamed through a buffer of this size
+
+	private BinaryFormat() {} // static codec only
+
+	/** Writes v to channel in the binary format
+	 *
+	 * @param v
+	 * @param channel
+	 * @throws IOException if writing fails
+	 */
+
+	public static void write(Vector v, WritableByteChannel channel) throws IOException {
+		write(v.compact().values(), 1, v.getDim(), 1, channel);
+	}
+
+	/** Writes m to channel in the binary format
+	 *
+	 * @param m
+	 * @param channel
+	 * @throws IOException if writing fails
+	 */
+
+	public static void write(Matrix m, WritableByteChannel channel) throws IOException {
+		write(m.compact().values(), 2, m.getNumRows(), m.getNumCols(), channel);
+	}
+
+	/** Writes v to a new (or truncated) file
+	 *
+	 * @param v
+	 * @param file
+	 * @throws IOException if writing fails
+	 */
+
+	public static void write(Vector v, Path file) throws IOException {
+		try (FileChannel ch = openForWrite(file)) {
+			write(v, ch);
+		}
+	}
+
+	/** Writes m to a new (or truncated) file
+	 *
+	 * @param m
+	 * @param file
+	 * @throws IOException if writing fails
+	 */
+
+	public static void write(Matrix m, Path file) throws IOException {
+		try (FileChannel ch = openForWrite(file)) {
+			write(m, ch);
+		}
+	}
+
+	/** Reads a Vector from channel, verifying the header and payload checksums
+	 *
+	 * @param channel
+	 * @return vector
+	 * @throws LinAlgException if the data is not a valid Vector file
+	 * @throws IOException if reading fails
+	 */
+
+	public static Vector readVector(ReadableByteChannel channel) throws LinAlgException, IOException {
+		Header h = readHeader(channel);
+		if (h._nRank != 1) {
+			throw new LinAlgException("Binary file holds a Matrix, not a Vector");
+		}
+		Vector v = new Vector(checkedInt(h._nRows));
+		readPayload(channel, v.values(), h._nCrc);
+		return v;
+	}
+
+	/** Reads a Matrix from channel, verifying the header and payload checksums
+	 *  (a Vector file is read as a single-column matrix)
+	 *
+	 * @param channel
+	 * @return matrix
+	 * @throws LinAlgException if the data is not a valid Matrix or Vector file
+	 * @throws IOException if reading fails
+	 */
+
+	public static Matrix readMatrix(ReadableByteChannel channel) throws LinAlgException, IOException {
+		Header h = readHeader(channel);
+		int rows = checkedInt(h._nRows), cols = checkedInt(h._nCols);
+		if ((long)rows * cols > Integer.MAX_VALUE - 8) {
+			throw new LinAlgException("Matrix of " + rows + " x " + cols + " is too large for the heap; use map()");
+		}
+		Matrix m = new Matrix(rows, cols);
+		readPayload(channel, m.values(), h._nCrc);
+		return m;
+	}
+
+	/** Reads a Vector from a file
+	 *
+	 * @param file
+	 * @return vector
+	 * @throws LinAlgException if the file is not a valid Vector file
+	 * @throws IOException if reading fails
+	 */
+
+	public static Vector readVector(Path file) throws LinAlgException, IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			return readVector(ch);
+		}
+	}
+
+	/** Reads a Matrix from a file
+	 *
+	 * @param file
+	 * @return matrix
+	 * @throws LinAlgException if the file is not a valid Matrix or Vector file
+	 * @throws IOException if reading fails
+	 */
+
+	public static Matrix readMatrix(Path file) throws LinAlgException, IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			return readMatrix(ch);
+		}
+	}
+
+	/** Maps the payload of a binary file directly as a MappedMatrix, without reading or copying it
+	 *  (a Vector file maps as a single column); the header checksum is verified but the payload
+	 *  checksum is not, since that would mean reading the whole file (call verify for that)
+	 *
+	 * @param file
+	 * @param writable
+	 * @return mapped matrix over the file's payload
+	 * @throws LinAlgException if the file header is invalid
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+
+	public static MappedMatrix map(Path file, boolean writable) throws LinAlgException, IOException {
+		FileChannel ch = writable
+				? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			Header h = readHeader(ch);
+			if (ch.size() - HEADER_BYTES < h._nBytes) {
+				throw new LinAlgException("Binary file is truncated");
+			}
+			return new MappedMatrix(ch, HEADER_BYTES, checkedInt(h._nRows), checkedInt(h._nCols), writable);
+		} catch (LinAlgException | IOException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	/** Reads a whole file through a fixed-size buffer and checks its payload checksum
+	 *
+	 * @param file
+	 * @throws LinAlgException if the header or payload checksum does not match
+	 * @throws IOException if reading fails
+	 */
+
+	public static void verify(Path file) throws LinAlgException, IOException {
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			Header h = readHeader(ch);
+			ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			CRC32C crc = new CRC32C();
+			long remaining = h._nBytes;
+			while (remaining > 0) {
+				buf.clear().limit((int)Math.min(buf.capacity(), remaining));
+				readFully(ch, buf);
+				buf.flip();
+				remaining -= buf.remaining();
+				crc.update(buf);
+			}
+			if (crc.getValue() != h._nCrc) {
+				throw new LinAlgException("Binary file payload checksum mismatch");
+			}
+		}
+	}
+
+	// ---- encoding ----
+
+	private static FileChannel openForWrite(Path file) throws IOException {
+		return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE);
+	}
+
+	/** Writes header and payload; on a seekable channel the payload checksum is computed while
+	 *  streaming and the header is patched afterwards, otherwise it is computed in a first pass
+	 */
+
+	private static void write(double[] data, int rank, long rows, long cols, WritableByteChannel channel) throws IOException {
+
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+		if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel sc = (SeekableByteChannel)channel;
+			long start = sc.position();
+			writeFully(sc, header(rank, rows, cols, 0));
+			long crc = streamPayload(data, buf, sc);
+			long end = sc.position();
+			sc.position(start);
+			writeFully(sc, header(rank, rows, cols, crc));
+			sc.position(end);
+		}
+		else {
+			long crc = streamPayload(data, buf, null);
+			writeFully(channel, header(rank, rows, cols, crc));
+			streamPayload(data, buf, channel);
+		}
+	}
+
+	/** Encodes data buffer by buffer, writing to channel unless it is null; returns the CRC32C */
+	private static long streamPayload(double[] data, ByteBuffer buf, WritableByteChannel channel) throws IOException {
+
+		CRC32C crc = new CRC32C();
+		int perBuffer = buf.capacity() / 8;
+		for (int off = 0; off < data.length; off += perBuffer) {
+			int len = Math.min(perBuffer, data.length - off);
+			buf.clear();
+			buf.asDoubleBuffer().put(data, off, len); // bulk little-endian copy
+			buf.limit(len * 8);
+			crc.update(buf);
+			if (channel != null) {
+				buf.flip();
+				writeFully(channel, buf);
+			}
+		}
+		return crc.getValue();
+	}
+
+	private static ByteBuffer header(int rank, long rows, long cols, long crc) {
+
+		ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		h.put(MAGIC).putShort(VERSION).put(DTYPE_FLOAT64).put(LAYOUT_ROW_MAJOR).putInt(rank)
+		 .putLong(rows).putLong(cols).putLong(crc);
+		CRC32C hc = new CRC32C();
+		hc.update(h.array(), 0, 40);
+		h.putInt((int)hc.getValue());
+		h.clear(); // the rest stays zero
+		return h;
+	}
+
+	// ---- decoding ----
+
+	/** Fields of a decoded header */
+	private static final class Header {
+		int _nRank;
+		long _nRows, _nCols, _nCrc;
+		long _nBytes; // payload size, 8 * rows * cols, checked for overflow
+	}
+
+	private static Header readHeader(ReadableByteChannel channel) throws LinAlgException, IOException {
+
+		ByteBuffer b = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, b);
+		b.flip();
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (b.get(i) != MAGIC[i]) {
+				throw new LinAlgException("Not a linalg binary file (bad magic)");
+			}
+		}
+		CRC32C hc = new CRC32C();
+		hc.update(b.array(), 0, 40);
+		if (b.getInt(40) != (int)hc.getValue()) {
+			throw new LinAlgException("Binary file header checksum mismatch");
+		}
+		if (b.getShort(8) != VERSION) {
+			throw new LinAlgException("Unsupported binary format version " + b.getShort(8));
+		}
+		if (b.get(10) != DTYPE_FLOAT64 || b.get(11) != LAYOUT_ROW_MAJOR) {
+			throw new LinAlgException("Unsupported dtype " + b.get(10) + " or layout " + b.get(11));
+		}
+
+		Header h = new Header();
+		h._nRank = b.getInt(12);
+		h._nRows = b.getLong(16);
+		h._nCols = b.getLong(24);
+		h._nCrc = b.getLong(32);
+		if ((h._nRank != 1 && h._nRank != 2) || h._nRows < 1 || h._nCols < 1 || (h._nRank == 1 && h._nCols != 1)) {
+			throw new LinAlgException("Invalid binary file dimensions");
+		}
+		try {
+			h._nBytes = Math.multiplyExact(8L, Math.multiplyExact(h._nRows, h._nCols));
+		} catch (ArithmeticException e) { // a crafted header could otherwise wrap past the truncation check in map()
+			throw new LinAlgException("Binary file dimensions " + h._nRows + " x " + h._nCols + " are too large");
+		}
+		return h;
+	}
+
+	/** Fills data from the channel buffer by buffer and checks the payload CRC32C */
+	private static void readPayload(ReadableByteChannel channel, double[] data, long expectedCrc) throws LinAlgException, IOException {
+
+		ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		CRC32C crc = new CRC32C();
+		int perBuffer = buf.capacity() / 8;
+		for (int off = 0; off < data.length; off += perBuffer) {
+			int len = Math.min(perBuffer, data.length - off);
+			buf.clear().limit(len * 8);
+			readFully(channel, buf);
+			buf.flip();
+			buf.asDoubleBuffer().get(data, off, len);
+			crc.update(buf);
+		}
+		if (crc.getValue() != expectedCrc) {
+			throw new LinAlgException("Binary file payload checksum mismatch");
+		}
+	}
+
+	private static void readFully(ReadableByteChannel channel, ByteBuffer b) throws LinAlgException, IOException {
+		while (b.hasRemaining()) {
+			if (channel.read(b) < 0) {
+				throw new LinAlgException("Binary file is truncated");
+			}
+		}
+	}
+
+	private static void writeFully(WritableByteChannel channel, ByteBuffer b) throws IOException {
+		while (b.hasRemaining()) {
+			channel.write(b);
+		}
+	}
+
+	private static int checkedInt(long n) throws LinAlgException {
+		if (n > Integer.MAX_VALUE) {
+			throw new LinAlgException("Dimension " + n + " is too large");
+		}
+		return (int)n;
+	}
+}
@@ -0,0 +1,168 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*** Cholesky factorization A = L L^T of a symmetric positive definite Matrix, made by Matrix.cholesky().
+ *
+ *   The factorization is right-looking and blocked like LUDecomposition, without pivoting: each
+ *   step factors a diagonal block of BLOCK columns, solves for the block column of L below it,
+ *   and updates the lower half of the trailing submatrix with A22 -= L21 * L21^T.  That update
+ *   holds almost all of the n^3 / 3 multiply-adds and runs through the blocked GEMM kernel on
+ *   the default pool from Parallelism, one block row at a time so that only the lower half is
+ *   computed.  It costs about half of an LU factorization and is stable without pivoting.
+ *
+ *   Only the lower triangle of A is read; symmetry is assumed, not checked.  A pivot that is not
+ *   positive means A is not positive definite (to working precision), and factoring stops with
+ *   a LinAlgException.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class CholeskyDecomposition {
+
+	static final int BLOCK = 64; // Columns per diagonal block
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private final int _nN;        // Dimension of the factored matrix
+	private final double[] _adL;  // L on and below the diagonal, row-major n x n (entries above it are not used)
+
+	/** Factors the square matrix m (m is copied, not changed); called through Matrix.cholesky()
+	 *
+	 * @param m
+	 * @throws LinAlgException if m is not positive definite
+	 */
+
+	CholeskyDecomposition(Matrix m) throws LinAlgException {
+
+		int n = m.getNumRows();
+		_nN = n;
+		_adL = new Matrix(m).values(); // a compact row-major copy, also of a view
+
+		double[] l = _adL;
+		ForkJoinPool pool = Parallelism.getPool();
+		for (int k0 = 0; k0 < n; k0 += BLOCK) {
+			int k1 = Math.min(k0 + BLOCK, n), kb = k1 - k0;
+
+			for (int j = k0; j < k1; j++) { // diagonal block; earlier columns were already subtracted by the trailing updates
+				double d = l[j * n + j] - KERNELS.dot(l, j * n + k0, l, j * n + k0, j - k0);
+				if (!(d > 0.0)) {
+					throw new LinAlgException("Matrix is not symmetric positive definite (pivot " + j + " is " + d + ")");
+				}
+				d = Math.sqrt(d);
+				l[j * n + j] = d;
+				for (int i = j + 1; i < k1; i++) {
+					l[i * n + j] = (l[i * n + j] - KERNELS.dot(l, i * n + k0, l, j * n + k0, j - k0)) / d;
+				}
+			}
+			if (k1 == n) {
+				break;
+			}
+
+			for (int i = k1; i < n; i++) { // L21 = A21 L11^-T: each row solves L11 z = a^T
+				Triangular.lower(l, k0 * n + k0, n, 1, kb, false, l, i * n + k0);
+			}
+
+			// lower half of A22 -= L21 * L21^T, one block row (up to its diagonal block) at a time
+			double[] l21 = Triangular.negatedCopy(l, k1 * n + k0, n, 1, n - k1, kb);
+			for (int i0 = k1; i0 < n; i0 += BLOCK) {
+				int i1 = Math.min(i0 + BLOCK, n);
+				ParallelKernels.multiply(l21, (i0 - k1) * kb, kb, 1, l, k1 * n + k0, 1, n,
+						l, i0 * n + k1, n, i1 - i0, kb, i1 - k1, pool);
+			}
+			Workspace.release(l21);
+		}
+	}
+
+	/** Returns the dimension of the factored matrix
+	 *
+	 * @return _nN
+	 */
+
+	public int getDim() {
+		return _nN;
+	}
+
+	/** Returns a new Matrix holding L, the lower triangular factor
+	 *
+	 * @return L
+	 * @throws LinAlgException never in practice (the dimension is positive)
+	 */
+
+	public Matrix getL() throws LinAlgException {
+
+		int n = _nN;
+		Matrix l = new Matrix(n, n);
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(_adL, i * n, l.values(), i * n, i + 1);
+		}
+		return l;
+	}
+
+	/** Returns the determinant of the factored matrix, the squared product of the diagonal of L
+	 *
+	 * @return determinant
+	 */
+
+	public double determinant() {
+
+		double det = 1.0;
+		for (int i = 0; i < _nN; i++) {
+			double d = _adL[i * _nN + i];
+			det *= d * d;
+		}
+		return det;
+	}
+
+	/** Returns the solution x of A x = b
+	 *
+	 * @param b
+	 * @return x
+	 * @throws LinAlgException if the dimension of b does not match
+	 */
+
+	public Vector solve(Vector b) throws LinAlgException {
+
+		int n = _nN;
+		if (b.getDim() != n) {
+			throw new LinAlgException("Dimension " + b.getDim() + " of the right-hand side does not match the matrix dimension " + n);
+		}
+
+		Vector x = new Vector(b);
+		Triangular.lower(_adL, 0, n, 1, n, false, x.values(), 0); // L y = b
+		Triangular.upper(_adL, 0, 1, n, n, false, x.values(), 0); // L^T x = y
+		return x;
+	}
+
+	/** Returns the solution X of A X = B, one column of X per column of B
+	 *
+	 * @param b
+	 * @return X
+	 * @throws LinAlgException if the rows of b do not match
+	 */
+
+	public Matrix solve(Matrix b) throws LinAlgException {
+
+		int n = _nN;
+		if (b.getNumRows() != n) {
+			throw new LinAlgException("Rows " + b.getNumRows() + " of the right-hand side do not match the matrix dimension " + n);
+		}
+
+		int r = b.getNumCols();
+		Matrix x = new Matrix(b);
+		Triangular.lower(_adL, 0, n, 1, n, false, x.values(), 0, r, r);
+		Triangular.upper(_adL, 0, 1, n, n, false, x.values(), 0, r, r);
+		return x;
+	}
+
+	/** Returns the inverse of the factored matrix, as solve(I)
+	 *
+	 * @return inverse
+	 * @throws LinAlgException never in practice (the factored matrix is nonsingular)
+	 */
+
+	public Matrix inverse() throws LinAlgException {
+		return solve(Matrix.GetIdentity(_nN));
+	}
+}
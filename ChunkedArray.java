@@ -0,0 +1,286 @@
+package linalg;
+
+/*** A persistent (never modified) array of doubles split into chunks of CHUNK elements, the
+ *   storage of ImmutableVector and ImmutableMatrix.
+ *
+ *   Versions share chunks: set copies only the chunk it changes (and the table of chunk
+ *   references), so a one-element update costs O(CHUNK + length / CHUNK) instead of a copy of
+ *   the whole array.  All-zero chunks share one array, so zeros cost no memory.
+ *
+ *   The content hash is kept per chunk and in total, and set updates both by subtracting the
+ *   old element's hash and adding the new one's, so hashing never rescans.  An element's hash
+ *   (hashElement) depends on its index and value only, and the chunk hashes are plain sums, so
+ *   the total is the same however the array was built.  Comparing two arrays skips chunks they
+ *   share and rejects on the first chunk hash that differs.
+ *
+ *   Elements compare with ==, except that NaN equals NaN (so equality is reflexive, as hash keys
+ *   need; Vector.equals has NaN unequal even to itself).
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class ChunkedArray {
+
+	static final int CHUNK = 1 << 8; // Elements per chunk (2 KB of doubles)
+
+	private static final Kernels KERNELS = Kernels.INSTANCE;
+	private static final double[] ZERO = new double[CHUNK]; // Shared by every all-zero chunk, never written
+
+	final int _nLength;
+	private final double[][] _aadChunk; // Chunk c holds elements [c * CHUNK, c * CHUNK + chunkLength(c))
+	private final int[] _anChunkHash;   // Sum of hashElement over each chunk
+	private final int _nHash;           // Sum of the chunk hashes
+
+	private ChunkedArray(int length, double[][] chunks, int[] chunkHash, int hash) {
+		_nLength = length;
+		_aadChunk = chunks;
+		_anChunkHash = chunkHash;
+		_nHash = hash;
+	}
+
+	/** Returns an array of length zeros (every chunk is the shared zero chunk)
+	 *
+	 * @param length
+	 * @return zeros
+	 */
+
+	static ChunkedArray Zeros(int length) {
+
+		int chunks = (length - 1) / CHUNK + 1; // length >= 1; length + CHUNK - 1 could overflow
+		double[][] data = new double[chunks][];
+		for (int c = 0; c < chunks; c++) {
+			data[c] = ZERO;
+		}
+		return hashed(length, data);
+	}
+
+	/** Returns an array holding a copy of src[off + i * stride] for i in [0, length)
+	 *
+	 * @param src
+	 * @param off
+	 * @param stride
+	 * @param length
+	 * @return array
+	 */
+
+	static ChunkedArray Of(double[] src, int off, int stride, int length) {
+
+		int chunks = (length - 1) / CHUNK + 1;
+		double[][] data = new double[chunks][];
+		for (int c = 0; c < chunks; c++) {
+			int base = c * CHUNK, len = Math.min(CHUNK, length - base);
+			double[] chunk = new double[len];
+			boolean zero = true;
+			for (int k = 0; k < len; k++) {
+				chunk[k] = src[off + (base + k) * stride];
+				zero &= Double.doubleToRawLongBits(chunk[k]) == 0L; // +0.0 only: -0.0 is kept as is
+			}
+			data[c] = zero ? ZERO : chunk;
+		}
+		return hashed(length, data);
+	}
+
+	/** Returns the hash of element index holding val (0.0 and -0.0 hash alike, as they are ==) */
+	static int hashElement(int index, double val) {
+		long h = Double.doubleToLongBits(val == 0.0 ? 0.0 : val) ^ (index * 0x9E3779B97F4A7C15L);
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL; // MurmurHash3 finalizer: every input bit moves every output bit
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return (int)(h ^ (h >>> 33));
+	}
+
+	/** Returns element index (no bounds check beyond the array's own)
+	 *
+	 * @param index
+	 * @return value
+	 */
+
+	double get(int index) {
+
+		return _aadChunk[index / CHUNK][index % CHUNK];
+	}
+
+	/** Returns the sum of hashElement over all the elements
+	 *
+	 * @return hash
+	 */
+
+	int hash() {
+
+		return _nHash;
+	}
+
+	/** Returns an array equal to this one except that element index is val, sharing every other
+	 *  chunk (*this* if the element already holds val)
+	 *
+	 * @param index
+	 * @param val
+	 * @return new version
+	 */
+
+	ChunkedArray set(int index, double val) {
+
+		int c = index / CHUNK, k = index % CHUNK;
+		double old = _aadChunk[c][k];
+		if (Double.doubleToRawLongBits(old) == Double.doubleToRawLongBits(val)) {
+			return this;
+		}
+
+		double[] chunk = new double[chunkLength(c)];
+		System.arraycopy(_aadChunk[c], 0, chunk, 0, chunk.length);
+		chunk[k] = val;
+		double[][] data = _aadChunk.clone();
+		data[c] = chunk;
+		int delta = hashElement(index, val) - hashElement(index, old);
+		int[] chunkHash = _anChunkHash.clone();
+		chunkHash[c] += delta;
+		return new ChunkedArray(_nLength, data, chunkHash, _nHash + delta);
+	}
+
+	/** Returns the array with d added to every element
+	 *
+	 * @param d
+	 * @return new array
+	 */
+
+	ChunkedArray scalarAdd(double d) {
+
+		double[][] data = new double[_aadChunk.length][];
+		for (int c = 0; c < data.length; c++) {
+			data[c] = new double[chunkLength(c)];
+			KERNELS.addScalar(_aadChunk[c], 0, d, data[c], 0, data[c].length);
+		}
+		return hashed(_nLength, data);
+	}
+
+	/** Returns the array with every element multiplied by d (zero chunks stay shared when d is
+	 *  finite and not negative)
+	 *
+	 * @param d
+	 * @return new array
+	 */
+
+	ChunkedArray scalarMult(double d) {
+
+		boolean keepZero = (d > 0.0 && d < Double.POSITIVE_INFINITY) || Double.doubleToRawLongBits(d) == 0L; // 0 * d is +0.0
+		double[][] data = new double[_aadChunk.length][];
+		for (int c = 0; c < data.length; c++) {
+			if (_aadChunk[c] == ZERO && keepZero) {
+				data[c] = ZERO;
+			}
+			else {
+				data[c] = new double[chunkLength(c)];
+				KERNELS.multScalar(_aadChunk[c], 0, d, data[c], 0, data[c].length);
+			}
+		}
+		return hashed(_nLength, data);
+	}
+
+	/** Returns the elementwise sum of this array and b (same length); where either chunk is the zero
+	 *  chunk, the other one is shared with its hash instead of being added (so a -0.0 there stays
+	 *  -0.0 rather than becoming 0.0, which compares == to it)
+	 *
+	 * @param b
+	 * @return new array
+	 */
+
+	ChunkedArray add(ChunkedArray b) {
+
+		double[][] data = new double[_aadChunk.length][];
+		int[] chunkHash = new int[data.length];
+		int hash = 0;
+		for (int c = 0; c < data.length; c++) {
+			if (b._aadChunk[c] == ZERO) {
+				data[c] = _aadChunk[c];
+				chunkHash[c] = _anChunkHash[c];
+			}
+			else if (_aadChunk[c] == ZERO) {
+				data[c] = b._aadChunk[c];
+				chunkHash[c] = b._anChunkHash[c];
+			}
+			else {
+				data[c] = new double[chunkLength(c)];
+				KERNELS.add(_aadChunk[c], 0, b._aadChunk[c], 0, data[c], 0, data[c].length);
+				chunkHash[c] = chunkHash(_nLength, c, data[c]);
+			}
+			hash += chunkHash[c];
+		}
+		return new ChunkedArray(_nLength, data, chunkHash, hash);
+	}
+
+	/** Copies the elements to dst[off + i * stride] for i in [0, length)
+	 *
+	 * @param dst
+	 * @param off
+	 * @param stride
+	 */
+
+	void copyTo(double[] dst, int off, int stride) {
+
+		for (int c = 0; c < _aadChunk.length; c++) {
+			int base = c * CHUNK, len = chunkLength(c);
+			if (stride == 1) {
+				System.arraycopy(_aadChunk[c], 0, dst, off + base, len);
+			}
+			else {
+				for (int k = 0; k < len; k++) {
+					dst[off + (base + k) * stride] = _aadChunk[c][k];
+				}
+			}
+		}
+	}
+
+	/** Returns whether b has the same length and elements (NaN equal to NaN)
+	 *
+	 * @param b
+	 * @return equal
+	 */
+
+	boolean contentEquals(ChunkedArray b) {
+
+		if (this == b) {
+			return true;
+		}
+		if (_nLength != b._nLength || _nHash != b._nHash) {
+			return false; // equal contents always have equal hashes
+		}
+		for (int c = 0; c < _aadChunk.length; c++) {
+			double[] x = _aadChunk[c], y = b._aadChunk[c];
+			if (x == y) {
+				continue; // shared chunk
+			}
+			if (_anChunkHash[c] != b._anChunkHash[c]) {
+				return false;
+			}
+			for (int k = 0, len = chunkLength(c); k < len; k++) {
+				if (x[k] != y[k] && !(Double.isNaN(x[k]) && Double.isNaN(y[k]))) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private int chunkLength(int c) {
+		return Math.min(CHUNK, _nLength - c * CHUNK);
+	}
+
+	private static int chunkHash(int length, int c, double[] chunk) {
+		int h = 0;
+		for (int k = 0, base = c * CHUNK, len = Math.min(CHUNK, length - base); k < len; k++) {
+			h += hashElement(base + k, chunk[k]);
+		}
+		return h;
+	}
+
+	/** Wraps chunks whose hashes are not known yet (the only full scan, done once per new array) */
+	private static ChunkedArray hashed(int length, double[][] data) {
+		int[] chunkHash = new int[data.length];
+		int hash = 0;
+		for (int c = 0; c < data.length; c++) {
+			chunkHash[c] = chunkHash(length, c, data[c]);
+			hash += chunkHash[c];
+		}
+		return new ChunkedArray(length, data, chunkHash, hash);
+	}
+}
@@ -0,0 +1,494 @@
+package linalg;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*** A vector that many threads can update at once without a global lock, e.g. parameters shared
+ *   by trainer threads, with consistent snapshots into ordinary Vectors.
+ *
+ *   Updates come in two modes.  ATOMIC never loses an add: the elements are split into stripes
+ *   of STRIPE consecutive elements, each with its own lock, and an update adds to one stripe at
+ *   a time with the SIMD kernels, so threads contend only while they are in the same stripe
+ *   (threads sweeping the whole vector follow each other through the stripes).  There is no lock
+ *   over the whole vector: a single-element add touches only its stripe's lock.  A
+ *   compare-and-set per element was tried instead and cost about 11 ns per element even
+ *   uncontended, several times the whole vector add under a single lock.  HOGWILD adds with
+ *   plain (SIMD) loads and stores and takes no lock at all, as in Hogwild! SGD: it is cheaper
+ *   still, but when two threads add to the same element at the same moment one of the adds can
+ *   be lost, which sparse or noisy updates tolerate.  Reads of single elements take no lock:
+ *   they go through a VarHandle with opaque access, so a value is never torn.
+ *
+ *   For many small updates, each thread can accumulate into its own Delta (an unsynchronized
+ *   private buffer) and flush it into the vector every so often, so the shared storage is
+ *   touched once per flush instead of once per update.
+ *
+ *   snapshot() copies the vector stripe by stripe, and every ATOMIC vector operation (and Delta
+ *   flush) is either entirely in the copy or not at all.  Updates and snapshots move through the
+ *   stripes in increasing order with lock coupling: they lock the next stripe before unlocking
+ *   the current one, so neither can overtake the other.  An update ahead of the snapshot is
+ *   finished in every stripe before the snapshot copies it, and one behind it reaches no stripe
+ *   before the snapshot has copied it.  A snapshot holds at most two stripes at a time, so
+ *   updates elsewhere in the vector go on while it copies.  HOGWILD updates bypass the locks, so
+ *   a snapshot may see part of one (best effort).
+ *
+ *   Example:
+ *
+ *   	ConcurrentVector w = new ConcurrentVector(dim);
+ *   	// in each trainer thread:
+ *   	ConcurrentVector.Delta delta = w.newDelta(64); // flushes itself every 64 updates
+ *   	delta.scaledAddInPlace(-rate, gradient);
+ *   	...
+ *   	delta.flush();
+ *   	// anywhere:
+ *   	Vector current = w.snapshot();
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class ConcurrentVector {
+
+	/** How an update is applied to the shared elements
+	 */
+
+	public enum Mode {
+		ATOMIC,  // per-stripe locks: no update is lost
+		HOGWILD  // plain loads and stores: racing adds to one element may be lost
+	}
+
+	static final int STRIPE = 1 << 10; // Elements per stripe lock (8 KB of doubles)
+
+	private static final VarHandle ELEMENT = MethodHandles.arrayElementVarHandle(double[].class);
+	private static final Kernels KERNELS = Kernels.INSTANCE; // SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private final int _nDim;
+	private final double[] _adVal;                      // Shared elements
+	private final ReentrantLock[] _aStripes; // _aStripes[s] guards elements [s * STRIPE, (s + 1) * STRIPE) in ATOMIC mode
+
+	/** Allocates a concurrent vector of dim zeros
+	 *
+	 * @param dim
+	 * @throws LinAlgException if dim is < 1
+	 */
+
+	public ConcurrentVector(int dim) throws LinAlgException {
+
+		if (dim < 1) {
+			throw new LinAlgException("Vector dimension " + dim + " cannot be less than 1");
+		}
+
+		_nDim = dim;
+		_adVal = new double[dim];
+		_aStripes = stripes(dim);
+	}
+
+	/** Creates a concurrent vector holding a copy of v
+	 *
+	 * @param v
+	 */
+
+	public ConcurrentVector(Vector v) {
+
+		_nDim = v.getDim();
+		_adVal = new double[_nDim];
+		_aStripes = stripes(_nDim);
+		for (int i = 0; i < _nDim; i++) {
+			_adVal[i] = v.values()[v.offset() + i * v.stride()];
+		}
+	}
+
+	/** Returns the dimension of the vector
+	 *
+	 * @return _nDim
+	 */
+
+	public int getDim() {
+
+		return _nDim;
+	}
+
+	/** Returns the current value of element index (updates in progress may or may not be included)
+	 *
+	 * @param index
+	 * @return value
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public double get(int index) throws LinAlgException {
+
+		check(index);
+		return (double)ELEMENT.getOpaque(_adVal, index);
+	}
+
+	/** Overwrites element index with val
+	 *
+	 * @param index
+	 * @param val
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public void set(int index, double val) throws LinAlgException {
+
+		check(index);
+		ReentrantLock stripe = _aStripes[index / STRIPE];
+		stripe.lock();
+		try {
+			ELEMENT.setOpaque(_adVal, index, val);
+		} finally {
+			stripe.unlock();
+		}
+	}
+
+	/** Adds d to element index atomically
+	 *
+	 * @param index
+	 * @param d
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public void add(int index, double d) throws LinAlgException {
+
+		add(index, d, Mode.ATOMIC);
+	}
+
+	/** Adds d to element index in the given mode
+	 *
+	 * @param index
+	 * @param d
+	 * @param mode
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public void add(int index, double d, Mode mode) throws LinAlgException {
+
+		check(index);
+		if (mode == Mode.ATOMIC) {
+			ReentrantLock stripe = _aStripes[index / STRIPE];
+			stripe.lock();
+			try {
+				ELEMENT.setOpaque(_adVal, index, _adVal[index] + d);
+			} finally {
+				stripe.unlock();
+			}
+		}
+		else {
+			ELEMENT.setOpaque(_adVal, index, _adVal[index] + d);
+		}
+	}
+
+	/** Adds v to *this* element by element, each element atomically
+	 *
+	 * @param v
+	 * @throws LinAlgException if v does not have the dimension of *this*
+	 */
+
+	public void elementwiseAddInPlace(Vector v) throws LinAlgException {
+
+		scaledAddInPlace(1.0, v, Mode.ATOMIC);
+	}
+
+	/** Adds v to *this* element by element in the given mode
+	 *
+	 * @param v
+	 * @param mode
+	 * @throws LinAlgException if v does not have the dimension of *this*
+	 */
+
+	public void elementwiseAddInPlace(Vector v, Mode mode) throws LinAlgException {
+
+		scaledAddInPlace(1.0, v, mode);
+	}
+
+	/** Adds d times v to *this* (*this* += d * v), each element atomically
+	 *
+	 * @param d
+	 * @param v
+	 * @throws LinAlgException if v does not have the dimension of *this*
+	 */
+
+	public void scaledAddInPlace(double d, Vector v) throws LinAlgException {
+
+		scaledAddInPlace(d, v, Mode.ATOMIC);
+	}
+
+	/** Adds d times v to *this* (*this* += d * v) in the given mode
+	 *
+	 * @param d
+	 * @param v
+	 * @param mode
+	 * @throws LinAlgException if v does not have the dimension of *this*
+	 */
+
+	public void scaledAddInPlace(double d, Vector v, Mode mode) throws LinAlgException {
+
+		if (v.getDim() != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+
+		double[] x = v.values();
+		int off = v.offset(), stride = v.stride();
+		if (mode == Mode.ATOMIC) {
+			int last = _aStripes.length - 1;
+			ReentrantLock held = _aStripes[0];
+			held.lock();
+			try {
+				for (int s = 0; ; s++) {
+					int lo = s * STRIPE;
+					axpy(d, x, off + lo * stride, stride, _adVal, lo, Math.min(STRIPE, _nDim - lo));
+					if (s == last) {
+						break;
+					}
+					ReentrantLock next = _aStripes[s + 1];
+					next.lock(); // before letting go of stripe s, so no snapshot gets between
+					held.unlock();
+					held = next;
+				}
+			} finally {
+				held.unlock();
+			}
+		}
+		else {
+			axpy(d, x, off, stride, _adVal, 0, _nDim);
+		}
+	}
+
+	/** Returns a copy of the vector in which every ATOMIC update is entirely or not at all
+	 *
+	 * @return snapshot
+	 * @throws LinAlgException never in practice (the dimension is at least 1)
+	 */
+
+	public Vector snapshot() throws LinAlgException {
+
+		Vector out = new Vector(_nDim);
+		snapshot(out);
+		return out;
+	}
+
+	/** Copies the vector into out, every ATOMIC update entirely or not at all (nothing is allocated)
+	 *
+	 * @param out
+	 * @throws LinAlgException if out does not have the dimension of *this*
+	 */
+
+	public void snapshot(Vector out) throws LinAlgException {
+
+		if (out.getDim() != _nDim) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the dimension " + _nDim);
+		}
+
+		double[] o = out.values();
+		int off = out.offset(), stride = out.stride();
+		int last = _aStripes.length - 1;
+		ReentrantLock held = _aStripes[0];
+		held.lock();
+		try {
+			for (int s = 0; ; s++) {
+				int lo = s * STRIPE, hi = Math.min(lo + STRIPE, _nDim);
+				if (stride == 1) {
+					System.arraycopy(_adVal, lo, o, off + lo, hi - lo);
+				}
+				else {
+					for (int i = lo; i < hi; i++) {
+						o[off + i * stride] = _adVal[i];
+					}
+				}
+				if (s == last) {
+					break;
+				}
+				ReentrantLock next = _aStripes[s + 1];
+				next.lock(); // lock coupling, as in the updates: an update cannot pass the snapshot
+				held.unlock();
+				held = next;
+			}
+		} finally {
+			held.unlock();
+		}
+	}
+
+	/** Returns a new private update buffer for the calling thread that is only flushed explicitly
+	 *
+	 * @return delta
+	 */
+
+	public Delta newDelta() {
+
+		return new Delta(this, 0);
+	}
+
+	/** Returns a new private update buffer for the calling thread that flushes itself after every
+	 *  flushEvery updates
+	 *
+	 * @param flushEvery
+	 * @return delta
+	 * @throws LinAlgException if flushEvery is < 1
+	 */
+
+	public Delta newDelta(int flushEvery) throws LinAlgException {
+
+		if (flushEvery < 1) {
+			throw new LinAlgException("Flush interval " + flushEvery + " cannot be less than 1");
+		}
+
+		return new Delta(this, flushEvery);
+	}
+
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < _nDim; i++) {
+			sb.append(String.format(" %6.3f ", (double)ELEMENT.getOpaque(_adVal, i)));
+		}
+		return sb.append("]").toString();
+	}
+
+	private static ReentrantLock[] stripes(int dim) {
+		ReentrantLock[] stripes = new ReentrantLock[(dim + STRIPE - 1) / STRIPE];
+		for (int s = 0; s < stripes.length; s++) {
+			stripes[s] = new ReentrantLock();
+		}
+		return stripes;
+	}
+
+	/** y[yOff .. yOff+len) += alpha * x[xOff + k * xStride] */
+	private static void axpy(double alpha, double[] x, int xOff, int xStride, double[] y, int yOff, int len) {
+		if (xStride == 1) {
+			KERNELS.axpy(alpha, x, xOff, y, yOff, len);
+		}
+		else {
+			for (int k = 0; k < len; k++) {
+				y[yOff + k] += alpha * x[xOff + k * xStride];
+			}
+		}
+	}
+
+	private void check(int index) throws LinAlgException {
+		if (index < 0 || index >= _nDim) {
+			throw new LinAlgException("Index " + index + " is out of bounds");
+		}
+	}
+
+	/** A private buffer of updates to a ConcurrentVector: updates go to a plain local array (no
+	 *  locks) and flush() adds the pending sum to the vector in ATOMIC mode, as one update.  Only
+	 *  the elements between the lowest and highest index touched since the last flush are merged,
+	 *  so sparse updates flush cheaply.
+	 *
+	 *  A Delta is not thread-safe: each thread uses its own.
+	 */
+
+	public static final class Delta {
+
+		private final ConcurrentVector _target;
+		private final double[] _adDelta;  // Pending sum of the updates
+		private final int _nFlushEvery;   // Updates between automatic flushes (0: only explicit ones)
+		private int _nUpdates;            // Updates since the last flush
+		private int _nLo, _nHi;           // Touched range [_nLo, _nHi), empty when _nLo >= _nHi
+
+		Delta(ConcurrentVector target, int flushEvery) {
+			_target = target;
+			_adDelta = new double[target._nDim];
+			_nFlushEvery = flushEvery;
+			_nLo = target._nDim;
+			_nHi = 0;
+		}
+
+		/** Returns the number of updates since the last flush
+		 *
+		 * @return updates
+		 */
+
+		public int getPending() {
+
+			return _nUpdates;
+		}
+
+		/** Adds d to element index of the buffer
+		 *
+		 * @param index
+		 * @param d
+		 * @throws LinAlgException if index is out of bounds
+		 */
+
+		public void add(int index, double d) throws LinAlgException {
+
+			_target.check(index);
+			_adDelta[index] += d;
+			_nLo = Math.min(_nLo, index);
+			_nHi = Math.max(_nHi, index + 1);
+			updated();
+		}
+
+		/** Adds v to the buffer element by element
+		 *
+		 * @param v
+		 * @throws LinAlgException if v does not have the dimension of the vector
+		 */
+
+		public void elementwiseAddInPlace(Vector v) throws LinAlgException {
+
+			scaledAddInPlace(1.0, v);
+		}
+
+		/** Adds d times v to the buffer
+		 *
+		 * @param d
+		 * @param v
+		 * @throws LinAlgException if v does not have the dimension of the vector
+		 */
+
+		public void scaledAddInPlace(double d, Vector v) throws LinAlgException {
+
+			int dim = _adDelta.length;
+			if (v.getDim() != dim) {
+				throw new LinAlgException("The dimensions of the two vectors have to match");
+			}
+
+			axpy(d, v.values(), v.offset(), v.stride(), _adDelta, 0, dim);
+			_nLo = 0;
+			_nHi = dim;
+			updated();
+		}
+
+		/** Adds the pending updates to the vector (in ATOMIC mode) and clears the buffer
+		 */
+
+		public void flush() {
+
+			if (_nLo < _nHi) {
+				double[] val = _target._adVal;
+				ReentrantLock[] stripes = _target._aStripes;
+				int s = _nLo / STRIPE, last = (_nHi - 1) / STRIPE;
+				ReentrantLock held = stripes[s];
+				held.lock();
+				try {
+					for (int lo = _nLo; ; s++) { // lock coupling over the touched stripes, as in scaledAddInPlace
+						int hi = Math.min((s + 1) * STRIPE, _nHi);
+						KERNELS.add(val, lo, _adDelta, lo, val, lo, hi - lo);
+						if (s == last) {
+							break;
+						}
+						ReentrantLock next = stripes[s + 1];
+						next.lock();
+						held.unlock();
+						held = next;
+						lo = hi;
+					}
+				} finally {
+					held.unlock();
+				}
+				Arrays.fill(_adDelta, _nLo, _nHi, 0.0);
+			}
+			_nLo = _adDelta.length;
+			_nHi = 0;
+			_nUpdates = 0;
+		}
+
+		private void updated() {
+			if (++_nUpdates == _nFlushEvery) {
+				flush();
+			}
+		}
+	}
+}
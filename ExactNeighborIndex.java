@@ -0,0 +1,176 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*** Exact maximum inner product search over a VectorBatch: every stored vector is scored and the
+ *   k best are kept, so the result is what sorting all InnerProd values would give (ties going to
+ *   the smaller id), without the sort.
+ *
+ *   The stored vectors are scanned in blocks of BLOCK rows.  For a single query a block is scored
+ *   by one GEMV; for a batch of queries, up to QUERY_BLOCK queries are scored against a block by
+ *   one GEMM (queries * block^T), so every stored vector is read once per QUERY_BLOCK queries
+ *   instead of once per query.  Each block's scores go into a bounded min-heap (TopK) per query,
+ *   which rejects a score that cannot make the top k with one comparison.
+ *
+ *   The rows are split into partitions that run on the default pool from Parallelism, each with
+ *   its own heaps, which are merged at the end; the heap order is total, so the result does not
+ *   depend on the number of threads.
+ *
+ *   The batch is not copied: later changes to it are seen by later searches.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class ExactNeighborIndex implements NeighborIndex {
+
+	static final int BLOCK = 512;        // Stored vectors scored per GEMM or GEMV
+	static final int QUERY_BLOCK = 256; // Queries scored together per GEMM
+
+	private final VectorBatch _batch; // Indexed vectors
+
+	/** Creates an index over the vectors of batch
+	 *
+	 * @param batch
+	 */
+
+	public ExactNeighborIndex(VectorBatch batch) {
+
+		_batch = batch;
+	}
+
+	@Override
+	public int getSize() {
+
+		return _batch.getSize();
+	}
+
+	@Override
+	public int getDim() {
+
+		return _batch.getDim();
+	}
+
+	@Override
+	public Neighbors search(Vector query, int k) throws LinAlgException {
+
+		k = checkQuery(query.getDim(), k);
+		Vector q = query.compact();
+		return search(q.values(), q.offset(), 0, 1, k)[0].toNeighbors();
+	}
+
+	@Override
+	public Neighbors[] search(VectorBatch queries, int k) throws LinAlgException {
+
+		k = checkQuery(queries.getDim(), k);
+		int nq = queries.getSize(), d = getDim();
+		double[] q = queries.matrix().values();
+		Neighbors[] result = new Neighbors[nq];
+		for (int q0 = 0; q0 < nq; q0 += QUERY_BLOCK) {
+			int count = Math.min(QUERY_BLOCK, nq - q0);
+			TopK[] heaps = search(q, q0 * d, d, count, k);
+			for (int i = 0; i < count; i++) {
+				result[q0 + i] = heaps[i].toNeighbors();
+			}
+		}
+		return result;
+	}
+
+	/** Returns the heaps of the nq queries whose rows start at q[qOff] (qRs apart) */
+	private TopK[] search(double[] q, int qOff, int qRs, int nq, int k) {
+
+		ForkJoinPool pool = Parallelism.getPool();
+		Scan scan = new Scan(this, q, qOff, qRs, nq, k, 0, getSize(), Parallelism.getSequentialThreshold());
+		return (pool == null) ? scan.compute() : pool.invoke(scan);
+	}
+
+	/** Offers the scores of rows [rowStart, rowEnd) for the nq queries to their heaps */
+	private void scan(double[] q, int qOff, int qRs, int nq, int rowStart, int rowEnd, TopK[] heaps) {
+
+		int d = getDim();
+		double[] data = _batch.matrix().values();
+		double[] s = Workspace.acquire(nq * Math.min(BLOCK, rowEnd - rowStart));
+		for (int r0 = rowStart; r0 < rowEnd; r0 += BLOCK) {
+			int r = Math.min(BLOCK, rowEnd - r0);
+			if (nq == 1) {
+				Gemm.gemv(data, r0 * d, d, 1, q, qOff, s, 0, d, 0, r);
+			}
+			else {
+				Arrays.fill(s, 0, nq * r, 0.0);
+				Gemm.multiply(q, qOff, qRs, 1, data, r0 * d, 1, d, s, 0, r, d, 0, nq, 0, r); // queries * block^T
+			}
+			for (int i = 0; i < nq; i++) {
+				TopK h = heaps[i];
+				for (int j = 0, base = i * r; j < r; j++) {
+					double score = s[base + j];
+					if (h.accepts(score)) {
+						h.offer(r0 + j, score);
+					}
+				}
+			}
+		}
+		Workspace.release(s);
+	}
+
+	/** Checks a query and returns k capped at the number of indexed vectors, so a large k does not
+	 *  size the heaps */
+	private int checkQuery(int dim, int k) throws LinAlgException {
+
+		if (dim != getDim()) {
+			throw new LinAlgException("Query dimension " + dim + " does not match the index dimension " + getDim());
+		}
+		if (k < 1) {
+			throw new LinAlgException("Number of neighbors " + k + " cannot be less than 1");
+		}
+		return Math.min(k, getSize());
+	}
+
+	/** Scans a range of rows, halving it while it is large, and merges the halves' heaps
+	 */
+
+	private static final class Scan extends RecursiveTask<TopK[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final ExactNeighborIndex _index;
+		private final double[] _adQ;
+		private final int _nQOff, _nQRs, _nQ, _nK;
+		private final int _nRowStart, _nRowEnd;
+		private final long _nThreshold;
+
+		Scan(ExactNeighborIndex index, double[] q, int qOff, int qRs, int nq, int k, int rowStart, int rowEnd, long threshold) {
+			_index = index;
+			_adQ = q;
+			_nQOff = qOff; _nQRs = qRs; _nQ = nq; _nK = k;
+			_nRowStart = rowStart; _nRowEnd = rowEnd;
+			_nThreshold = threshold;
+		}
+
+		@Override
+		protected TopK[] compute() {
+
+			int rows = _nRowEnd - _nRowStart;
+			if (getPool() == null || rows < 2 * BLOCK || (long)rows * _nQ * _index.getDim() < _nThreshold) {
+				TopK[] heaps = new TopK[_nQ];
+				for (int i = 0; i < _nQ; i++) {
+					heaps[i] = new TopK(_nK);
+				}
+				_index.scan(_adQ, _nQOff, _nQRs, _nQ, _nRowStart, _nRowEnd, heaps);
+				return heaps;
+			}
+
+			int mid = _nRowStart + (rows / (2 * BLOCK)) * BLOCK; // split on block boundaries
+			Scan left = new Scan(_index, _adQ, _nQOff, _nQRs, _nQ, _nK, _nRowStart, mid, _nThreshold);
+			Scan right = new Scan(_index, _adQ, _nQOff, _nQRs, _nQ, _nK, mid, _nRowEnd, _nThreshold);
+			right.fork();
+			TopK[] heaps = left.compute();
+			TopK[] other = right.join();
+			for (int i = 0; i < _nQ; i++) {
+				heaps[i].merge(other[i]);
+			}
+			return heaps;
+		}
+	}
+}
@@ -0,0 +1,177 @@
+package linalg;
+
+import java.util.Arrays;
+
+/*** Mixed-precision GEMM and GEMV kernels for FloatMatrix: operands are stored in single
+ *   precision, but every product and sum is computed in double.
+ *
+ *   The loops are those of Gemm (packed KC x NC panels of B swept by the four-row micro-kernel),
+ *   with B widened to double as it is packed and A widened as it is read.  C is accumulated in
+ *   an MC x NC double block that starts from the entries of C and is rounded back to float once,
+ *   after the last k block, so C(i, j) is C(i, j) + A(i, 0)*B(0, j) + A(i, 1)*B(1, j) + ...
+ *   summed in double in increasing k order, like Gemm on the widened operands, and then rounded
+ *   to float.  Since the product of two floats is exact in double, only the sums and the final
+ *   rounding lose precision.
+ *
+ *   Compared with Gemm this halves the memory for the operands and the traffic for reading them;
+ *   the arithmetic runs at double speed.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class FloatGemm {
+
+	static final int MC = 128; // Rows of C accumulated in double at a time (an MC x NC block is 256 KB)
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // scalar or SIMD inner loops
+
+	private FloatGemm() {} // static kernels only
+
+	/** Computes the tile rows [rowStart, rowEnd) x columns [colStart, colEnd) of C += A * B for
+	 *  strided single-precision operands: A(i, k) is a[aOff + i*aRs + k*aCs], B(k, j) is
+	 *  b[bOff + k*bRs + j*bCs] and C(i, j) is c[cOff + i*cRs + j*cCs]; tiles are independent so
+	 *  they may run concurrently
+	 *
+	 * @param a
+	 * @param aOff
+	 * @param aRs
+	 * @param aCs
+	 * @param b
+	 * @param bOff
+	 * @param bRs
+	 * @param bCs
+	 * @param c
+	 * @param cOff
+	 * @param cRs
+	 * @param cCs
+	 * @param n
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param colStart
+	 * @param colEnd
+	 */
+
+	static void multiply(float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs, int bCs,
+			float[] c, int cOff, int cRs, int cCs, int n, int rowStart, int rowEnd, int colStart, int colEnd) {
+
+		int ncMax = Math.min(Gemm.NC, colEnd - colStart);
+		double[] packB = Workspace.acquire(Math.min(Gemm.KC, n) * ncMax);
+		double[] acc = Workspace.acquire(Math.min(MC, rowEnd - rowStart) * ncMax);
+
+		for (int jj = colStart; jj < colEnd; jj += Gemm.NC) {
+			int nc = Math.min(Gemm.NC, colEnd - jj);
+			for (int ii = rowStart; ii < rowEnd; ii += MC) {
+				int mc = Math.min(MC, rowEnd - ii);
+				for (int i = 0; i < mc; i++) { // start from C, so that C += A * B is summed in double too
+					int src = cOff + (ii + i) * cRs + jj * cCs;
+					for (int j = 0; j < nc; j++) {
+						acc[i * nc + j] = c[src + j * cCs];
+					}
+				}
+				for (int kk = 0; kk < n; kk += Gemm.KC) { // k blocks in increasing order keep the summation order intact
+					int kc = Math.min(Gemm.KC, n - kk);
+					packPanel(b, bOff, bRs, bCs, kk, kc, jj, nc, packB);
+					macroKernel(a, aOff, aRs, aCs, ii, mc, kk, kc, packB, nc, acc);
+				}
+				for (int i = 0; i < mc; i++) {
+					int dst = cOff + (ii + i) * cRs + jj * cCs;
+					for (int j = 0; j < nc; j++) {
+						c[dst + j * cCs] = (float)acc[i * nc + j];
+					}
+				}
+			}
+		}
+		Workspace.release(acc);
+		Workspace.release(packB);
+	}
+
+	/** Computes rows [rowStart, rowEnd) of y = A * x for a single-precision A (strided as in
+	 *  multiply) and double x and y, x(k) at x[xOff + k] and y(i) at y[yOff + i]; as Gemm.gemv, a
+	 *  dot product per row when rows of A are contiguous and a column sweep when columns are
+	 *
+	 * @param a
+	 * @param aOff
+	 * @param aRs
+	 * @param aCs
+	 * @param x
+	 * @param xOff
+	 * @param y
+	 * @param yOff
+	 * @param n
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+
+	static void gemv(float[] a, int aOff, int aRs, int aCs, double[] x, int xOff, double[] y, int yOff,
+			int n, int rowStart, int rowEnd) {
+
+		if (aCs == 1) {
+			for (int i = rowStart; i < rowEnd; i++) {
+				y[yOff + i] = KERNELS.dot(a, aOff + i * aRs, x, xOff, n);
+			}
+		}
+		else if (aRs == 1) {
+			int len = rowEnd - rowStart;
+			Arrays.fill(y, yOff + rowStart, yOff + rowEnd, 0.0);
+			for (int k = 0; k < n; k++) {
+				KERNELS.axpy(x[xOff + k], a, aOff + k * aCs + rowStart, y, yOff + rowStart, len);
+			}
+		}
+		else {
+			for (int i = rowStart; i < rowEnd; i++) {
+				double val = 0.0;
+				for (int k = 0; k < n; k++) {
+					val += a[aOff + i * aRs + k * aCs] * x[xOff + k];
+				}
+				y[yOff + i] = val;
+			}
+		}
+	}
+
+	/** Copies the kc x nc block of B starting at (kk, jj) into packB, widened to double
+	 */
+
+	private static void packPanel(float[] b, int bOff, int bRs, int bCs, int kk, int kc, int jj, int nc, double[] packB) {
+		if (bRs == 1) { // columns of B are contiguous (a transposed view): read down each column
+			for (int j = 0; j < nc; j++) {
+				int src = bOff + (jj + j) * bCs + kk;
+				for (int k = 0; k < kc; k++) {
+					packB[k * nc + j] = b[src + k];
+				}
+			}
+		}
+		else {
+			for (int k = 0; k < kc; k++) {
+				int src = bOff + (kk + k) * bRs + jj * bCs;
+				for (int j = 0; j < nc; j++) {
+					packB[k * nc + j] = b[src + j * bCs];
+				}
+			}
+		}
+	}
+
+	/** Multiplies rows [ii, ii + mc) and columns [kk, kk + kc) of A by the packed B panel and
+	 *  accumulates into the mc x nc double block acc
+	 */
+
+	private static void macroKernel(float[] a, int aOff, int aRs, int aCs, int ii, int mc, int kk, int kc,
+			double[] packB, int nc, double[] acc) {
+
+		int i = 0;
+		for (; i + Gemm.MR <= mc; i += Gemm.MR) {
+			int a0 = aOff + (ii + i) * aRs + kk * aCs, a1 = a0 + aRs, a2 = a1 + aRs, a3 = a2 + aRs;
+			int c0 = i * nc;
+			for (int k = 0, ak = 0; k < kc; k++, ak += aCs) {
+				KERNELS.axpy4(a[a0 + ak], a[a1 + ak], a[a2 + ak], a[a3 + ak], packB, k * nc, acc, c0, c0 + nc, c0 + 2 * nc, c0 + 3 * nc, nc);
+			}
+		}
+
+		for (; i < mc; i++) {
+			int a0 = aOff + (ii + i) * aRs + kk * aCs;
+			for (int k = 0, ak = 0; k < kc; k++, ak += aCs) {
+				KERNELS.axpy(a[a0 + ak], packB, k * nc, acc, i * nc, nc);
+			}
+		}
+	}
+}
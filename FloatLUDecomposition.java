@@ -0,0 +1,195 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*** LU factorization with partial pivoting of a square FloatMatrix, PA = LU, with the factors
+ *   stored in single precision; made by FloatMatrix.lu().
+ *
+ *   The algorithm is that of LUDecomposition (unblocked panels of BLOCK columns, then one trailing
+ *   update A22 -= L21 * U12), but on a float array with the single-precision axpy kernel, and with
+ *   the trailing product going through the mixed-precision FloatGemm, so factoring takes half the
+ *   memory and traffic of the double factorization.  solve reads the float factors but substitutes
+ *   in double: each row is a dot product of float factors with the double solution so far.
+ *
+ *   The factors are exact only for the float-rounded matrix, so a solve is accurate to about
+ *   cond(A) times float epsilon.  It is meant as the inner solver of IterativeSolver.refine, which
+ *   computes the residual against the original double matrix and recovers double accuracy:
+ *
+ *   	LinearOperator m = IterativeSolver.Inverse(new FloatMatrix(a).lu());
+ *   	new IterativeSolver().setPreconditioner(m).refine(a, b, x);
+ *
+ *   A zero pivot marks the matrix singular and solve throws, as in LUDecomposition.  A
+ *   factorization is not changed by solve, so it can be shared between threads.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class FloatLUDecomposition {
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private final int _nN;            // Dimension of the factored matrix
+	private final float[] _afLU;      // L below the diagonal and U on and above it, row-major n x n
+	private final int[] _anPerm;      // Row i of PA is row _anPerm[i] of A
+	private final boolean _bSingular; // Whether some pivot was exactly zero
+
+	/** Factors the square matrix m (m is copied, not changed); called through FloatMatrix.lu()
+	 *
+	 * @param m
+	 */
+
+	FloatLUDecomposition(FloatMatrix m) {
+
+		int n = m.getNumRows();
+		_nN = n;
+		_afLU = new FloatMatrix(m).values(); // a compact row-major copy, also of a view
+		_anPerm = new int[n];
+		for (int i = 0; i < n; i++) {
+			_anPerm[i] = i;
+		}
+
+		float[] lu = _afLU;
+		boolean singular = false;
+		ForkJoinPool pool = Parallelism.getPool();
+		for (int k0 = 0; k0 < n; k0 += LUDecomposition.BLOCK) {
+			int k1 = Math.min(k0 + LUDecomposition.BLOCK, n);
+
+			for (int j = k0; j < k1; j++) { // unblocked factorization of the panel, columns [k0, k1)
+				int piv = j;
+				float max = Math.abs(lu[j * n + j]);
+				for (int i = j + 1; i < n; i++) {
+					float v = Math.abs(lu[i * n + j]);
+					if (v > max) {
+						max = v;
+						piv = i;
+					}
+				}
+				if (piv != j) {
+					swapRows(lu, n, j, piv);
+					int t = _anPerm[j]; _anPerm[j] = _anPerm[piv]; _anPerm[piv] = t;
+				}
+				float d = lu[j * n + j];
+				if (d == 0f) {
+					singular = true;
+					continue;
+				}
+				for (int i = j + 1; i < n; i++) {
+					float l = lu[i * n + j] / d;
+					lu[i * n + j] = l;
+					if (l != 0f) {
+						KERNELS.axpy(-l, lu, j * n + j + 1, lu, i * n + j + 1, k1 - j - 1);
+					}
+				}
+			}
+			if (k1 == n) {
+				break;
+			}
+
+			int rest = n - k1, kb = k1 - k0;
+			for (int i = k0 + 1; i < k1; i++) { // U12 = L11^-1 A12, row by row
+				for (int j = k0; j < i; j++) {
+					float l = lu[i * n + j];
+					if (l != 0f) {
+						KERNELS.axpy(-l, lu, j * n + k1, lu, i * n + k1, rest);
+					}
+				}
+			}
+
+			// A22 -= L21 * U12, as A22 += (-L21) * U12 since the kernel accumulates
+			float[] l21 = new float[rest * kb];
+			for (int i = 0; i < rest; i++) {
+				for (int j = 0; j < kb; j++) {
+					l21[i * kb + j] = -lu[(k1 + i) * n + k0 + j];
+				}
+			}
+			ParallelKernels.multiply(l21, 0, kb, 1, lu, k0 * n + k1, n, 1,
+					lu, k1 * n + k1, n, 1, rest, kb, rest, pool);
+		}
+		_bSingular = singular;
+	}
+
+	/** Returns the dimension of the factored matrix
+	 *
+	 * @return _nN
+	 */
+
+	public int getDim() {
+		return _nN;
+	}
+
+	/** Returns whether the factored matrix is singular (some pivot was exactly zero)
+	 *
+	 * @return _bSingular
+	 */
+
+	public boolean isSingular() {
+		return _bSingular;
+	}
+
+	/** Returns the solution x of A x = b (to about cond(A) times float epsilon)
+	 *
+	 * @param b
+	 * @return x
+	 * @throws LinAlgException if the dimension of b does not match or the matrix is singular
+	 */
+
+	public Vector solve(Vector b) throws LinAlgException {
+
+		Vector x = new Vector(_nN);
+		solve(b, x);
+		return x;
+	}
+
+	/** Writes the solution x of A x = b into out instead of a new Vector (apart from a Workspace
+	 *  buffer when out is a strided view, nothing is allocated)
+	 *
+	 * @param b
+	 * @param out
+	 * @throws LinAlgException if b or out does not have the matrix dimension, out shares storage with b, or the matrix is singular
+	 */
+
+	public void solve(Vector b, Vector out) throws LinAlgException {
+
+		int n = _nN;
+		if (b.getDim() != n) {
+			throw new LinAlgException("Dimension " + b.getDim() + " of the right-hand side does not match the matrix dimension " + n);
+		}
+		if (out.getDim() != n) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the matrix dimension " + n);
+		}
+		if (out.values() == b.values()) { // the permutation reads b after out has been partly written
+			throw new LinAlgException("Output vector cannot share storage with the right-hand side");
+		}
+		if (_bSingular) {
+			throw new LinAlgException("Matrix is singular");
+		}
+
+		boolean unit = out.stride() == 1;
+		double[] xv = unit ? out.values() : Workspace.acquire(n), bv = b.values();
+		int xOff = unit ? out.offset() : 0, bOff = b.offset(), bs = b.stride();
+		float[] lu = _afLU;
+		for (int i = 0; i < n; i++) {
+			xv[xOff + i] = bv[bOff + _anPerm[i] * bs];
+		}
+		for (int i = 1; i < n; i++) { // L y = P b
+			xv[xOff + i] -= KERNELS.dot(lu, i * n, xv, xOff, i);
+		}
+		for (int i = n - 1; i >= 0; i--) { // U x = y
+			xv[xOff + i] = (xv[xOff + i] - KERNELS.dot(lu, i * n + i + 1, xv, xOff + i + 1, n - i - 1)) / lu[i * n + i];
+		}
+		if (!unit) {
+			double[] ov = out.values();
+			for (int i = 0; i < n; i++) {
+				ov[out.offset() + i * out.stride()] = xv[i];
+			}
+			Workspace.release(xv);
+		}
+	}
+
+	private static void swapRows(float[] a, int n, int i, int j) {
+		for (int c = 0, p = i * n, q = j * n; c < n; c++, p++, q++) {
+			float t = a[p]; a[p] = a[q]; a[q] = t;
+		}
+	}
+}
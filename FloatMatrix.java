@@ -0,0 +1,612 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*** A two dimensional real-valued matrix stored in single precision (float): the counterpart of
+ *   Matrix with half the memory footprint, for data (weights, embeddings) where float is plenty.
+ *
+ *   The methods mirror those of Matrix, including the views.  Multiply is mixed precision: the
+ *   operands are read as floats but every product and sum is computed in double (FloatGemm), and
+ *   the result is rounded to float once, so a long inner dimension does not lose the accuracy a
+ *   float accumulator would.  Multiply(FloatMatrix, Vector) keeps the double vector and result,
+ *   which also makes a FloatMatrix a LinearOperator: the iterative solvers can run on it and read
+ *   half the bytes per iteration.
+ *
+ *   new FloatMatrix(Matrix) and toMatrix() convert between the precisions.  lu() factors in single
+ *   precision; its solves are the approximate solver IterativeSolver.refine corrects to double
+ *   accuracy against the original double matrix.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public class FloatMatrix implements LinearOperator {
+
+	private int _nRows;      // Number of rows in this matrix
+	private int _nCols;      // Number of columns in this matrix
+	private float[] _afData; // Contents stored row-major: element (row, col) at _nOff + row*_nRowStride + col*_nColStride
+	private int _nOff;       // Position of element (0, 0) in _afData (0 unless this is a view)
+	private int _nRowStride; // Distance in _afData between rows (_nCols unless this is a view)
+	private int _nColStride; // Distance in _afData between columns (1 unless this is a view)
+	private boolean _bView;  // Whether _afData belongs to another FloatMatrix this is a view of
+
+	/** Allocates a new matrix of the given row and column dimensions
+	 *
+	 * @param row
+	 * @param col
+	 * @throws LinAlgException if either row or col is <= 0, or row * col is too large for one array
+	 */
+
+	public FloatMatrix(int row, int col) throws LinAlgException {
+
+		if (row < 1 || col < 1) {
+			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+		}
+		if ((long)row * col > Integer.MAX_VALUE - 8) { // row * col would overflow an int (or exceed the largest array)
+			throw new LinAlgException("Matrix of " + row + " x " + col + " is too large");
+		}
+
+		_nRows = row;
+		_nCols = col;
+		_afData = new float[row * col];
+		_nRowStride = col;
+		_nColStride = 1;
+	}
+
+	/** View constructor: a rows x cols FloatMatrix that shares data with its owner (private: views
+	 *  are made by the get*View methods)
+	 *
+	 * @param data
+	 * @param off
+	 * @param rowStride
+	 * @param colStride
+	 * @param rows
+	 * @param cols
+	 */
+
+	private FloatMatrix(float[] data, int off, int rowStride, int colStride, int rows, int cols) {
+
+		_nRows = rows;
+		_nCols = cols;
+		_afData = data;
+		_nOff = off;
+		_nRowStride = rowStride;
+		_nColStride = colStride;
+		_bView = true;
+	}
+
+	/** Copy constructor: makes a new copy of an existing FloatMatrix m (the copy of a view is an
+	 *  ordinary FloatMatrix)
+	 *
+	 * @param m
+	 */
+
+	public FloatMatrix(FloatMatrix m) {
+
+		_nRows = m._nRows;
+		_nCols = m._nCols;
+		_afData = new float[_nRows * _nCols]; // no overflow: m passed the size check of its constructor
+		_nRowStride = _nCols;
+		_nColStride = 1;
+
+		if (m._nColStride == 1 && m._nRowStride == m._nCols) {
+			System.arraycopy(m._afData, m._nOff, _afData, 0, _afData.length);
+		}
+		else {
+			for (int i = 0; i < _nRows; i++) {
+				for (int j = 0; j < _nCols; j++) {
+					_afData[i * _nCols + j] = m._afData[m.index(i, j)];
+				}
+			}
+		}
+	}
+
+	/** Conversion constructor: a single-precision copy of the Matrix m (each element is rounded to
+	 *  the nearest float)
+	 *
+	 * @param m
+	 */
+
+	public FloatMatrix(Matrix m) {
+
+		_nRows = m.getNumRows();
+		_nCols = m.getNumCols();
+		_afData = new float[_nRows * _nCols]; // no overflow: m passed the size check in Matrix(int, int)
+		_nRowStride = _nCols;
+		_nColStride = 1;
+
+		double[] data = m.values();
+		for (int i = 0; i < _nRows; i++) {
+			int src = m.offset() + i * m.rowStride();
+			for (int j = 0; j < _nCols; j++) {
+				_afData[i * _nCols + j] = (float)data[src + j * m.colStride()];
+			}
+		}
+	}
+
+	/** Returns a double-precision copy of *this* (exact: every float is a double)
+	 *
+	 * @return matrix
+	 * @throws LinAlgException never in practice (the dimensions are at least 1)
+	 */
+
+	public Matrix toMatrix() throws LinAlgException {
+
+		Matrix m = new Matrix(_nRows, _nCols);
+		double[] data = m.values();
+		for (int i = 0; i < _nRows; i++) {
+			for (int j = 0; j < _nCols; j++) {
+				data[i * _nCols + j] = _afData[index(i, j)];
+			}
+		}
+		return m;
+	}
+
+	/** Constructs a String representation of this FloatMatrix
+	 */
+
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < _nRows; i++) {
+			sb.append("[");
+			for (int j = 0; j < _nCols; j++) {
+				sb.append(String.format(" %6.3f ", _afData[index(i, j)]));
+			}
+			sb.append(" ]\n");
+		}
+		return sb.toString();
+	}
+
+	/** Two FloatMatrix objects are equal iff they have the same dimensions and all elements match
+	 *
+	 * @param o the object to compare to
+	 */
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (o instanceof FloatMatrix) {
+			FloatMatrix m = (FloatMatrix)o;
+			if ((_nRows != m._nRows) || (_nCols != m._nCols)) {
+				return false;
+			}
+
+			for (int i = 0; i < _nRows; i++) {
+				for (int j = 0; j < _nCols; j++) {
+					if (_afData[index(i, j)] != m._afData[m.index(i, j)]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	/** Returns a hash of the dimensions and values, consistent with equals (0.0f and -0.0f hash
+	 *  alike, views hash like their copies); it equals the hashCode of toMatrix()
+	 *
+	 */
+
+	@Override
+	public int hashCode() {
+
+		int hash = 31 * (31 * _nRows + _nCols);
+		for (int i = 0; i < _nRows; i++) {
+			for (int j = 0; j < _nCols; j++) {
+				hash += ChunkedArray.hashElement(i * _nCols + j, _afData[index(i, j)]);
+			}
+		}
+		return hash;
+	}
+
+	/** Returns the backing array of this matrix (package-private, as Matrix.values); element
+	 *  (row, col) is at offset() + row * rowStride() + col * colStride()
+	 *
+	 * @return _afData
+	 */
+
+	float[] values() {
+
+		return _afData;
+	}
+
+	/** Returns the index of element (0, 0) in values()
+	 *
+	 * @return _nOff
+	 */
+
+	int offset() {
+
+		return _nOff;
+	}
+
+	/** Returns the distance in values() between consecutive rows
+	 *
+	 * @return _nRowStride
+	 */
+
+	int rowStride() {
+
+		return _nRowStride;
+	}
+
+	/** Returns the distance in values() between consecutive columns
+	 *
+	 * @return _nColStride
+	 */
+
+	int colStride() {
+
+		return _nColStride;
+	}
+
+	/** Returns whether this FloatMatrix shares its storage with another FloatMatrix
+	 *
+	 * @return true for a view
+	 */
+
+	public boolean isView() {
+
+		return _bView;
+	}
+
+	/** Return the number of rows in this matrix
+	 *
+	 * @return _nRows
+	 */
+
+	public int getNumRows() {
+
+		return _nRows;
+	}
+
+	/** Return the number of columns in this matrix
+	 *
+	 * @return _nCols
+	 */
+
+	public int getNumCols() {
+
+		return _nCols;
+	}
+
+	/** Return the scalar value at the given row and column of the matrix
+	 *
+	 * @param row
+	 * @param col
+	 * @return value
+	 * @throws LinAlgException if row or col indices are out of bounds
+	 */
+
+	public float get(int row, int col) throws LinAlgException {
+
+		if (row < 0 || col < 0 || row >= _nRows || col >= _nCols) {
+			throw new LinAlgException("Index requested is out of bounds");
+		}
+
+		return _afData[index(row, col)];
+	}
+
+	/** Set the row and col of this matrix to the provided val
+	 *
+	 * @param row
+	 * @param col
+	 * @param val
+	 * @throws LinAlgException if row or col indices are out of bounds
+	 */
+
+	public void set(int row, int col, float val) throws LinAlgException {
+
+		if (row < 0 || row >= _nRows || col < 0 || col >= _nCols) {
+			throw new LinAlgException("Row or column index is out of bounds");
+		}
+
+		_afData[index(row, col)] = val;
+	}
+
+	/** Return a copy of the provided row
+	 *
+	 * @param row
+	 * @return rowVector
+	 * @throws LinAlgException if row is out of bounds
+	 */
+
+	public FloatVector getRow(int row) throws LinAlgException {
+
+		return new FloatVector(getRowView(row));
+	}
+
+	/** Return a FloatVector view of the provided row (no values are copied)
+	 *
+	 * @param row
+	 * @return view of the row
+	 * @throws LinAlgException if row is out of bounds
+	 */
+
+	public FloatVector getRowView(int row) throws LinAlgException {
+
+		if (row < 0 || row >= _nRows) {
+			throw new LinAlgException("Row requested is out of bounds");
+		}
+
+		return new FloatVector(_afData, _nOff + row * _nRowStride, _nColStride, _nCols);
+	}
+
+	/** Return a FloatVector view of the provided column (strided over the rows; no values are copied)
+	 *
+	 * @param col
+	 * @return view of the column
+	 * @throws LinAlgException if col is out of bounds
+	 */
+
+	public FloatVector getColumnView(int col) throws LinAlgException {
+
+		if (col < 0 || col >= _nCols) {
+			throw new LinAlgException("Column requested is out of bounds");
+		}
+
+		return new FloatVector(_afData, _nOff + col * _nColStride, _nRowStride, _nRows);
+	}
+
+	/** Return a rows x cols view of the block of this matrix whose top left entry is at (row, col)
+	 *
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @return view of the block
+	 * @throws LinAlgException if rows or cols is < 1 or the block does not fit inside this matrix
+	 */
+
+	public FloatMatrix getSubMatrixView(int row, int col, int rows, int cols) throws LinAlgException {
+
+		if (rows < 1 || cols < 1) {
+			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+		}
+		if (row < 0 || col < 0 || row + rows > _nRows || col + cols > _nCols) {
+			throw new LinAlgException("Block requested is out of bounds");
+		}
+
+		return new FloatMatrix(_afData, index(row, col), _nRowStride, _nColStride, rows, cols);
+	}
+
+	/** Return a view of the transpose of this matrix (the strides are swapped, no values are moved)
+	 *
+	 * @return transposed view
+	 */
+
+	public FloatMatrix getTransposeView() {
+
+		return new FloatMatrix(_afData, _nOff, _nColStride, _nRowStride, _nCols, _nRows);
+	}
+
+	/** Return a new FloatMatrix that is the transpose of *this*
+	 *
+	 * @return transpose
+	 * @throws LinAlgException
+	 */
+
+	public FloatMatrix transpose() throws LinAlgException {
+
+		FloatMatrix transpose = new FloatMatrix(_nCols, _nRows);
+		Transpose.transpose(_afData, _nOff, _nRowStride, _nColStride, transpose._afData, 0, _nRows, _nRows, _nCols);
+		return transpose;
+	}
+
+	/** Return a new FloatMatrix that is the square identity matrix of dimension dim
+	 *
+	 * @param dim
+	 * @return identity
+	 * @throws LinAlgException if the dim is <= 0
+	 */
+
+	public static FloatMatrix GetIdentity(int dim) throws LinAlgException {
+
+		if (dim < 1) {
+			throw new LinAlgException("Dimension cannot be less than 1");
+		}
+
+		FloatMatrix identity = new FloatMatrix(dim, dim);
+		for (int index = 0; index < dim; index++) {
+			identity._afData[index * dim + index] = 1f;
+		}
+		return identity;
+	}
+
+	/** Returns the product of m1 and m2, accumulated in double precision and rounded to float
+	 *  ... runs on the default pool from Parallelism when the product is large enough
+	 *
+	 * @param m1
+	 * @param m2
+	 * @return result
+	 * @throws LinAlgException if m1 columns do not match the size of m2 rows
+	 */
+
+	public static FloatMatrix Multiply(FloatMatrix m1, FloatMatrix m2) throws LinAlgException {
+
+		return Multiply(m1, m2, Parallelism.getPool());
+	}
+
+	/** Returns the product of m1 and m2, accumulated in double precision and rounded to float, with
+	 *  tiles on the given pool (null runs on the calling thread; the result does not depend on it)
+	 *
+	 * @param m1
+	 * @param m2
+	 * @param pool
+	 * @return result
+	 * @throws LinAlgException if m1 columns do not match the size of m2 rows
+	 */
+
+	public static FloatMatrix Multiply(FloatMatrix m1, FloatMatrix m2, ForkJoinPool pool) throws LinAlgException {
+
+		if (m1._nCols != m2._nRows) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+
+		FloatMatrix result = new FloatMatrix(m1._nRows, m2._nCols);
+		ParallelKernels.multiply(m1._afData, m1._nOff, m1._nRowStride, m1._nColStride, m2._afData, m2._nOff, m2._nRowStride, m2._nColStride,
+				result._afData, 0, result._nCols, 1, m1._nRows, m1._nCols, m2._nCols, pool);
+		return result;
+	}
+
+	/** Writes the product of m1 and m2 into out instead of a new FloatMatrix (any previous contents
+	 *  of out are overwritten; apart from kernel workspace, nothing is allocated)
+	 *
+	 * @param m1
+	 * @param m2
+	 * @param out
+	 * @throws LinAlgException if m1 columns do not match the size of m2 rows, out is not m1 rows x m2 columns, or out shares storage with m1 or m2
+	 */
+
+	public static void MultiplyInto(FloatMatrix m1, FloatMatrix m2, FloatMatrix out) throws LinAlgException {
+
+		if (m1._nCols != m2._nRows) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+		if (out._nRows != m1._nRows || out._nCols != m2._nCols) {
+			throw new LinAlgException("Output matrix has to be " + m1._nRows + " x " + m2._nCols);
+		}
+		if (out._afData == m1._afData || out._afData == m2._afData) {
+			throw new LinAlgException("Output matrix cannot share storage with one of the operands");
+		}
+
+		for (int i = 0; i < out._nRows; i++) { // the kernel accumulates into out, which may be any view
+			for (int j = 0; j < out._nCols; j++) {
+				out._afData[out.index(i, j)] = 0f;
+			}
+		}
+		ParallelKernels.multiply(m1._afData, m1._nOff, m1._nRowStride, m1._nColStride, m2._afData, m2._nOff, m2._nRowStride, m2._nColStride,
+				out._afData, out._nOff, out._nRowStride, out._nColStride, m1._nRows, m1._nCols, m2._nCols, Parallelism.getPool());
+	}
+
+	/** Returns the FloatVector result of multiplying m by v, accumulated in double precision and
+	 *  rounded to float
+	 *
+	 * @param m
+	 * @param v
+	 * @return result
+	 * @throws LinAlgException if m columns do not match the size of v
+	 */
+
+	public static FloatVector Multiply(FloatMatrix m, FloatVector v) throws LinAlgException {
+
+		FloatVector result = new FloatVector(m._nRows);
+		MultiplyInto(m, v, result);
+		return result;
+	}
+
+	/** Writes the FloatVector result of multiplying m by v into out (apart from kernel workspace,
+	 *  nothing is allocated)
+	 *
+	 * @param m
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if m columns do not match the size of v, out does not have m rows, or out shares storage with m or v
+	 */
+
+	public static void MultiplyInto(FloatMatrix m, FloatVector v, FloatVector out) throws LinAlgException {
+
+		if (m._nCols != v.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+		if (out.getDim() != m._nRows) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the number of rows " + m._nRows);
+		}
+		if (out.values() == v.values() || out.values() == m._afData) {
+			throw new LinAlgException("Output vector cannot share storage with one of the operands");
+		}
+
+		int rows = m._nRows, cols = m._nCols;
+		double[] x = Workspace.acquire(cols), y = Workspace.acquire(rows); // v widened, and the double result
+		float[] vv = v.values(), ov = out.values();
+		for (int k = 0; k < cols; k++) {
+			x[k] = vv[v.offset() + k * v.stride()];
+		}
+		ParallelKernels.gemv(m._afData, m._nOff, m._nRowStride, m._nColStride, x, 0, 1, y, 0, 1, rows, cols, Parallelism.getPool());
+		for (int i = 0; i < rows; i++) {
+			ov[out.offset() + i * out.stride()] = (float)y[i];
+		}
+		Workspace.release(y);
+		Workspace.release(x);
+	}
+
+	/** Returns the double-precision Vector result of multiplying the single-precision m by the
+	 *  double-precision v (mixed precision: m is widened as it is read)
+	 *
+	 * @param m
+	 * @param v
+	 * @return result
+	 * @throws LinAlgException if m columns do not match the size of v
+	 */
+
+	public static Vector Multiply(FloatMatrix m, Vector v) throws LinAlgException {
+
+		Vector result = new Vector(m._nRows);
+		MultiplyInto(m, v, result);
+		return result;
+	}
+
+	/** Writes the double-precision Vector result of multiplying m by v into out (nothing is allocated)
+	 *
+	 * @param m
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if m columns do not match the size of v, out does not have m rows, or out shares storage with v
+	 */
+
+	public static void MultiplyInto(FloatMatrix m, Vector v, Vector out) throws LinAlgException {
+
+		if (m._nCols != v.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+		if (out.getDim() != m._nRows) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the number of rows " + m._nRows);
+		}
+		if (out.values() == v.values()) {
+			throw new LinAlgException("Output vector cannot share storage with one of the operands");
+		}
+
+		ParallelKernels.gemv(m._afData, m._nOff, m._nRowStride, m._nColStride, v.values(), v.offset(), v.stride(),
+				out.values(), out.offset(), out.stride(), m._nRows, m._nCols, Parallelism.getPool());
+	}
+
+	/** Writes *this* * x into y, as MultiplyInto(this, x, y) (the LinearOperator view of *this*)
+	 *
+	 * @param x
+	 * @param y
+	 * @throws LinAlgException if the columns of *this* do not match the size of x, y does not have the rows of *this*, or y shares storage with x
+	 */
+
+	@Override
+	public void apply(Vector x, Vector y) throws LinAlgException {
+
+		MultiplyInto(this, x, y);
+	}
+
+	/** Returns the LU factorization with partial pivoting of *this* in single precision, the cheap
+	 *  inner solver of IterativeSolver.refine (see FloatLUDecomposition); *this* is copied
+	 *
+	 * @return factorization
+	 * @throws LinAlgException if *this* is not square
+	 */
+
+	public FloatLUDecomposition lu() throws LinAlgException {
+
+		if (_nRows != _nCols) {
+			throw new LinAlgException("LU factorization needs a square matrix, not " + _nRows + " x " + _nCols);
+		}
+
+		return new FloatLUDecomposition(this);
+	}
+
+	/** Returns the position of element (row, col) in _afData
+	 */
+
+	private int index(int row, int col) {
+
+		return _nOff + row * _nRowStride + col * _nColStride;
+	}
+}
@@ -0,0 +1,599 @@
+package linalg;
+
+/*** A multidimensional real-valued vector stored in single precision (float): the counterpart of
+ *   Vector with half the memory footprint and twice the SIMD lanes in its elementwise operations.
+ *
+ *   The methods mirror those of Vector.  Elementwise operations round each result to float, as
+ *   float arithmetic does; InnerProd is mixed precision: the products and their sum are computed
+ *   in double and returned as a double, so long vectors do not lose the accuracy a float
+ *   accumulator would.  new FloatVector(Vector) and toVector() convert between the precisions.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public class FloatVector {
+
+	private int _nDim;       // Dimension of the FloatVector
+	private float[] _afVal;  // Contents of the FloatVector; nomenclature: a for array, f for float
+	private int _nOff;       // Position of element 0 in _afVal (0 unless this is a view)
+	private int _nStride;    // Distance in _afVal between consecutive elements (1 unless this is a view)
+	private boolean _bView;  // Whether _afVal belongs to a FloatMatrix this FloatVector is a view of
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	/** Constructor: allocates space for a new vector of dimension dim
+	 *
+	 * @param dim
+	 * @throws LinAlgException if vector dimension is < 1
+	 */
+
+	public FloatVector(int dim) throws LinAlgException {
+		if (dim <= 0)
+			throw new LinAlgException("Vector dimension " + dim + " cannot be less than 1");
+
+		_nDim = dim;
+		_afVal = new float[dim];
+		_nStride = 1;
+	}
+
+	/** View constructor: a FloatVector of dim elements that shares data with its owner, element i
+	 *  being data[off + i * stride] (package-private: views are made by FloatMatrix.getRowView and friends)
+	 *
+	 * @param data
+	 * @param off
+	 * @param stride
+	 * @param dim
+	 */
+
+	FloatVector(float[] data, int off, int stride, int dim) {
+		_nDim = dim;
+		_afVal = data;
+		_nOff = off;
+		_nStride = stride;
+		_bView = true;
+	}
+
+	/** Copy constructor: makes a new copy of an existing FloatVector v (the copy of a view is an
+	 *  ordinary FloatVector)
+	 *
+	 * @param v
+	 */
+
+	public FloatVector(FloatVector v) {
+		_nDim = v._nDim;
+		_afVal = new float[_nDim];
+		_nStride = 1;
+
+		for (int index = 0; index < _nDim; index++)
+			_afVal[index] = v._afVal[v._nOff + index * v._nStride];
+	}
+
+	/** Conversion constructor: a single-precision copy of the Vector v (each element is rounded
+	 *  to the nearest float)
+	 *
+	 * @param v
+	 */
+
+	public FloatVector(Vector v) {
+		_nDim = v.getDim();
+		_afVal = new float[_nDim];
+		_nStride = 1;
+
+		double[] val = v.values();
+		for (int index = 0; index < _nDim; index++)
+			_afVal[index] = (float)val[v.offset() + index * v.stride()];
+	}
+
+	/** Constructor: creates a new FloatVector with dimension and values given by init
+	 *
+	 * @param init: a String formatted like "[ -1.2 2.0 3.1 5.8 ]" (must start with [ and end with ])
+	 * @throws LinAlgException if init is not properly formatted (missing [ or ], or improperly formatted number)
+	 */
+
+	public FloatVector(String init) throws LinAlgException {
+		this(new Vector(init));
+	}
+
+	/** Returns a double-precision copy of *this* (exact: every float is a double)
+	 *
+	 * @return vector
+	 * @throws LinAlgException never in practice (the dimension is at least 1)
+	 */
+
+	public Vector toVector() throws LinAlgException {
+
+		Vector v = new Vector(_nDim);
+		double[] val = v.values();
+		for (int index = 0; index < _nDim; index++)
+			val[index] = _afVal[_nOff + index * _nStride];
+		return v;
+	}
+
+	/** Constructs a String representation of this FloatVector
+	 */
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		for (int i = 0; i < _nDim; i++)
+			sb.append(String.format(" %6.3f ", _afVal[_nOff + i * _nStride]));
+		sb.append(" ]");
+		return sb.toString();
+	}
+
+	/** Two FloatVectors are equal iff they have the same dimension and values match at all indices
+	 *
+	 * @param o the object to compare to
+	 */
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof FloatVector) {
+			FloatVector v = (FloatVector)o;
+			if (_nDim != v._nDim) {
+				return false;
+			}
+
+			for (int index = 0; index < _nDim; index++)
+				if (_afVal[_nOff + index * _nStride] != v._afVal[v._nOff + index * v._nStride]) {
+					return false;
+				}
+
+			return true;
+		}
+
+		else
+			return false;
+	}
+
+	/** Returns a hash of the dimension and values, consistent with equals (0.0f and -0.0f hash
+	 *  alike); it equals the hashCode of toVector(), as every float widens exactly
+	 *
+	 */
+
+	@Override
+	public int hashCode() {
+		int hash = 31 * _nDim;
+		for (int index = 0; index < _nDim; index++)
+			hash += ChunkedArray.hashElement(index, _afVal[_nOff + index * _nStride]);
+		return hash;
+	}
+
+	/** Returns the backing array of this vector (package-private, as Vector.values); element i is
+	 *  at offset() + i * stride()
+	 *
+	 * @return _afVal
+	 */
+
+	float[] values() {
+
+		return _afVal;
+	}
+
+	/** Returns the index of element 0 in values()
+	 *
+	 * @return _nOff
+	 */
+
+	int offset() {
+
+		return _nOff;
+	}
+
+	/** Returns the distance in values() between consecutive elements
+	 *
+	 * @return _nStride
+	 */
+
+	int stride() {
+
+		return _nStride;
+	}
+
+	/** Returns whether this FloatVector shares its storage with a FloatMatrix
+	 *
+	 * @return true for a view
+	 */
+
+	public boolean isView() {
+
+		return _bView;
+	}
+
+	/** Get the dimension of this vector
+	 *
+	 * @return _nDim
+	 */
+
+	public int getDim() {
+
+		return _nDim;
+	}
+
+	/** Returns the value of this vector at the given index
+	 *
+	 * @param index
+	 * @return _afVal[index]
+	 * @throws LinAlgException if array index is out of bounds
+	 */
+
+	public float get(int index) throws LinAlgException {
+		if (index < 0 || index >= _nDim) {
+			throw new LinAlgException("Index " + index + " is out of bounds");
+		}
+
+		return _afVal[_nOff + index * _nStride];
+	}
+
+	/** Set the value val of the vector at the given index
+	 *
+	 * @param index
+	 * @param val
+	 * @throws LinAlgException if array index is out of bounds
+	 */
+
+	public void set(int index, float val) throws LinAlgException {
+
+		if (index < 0 || index >= _nDim) {
+			throw new LinAlgException("Index " + index + " is out of bounds");
+		}
+
+		_afVal[_nOff + index * _nStride] = val;
+	}
+
+	/** Change the dimension of this FloatVector by reallocating its storage (new indices take value
+	 *  0, indices beyond the new dimension are lost)
+	 *
+	 * @param new_dim
+	 * @throws LinAlgException if vector dimension is < 1 or this is a view (its storage belongs to a matrix)
+	 */
+
+	public void changeDim(int new_dim) throws LinAlgException {
+
+		if (new_dim < 1) {
+			throw new LinAlgException("Dimension has to be at least 1");
+		}
+		if (isView()) {
+			throw new LinAlgException("Cannot change the dimension of a view");
+		}
+
+		float[] array = new float[new_dim];
+		System.arraycopy(_afVal, 0, array, 0, Math.min(new_dim, _nDim));
+		_afVal = array;
+		_nDim = new_dim;
+	}
+
+	/** This adds a scalar d to all elements of *this* FloatVector
+	 *
+	 * @param d
+	 */
+
+	public void scalarAddInPlace(float d) {
+		addScalar(this, d, this);
+	}
+
+	/** This creates a new FloatVector, adds a scalar d to it, and returns it
+	 *
+	 * @param d
+	 * @return new FloatVector after scalar addition
+	 */
+
+	public FloatVector scalarAdd(float d) {
+
+		FloatVector newVector = new FloatVector(this);
+		newVector.scalarAddInPlace(d);
+		return newVector;
+	}
+
+	/** Adds a scalar d to all elements of *this* and writes the result into out (out may be *this*,
+	 *  or a view of the same storage that shares no element with it; nothing is allocated)
+	 *
+	 * @param d
+	 * @param out
+	 * @throws LinAlgException if out does not have the same dimension as *this*, or partly overlaps it
+	 */
+
+	public void scalarAdd(float d, FloatVector out) throws LinAlgException {
+
+		checkOutput(out);
+		addScalar(this, d, out);
+	}
+
+	/** This multiplies a scalar d by all elements of *this* FloatVector
+	 *
+	 * @param d
+	 */
+
+	public void scalarMultInPlace(float d) {
+		multScalar(this, d, this);
+	}
+
+	/** This creates a new FloatVector, multiplies it by a scalar d, and returns it
+	 *
+	 * @param d
+	 * @return new FloatVector after scalar multiplication
+	 */
+
+	public FloatVector scalarMult(float d) {
+
+		FloatVector newVector = new FloatVector(this);
+		newVector.scalarMultInPlace(d);
+		return newVector;
+	}
+
+	/** Multiplies all elements of *this* by a scalar d and writes the result into out (out may be
+	 *  *this*, or a view of the same storage that shares no element with it; nothing is allocated)
+	 *
+	 * @param d
+	 * @param out
+	 * @throws LinAlgException if out does not have the same dimension as *this*, or partly overlaps it
+	 */
+
+	public void scalarMult(float d, FloatVector out) throws LinAlgException {
+
+		checkOutput(out);
+		multScalar(this, d, out);
+	}
+
+	/** Performs an elementwise addition of v to *this*, modifies *this*
+	 *
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match, or v partly overlaps *this*
+	 */
+
+	public void elementwiseAddInPlace(FloatVector v) throws LinAlgException {
+
+		checkOperand(v);
+		checkOverlap(this, v);
+		add(this, v, this);
+	}
+
+	/** Adds d times v to *this* (*this* += d * v), modifies *this*; nothing is allocated
+	 *
+	 * @param d
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match, or v partly overlaps *this*
+	 */
+
+	public void scaledAddInPlace(float d, FloatVector v) throws LinAlgException {
+
+		checkOperand(v);
+		checkOverlap(this, v);
+		if (v._nStride == 1 && _nStride == 1) {
+			KERNELS.axpy(d, v._afVal, v._nOff, _afVal, _nOff, _nDim);
+		}
+		else {
+			for (int i = 0; i < _nDim; i++) {
+				_afVal[_nOff + i * _nStride] += d * v._afVal[v._nOff + i * v._nStride];
+			}
+		}
+	}
+
+	/** Overwrites the elements of *this* with those of v, modifies *this*; nothing is allocated
+	 *
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two vectors do not match, or v partly overlaps *this*
+	 */
+
+	public void copyFrom(FloatVector v) throws LinAlgException {
+
+		checkOperand(v);
+		checkOverlap(this, v);
+		if (v._nStride == 1 && _nStride == 1) {
+			System.arraycopy(v._afVal, v._nOff, _afVal, _nOff, _nDim);
+		}
+		else {
+			for (int i = 0; i < _nDim; i++) {
+				_afVal[_nOff + i * _nStride] = v._afVal[v._nOff + i * v._nStride];
+			}
+		}
+	}
+
+	/** Performs an elementwise addition of *this* and v and returns a new FloatVector with result
+	 *
+	 * @param v
+	 * @return newVector
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public FloatVector elementwiseAdd(FloatVector v) throws LinAlgException {
+
+		checkOperand(v);
+		FloatVector newVector = new FloatVector(_nDim);
+		add(v, this, newVector);
+		return newVector;
+	}
+
+	/** Performs an elementwise addition of *this* and v and writes the result into out (out may be
+	 *  *this* or v, or a view that shares no element with them; nothing is allocated)
+	 *
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if dimensions of the operand and output vectors do not match, or out partly overlaps an operand
+	 */
+
+	public void elementwiseAdd(FloatVector v, FloatVector out) throws LinAlgException {
+
+		checkOperand(v);
+		checkOutput(out);
+		checkOverlap(out, v);
+		add(v, this, out);
+	}
+
+	/** Performs an elementwise multiplication of v and *this*, modifies *this*
+	 *
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match, or v partly overlaps *this*
+	 */
+
+	public void elementwiseMultInPlace(FloatVector v) throws LinAlgException {
+
+		checkOperand(v);
+		checkOverlap(this, v);
+		mult(this, v, this);
+	}
+
+	/** Performs an elementwise multiplication of *this* and v and returns a new FloatVector with result
+	 *
+	 * @param v
+	 * @return newVector
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public FloatVector elementwiseMult(FloatVector v) throws LinAlgException {
+
+		checkOperand(v);
+		FloatVector newVector = new FloatVector(_nDim);
+		mult(this, v, newVector);
+		return newVector;
+	}
+
+	/** Performs an elementwise multiplication of *this* and v and writes the result into out (out
+	 *  may be *this* or v, or a view that shares no element with them; nothing is allocated)
+	 *
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if dimensions of the operand and output vectors do not match, or out partly overlaps an operand
+	 */
+
+	public void elementwiseMult(FloatVector v, FloatVector out) throws LinAlgException {
+
+		checkOperand(v);
+		checkOutput(out);
+		checkOverlap(out, v);
+		mult(this, v, out);
+	}
+
+	/** Returns the inner product of v1 and v2, accumulated in double precision
+	 *
+	 * @param v1
+	 * @param v2
+	 * @return dotProduct
+	 * @throws LinAlgException if the dimensions of the two vectors do not match
+	 */
+
+	public static double InnerProd(FloatVector v1, FloatVector v2) throws LinAlgException {
+
+		v1.checkOperand(v2);
+		if (v1._nStride == 1 && v2._nStride == 1) {
+			return KERNELS.dot(v1._afVal, v1._nOff, v2._afVal, v2._nOff, v1._nDim);
+		}
+		double val = 0.0;
+		for (int i = 0; i < v1._nDim; i++) {
+			val += (double)v1._afVal[v1._nOff + i * v1._nStride] * v2._afVal[v2._nOff + i * v2._nStride];
+		}
+		return val;
+	}
+
+	/** Returns the inner product of the single-precision v1 and the double-precision v2,
+	 *  accumulated in double precision
+	 *
+	 * @param v1
+	 * @param v2
+	 * @return dotProduct
+	 * @throws LinAlgException if the dimensions of the two vectors do not match
+	 */
+
+	public static double InnerProd(FloatVector v1, Vector v2) throws LinAlgException {
+
+		if (v1._nDim != v2.getDim()) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+		double[] val2 = v2.values();
+		if (v1._nStride == 1 && v2.stride() == 1) {
+			return KERNELS.dot(v1._afVal, v1._nOff, val2, v2.offset(), v1._nDim);
+		}
+		double val = 0.0;
+		for (int i = 0; i < v1._nDim; i++) {
+			val += v1._afVal[v1._nOff + i * v1._nStride] * val2[v2.offset() + i * v2.stride()];
+		}
+		return val;
+	}
+
+	/** Checks that v has the dimension of *this*
+	 *
+	 * @param v
+	 * @throws LinAlgException if it does not
+	 */
+
+	private void checkOperand(FloatVector v) throws LinAlgException {
+
+		if (v._nDim != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+	}
+
+	/** Checks that out can hold the result of an elementwise operation on *this*
+	 *
+	 * @param out
+	 * @throws LinAlgException if out does not have the same dimension as *this*, or partly overlaps it
+	 */
+
+	private void checkOutput(FloatVector out) throws LinAlgException {
+
+		if (out._nDim != _nDim) {
+			throw new LinAlgException("Output dimension " + out._nDim + " does not match the dimension " + _nDim);
+		}
+		checkOverlap(out, this);
+	}
+
+	/** Checks that out is either v itself or shares none of v's elements, as in Vector
+	 *
+	 * @param out
+	 * @param v
+	 * @throws LinAlgException if out and v share some but not all of their elements
+	 */
+
+	private static void checkOverlap(FloatVector out, FloatVector v) throws LinAlgException {
+
+		if (out._afVal == v._afVal && (out._nOff != v._nOff || out._nStride != v._nStride)
+				&& Vector.overlaps(out._nOff, out._nStride, out._nDim, v._nOff, v._nStride, v._nDim)) {
+			throw new LinAlgException("Output vector cannot partly overlap an operand");
+		}
+	}
+
+	// The elementwise loops, as in Vector: contiguous operands go to the kernels, strided views
+	// take a plain loop
+
+	private static void addScalar(FloatVector a, float d, FloatVector out) {
+		if (a._nStride == 1 && out._nStride == 1) {
+			KERNELS.addScalar(a._afVal, a._nOff, d, out._afVal, out._nOff, a._nDim);
+			return;
+		}
+		for (int i = 0; i < a._nDim; i++) {
+			out._afVal[out._nOff + i * out._nStride] = a._afVal[a._nOff + i * a._nStride] + d;
+		}
+	}
+
+	private static void multScalar(FloatVector a, float d, FloatVector out) {
+		if (a._nStride == 1 && out._nStride == 1) {
+			KERNELS.multScalar(a._afVal, a._nOff, d, out._afVal, out._nOff, a._nDim);
+			return;
+		}
+		for (int i = 0; i < a._nDim; i++) {
+			out._afVal[out._nOff + i * out._nStride] = a._afVal[a._nOff + i * a._nStride] * d;
+		}
+	}
+
+	private static void add(FloatVector a, FloatVector b, FloatVector out) {
+		if (a._nStride == 1 && b._nStride == 1 && out._nStride == 1) {
+			KERNELS.add(a._afVal, a._nOff, b._afVal, b._nOff, out._afVal, out._nOff, a._nDim);
+			return;
+		}
+		for (int i = 0; i < a._nDim; i++) {
+			out._afVal[out._nOff + i * out._nStride] = a._afVal[a._nOff + i * a._nStride] + b._afVal[b._nOff + i * b._nStride];
+		}
+	}
+
+	private static void mult(FloatVector a, FloatVector b, FloatVector out) {
+		if (a._nStride == 1 && b._nStride == 1 && out._nStride == 1) {
+			KERNELS.mult(a._afVal, a._nOff, b._afVal, b._nOff, out._afVal, out._nOff, a._nDim);
+			return;
+		}
+		for (int i = 0; i < a._nDim; i++) {
+			out._afVal[out._nOff + i * out._nStride] = a._afVal[a._nOff + i * a._nStride] * b._afVal[b._nOff + i * b._nStride];
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package linalg;
+
+import java.util.Arrays;
+
+/*** Dense general matrix multiply kernels (C = A * B) over flat strided storage (row-major
+ *   matrices and the row, column, submatrix and transposed views of Matrix).
+ *
+ *   The loops run in i-k-j order over cache-sized blocks: a KC x NC panel of B is packed
+ *   into a contiguous buffer once and then swept by a micro-kernel that updates four rows
+ *   of C per pass, so each packed B value is loaded once for four multiply-adds.
+ *
+ *   Every C[i][j] is still accumulated as 0.0 + A[i][0]*B[0][j] + A[i][1]*B[1][j] + ...
+ *   in increasing k order (k blocks are visited in order and nothing is reassociated),
+ *   so the result is bit-for-bit identical to the textbook i-j-k triple loop.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class Gemm {
+
+	static final int KC = 256; // Rows of B (and columns of A) per packed panel
+	static final int NC = 256; // Columns of B (and C) per packed panel; 4 rows of C at NC doubles stay in L1
+	static final int MR = 4;   // Rows of C updated together by the micro-kernel
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // scalar or SIMD inner loops
+
+	private Gemm() {} // static kernels only
+
+	/** Computes C = A * B where A is m x n, B is n x p and C is m x p, all flat row-major
+	 *  (C must be zero on entry)
+	 *
+	 * @param a
+	 * @param b
+	 * @param c
+	 * @param m
+	 * @param n
+	 * @param p
+	 */
+
+	static void multiply(double[] a, double[] b, double[] c, int m, int n, int p) {
+		multiply(a, 0, n, 1, b, 0, p, 1, c, 0, p, n, 0, m, 0, p);
+	}
+
+	/** Computes the tile rows [rowStart, rowEnd) x columns [colStart, colEnd) of C = A * B for
+	 *  strided operands: A(i, k) is a[aOff + i*aRs + k*aCs], B(k, j) is b[bOff + k*bRs + j*bCs]
+	 *  and C(i, j) is c[cOff + i*cRs + j] (so rows of C must be contiguous); the products are added
+	 *  to what the tile holds on entry, so it must be zero for a plain product (a non-zero C gives
+	 *  C += A * B, as in the LU trailing update); tiles are independent so they may run concurrently
+	 *
+	 * @param a
+	 * @param aOff
+	 * @param aRs
+	 * @param aCs
+	 * @param b
+	 * @param bOff
+	 * @param bRs
+	 * @param bCs
+	 * @param c
+	 * @param cOff
+	 * @param cRs
+	 * @param n
+	 * @param rowStart
+	 * @param rowEnd
+	 * @param colStart
+	 * @param colEnd
+	 */
+
+	static void multiply(double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs, int bCs,
+			double[] c, int cOff, int cRs, int n, int rowStart, int rowEnd, int colStart, int colEnd) {
+
+		double[] packB = Workspace.acquire(Math.min(KC, n) * Math.min(NC, colEnd - colStart)); // one panel, reused for every block
+
+		for (int jj = colStart; jj < colEnd; jj += NC) {
+			int nc = Math.min(NC, colEnd - jj);
+			for (int kk = 0; kk < n; kk += KC) { // k blocks in increasing order keep the summation order intact
+				int kc = Math.min(KC, n - kk);
+				packPanel(b, bOff, bRs, bCs, kk, kc, jj, nc, packB);
+				macroKernel(a, aOff, aRs, aCs, rowStart, rowEnd, kk, kc, packB, nc, c, cOff, cRs, jj);
+			}
+		}
+		Workspace.release(packB);
+	}
+
+	/** Computes rows [rowStart, rowEnd) of y = A * x, with A(i, k) at a[aOff + i*aRs + k*aCs],
+	 *  x(k) at x[xOff + k] and y(i) at y[yOff + i]; the loop order follows the layout of A: a dot
+	 *  product per row when rows are contiguous, a column sweep (axpy) when columns are
+	 *  contiguous, e.g. for a transposed view
+	 *
+	 * @param a
+	 * @param aOff
+	 * @param aRs
+	 * @param aCs
+	 * @param x
+	 * @param xOff
+	 * @param y
+	 * @param yOff
+	 * @param n
+	 * @param rowStart
+	 * @param rowEnd
+	 */
+
+	static void gemv(double[] a, int aOff, int aRs, int aCs, double[] x, int xOff, double[] y, int yOff,
+			int n, int rowStart, int rowEnd) {
+
+		if (aCs == 1) {
+			for (int i = rowStart; i < rowEnd; i++) {
+				y[yOff + i] = KERNELS.dot(a, aOff + i * aRs, x, xOff, n); // row i is contiguous
+			}
+		}
+		else if (aRs == 1) {
+			int len = rowEnd - rowStart;
+			Arrays.fill(y, yOff + rowStart, yOff + rowEnd, 0.0);
+			for (int k = 0; k < n; k++) { // each y(i) still sums its products in increasing k order
+				KERNELS.axpy(x[xOff + k], a, aOff + k * aCs + rowStart, y, yOff + rowStart, len);
+			}
+		}
+		else {
+			for (int i = rowStart; i < rowEnd; i++) {
+				double val = 0.0;
+				for (int k = 0; k < n; k++) {
+					val += a[aOff + i * aRs + k * aCs] * x[xOff + k];
+				}
+				y[yOff + i] = val;
+			}
+		}
+	}
+
+	/** Copies the kc x nc block of B starting at (kk, jj) into packB as a contiguous row-major panel,
+	 *  reading B along whichever of its dimensions is contiguous
+	 */
+
+	private static void packPanel(double[] b, int bOff, int bRs, int bCs, int kk, int kc, int jj, int nc, double[] packB) {
+		if (bCs == 1) {
+			for (int k = 0; k < kc; k++) {
+				System.arraycopy(b, bOff + (kk + k) * bRs + jj, packB, k * nc, nc);
+			}
+		}
+		else if (bRs == 1) { // columns of B are contiguous (a transposed view): read down each column
+			for (int j = 0; j < nc; j++) {
+				int src = bOff + (jj + j) * bCs + kk;
+				for (int k = 0; k < kc; k++) {
+					packB[k * nc + j] = b[src + k];
+				}
+			}
+		}
+		else {
+			for (int k = 0; k < kc; k++) {
+				int src = bOff + (kk + k) * bRs + jj * bCs;
+				for (int j = 0; j < nc; j++) {
+					packB[k * nc + j] = b[src + j * bCs];
+				}
+			}
+		}
+	}
+
+	/** Multiplies the A block (rows [rowStart, rowEnd), columns [kk, kk+kc)) by the packed B panel
+	 *  and accumulates into the matching block of C
+	 */
+
+	private static void macroKernel(double[] a, int aOff, int aRs, int aCs, int rowStart, int rowEnd, int kk, int kc,
+			double[] packB, int nc, double[] c, int cOff, int cRs, int jj) {
+
+		int i = rowStart;
+		for (; i + MR <= rowEnd; i += MR) {
+			int a0 = aOff + i * aRs + kk * aCs, a1 = a0 + aRs, a2 = a1 + aRs, a3 = a2 + aRs; // start of the four A rows
+			int c0 = cOff + i * cRs + jj;
+			for (int k = 0, ak = 0; k < kc; k++, ak += aCs) { // rank-1 update of four rows of C; each packed B value is loaded once for all four
+				KERNELS.axpy4(a[a0 + ak], a[a1 + ak], a[a2 + ak], a[a3 + ak], packB, k * nc, c, c0, c0 + cRs, c0 + 2 * cRs, c0 + 3 * cRs, nc);
+			}
+		}
+
+		for (; i < rowEnd; i++) { // leftover rows (fewer than MR) are updated one at a time
+			int a0 = aOff + i * aRs + kk * aCs;
+			int c0 = cOff + i * cRs + jj;
+			for (int k = 0, ak = 0; k < kc; k++, ak += aCs) {
+				KERNELS.axpy(a[a0 + ak], packB, k * nc, c, c0, nc);
+			}
+		}
+	}
+}
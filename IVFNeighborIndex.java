@@ -0,0 +1,382 @@
+package linalg;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*** Approximate maximum inner product search with an inverted file (IVF): the vectors are
+ *   clustered by k-means into a number of lists around coarse centroids, and a query only scans
+ *   the lists of the getProbes() centroids with the highest inner product with it.  More probes
+ *   give higher recall against ExactNeighborIndex at a cost roughly proportional to the probes,
+ *   so setProbes(lists) scans everything and returns the exact result.
+ *
+ *   The vectors of each list are stored one after another (ordered by list, with their original
+ *   ids alongside), so scanning a list is a GEMV over a contiguous block.  Built with subspaces,
+ *   the index instead stores product-quantized (PQ) codes: the residual x - c of each vector
+ *   from its centroid is split into that many slices of consecutive dimensions, and each slice
+ *   is replaced by the one-byte index of its nearest codeword in a k-means codebook of (up to)
+ *   256 codewords trained for that slice.  A vector then takes one byte per subspace instead of
+ *   8 * dim bytes, and its score is estimated as
+ *
+ *       q.x ~= q.c + sum over slices s of q_s . codeword_s(code_s)
+ *
+ *   where the table of q_s . codeword_s(j) for every slice and codeword is computed once per
+ *   query, so each stored vector costs subspaces table lookups.  Scores returned are these
+ *   estimates (no re-ranking with the original vectors, which are not kept).
+ *
+ *   Clustering and encoding assign each vector to the Euclidean nearest centroid or codeword
+ *   (KMeans); the probing uses the inner product of the query with the centroids.
+ *
+ *   Example:
+ *
+ *   	IVFNeighborIndex index = IVFNeighborIndex.Build(data, 256, 16, 42L).setProbes(16);
+ *   	Neighbors n = index.search(query, 10);
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class IVFNeighborIndex implements NeighborIndex {
+
+	static final int PROBES = 8;      // Default number of lists scanned per query
+	static final int CODEWORDS = 256; // Codewords per PQ subspace, at most (codes are one byte)
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // residuals of the vectors from their centroids
+
+	private final int _nSize, _nDim, _nLists;
+	private final double[] _adCentroids; // Coarse centroids, _nLists x _nDim row-major
+	private final int[] _anListPtr;      // List l holds the positions [_anListPtr[l], _anListPtr[l + 1])
+	private final int[] _anIds;          // Original id of the vector at each position
+	private final int _nMaxList;         // Size of the largest list
+
+	private final double[] _adVectors;   // Flat index: the vectors by position, _nSize x _nDim (null with PQ)
+
+	private final int _nSubspaces;       // PQ: slices per vector (0 for a flat index)
+	private final int _nCodewords;       // PQ: codewords per slice
+	private final int[] _anSubStart;     // PQ: slice s covers dimensions [_anSubStart[s], _anSubStart[s + 1])
+	private final double[][] _aadCodebooks; // PQ: codebook s transposed, slice width x _nCodewords row-major
+	private final byte[] _abCodes;       // PQ: codes by position, _nSubspaces per vector
+
+	private int _nProbes = PROBES;
+
+	private IVFNeighborIndex(int size, int dim, int lists, double[] centroids, int[] listPtr, int[] ids,
+			double[] vectors, int subspaces, int codewords, int[] subStart, double[][] codebooks, byte[] codes) {
+		_nSize = size;
+		_nDim = dim;
+		_nLists = lists;
+		_adCentroids = centroids;
+		_anListPtr = listPtr;
+		_anIds = ids;
+		int max = 0;
+		for (int l = 0; l < lists; l++) {
+			max = Math.max(max, listPtr[l + 1] - listPtr[l]);
+		}
+		_nMaxList = max;
+		_adVectors = vectors;
+		_nSubspaces = subspaces;
+		_nCodewords = codewords;
+		_anSubStart = subStart;
+		_aadCodebooks = codebooks;
+		_abCodes = codes;
+	}
+
+	/** Builds an index storing a copy of every vector of data in one of lists k-means clusters
+	 *  (searches with enough probes are then exact)
+	 *
+	 * @param data
+	 * @param lists
+	 * @param seed for the k-means initialization and sampling
+	 * @return index
+	 * @throws LinAlgException if lists is < 1 or larger than the number of vectors
+	 */
+
+	public static IVFNeighborIndex Build(VectorBatch data, int lists, long seed) throws LinAlgException {
+
+		checkLists(data, lists);
+		int n = data.getSize(), d = data.getDim();
+		double[] x = data.matrix().values();
+		Random rng = new Random(seed);
+
+		double[] centroids = KMeans.train(x, n, d, lists, rng);
+		int[] assign = new int[n];
+		KMeans.assign(x, n, d, centroids, lists, assign);
+		int[] listPtr = new int[lists + 1], ids = new int[n];
+		order(assign, lists, listPtr, ids);
+
+		double[] vectors = new double[n * d];
+		for (int p = 0; p < n; p++) {
+			System.arraycopy(x, ids[p] * d, vectors, p * d, d);
+		}
+		return new IVFNeighborIndex(n, d, lists, centroids, listPtr, ids, vectors, 0, 0, null, null, null);
+	}
+
+	/** Builds an index of lists k-means clusters storing product-quantized codes of subspaces bytes
+	 *  per vector instead of the vectors (scores are then estimates)
+	 *
+	 * @param data
+	 * @param lists
+	 * @param subspaces slices each vector is split into, one code byte each
+	 * @param seed for the k-means initializations and sampling
+	 * @return index
+	 * @throws LinAlgException if lists is < 1 or larger than the number of vectors, or subspaces is < 1 or larger than the dimension
+	 */
+
+	public static IVFNeighborIndex Build(VectorBatch data, int lists, int subspaces, long seed) throws LinAlgException {
+
+		checkLists(data, lists);
+		int n = data.getSize(), d = data.getDim();
+		if (subspaces < 1 || subspaces > d) {
+			throw new LinAlgException("Number of subspaces " + subspaces + " has to be between 1 and the dimension " + d);
+		}
+		double[] x = data.matrix().values();
+		Random rng = new Random(seed);
+
+		double[] centroids = KMeans.train(x, n, d, lists, rng);
+		int[] assign = new int[n];
+		KMeans.assign(x, n, d, centroids, lists, assign);
+		int[] listPtr = new int[lists + 1], ids = new int[n];
+		order(assign, lists, listPtr, ids);
+
+		int codewords = Math.min(CODEWORDS, n);
+		int[] subStart = new int[subspaces + 1];
+		for (int s = 0; s <= subspaces; s++) {
+			subStart[s] = (int)((long)s * d / subspaces);
+		}
+		double[][] codebooks = new double[subspaces][];
+		byte[] codes = new byte[n * subspaces];
+		int[] code = new int[n];
+		double[] residual = null;
+		for (int s = 0; s < subspaces; s++) { // one slice at a time: n * width residuals held at once
+			int start = subStart[s], width = subStart[s + 1] - start;
+			if (residual == null || residual.length != n * width) {
+				residual = new double[n * width];
+			}
+			for (int p = 0; p < n; p++) { // by position, so codes of a list are contiguous
+				int id = ids[p];
+				System.arraycopy(x, id * d + start, residual, p * width, width);
+				KERNELS.axpy(-1.0, centroids, assign[id] * d + start, residual, p * width, width);
+			}
+			double[] codebook = KMeans.train(residual, n, width, codewords, rng);
+			KMeans.assign(residual, n, width, codebook, codewords, code);
+			codebooks[s] = new double[width * codewords];
+			Transpose.transpose(codebook, 0, width, 1, codebooks[s], 0, codewords, codewords, width);
+			for (int p = 0; p < n; p++) {
+				codes[p * subspaces + s] = (byte)code[p];
+			}
+		}
+		return new IVFNeighborIndex(n, d, lists, centroids, listPtr, ids, null, subspaces, codewords, subStart, codebooks, codes);
+	}
+
+	@Override
+	public int getSize() {
+
+		return _nSize;
+	}
+
+	@Override
+	public int getDim() {
+
+		return _nDim;
+	}
+
+	/** Returns the number of lists (coarse centroids)
+	 *
+	 * @return lists
+	 */
+
+	public int getLists() {
+
+		return _nLists;
+	}
+
+	/** Returns the number of PQ subspaces, or 0 if the index stores the vectors themselves
+	 *
+	 * @return subspaces
+	 */
+
+	public int getSubspaces() {
+
+		return _nSubspaces;
+	}
+
+	/** Returns the number of lists scanned per query
+	 *
+	 * @return probes
+	 */
+
+	public int getProbes() {
+
+		return _nProbes;
+	}
+
+	/** Sets the number of lists scanned per query (values above getLists() scan every list)
+	 *
+	 * @param probes
+	 * @return *this*, for chaining
+	 * @throws LinAlgException if probes is < 1
+	 */
+
+	public IVFNeighborIndex setProbes(int probes) throws LinAlgException {
+
+		if (probes < 1) {
+			throw new LinAlgException("Number of probes " + probes + " cannot be less than 1");
+		}
+		_nProbes = probes;
+		return this;
+	}
+
+	@Override
+	public Neighbors search(Vector query, int k) throws LinAlgException {
+
+		k = checkQuery(query.getDim(), k);
+		Vector q = query.compact();
+		return search(q.values(), q.offset(), k, _nProbes);
+	}
+
+	@Override
+	public Neighbors[] search(VectorBatch queries, int k) throws LinAlgException {
+
+		k = checkQuery(queries.getDim(), k);
+		int nq = queries.getSize();
+		Neighbors[] result = new Neighbors[nq];
+		Search task = new Search(this, queries.matrix().values(), k, _nProbes, result, 0, nq, Parallelism.getSequentialThreshold());
+		ForkJoinPool pool = Parallelism.getPool();
+		if (pool == null) {
+			task.compute();
+		}
+		else {
+			pool.invoke(task);
+		}
+		return result;
+	}
+
+	/** Searches the probes lists best matching the query at q[qOff] */
+	private Neighbors search(double[] q, int qOff, int k, int probes) {
+
+		int d = _nDim;
+		double[] cs = Workspace.acquire(_nLists); // query . centroids
+		Gemm.gemv(_adCentroids, 0, d, 1, q, qOff, cs, 0, d, 0, _nLists);
+		TopK best = new TopK(Math.min(probes, _nLists));
+		for (int l = 0; l < _nLists; l++) {
+			if (best.accepts(cs[l])) {
+				best.offer(l, cs[l]);
+			}
+		}
+		int[] probe = best.toNeighbors().getIds();
+
+		TopK heap = new TopK(k);
+		if (_nSubspaces == 0) {
+			double[] s = Workspace.acquire(_nMaxList);
+			for (int l : probe) {
+				int p0 = _anListPtr[l], len = _anListPtr[l + 1] - p0;
+				Gemm.gemv(_adVectors, p0 * d, d, 1, q, qOff, s, 0, d, 0, len);
+				for (int j = 0; j < len; j++) {
+					if (heap.accepts(s[j])) {
+						heap.offer(_anIds[p0 + j], s[j]);
+					}
+				}
+			}
+			Workspace.release(s);
+		}
+		else {
+			int m = _nSubspaces, cw = _nCodewords;
+			double[] table = Workspace.acquire(m * cw); // q_s . codeword_s(j) at s * cw + j
+			for (int s = 0; s < m; s++) {
+				int start = _anSubStart[s], width = _anSubStart[s + 1] - start;
+				Gemm.gemv(_aadCodebooks[s], 0, 1, cw, q, qOff + start, table, s * cw, width, 0, cw); // codewords in columns: one axpy per dimension
+			}
+			byte[] codes = _abCodes;
+			for (int l : probe) {
+				double base = cs[l];
+				for (int p = _anListPtr[l], end = _anListPtr[l + 1]; p < end; p++) {
+					double score = base;
+					for (int s = 0, c = p * m; s < m; s++, c++) {
+						score += table[s * cw + (codes[c] & 0xFF)];
+					}
+					if (heap.accepts(score)) {
+						heap.offer(_anIds[p], score);
+					}
+				}
+			}
+			Workspace.release(table);
+		}
+		Workspace.release(cs);
+		return heap.toNeighbors();
+	}
+
+	/** Sorts the positions by list (counting sort, stable so ids stay increasing within a list) */
+	private static void order(int[] assign, int lists, int[] listPtr, int[] ids) {
+
+		for (int a : assign) {
+			listPtr[a + 1]++;
+		}
+		for (int l = 0; l < lists; l++) {
+			listPtr[l + 1] += listPtr[l];
+		}
+		int[] next = listPtr.clone();
+		for (int i = 0; i < assign.length; i++) {
+			ids[next[assign[i]]++] = i;
+		}
+	}
+
+	private static void checkLists(VectorBatch data, int lists) throws LinAlgException {
+
+		if (lists < 1 || lists > data.getSize()) {
+			throw new LinAlgException("Number of lists " + lists + " has to be between 1 and the number of vectors " + data.getSize());
+		}
+	}
+
+	/** Checks a query and returns k capped at the number of indexed vectors, so a large k does not
+	 *  size the heaps */
+	private int checkQuery(int dim, int k) throws LinAlgException {
+
+		if (dim != _nDim) {
+			throw new LinAlgException("Query dimension " + dim + " does not match the index dimension " + _nDim);
+		}
+		if (k < 1) {
+			throw new LinAlgException("Number of neighbors " + k + " cannot be less than 1");
+		}
+		return Math.min(k, getSize());
+	}
+
+	/** Searches a range of queries, halving it while the work is large
+	 */
+
+	private static final class Search extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final IVFNeighborIndex _index;
+		private final double[] _adQ;
+		private final int _nK, _nProbes;
+		private final Neighbors[] _aResult;
+		private final int _nStart, _nEnd;
+		private final long _nThreshold;
+
+		Search(IVFNeighborIndex index, double[] q, int k, int probes, Neighbors[] result, int start, int end, long threshold) {
+			_index = index;
+			_adQ = q;
+			_nK = k; _nProbes = probes;
+			_aResult = result;
+			_nStart = start; _nEnd = end;
+			_nThreshold = threshold;
+		}
+
+		@Override
+		protected void compute() {
+
+			int count = _nEnd - _nStart;
+			long perQuery = (long)Math.min(_nProbes, _index._nLists) * _index._nMaxList * _index._nDim;
+			if (getPool() == null || count < 2 || count * perQuery < _nThreshold) {
+				for (int i = _nStart; i < _nEnd; i++) {
+					_aResult[i] = _index.search(_adQ, i * _index._nDim, _nK, _nProbes);
+				}
+				return;
+			}
+
+			int mid = _nStart + count / 2;
+			invokeAll(new Search(_index, _adQ, _nK, _nProbes, _aResult, _nStart, mid, _nThreshold),
+					new Search(_index, _adQ, _nK, _nProbes, _aResult, mid, _nEnd, _nThreshold));
+		}
+	}
+}
@@ -0,0 +1,191 @@
+package linalg;
+
+/*** An immutable two dimensional real-valued (double) matrix that is safe to share between threads
+ *   and to use as a map key: every operation returns a new ImmutableMatrix and leaves *this*
+ *   unchanged.
+ *
+ *   The elements are stored row-major in chunks of 256, copied on write, as in ImmutableVector:
+ *   set(row, col, val) copies one chunk, all-zero chunks are shared, the content hash is cached
+ *   and updated incrementally, and equals() skips shared chunks.  hashCode() equals the
+ *   hashCode() of a Matrix with the same values; equals() treats NaN as equal to NaN.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class ImmutableMatrix {
+
+	private final int _nRows;
+	private final int _nCols;
+	private final ChunkedArray _values; // Row-major: element (row, col) is at row * _nCols + col
+
+	private ImmutableMatrix(int rows, int cols, ChunkedArray values) {
+		_nRows = rows;
+		_nCols = cols;
+		_values = values;
+	}
+
+	/** Returns an immutable copy of m
+	 *
+	 * @param m
+	 * @return immutable matrix
+	 */
+
+	public static ImmutableMatrix Of(Matrix m) {
+
+		Matrix c = m.compact(); // plain row-major storage (a copy only for views)
+		return new ImmutableMatrix(c.getNumRows(), c.getNumCols(), ChunkedArray.Of(c.values(), 0, 1, c.getNumRows() * c.getNumCols()));
+	}
+
+	/** Returns the immutable row x col matrix of zeros (its chunks take no memory)
+	 *
+	 * @param row
+	 * @param col
+	 * @return zero matrix
+	 * @throws LinAlgException if either row or col is <= 0, or row * col does not fit in an int
+	 */
+
+	public static ImmutableMatrix Zeros(int row, int col) throws LinAlgException {
+
+		if (row < 1 || col < 1) {
+			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+		}
+		if ((long)row * col > Integer.MAX_VALUE) {
+			throw new LinAlgException("Matrix of " + row + " x " + col + " is too large");
+		}
+
+		return new ImmutableMatrix(row, col, ChunkedArray.Zeros(row * col));
+	}
+
+	/** Return the number of rows in this matrix
+	 *
+	 * @return _nRows
+	 */
+
+	public int getNumRows() {
+
+		return _nRows;
+	}
+
+	/** Return the number of columns in this matrix
+	 *
+	 * @return _nCols
+	 */
+
+	public int getNumCols() {
+
+		return _nCols;
+	}
+
+	/** Return the scalar value at the given row and column of the matrix
+	 *
+	 * @param row
+	 * @param col
+	 * @return value
+	 * @throws LinAlgException if row or col indices are out of bounds
+	 */
+
+	public double get(int row, int col) throws LinAlgException {
+
+		check(row, col);
+		return _values.get(row * _nCols + col);
+	}
+
+	/** Returns a matrix equal to *this* except that element (row, col) is val; only the chunk
+	 *  holding it is copied (*this* is returned if it already holds val)
+	 *
+	 * @param row
+	 * @param col
+	 * @param val
+	 * @return new matrix
+	 * @throws LinAlgException if row or col indices are out of bounds
+	 */
+
+	public ImmutableMatrix set(int row, int col, double val) throws LinAlgException {
+
+		check(row, col);
+		ChunkedArray values = _values.set(row * _nCols + col, val);
+		return (values == _values) ? this : new ImmutableMatrix(_nRows, _nCols, values);
+	}
+
+	/** Returns *this* with d added to every element
+	 *
+	 * @param d
+	 * @return new matrix
+	 */
+
+	public ImmutableMatrix scalarAdd(double d) {
+
+		return new ImmutableMatrix(_nRows, _nCols, _values.scalarAdd(d));
+	}
+
+	/** Returns *this* with every element multiplied by d
+	 *
+	 * @param d
+	 * @return new matrix
+	 */
+
+	public ImmutableMatrix scalarMult(double d) {
+
+		return new ImmutableMatrix(_nRows, _nCols, _values.scalarMult(d));
+	}
+
+	/** Returns a new (mutable) Matrix with the values of *this*
+	 *
+	 * @return matrix
+	 * @throws LinAlgException never in practice (both dimensions are at least 1)
+	 */
+
+	public Matrix toMatrix() throws LinAlgException {
+
+		Matrix m = new Matrix(_nRows, _nCols);
+		_values.copyTo(m.values(), 0, 1);
+		return m;
+	}
+
+	/** Tests whether o is an ImmutableMatrix with the same dimensions and values
+	 *  (NaN equal to NaN; compares cached hashes first)
+	 *
+	 * @param o the object to compare to
+	 */
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (o instanceof ImmutableMatrix) {
+			ImmutableMatrix m = (ImmutableMatrix)o;
+			return _nRows == m._nRows && _nCols == m._nCols && _values.contentEquals(m._values);
+		}
+		return false;
+	}
+
+	/** Returns the cached content hash (the same as Matrix.hashCode for the same values)
+	 *
+	 */
+
+	@Override
+	public int hashCode() {
+
+		return 31 * (31 * _nRows + _nCols) + _values.hash();
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < _nRows; i++) {
+			sb.append("[");
+			for (int j = 0; j < _nCols; j++) {
+				sb.append(String.format(" %6.3f ", _values.get(i * _nCols + j)));
+			}
+			sb.append(" ]\n");
+		}
+		return sb.toString();
+	}
+
+	private void check(int row, int col) throws LinAlgException {
+		if (row < 0 || col < 0 || row >= _nRows || col >= _nCols) {
+			throw new LinAlgException("Index requested is out of bounds");
+		}
+	}
+}
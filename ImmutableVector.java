@@ -0,0 +1,189 @@
+package linalg;
+
+/*** An immutable real-valued (double) vector that is safe to share between threads and to use as
+ *   a map key: every operation returns a new ImmutableVector and leaves *this* unchanged.
+ *
+ *   Versions share storage in chunks of 256 elements, copied on write: set(index, val) copies
+ *   only the chunk holding index, and all-zero chunks are shared, so a sparse update of a large
+ *   vector stays cheap in time and memory.  The content hash is cached and updated with each
+ *   set instead of being recomputed, so hashCode() is O(1), and equals() skips the chunks two
+ *   versions share.  hashCode() equals the hashCode() of a Vector with the same values.
+ *
+ *   Unlike Vector.equals, equals() here treats NaN as equal to NaN, so that every vector equals
+ *   itself as hash keys require.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class ImmutableVector {
+
+	private final int _nDim;
+	private final ChunkedArray _values; // Shared with the versions this one was derived from
+
+	private ImmutableVector(int dim, ChunkedArray values) {
+		_nDim = dim;
+		_values = values;
+	}
+
+	/** Returns an immutable copy of v
+	 *
+	 * @param v
+	 * @return immutable vector
+	 */
+
+	public static ImmutableVector Of(Vector v) {
+
+		return new ImmutableVector(v.getDim(), ChunkedArray.Of(v.values(), v.offset(), v.stride(), v.getDim()));
+	}
+
+	/** Returns the immutable vector of dim zeros (its chunks take no memory)
+	 *
+	 * @param dim
+	 * @return zero vector
+	 * @throws LinAlgException if dim is < 1
+	 */
+
+	public static ImmutableVector Zeros(int dim) throws LinAlgException {
+
+		if (dim < 1) {
+			throw new LinAlgException("Vector dimension " + dim + " cannot be less than 1");
+		}
+
+		return new ImmutableVector(dim, ChunkedArray.Zeros(dim));
+	}
+
+	/** Returns the dimension of the vector
+	 *
+	 * @return _nDim
+	 */
+
+	public int getDim() {
+
+		return _nDim;
+	}
+
+	/** Returns the value at index
+	 *
+	 * @param index
+	 * @return value
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public double get(int index) throws LinAlgException {
+
+		check(index);
+		return _values.get(index);
+	}
+
+	/** Returns a vector equal to *this* except that element index is val; only the chunk holding
+	 *  index is copied (*this* is returned if it already holds val)
+	 *
+	 * @param index
+	 * @param val
+	 * @return new vector
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public ImmutableVector set(int index, double val) throws LinAlgException {
+
+		check(index);
+		ChunkedArray values = _values.set(index, val);
+		return (values == _values) ? this : new ImmutableVector(_nDim, values);
+	}
+
+	/** Returns *this* with d added to every element
+	 *
+	 * @param d
+	 * @return new vector
+	 */
+
+	public ImmutableVector scalarAdd(double d) {
+
+		return new ImmutableVector(_nDim, _values.scalarAdd(d));
+	}
+
+	/** Returns *this* with every element multiplied by d
+	 *
+	 * @param d
+	 * @return new vector
+	 */
+
+	public ImmutableVector scalarMult(double d) {
+
+		return new ImmutableVector(_nDim, _values.scalarMult(d));
+	}
+
+	/** Returns the elementwise sum of *this* and v (chunks where either is all zeros are shared,
+	 *  not added)
+	 *
+	 * @param v
+	 * @return new vector
+	 * @throws LinAlgException if v does not have the dimension of *this*
+	 */
+
+	public ImmutableVector elementwiseAdd(ImmutableVector v) throws LinAlgException {
+
+		if (v._nDim != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+
+		return new ImmutableVector(_nDim, _values.add(v._values));
+	}
+
+	/** Returns a new (mutable) Vector with the values of *this*
+	 *
+	 * @return vector
+	 * @throws LinAlgException never in practice (the dimension is at least 1)
+	 */
+
+	public Vector toVector() throws LinAlgException {
+
+		Vector v = new Vector(_nDim);
+		_values.copyTo(v.values(), 0, 1);
+		return v;
+	}
+
+	/** Tests whether o is an ImmutableVector with the same dimension and values
+	 *  (NaN equal to NaN; compares cached hashes first)
+	 *
+	 * @param o the object to compare to
+	 */
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (o instanceof ImmutableVector) {
+			ImmutableVector v = (ImmutableVector)o;
+			return _nDim == v._nDim && _values.contentEquals(v._values);
+		}
+		return false;
+	}
+
+	/** Returns the cached content hash (the same as Vector.hashCode for the same values)
+	 *
+	 */
+
+	@Override
+	public int hashCode() {
+
+		return 31 * _nDim + _values.hash();
+	}
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("[");
+		for (int i = 0; i < _nDim; i++)
+			sb.append(String.format(" %6.3f ", _values.get(i)));
+		sb.append(" ]");
+		return sb.toString();
+	}
+
+	private void check(int index) throws LinAlgException {
+		if (index < 0 || index >= _nDim) {
+			throw new LinAlgException("Index " + index + " is out of bounds");
+		}
+	}
+}
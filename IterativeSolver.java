@@ -0,0 +1,546 @@
+package linalg;
+
+import java.util.Arrays;
+
+/*** Matrix-free Krylov solvers for A x = b, where A is any square LinearOperator:
+ *
+ *     cg        preconditioned Conjugate Gradient, for symmetric positive definite A (and M)
+ *     bicgstab  right-preconditioned BiCGSTAB, for general nonsymmetric A
+ *     gmres     right-preconditioned GMRES restarted every getRestart() iterations, for general A
+ *     refine    iterative refinement x += M (b - A x), for general A with a good approximate solver M
+ *
+ *   A solver only applies A (and the preconditioner M, an approximation of A^-1 given as another
+ *   LinearOperator) to Vectors, so memory is that of A plus a few Vectors of dimension n (for
+ *   GMRES, getRestart() + 1 basis Vectors): a sparse system costs O(nnz).  All work Vectors are
+ *   allocated once when a solve starts; each iteration runs on the Vector in-place kernels and
+ *   apply, and allocates nothing.
+ *
+ *   x is both the initial guess and the result.  A solve stops when the residual norm ||b - A x||
+ *   is at most getTolerance() * ||b||, after getMaxIterations() iterations, on a breakdown, or
+ *   when the Monitor asks it to.  The residual handed to the Monitor and returned in the Result
+ *   is the one the method tracks (for GMRES, the least-squares estimate), which can drift from
+ *   the true residual by rounding over many iterations.
+ *
+ *   refine is the mixed-precision solve: with M the single-precision LU factors of A (see
+ *   FloatLUDecomposition), the residual is computed against the double A, so a few cheap
+ *   corrections recover double accuracy whenever cond(A) is well below 1 / (float epsilon),
+ *   about 10^7:
+ *
+ *     new IterativeSolver().setPreconditioner(IterativeSolver.Inverse(new FloatMatrix(a).lu())).refine(a, b, x);
+ *
+ *   The settings are plain fields, so configure one solver and reuse it; a solver may be shared
+ *   between threads once configured.
+ *
+ *     Result r = new IterativeSolver().setTolerance(1e-8).setPreconditioner(IterativeSolver.Jacobi(d)).cg(a, b, x);
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class IterativeSolver {
+
+	/** Called after every iteration with the iteration count so far and the current residual norm */
+	public interface Monitor {
+		/** @return false to stop the solve */
+		boolean iteration(int iteration, double residual);
+	}
+
+	/** Outcome of a solve */
+	public static final class Result {
+
+		private final int _nIterations;  // Iterations performed
+		private final double _dResidual; // Residual norm at the end
+		private final boolean _bConverged; // Whether the residual reached the tolerance
+
+		Result(int iterations, double residual, boolean converged) {
+			_nIterations = iterations;
+			_dResidual = residual;
+			_bConverged = converged;
+		}
+
+		public int getIterations() { return _nIterations; }
+
+		public double getResidual() { return _dResidual; }
+
+		public boolean isConverged() { return _bConverged; }
+
+		public String toString() {
+			return (_bConverged ? "converged" : "not converged") + " after " + _nIterations + " iterations, residual " + _dResidual;
+		}
+	}
+
+	private double _dTol = 1e-10;         // Relative residual to stop at
+	private int _nMaxIter = 1000;         // Iterations to give up after
+	private int _nRestart = 30;           // GMRES iterations between restarts (Krylov basis size)
+	private LinearOperator _precond;      // Approximate inverse of A, or null for none
+	private Monitor _monitor;             // Called every iteration, or null
+
+	/** Sets the relative residual tolerance: solves stop once ||b - A x|| <= tol * ||b||
+	 *
+	 * @param tol
+	 * @return *this*
+	 * @throws LinAlgException if tol is not positive
+	 */
+
+	public IterativeSolver setTolerance(double tol) throws LinAlgException {
+
+		if (!(tol > 0.0)) {
+			throw new LinAlgException("Tolerance " + tol + " has to be greater than 0");
+		}
+
+		_dTol = tol;
+		return this;
+	}
+
+	/** Sets the maximum number of iterations of a solve
+	 *
+	 * @param iterations
+	 * @return *this*
+	 * @throws LinAlgException if iterations is < 1
+	 */
+
+	public IterativeSolver setMaxIterations(int iterations) throws LinAlgException {
+
+		if (iterations < 1) {
+			throw new LinAlgException("Maximum iterations cannot be less than 1");
+		}
+
+		_nMaxIter = iterations;
+		return this;
+	}
+
+	/** Sets the number of GMRES iterations between restarts, which is also the number of basis
+	 *  Vectors it keeps (larger converges in fewer iterations but costs more memory and work)
+	 *
+	 * @param restart
+	 * @return *this*
+	 * @throws LinAlgException if restart is < 1
+	 */
+
+	public IterativeSolver setRestart(int restart) throws LinAlgException {
+
+		if (restart < 1) {
+			throw new LinAlgException("GMRES restart cannot be less than 1");
+		}
+
+		_nRestart = restart;
+		return this;
+	}
+
+	/** Sets the preconditioner M, an operator approximating A^-1 (null for none)
+	 *
+	 * @param m
+	 * @return *this*
+	 */
+
+	public IterativeSolver setPreconditioner(LinearOperator m) {
+
+		_precond = m;
+		return this;
+	}
+
+	/** Sets the Monitor called after every iteration (null for none)
+	 *
+	 * @param monitor
+	 * @return *this*
+	 */
+
+	public IterativeSolver setMonitor(Monitor monitor) {
+
+		_monitor = monitor;
+		return this;
+	}
+
+	/** Returns the relative residual tolerance
+	 *
+	 * @return _dTol
+	 */
+
+	public double getTolerance() {
+		return _dTol;
+	}
+
+	/** Returns the maximum number of iterations of a solve
+	 *
+	 * @return _nMaxIter
+	 */
+
+	public int getMaxIterations() {
+		return _nMaxIter;
+	}
+
+	/** Returns the number of GMRES iterations between restarts
+	 *
+	 * @return _nRestart
+	 */
+
+	public int getRestart() {
+		return _nRestart;
+	}
+
+	/** Returns the Jacobi (diagonal) preconditioner for a matrix with the given diagonal: M x = x ./ diagonal
+	 *
+	 * @param diagonal
+	 * @return preconditioner
+	 * @throws LinAlgException if an entry of diagonal is 0
+	 */
+
+	public static LinearOperator Jacobi(Vector diagonal) throws LinAlgException {
+
+		Vector inv = new Vector(diagonal);
+		double[] d = inv.values();
+		for (int i = 0; i < d.length; i++) {
+			if (d[i] == 0.0) {
+				throw new LinAlgException("Jacobi preconditioner needs a non-zero diagonal (entry " + i + " is 0)");
+			}
+			d[i] = 1.0 / d[i];
+		}
+		return new LinearOperator() {
+			public int getNumRows() { return d.length; }
+			public int getNumCols() { return d.length; }
+			public void apply(Vector x, Vector y) throws LinAlgException {
+				y.copyFrom(x);
+				y.elementwiseMultInPlace(inv);
+			}
+		};
+	}
+
+	/** Returns the operator x -> A^-1 x of an LU factorization, as a preconditioner (e.g. the
+	 *  factors of a nearby matrix, or of the same one from an earlier solve)
+	 *
+	 * @param lu
+	 * @return solver
+	 */
+
+	public static LinearOperator Inverse(LUDecomposition lu) {
+
+		return new LinearOperator() {
+			public int getNumRows() { return lu.getDim(); }
+			public int getNumCols() { return lu.getDim(); }
+			public void apply(Vector x, Vector y) throws LinAlgException {
+				lu.solve(x, y);
+			}
+		};
+	}
+
+	/** Returns the operator x -> A^-1 x of a single-precision LU factorization, the approximate
+	 *  solver for refine
+	 *
+	 * @param lu
+	 * @return solver
+	 */
+
+	public static LinearOperator Inverse(FloatLUDecomposition lu) {
+
+		return new LinearOperator() {
+			public int getNumRows() { return lu.getDim(); }
+			public int getNumCols() { return lu.getDim(); }
+			public void apply(Vector x, Vector y) throws LinAlgException {
+				lu.solve(x, y);
+			}
+		};
+	}
+
+	/** Solves A x = b by iterative refinement: x += M (b - A x), where the preconditioner M is an
+	 *  approximate solver for A (see Inverse) and the residual is computed with a itself; the
+	 *  error shrinks by about ||I - M A|| per iteration, and the solve also stops once a correction
+	 *  no longer reduces the residual (the rounding floor, or M too poor for refinement to converge)
+	 *
+	 * @param a
+	 * @param b
+	 * @param x initial guess, overwritten with the solution
+	 * @return result
+	 * @throws LinAlgException if no preconditioner is set, the dimensions do not match, or a or the preconditioner throws
+	 */
+
+	public Result refine(LinearOperator a, Vector b, Vector x) throws LinAlgException {
+
+		if (_precond == null) {
+			throw new LinAlgException("Iterative refinement needs a preconditioner: the approximate solver it corrects");
+		}
+		int n = checkSystem(a, b, x);
+		double bnorm = b.norm2(), stop = _dTol * bnorm;
+		if (bnorm == 0.0) {
+			return zero(b, x);
+		}
+
+		Vector r = new Vector(n), d = new Vector(n);
+		residual(a, b, x, r);
+		double rnorm = r.norm2();
+
+		int k = 0;
+		while (rnorm > stop && k < _nMaxIter) {
+			_precond.apply(r, d);
+			x.scaledAddInPlace(1.0, d);
+			residual(a, b, x, r);
+			double previous = rnorm;
+			rnorm = r.norm2();
+			k++;
+			if (!notify(k, rnorm) || rnorm <= stop || rnorm >= previous) {
+				break;
+			}
+		}
+		return new Result(k, rnorm, rnorm <= stop);
+	}
+
+	/** Solves A x = b for symmetric positive definite A with preconditioned Conjugate Gradient
+	 *
+	 * @param a
+	 * @param b
+	 * @param x initial guess, overwritten with the solution
+	 * @return result
+	 * @throws LinAlgException if the dimensions do not match, or a or the preconditioner throws
+	 */
+
+	public Result cg(LinearOperator a, Vector b, Vector x) throws LinAlgException {
+
+		int n = checkSystem(a, b, x);
+		double bnorm = b.norm2(), stop = _dTol * bnorm;
+		if (bnorm == 0.0) {
+			return zero(b, x);
+		}
+
+		Vector r = new Vector(n), p = new Vector(n), ap = new Vector(n);
+		Vector z = (_precond != null) ? new Vector(n) : r; // without a preconditioner z is r itself
+		residual(a, b, x, r);
+		double rnorm = r.norm2();
+		precondition(r, z);
+		p.copyFrom(z);
+		double rz = Vector.InnerProd(r, z);
+
+		int k = 0;
+		while (rnorm > stop && k < _nMaxIter) {
+			a.apply(p, ap);
+			double pap = Vector.InnerProd(p, ap);
+			if (pap == 0.0 || rz == 0.0) {
+				break; // breakdown: A (or M) is not positive definite on the Krylov space
+			}
+			double alpha = rz / pap;
+			x.scaledAddInPlace(alpha, p);
+			r.scaledAddInPlace(-alpha, ap);
+			rnorm = r.norm2();
+			k++;
+			if (!notify(k, rnorm) || rnorm <= stop) {
+				break;
+			}
+			precondition(r, z);
+			double rzNew = Vector.InnerProd(r, z);
+			p.scalarMultInPlace(rzNew / rz); // p = z + beta p
+			p.elementwiseAddInPlace(z);
+			rz = rzNew;
+		}
+		return new Result(k, rnorm, rnorm <= stop);
+	}
+
+	/** Solves A x = b for general square A with right-preconditioned BiCGSTAB
+	 *
+	 * @param a
+	 * @param b
+	 * @param x initial guess, overwritten with the solution
+	 * @return result
+	 * @throws LinAlgException if the dimensions do not match, or a or the preconditioner throws
+	 */
+
+	public Result bicgstab(LinearOperator a, Vector b, Vector x) throws LinAlgException {
+
+		int n = checkSystem(a, b, x);
+		double bnorm = b.norm2(), stop = _dTol * bnorm;
+		if (bnorm == 0.0) {
+			return zero(b, x);
+		}
+
+		Vector r = new Vector(n), rhat = new Vector(n), p = new Vector(n), v = new Vector(n), t = new Vector(n);
+		Vector ph = (_precond != null) ? new Vector(n) : p; // M p
+		Vector sh = (_precond != null) ? new Vector(n) : r; // M s, where s overwrites r
+		residual(a, b, x, r);
+		rhat.copyFrom(r);
+		double rnorm = r.norm2();
+		double rho = 1.0, alpha = 1.0, omega = 1.0;
+
+		int k = 0;
+		while (rnorm > stop && k < _nMaxIter) {
+			double rhoNew = Vector.InnerProd(rhat, r);
+			if (rhoNew == 0.0) {
+				break; // breakdown: r is orthogonal to the shadow residual
+			}
+			if (k == 0) {
+				p.copyFrom(r);
+			}
+			else { // p = r + beta (p - omega v)
+				p.scaledAddInPlace(-omega, v);
+				p.scalarMultInPlace((rhoNew / rho) * (alpha / omega));
+				p.elementwiseAddInPlace(r);
+			}
+			precondition(p, ph);
+			a.apply(ph, v);
+			double rv = Vector.InnerProd(rhat, v);
+			if (rv == 0.0) {
+				break;
+			}
+			alpha = rhoNew / rv;
+			x.scaledAddInPlace(alpha, ph);
+			r.scaledAddInPlace(-alpha, v); // r is now s
+			rnorm = r.norm2();
+			k++;
+			if (rnorm <= stop) {
+				notify(k, rnorm);
+				break;
+			}
+			precondition(r, sh);
+			a.apply(sh, t);
+			double tt = Vector.InnerProd(t, t);
+			omega = (tt == 0.0) ? 0.0 : Vector.InnerProd(t, r) / tt;
+			if (omega == 0.0) {
+				notify(k, rnorm);
+				break; // breakdown: the stabilizing step makes no progress
+			}
+			x.scaledAddInPlace(omega, sh);
+			r.scaledAddInPlace(-omega, t);
+			rnorm = r.norm2();
+			rho = rhoNew;
+			if (!notify(k, rnorm)) {
+				break;
+			}
+		}
+		return new Result(k, rnorm, rnorm <= stop);
+	}
+
+	/** Solves A x = b for general square A with right-preconditioned GMRES, restarted every getRestart() iterations
+	 *
+	 * @param a
+	 * @param b
+	 * @param x initial guess, overwritten with the solution
+	 * @return result
+	 * @throws LinAlgException if the dimensions do not match, or a or the preconditioner throws
+	 */
+
+	public Result gmres(LinearOperator a, Vector b, Vector x) throws LinAlgException {
+
+		int n = checkSystem(a, b, x);
+		double bnorm = b.norm2(), stop = _dTol * bnorm;
+		if (bnorm == 0.0) {
+			return zero(b, x);
+		}
+
+		int m = Math.min(_nRestart, n);
+		Vector[] basis = new Vector[m + 1];
+		for (int i = 0; i <= m; i++) {
+			basis[i] = new Vector(n);
+		}
+		Vector w = new Vector(n);
+		Vector z = (_precond != null) ? new Vector(n) : null;
+		double[] h = new double[(m + 1) * m]; // Hessenberg matrix, row-major, reduced to triangular by the rotations
+		double[] cs = new double[m], sn = new double[m], g = new double[m + 1];
+
+		residual(a, b, x, w);
+		double rnorm = w.norm2();
+		int k = 0;
+		while (rnorm > stop && k < _nMaxIter) {
+			basis[0].copyFrom(w);
+			basis[0].scalarMultInPlace(1.0 / rnorm);
+			Arrays.fill(g, 0.0);
+			g[0] = rnorm;
+
+			int j = 0;
+			boolean stopped = false;
+			while (j < m && k < _nMaxIter) {
+				if (z != null) { // w = A M v_j
+					_precond.apply(basis[j], z);
+					a.apply(z, w);
+				}
+				else {
+					a.apply(basis[j], w);
+				}
+				for (int i = 0; i <= j; i++) { // modified Gram-Schmidt
+					double hij = Vector.InnerProd(w, basis[i]);
+					h[i * m + j] = hij;
+					w.scaledAddInPlace(-hij, basis[i]);
+				}
+				double hnext = w.norm2();
+				if (hnext != 0.0) {
+					basis[j + 1].copyFrom(w);
+					basis[j + 1].scalarMultInPlace(1.0 / hnext);
+				}
+				for (int i = 0; i < j; i++) { // earlier rotations on the new column
+					double hi = h[i * m + j], hi1 = h[(i + 1) * m + j];
+					h[i * m + j] = cs[i] * hi + sn[i] * hi1;
+					h[(i + 1) * m + j] = -sn[i] * hi + cs[i] * hi1;
+				}
+				double hjj = h[j * m + j], d = Math.hypot(hjj, hnext); // new rotation zeroes hnext
+				cs[j] = (d == 0.0) ? 1.0 : hjj / d;
+				sn[j] = (d == 0.0) ? 0.0 : hnext / d;
+				h[j * m + j] = d;
+				g[j + 1] = -sn[j] * g[j];
+				g[j] = cs[j] * g[j];
+				rnorm = Math.abs(g[j + 1]);
+				j++;
+				k++;
+				if (!notify(k, rnorm)) {
+					stopped = true;
+					break;
+				}
+				if (rnorm <= stop || hnext == 0.0) {
+					break; // converged, or the Krylov space is invariant and the solution is exact
+				}
+			}
+
+			// y = R^-1 g, then x += M (V y); g is overwritten with y
+			Triangular.upper(h, 0, m, 1, j, false, g, 0);
+			w.scalarMultInPlace(0.0);
+			for (int i = 0; i < j; i++) {
+				w.scaledAddInPlace(g[i], basis[i]);
+			}
+			if (z != null) {
+				_precond.apply(w, z);
+				x.elementwiseAddInPlace(z);
+			}
+			else {
+				x.elementwiseAddInPlace(w);
+			}
+			if (stopped) {
+				break;
+			}
+			if (rnorm > stop && k < _nMaxIter) { // restart from the true residual
+				residual(a, b, x, w);
+				rnorm = w.norm2();
+			}
+		}
+		return new Result(k, rnorm, rnorm <= stop);
+	}
+
+	/** Checks that a is square and matches b and x; returns n */
+	private static int checkSystem(LinearOperator a, Vector b, Vector x) throws LinAlgException {
+
+		int n = a.getNumRows();
+		if (a.getNumCols() != n) {
+			throw new LinAlgException("Iterative solvers need a square operator, not " + n + " x " + a.getNumCols());
+		}
+		if (b.getDim() != n || x.getDim() != n) {
+			throw new LinAlgException("Dimensions of b (" + b.getDim() + ") and x (" + x.getDim() + ") have to match the operator dimension " + n);
+		}
+		return n;
+	}
+
+	/** r = b - A x */
+	private static void residual(LinearOperator a, Vector b, Vector x, Vector r) throws LinAlgException {
+		a.apply(x, r);
+		r.scalarMultInPlace(-1.0);
+		r.elementwiseAddInPlace(b);
+	}
+
+	/** z = M r, or nothing when there is no preconditioner (z is then r itself) */
+	private void precondition(Vector r, Vector z) throws LinAlgException {
+		if (_precond != null) {
+			_precond.apply(r, z);
+		}
+	}
+
+	private boolean notify(int iteration, double residual) {
+		return _monitor == null || _monitor.iteration(iteration, residual);
+	}
+
+	private static Result zero(Vector b, Vector x) throws LinAlgException {
+		x.copyFrom(b); // b = 0 is solved exactly by x = 0
+		return new Result(0, 0.0, true);
+	}
+}
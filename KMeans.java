@@ -0,0 +1,125 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*** Lloyd's k-means over flat row-major point sets, for the coarse quantizer and the product
+ *   quantization codebooks of IVFNeighborIndex.
+ *
+ *   The nearest centroid of a point x maximizes x.c - ||c||^2 / 2 (the same argmin as the
+ *   Euclidean distance, without the ||x||^2 term), so assigning a block of points to all the
+ *   centroids is one GEMM points * centroids^T followed by an argmax per row.  Training starts
+ *   from k distinct random points, runs a fixed number of iterations on a sample of at most
+ *   MAX_SAMPLE_PER_CENTROID points per centroid (more points barely move the centroids but cost
+ *   linearly), and re-seeds a centroid that loses all its points with a random sample point.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class KMeans {
+
+	static final int ITERATIONS = 20;              // Lloyd iterations per training
+	static final int MAX_SAMPLE_PER_CENTROID = 256; // Training points per centroid, at most
+	static final int BLOCK = 1024;                 // Points assigned per GEMM
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // centroid sums and norms
+
+	private KMeans() {} // static methods only
+
+	/** Returns k centroids (row-major k x d) of the n points x (row-major n x d), k <= n
+	 *
+	 * @param x
+	 * @param n
+	 * @param d
+	 * @param k
+	 * @param rng
+	 * @return centroids
+	 */
+
+	static double[] train(double[] x, int n, int d, int k, Random rng) {
+
+		int[] perm = new int[n]; // a random order of the points: the sample and the initial centroids
+		for (int i = 0; i < n; i++) {
+			perm[i] = i;
+		}
+		int m = Math.min(n, k * MAX_SAMPLE_PER_CENTROID);
+		for (int i = 0; i < m; i++) { // partial Fisher-Yates: the first m entries are a uniform sample
+			int j = i + rng.nextInt(n - i);
+			int t = perm[i]; perm[i] = perm[j]; perm[j] = t;
+		}
+		double[] sample = x;
+		if (m < n) {
+			sample = new double[m * d];
+			for (int i = 0; i < m; i++) {
+				System.arraycopy(x, perm[i] * d, sample, i * d, d);
+			}
+		}
+
+		double[] c = new double[k * d];
+		for (int j = 0; j < k; j++) {
+			System.arraycopy(x, perm[j] * d, c, j * d, d);
+		}
+
+		int[] assign = new int[m], count = new int[k];
+		for (int it = 0; it < ITERATIONS; it++) {
+			assign(sample, m, d, c, k, assign);
+			Arrays.fill(c, 0.0);
+			Arrays.fill(count, 0);
+			for (int i = 0; i < m; i++) {
+				int j = assign[i];
+				count[j]++;
+				KERNELS.axpy(1.0, sample, i * d, c, j * d, d);
+			}
+			for (int j = 0; j < k; j++) {
+				if (count[j] == 0) { // empty cluster: restart it from a random point
+					System.arraycopy(sample, rng.nextInt(m) * d, c, j * d, d);
+				}
+				else {
+					KERNELS.multScalar(c, j * d, 1.0 / count[j], c, j * d, d);
+				}
+			}
+		}
+		return c;
+	}
+
+	/** Writes the index of the nearest of the k centroids c (row-major k x d) of each of the n
+	 *  points x (row-major n x d) into assign
+	 *
+	 * @param x
+	 * @param n
+	 * @param d
+	 * @param c
+	 * @param k
+	 * @param assign
+	 */
+
+	static void assign(double[] x, int n, int d, double[] c, int k, int[] assign) {
+
+		double[] half = new double[k]; // ||c||^2 / 2
+		for (int j = 0; j < k; j++) {
+			half[j] = 0.5 * KERNELS.dot(c, j * d, c, j * d, d);
+		}
+
+		int rows = Math.min(BLOCK, n);
+		double[] s = Workspace.acquire(rows * k);
+		for (int r0 = 0; r0 < n; r0 += BLOCK) {
+			int r = Math.min(BLOCK, n - r0);
+			Arrays.fill(s, 0, r * k, 0.0);
+			ParallelKernels.multiply(x, r0 * d, d, 1, c, 0, 1, d, s, 0, k, r, d, k, Parallelism.getPool()); // x_block * c^T
+			for (int i = 0; i < r; i++) {
+				int best = 0;
+				double bestScore = s[i * k] - half[0];
+				for (int j = 1; j < k; j++) {
+					double score = s[i * k + j] - half[j];
+					if (score > bestScore) {
+						best = j;
+						bestScore = score;
+					}
+				}
+				assign[r0 + i] = best;
+			}
+		}
+		Workspace.release(s);
+	}
+}
@@ -0,0 +1,103 @@
+package linalg;
+
+/*** The inner loops shared by Vector and Matrix (and their single-precision counterparts
+ *   FloatVector and FloatMatrix), behind one interface so that an accelerated implementation
+ *   can be swapped in at runtime.
+ *
+ *   INSTANCE is SimdKernels (built on jdk.incubator.vector, from the separate simd/ source
+ *   directory) when that class was built and the JVM was started with
+ *   --add-modules jdk.incubator.vector, and ScalarKernels otherwise; running with
+ *   -Dlinalg.simd=false forces the scalar loops.  Elementwise operations and the axpy updates
+ *   used by matrix multiply give identical results either way (each lane does the same
+ *   multiply then add); dot products and sums accumulate lane-wise on the SIMD path, so their
+ *   rounding can differ in the last bits from the scalar left-to-right sum.
+ *
+ *   The float loops come in two kinds: elementwise operations stay in single precision (twice the
+ *   lanes of the double ones), while dot products and the mixed axpy widen every float to double,
+ *   so products are exact and sums are accumulated in double precision.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+interface Kernels {
+
+	Kernels INSTANCE = select(); // chosen once, when the package is first used
+
+	/** out[outOff + i] = a[aOff + i] + d for i in [0, len) (out may be a at the same offset) */
+	void addScalar(double[] a, int aOff, double d, double[] out, int outOff, int len);
+
+	/** out[outOff + i] = a[aOff + i] * d for i in [0, len) (out may be a at the same offset) */
+	void multScalar(double[] a, int aOff, double d, double[] out, int outOff, int len);
+
+	/** out[outOff + i] = a[aOff + i] + b[bOff + i] for i in [0, len) (out may be a or b at the same offset) */
+	void add(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int len);
+
+	/** out[outOff + i] = a[aOff + i] * b[bOff + i] for i in [0, len) (out may be a or b at the same offset) */
+	void mult(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int len);
+
+	/** Returns the sum of a[aOff + i] * b[bOff + i] for i in [0, len) */
+	double dot(double[] a, int aOff, double[] b, int bOff, int len);
+
+	/** Returns the sum of a[aOff + i] for i in [0, len) */
+	double sum(double[] a, int aOff, int len);
+
+	/** Returns the sum of |a[aOff + i]| for i in [0, len) */
+	double sumAbs(double[] a, int aOff, int len);
+
+	/** Returns the largest |a[aOff + i]| for i in [0, len) (0 if len is 0; NaN if any element is NaN) */
+	double maxAbs(double[] a, int aOff, int len);
+
+	/** Returns the largest a[aOff + i] for i in [0, len), len >= 1 (NaN if any element is NaN, as Math.max) */
+	double max(double[] a, int aOff, int len);
+
+	/** Returns the smallest a[aOff + i] for i in [0, len), len >= 1 (NaN if any element is NaN, as Math.min) */
+	double min(double[] a, int aOff, int len);
+
+	/** y[yOff + i] += alpha * x[xOff + i] for i in [0, len) */
+	void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len);
+
+	/** y[yR + i] += aR * x[xOff + i] for i in [0, len) and each of the four rows R = 0..3 */
+	void axpy4(double a0, double a1, double a2, double a3, double[] x, int xOff,
+			double[] y, int y0, int y1, int y2, int y3, int len);
+
+	/** out[outOff + i] = a[aOff + i] + d for i in [0, len), in single precision (out may be a at the same offset) */
+	void addScalar(float[] a, int aOff, float d, float[] out, int outOff, int len);
+
+	/** out[outOff + i] = a[aOff + i] * d for i in [0, len), in single precision (out may be a at the same offset) */
+	void multScalar(float[] a, int aOff, float d, float[] out, int outOff, int len);
+
+	/** out[outOff + i] = a[aOff + i] + b[bOff + i] for i in [0, len), in single precision (out may be a or b at the same offset) */
+	void add(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int len);
+
+	/** out[outOff + i] = a[aOff + i] * b[bOff + i] for i in [0, len), in single precision (out may be a or b at the same offset) */
+	void mult(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int len);
+
+	/** y[yOff + i] += alpha * x[xOff + i] for i in [0, len), in single precision */
+	void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int len);
+
+	/** Returns the sum of a[aOff + i] * b[bOff + i] for i in [0, len), accumulated in double precision */
+	double dot(float[] a, int aOff, float[] b, int bOff, int len);
+
+	/** Returns the sum of a[aOff + i] * b[bOff + i] for i in [0, len), accumulated in double precision */
+	double dot(float[] a, int aOff, double[] b, int bOff, int len);
+
+	/** y[yOff + i] += alpha * x[xOff + i] for i in [0, len), with x widened to double */
+	void axpy(double alpha, float[] x, int xOff, double[] y, int yOff, int len);
+
+	/** Returns the SIMD kernels if the incubator module is available and not disabled, else the scalar ones
+	 */
+
+	private static Kernels select() {
+
+		if (!Boolean.parseBoolean(System.getProperty("linalg.simd", "true"))) {
+			return new ScalarKernels();
+		}
+
+		try {
+			return (Kernels)Class.forName("linalg.SimdKernels").getDeclaredConstructor().newInstance();
+		} catch (Exception | LinkageError e) { //module not enabled (or class not built): use the plain loops
+			return new ScalarKernels();
+		}
+	}
+}
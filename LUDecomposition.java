@@ -0,0 +1,291 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*** LU factorization with partial pivoting of a square Matrix, PA = LU, made by Matrix.lu().
+ *
+ *   The factorization is right-looking and blocked: each step factors a panel of BLOCK columns
+ *   with the unblocked algorithm (choosing as pivot the entry of largest magnitude in the column
+ *   and swapping whole rows), solves for the matching BLOCK rows of U, and then updates the
+ *   trailing submatrix with one product A22 -= L21 * U12.  That product holds almost all of the
+ *   O(n^3) work and goes through the same blocked GEMM kernel as Matrix.Multiply, split across
+ *   the default pool from Parallelism.  solve(Matrix) handles many right-hand sides the same way,
+ *   with block triangular solves whose off-diagonal updates are GEMM calls.
+ *
+ *   L (unit lower triangular, diagonal not stored) and U share one row-major n x n array.  A zero
+ *   pivot does not stop the factorization: the column is skipped and the matrix is marked
+ *   singular, so determinant() is still defined (it is 0), while solve and inverse throw.
+ *   Nearly singular matrices are not detected; check the residual when that matters.
+ *
+ *   A factorization is not changed by solve, determinant or inverse, so it can be reused for any
+ *   number of right-hand sides and shared between threads.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class LUDecomposition {
+
+	static final int BLOCK = 64; // Panel width: the panel update stays in cache and the trailing GEMM is still wide
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private final int _nN;          // Dimension of the factored matrix
+	private final double[] _adLU;   // L below the diagonal and U on and above it, row-major n x n
+	private final int[] _anPerm;    // Row i of PA is row _anPerm[i] of A
+	private final int _nSign;       // Sign of the permutation: +1 for an even number of row swaps, -1 for odd
+	private final boolean _bSingular; // Whether some pivot was exactly zero
+
+	/** Factors the square matrix m (m is copied, not changed); called through Matrix.lu()
+	 *
+	 * @param m
+	 */
+
+	LUDecomposition(Matrix m) {
+
+		int n = m.getNumRows();
+		_nN = n;
+		_adLU = new Matrix(m).values(); // a compact row-major copy, also of a view
+		_anPerm = new int[n];
+		for (int i = 0; i < n; i++) {
+			_anPerm[i] = i;
+		}
+
+		double[] lu = _adLU;
+		int sign = 1;
+		boolean singular = false;
+		ForkJoinPool pool = Parallelism.getPool();
+		for (int k0 = 0; k0 < n; k0 += BLOCK) {
+			int k1 = Math.min(k0 + BLOCK, n);
+
+			for (int j = k0; j < k1; j++) { // unblocked factorization of the panel, columns [k0, k1)
+				int piv = j;
+				double max = Math.abs(lu[j * n + j]);
+				for (int i = j + 1; i < n; i++) {
+					double v = Math.abs(lu[i * n + j]);
+					if (v > max) {
+						max = v;
+						piv = i;
+					}
+				}
+				if (piv != j) { // swapping whole rows keeps L to the left and A to the right consistent
+					swapRows(lu, n, j, piv);
+					int t = _anPerm[j]; _anPerm[j] = _anPerm[piv]; _anPerm[piv] = t;
+					sign = -sign;
+				}
+				double d = lu[j * n + j];
+				if (d == 0.0) {
+					singular = true; // the column is already zero below the diagonal, so there is nothing to eliminate
+					continue;
+				}
+				for (int i = j + 1; i < n; i++) {
+					double l = lu[i * n + j] / d;
+					lu[i * n + j] = l;
+					if (l != 0.0) {
+						KERNELS.axpy(-l, lu, j * n + j + 1, lu, i * n + j + 1, k1 - j - 1);
+					}
+				}
+			}
+			if (k1 == n) {
+				break;
+			}
+
+			int rest = n - k1;
+			Triangular.lower(lu, k0 * n + k0, n, 1, k1 - k0, true, lu, k0 * n + k1, n, rest); // U12 = L11^-1 A12
+
+			// A22 -= L21 * U12, as A22 += (-L21) * U12 since the kernel accumulates
+			double[] l21 = Triangular.negatedCopy(lu, k1 * n + k0, n, 1, rest, k1 - k0);
+			ParallelKernels.multiply(l21, 0, k1 - k0, 1, lu, k0 * n + k1, n, 1,
+					lu, k1 * n + k1, n, rest, k1 - k0, rest, pool);
+			Workspace.release(l21);
+		}
+		_nSign = sign;
+		_bSingular = singular;
+	}
+
+	/** Returns the dimension of the factored matrix
+	 *
+	 * @return _nN
+	 */
+
+	public int getDim() {
+		return _nN;
+	}
+
+	/** Returns whether the factored matrix is singular (some pivot was exactly zero)
+	 *
+	 * @return _bSingular
+	 */
+
+	public boolean isSingular() {
+		return _bSingular;
+	}
+
+	/** Returns the determinant of the factored matrix: the product of the pivots, with the sign of the row permutation
+	 *
+	 * @return determinant
+	 */
+
+	public double determinant() {
+
+		if (_bSingular) {
+			return 0.0;
+		}
+		double det = _nSign;
+		for (int i = 0; i < _nN; i++) {
+			det *= _adLU[i * _nN + i];
+		}
+		return det;
+	}
+
+	/** Returns a new Matrix holding L, the unit lower triangular factor
+	 *
+	 * @return L
+	 * @throws LinAlgException never in practice (the dimension is positive)
+	 */
+
+	public Matrix getL() throws LinAlgException {
+
+		int n = _nN;
+		Matrix l = new Matrix(n, n);
+		double[] d = l.values();
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(_adLU, i * n, d, i * n, i);
+			d[i * n + i] = 1.0;
+		}
+		return l;
+	}
+
+	/** Returns a new Matrix holding U, the upper triangular factor
+	 *
+	 * @return U
+	 * @throws LinAlgException never in practice (the dimension is positive)
+	 */
+
+	public Matrix getU() throws LinAlgException {
+
+		int n = _nN;
+		Matrix u = new Matrix(n, n);
+		double[] d = u.values();
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(_adLU, i * n + i, d, i * n + i, n - i);
+		}
+		return u;
+	}
+
+	/** Returns the row permutation: row i of PA is row getPivot()[i] of A
+	 *
+	 * @return copy of the permutation
+	 */
+
+	public int[] getPivot() {
+		return _anPerm.clone();
+	}
+
+	/** Returns the solution x of A x = b
+	 *
+	 * @param b
+	 * @return x
+	 * @throws LinAlgException if the dimension of b does not match or the matrix is singular
+	 */
+
+	public Vector solve(Vector b) throws LinAlgException {
+
+		Vector x = new Vector(_nN);
+		solve(b, x);
+		return x;
+	}
+
+	/** Writes the solution x of A x = b into out instead of a new Vector (apart from a Workspace
+	 *  buffer when out is a strided view, nothing is allocated)
+	 *
+	 * @param b
+	 * @param out
+	 * @throws LinAlgException if b or out does not have the matrix dimension, out shares storage with b, or the matrix is singular
+	 */
+
+	public void solve(Vector b, Vector out) throws LinAlgException {
+
+		int n = _nN;
+		if (b.getDim() != n) {
+			throw new LinAlgException("Dimension " + b.getDim() + " of the right-hand side does not match the matrix dimension " + n);
+		}
+		if (out.getDim() != n) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the matrix dimension " + n);
+		}
+		if (out.values() == b.values()) { // the permutation reads b after out has been partly written
+			throw new LinAlgException("Output vector cannot share storage with the right-hand side");
+		}
+		checkNonsingular();
+
+		boolean unit = out.stride() == 1;
+		double[] xv = unit ? out.values() : Workspace.acquire(n), bv = b.values();
+		int xOff = unit ? out.offset() : 0, bOff = b.offset(), bs = b.stride();
+		for (int i = 0; i < n; i++) {
+			xv[xOff + i] = bv[bOff + _anPerm[i] * bs];
+		}
+		Triangular.lower(_adLU, 0, n, 1, n, true, xv, xOff);  // L y = P b
+		Triangular.upper(_adLU, 0, n, 1, n, false, xv, xOff); // U x = y
+		if (!unit) {
+			double[] ov = out.values();
+			for (int i = 0; i < n; i++) {
+				ov[out.offset() + i * out.stride()] = xv[i];
+			}
+			Workspace.release(xv);
+		}
+	}
+
+	/** Returns the solution X of A X = B, one column of X per column of B
+	 *
+	 * @param b
+	 * @return X
+	 * @throws LinAlgException if the rows of b do not match or the matrix is singular
+	 */
+
+	public Matrix solve(Matrix b) throws LinAlgException {
+
+		int n = _nN;
+		if (b.getNumRows() != n) {
+			throw new LinAlgException("Rows " + b.getNumRows() + " of the right-hand side do not match the matrix dimension " + n);
+		}
+		checkNonsingular();
+
+		int r = b.getNumCols();
+		Matrix x = new Matrix(n, r);
+		double[] xv = x.values(), bv = b.values();
+		for (int i = 0; i < n; i++) { // X = P B
+			int src = b.offset() + _anPerm[i] * b.rowStride();
+			if (b.colStride() == 1) {
+				System.arraycopy(bv, src, xv, i * r, r);
+			}
+			else {
+				for (int j = 0; j < r; j++) xv[i * r + j] = bv[src + j * b.colStride()];
+			}
+		}
+		Triangular.lower(_adLU, 0, n, 1, n, true, xv, 0, r, r);
+		Triangular.upper(_adLU, 0, n, 1, n, false, xv, 0, r, r);
+		return x;
+	}
+
+	/** Returns the inverse of the factored matrix, as solve(I)
+	 *
+	 * @return inverse
+	 * @throws LinAlgException if the matrix is singular
+	 */
+
+	public Matrix inverse() throws LinAlgException {
+		return solve(Matrix.GetIdentity(_nN));
+	}
+
+	private void checkNonsingular() throws LinAlgException {
+		if (_bSingular) {
+			throw new LinAlgException("Matrix is singular");
+		}
+	}
+
+	private static void swapRows(double[] a, int n, int i, int j) {
+		for (int c = 0, p = i * n, q = j * n; c < n; c++, p++, q++) {
+			double t = a[p]; a[p] = a[q]; a[q] = t;
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package linalg;
+
+/*** A linear map y = A x from Vectors of dimension getNumCols() to Vectors of dimension
+ *   getNumRows(), given only by how to apply it.
+ *
+ *   Matrix and SparseMatrix implement it, and so can any structured or matrix-free operator
+ *   (a stencil, a product of factors, a preconditioner that solves with a factorization), which
+ *   is all the iterative solvers in IterativeSolver need: they never look at the entries.
+ *
+ *   apply writes into a Vector the caller owns, so a solver can call it every iteration without
+ *   allocating.  Implementations may assume that x and y do not share storage.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public interface LinearOperator {
+
+	/** Returns the dimension of the result of apply
+	 *
+	 * @return rows
+	 */
+
+	int getNumRows();
+
+	/** Returns the dimension of the argument of apply
+	 *
+	 * @return columns
+	 */
+
+	int getNumCols();
+
+	/** Writes A x into y (previous contents of y are overwritten)
+	 *
+	 * @param x
+	 * @param y
+	 * @throws LinAlgException if x or y has the wrong dimension, or they share storage
+	 */
+
+	void apply(Vector x, Vector y) throws LinAlgException;
+}
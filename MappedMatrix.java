@@ -0,0 +1,427 @@
+package linalg;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*** A two dimensional real-valued (double) matrix whose entries live in a memory-mapped file
+ *   instead of on the Java heap, for datasets too large for the heap (or large enough that
+ *   their GC cost hurts).
+ *
+ *   The file holds the entries row-major as little-endian doubles starting at a byte offset
+ *   (0 for a raw file, non-zero to skip a file header).  Since a single mapping is limited
+ *   to 2 GB, the file is mapped as a sequence of chunks of whole rows, so any row is contiguous
+ *   in one chunk.  Pages are loaded on demand and written back by the OS, so only the tiles
+ *   currently being worked on need to be resident.
+ *
+ *   transpose and Multiply stream over the matrix one heap tile at a time (at most a few MB at
+ *   once) and never copy the whole matrix onto the heap; their results can go to a new mapped
+ *   file.  Mapped memory is released when the buffers are garbage collected; call close() to
+ *   release the file channel and flush() to force writes to disk.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public class MappedMatrix implements LinearOperator, AutoCloseable {
+
+	static final long MAX_CHUNK_BYTES = 1L << 30; // Bytes per mapping (must stay below 2 GB)
+	static final int TILE = 256;                   // Rows/columns per heap tile in the streaming kernels
+
+	private final int _nRows;            // Number of rows in this matrix
+	private final int _nCols;            // Number of columns in this matrix
+	private final int _nChunkRows;       // Rows per mapped chunk (the last chunk may have fewer)
+	private final FileChannel _channel;  // Open channel to the backing file
+	private final MappedByteBuffer[] _maps; // One mapping per chunk of _nChunkRows rows
+	private final DoubleBuffer[] _chunks; // Little-endian double views of _maps
+	private final boolean _bWritable;    // Whether set and the writing kernels are allowed
+
+	/** Maps rows x cols doubles starting at byte offset of an open channel (package-private so
+	 *  file formats with a header can map just their payload)
+	 *
+	 * @param channel
+	 * @param offset
+	 * @param rows
+	 * @param cols
+	 * @param writable
+	 * @throws LinAlgException if either rows or cols is <= 0 or a single row does not fit in one mapping
+	 * @throws IOException if the mapping fails
+	 */
+
+	MappedMatrix(FileChannel channel, long offset, int rows, int cols, boolean writable) throws LinAlgException, IOException {
+
+		if (rows < 1 || cols < 1) {
+			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+		}
+		long rowBytes = 8L * cols;
+		if (rowBytes > MAX_CHUNK_BYTES) {
+			throw new LinAlgException("Rows of " + cols + " columns are too long to map");
+		}
+
+		_nRows = rows;
+		_nCols = cols;
+		_nChunkRows = (int)Math.min(rows, MAX_CHUNK_BYTES / rowBytes);
+		_channel = channel;
+		_bWritable = writable;
+		_maps = new MappedByteBuffer[(rows + _nChunkRows - 1) / _nChunkRows];
+		_chunks = new DoubleBuffer[_maps.length];
+
+		FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+		for (int c = 0; c < _chunks.length; c++) {
+			int chunkRows = Math.min(_nChunkRows, rows - c * _nChunkRows);
+			_maps[c] = channel.map(mode, offset + c * _nChunkRows * rowBytes, chunkRows * rowBytes);
+			_chunks[c] = _maps[c].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		}
+	}
+
+	/** Creates (or truncates) a file holding a rows x cols zero matrix and maps it read-write
+	 *
+	 * @param file
+	 * @param rows
+	 * @param cols
+	 * @return mapped matrix
+	 * @throws LinAlgException if either rows or cols is <= 0
+	 * @throws IOException if the file cannot be created or mapped
+	 */
+
+	public static MappedMatrix create(Path file, int rows, int cols) throws LinAlgException, IOException {
+
+		if (rows < 1 || cols < 1) {
+			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+		}
+		FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			ch.truncate(0);
+			ch.write(ByteBuffer.allocate(1), 8L * rows * cols - 1); // sparse file of the right length, reads as zeros
+			return new MappedMatrix(ch, 0, rows, cols, true);
+		} catch (LinAlgException | IOException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	/** Maps an existing raw file of rows x cols row-major little-endian doubles
+	 *
+	 * @param file
+	 * @param rows
+	 * @param cols
+	 * @param writable
+	 * @return mapped matrix
+	 * @throws LinAlgException if either rows or cols is <= 0 or the file is too short
+	 * @throws IOException if the file cannot be opened or mapped
+	 */
+
+	public static MappedMatrix open(Path file, int rows, int cols, boolean writable) throws LinAlgException, IOException {
+
+		FileChannel ch = writable
+				? FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			if (ch.size() < 8L * rows * cols) {
+				throw new LinAlgException("File holds fewer than " + rows + " x " + cols + " doubles");
+			}
+			return new MappedMatrix(ch, 0, rows, cols, writable);
+		} catch (LinAlgException | IOException e) {
+			ch.close();
+			throw e;
+		}
+	}
+
+	/** Return the number of rows in this matrix
+	 *
+	 * @return _nRows
+	 */
+
+	public int getNumRows() {
+
+		return _nRows;
+	}
+
+	/** Return the number of columns in this matrix
+	 *
+	 * @return _nCols
+	 */
+
+	public int getNumCols() {
+
+		return _nCols;
+	}
+
+	/** Return the scalar value at the given row and column of the matrix
+	 *
+	 * @param row
+	 * @param col
+	 * @return value at (row, col)
+	 * @throws LinAlgException if row or col indices are out of bounds
+	 */
+
+	public double get(int row, int col) throws LinAlgException {
+
+		if (row < 0 || col < 0 || row >= _nRows || col >= _nCols) {
+			throw new LinAlgException("Index requested is out of bounds");
+		}
+
+		return _chunks[row / _nChunkRows].get((row % _nChunkRows) * _nCols + col);
+	}
+
+	/** Set the row and col of this matrix to the provided val
+	 *
+	 * @param row
+	 * @param col
+	 * @param val
+	 * @throws LinAlgException if row or col indices are out of bounds or the matrix is read-only
+	 */
+
+	public void set(int row, int col, double val) throws LinAlgException {
+
+		if (row < 0 || row >= _nRows || col < 0 || col >= _nCols) {
+			throw new LinAlgException("Row or column index is out of bounds");
+		}
+		checkWritable();
+
+		_chunks[row / _nChunkRows].put((row % _nChunkRows) * _nCols + col, val);
+	}
+
+	/** Copies len entries of a row starting at col into dst[off ..] (no bounds checks: package use only)
+	 */
+
+	void readRow(int row, int col, double[] dst, int off, int len) {
+		_chunks[row / _nChunkRows].get((row % _nChunkRows) * _nCols + col, dst, off, len);
+	}
+
+	/** Copies src[off .. off+len) into a row starting at col (no bounds checks: package use only)
+	 */
+
+	void writeRow(int row, int col, double[] src, int off, int len) {
+		_chunks[row / _nChunkRows].put((row % _nChunkRows) * _nCols + col, src, off, len);
+	}
+
+	/** Returns a new heap Matrix with the same entries (only for matrices that fit on the heap)
+	 *
+	 * @return heap copy
+	 * @throws LinAlgException never in practice (dimensions are always valid)
+	 */
+
+	public Matrix toMatrix() throws LinAlgException {
+
+		Matrix m = new Matrix(_nRows, _nCols);
+		for (int i = 0; i < _nRows; i++) {
+			readRow(i, 0, m.values(), i * _nCols, _nCols);
+		}
+		return m;
+	}
+
+	/** Writes the transpose of *this* into a new mapped file, one TILE x TILE heap tile at a time
+	 *
+	 * @param file
+	 * @return transpose
+	 * @throws LinAlgException never in practice (dimensions are always valid)
+	 * @throws IOException if the output file cannot be created or mapped
+	 */
+
+	public MappedMatrix transpose(Path file) throws LinAlgException, IOException {
+
+		MappedMatrix t = create(file, _nCols, _nRows);
+		double[] in = new double[TILE * TILE], out = new double[TILE * TILE];
+
+		for (int ii = 0; ii < _nRows; ii += TILE) {
+			int mr = Math.min(TILE, _nRows - ii);
+			for (int jj = 0; jj < _nCols; jj += TILE) {
+				int mc = Math.min(TILE, _nCols - jj);
+				for (int i = 0; i < mr; i++) {
+					readRow(ii + i, jj, in, i * mc, mc);
+				}
+				Transpose.transpose(in, 0, mc, 1, out, 0, mr, mr, mc);
+				for (int j = 0; j < mc; j++) {
+					t.writeRow(jj + j, ii, out, j * mr, mr);
+				}
+			}
+		}
+		return t;
+	}
+
+	/** Returns the heap Vector result of multiplying mapped matrix m by Vector v, streaming one row
+	 *  at a time
+	 *
+	 * @param m
+	 * @param v
+	 * @return m * v
+	 * @throws LinAlgException if m columns do match the size of v
+	 */
+
+	public static Vector Multiply(MappedMatrix m, Vector v) throws LinAlgException {
+
+		if (m._nCols != v.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+
+		Vector result = new Vector(m._nRows);
+		MultiplyInto(m, v, result);
+		return result;
+	}
+
+	/** Writes the result of multiplying mapped matrix m by Vector v into out instead of a new Vector,
+	 *  streaming one row at a time through a Workspace buffer (nothing is allocated)
+	 *
+	 * @param m
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if m columns do match the size of v, out does not have m rows, or out shares storage with v
+	 */
+
+	public static void MultiplyInto(MappedMatrix m, Vector v, Vector out) throws LinAlgException {
+
+		if (m._nCols != v.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+		if (out.getDim() != m._nRows) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the number of rows " + m._nRows);
+		}
+		if (out.values() == v.values()) {
+			throw new LinAlgException("Output vector cannot share storage with the operand");
+		}
+
+		int n = m._nCols;
+		double[] row = Workspace.acquire(n), x = v.values(), y = out.values();
+		double[] xu = x;
+		int xOff = v.offset();
+		if (v.stride() != 1) { // gather a strided v so the dot kernel sees unit stride
+			xu = Workspace.acquire(n);
+			for (int k = 0; k < n; k++) xu[k] = x[xOff + k * v.stride()];
+			xOff = 0;
+		}
+		for (int i = 0; i < m._nRows; i++) {
+			m.readRow(i, 0, row, 0, n);
+			y[out.offset() + i * out.stride()] = Kernels.INSTANCE.dot(row, 0, xu, xOff, n);
+		}
+		if (xu != x) {
+			Workspace.release(xu);
+		}
+		Workspace.release(row);
+	}
+
+	/** Writes *this* * x into y, as MultiplyInto(this, x, y) (the LinearOperator view of *this*)
+	 *
+	 * @param x
+	 * @param y
+	 * @throws LinAlgException if the columns of *this* do not match the size of x, y does not have the rows of *this*, or y shares storage with x
+	 */
+
+	@Override
+	public void apply(Vector x, Vector y) throws LinAlgException {
+		MultiplyInto(this, x, y);
+	}
+
+	/** Returns the mapped result of multiplying mapped matrices a and b, written to a new file;
+	 *  C is computed one TILE x TILE output tile at a time from TILE x TILE heap tiles of a and b
+	 *  (through the same kernel as Matrix.Multiply, so each entry has the same summation order)
+	 *
+	 * @param a
+	 * @param b
+	 * @param file
+	 * @return a * b
+	 * @throws LinAlgException if a columns do not match b rows
+	 * @throws IOException if the output file cannot be created or mapped
+	 */
+
+	public static MappedMatrix Multiply(MappedMatrix a, MappedMatrix b, Path file) throws LinAlgException, IOException {
+
+		if (a._nCols != b._nRows) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+
+		MappedMatrix c = create(file, a._nRows, b._nCols);
+		multiplyTiles(a, b::readRow, c);
+		return c;
+	}
+
+	/** Returns the mapped result of multiplying mapped matrix a by heap matrix b, written to a new file
+	 *
+	 * @param a
+	 * @param b
+	 * @param file
+	 * @return a * b
+	 * @throws LinAlgException if a columns do not match b rows
+	 * @throws IOException if the output file cannot be created or mapped
+	 */
+
+	public static MappedMatrix Multiply(MappedMatrix a, Matrix b, Path file) throws LinAlgException, IOException {
+
+		if (a._nCols != b.getNumRows()) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+
+		MappedMatrix c = create(file, a._nRows, b.getNumCols());
+		Matrix rows = (b.colStride() == 1) ? b : b.compact(); // tiles are copied out of contiguous rows
+		double[] data = rows.values();
+		int bOff = rows.offset(), bRs = rows.rowStride();
+		multiplyTiles(a, (row, col, dst, off, len) -> System.arraycopy(data, bOff + row * bRs + col, dst, off, len), c);
+		return c;
+	}
+
+	/** Tiled C = A * B where B is any row source; the k tiles are visited in increasing order and
+	 *  accumulated into the same C tile, which keeps Gemm's summation order
+	 */
+
+	private static void multiplyTiles(MappedMatrix a, RowSource b, MappedMatrix c) {
+
+		int n = a._nCols, p = c._nCols;
+		double[] aTile = new double[TILE * TILE], bTile = new double[TILE * TILE], cTile = new double[TILE * TILE];
+
+		for (int ii = 0; ii < a._nRows; ii += TILE) {
+			int mr = Math.min(TILE, a._nRows - ii);
+			for (int jj = 0; jj < p; jj += TILE) {
+				int nc = Math.min(TILE, p - jj);
+				Arrays.fill(cTile, 0, mr * nc, 0.0);
+				for (int kk = 0; kk < n; kk += TILE) {
+					int kc = Math.min(TILE, n - kk);
+					for (int i = 0; i < mr; i++) a.readRow(ii + i, kk, aTile, i * kc, kc);
+					for (int k = 0; k < kc; k++) b.readRow(kk + k, jj, bTile, k * nc, nc);
+					Gemm.multiply(aTile, bTile, cTile, mr, kc, nc); // accumulates into cTile
+				}
+				for (int i = 0; i < mr; i++) {
+					c.writeRow(ii + i, jj, cTile, i * nc, nc);
+				}
+			}
+		}
+	}
+
+	/** Forces any changes to the mapped file out to the storage device
+	 */
+
+	public void flush() {
+		if (_bWritable) {
+			for (MappedByteBuffer map : _maps) {
+				map.force();
+			}
+		}
+	}
+
+	/** Closes the backing file channel (the mapping itself stays valid until garbage collected)
+	 *
+	 * @throws IOException
+	 */
+
+	@Override
+	public void close() throws IOException {
+		_channel.close();
+	}
+
+	private void checkWritable() throws LinAlgException {
+		if (!_bWritable) {
+			throw new LinAlgException("Matrix is mapped read-only");
+		}
+	}
+
+	/** Row-wise read access shared by mapped and heap operands of the tiled kernels */
+	private interface RowSource {
+		void readRow(int row, int col, double[] dst, int off, int len);
+	}
+}
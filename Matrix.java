@@ -1,5 +1,8 @@
 package linalg;
 
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
 /*** A class that represents a two dimensional real-valued (double) matrix
  *   and supports various matrix computations required in linear algebra.
  *   
@@ -9,20 +12,24 @@ package linalg;
  * 
  */
 
-public class Matrix {
+public class Matrix implements LinearOperator {
 
 	private int _nRows; // Number of rows in this matrix; nomenclature: _ for data member, n for integer
 	private int _nCols; // Number of columns in this matrix; nomenclature: _ for data member, n for integer
 	// add your own data member to represent the matrix content
 	// you could use a 2D array, or an array of Vectors (e.g., for each row)
-	private double [][] _data; //Contents of the matrix; nomenclature: _ for data member, d for double
+	private double [] _data; //Contents of the matrix stored row-major in one contiguous array: element (row, col) is at row*_nCols + col (views use _nOff and the strides below)
+	private int _nOff;       //Position of element (0, 0) in _data (0 unless this is a view)
+	private int _nRowStride; //Distance in _data between rows (_nCols unless this is a view)
+	private int _nColStride; //Distance in _data between columns (1 unless this is a view)
+	private boolean _bView;  //Whether _data belongs to another Matrix this is a view of
 	 
 	
 	/** Allocates a new matrix of the given row and column dimensions
 	 * 
 	 * @param row
 	 * @param col
-	 * @throws LinAlgException if either row or col is <= 0
+	 * @throws LinAlgException if either row or col is <= 0, or row * col is too large for one array
 	 */
 	
 	public Matrix(int row, int col) throws LinAlgException {
@@ -30,30 +37,68 @@ public class Matrix {
 		if (row < 1 || col < 1) { //dimension error
 			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
 		}
+		if ((long)row * col > Integer.MAX_VALUE - 8) { //row * col would overflow an int (or exceed the largest array)
+			throw new LinAlgException("Matrix of " + row + " x " + col + " is too large");
+		}
 		
+		long t0 = Metrics.start(); // OFF unless Metrics recording is on
 		_nRows = row;
 		_nCols = col; 
-		_data = new double[row][col]; //Entries will be automatically initialized to 0.0
+		_data = new double[row * col]; //Entries will be automatically initialized to 0.0
+		_nRowStride = col;
+		_nColStride = 1;
+		Metrics.record(Metrics.Operation.MATRIX_NEW, t0, row, col, 0, 0, 8L * row * col);
+	}
+	
+	/** View constructor: a rows x cols Matrix that shares data with its owner, element (row, col)
+	 *  being data[off + row * rowStride + col * colStride] (private: views are made by the get*View methods)
+	 * 
+	 * @param data
+	 * @param off
+	 * @param rowStride
+	 * @param colStride
+	 * @param rows
+	 * @param cols
+	 */
+	
+	private Matrix(double[] data, int off, int rowStride, int colStride, int rows, int cols) {
 		
+		_nRows = rows;
+		_nCols = cols;
+		_data = data;
+		_nOff = off;
+		_nRowStride = rowStride;
+		_nColStride = colStride;
+		_bView = true;
 	}
 	
 	/** Copy constructor: makes a new copy of an existing Matrix m
-	 *                    (note: this explicitly allocates new memory and copies over content)
+	 *                    (note: this explicitly allocates new memory and copies over content,
+	 *                     so the copy of a view is an ordinary Matrix)
 	 * 
 	 * @param m
 	 */
 	
 	public Matrix(Matrix m) {
 
+		long t0 = Metrics.start();
 		_nRows = m._nRows;
 		_nCols = m._nCols;
-		_data = new double[_nRows][_nCols]; // This allocates an array of size _nDim
+		_data = new double[_nRows * _nCols]; // This allocates an array of size _nRows * _nCols (no overflow: m passed the check in Matrix(int, int))
+		_nRowStride = _nCols;
+		_nColStride = 1;
 		
-		for (int i = 0; i < _nRows; i++) {
-			for (int j = 0; j < _nCols; j++) {
-					_data[i][j] = m._data[i][j];
+		if (m._nColStride == 1 && m._nRowStride == m._nCols) {
+			System.arraycopy(m._data, m._nOff, _data, 0, _data.length); //row-major storage is contiguous, so one bulk copy covers every row
+		}
+		else {
+			for (int i = 0; i < _nRows; i++) {
+				for (int j = 0; j < _nCols; j++) {
+					_data[i * _nCols + j] = m._data[m.index(i, j)];
+				}
 			}
 		}
+		Metrics.record(Metrics.Operation.MATRIX_COPY, t0, _nRows, _nCols, 0, 0, 8L * _data.length);
 	}
 
 	/** Constructs a String representation of this Matrix
@@ -69,8 +114,7 @@ public class Matrix {
 			for (int i = 0; i < _nRows; i++) {
 			sb.append("[");
 				for (int j = 0; j < _nCols; j++) {
-						_data[i][j] = _data[i][j];
-						sb.append(String.format(" %6.3f ", _data[i][j]));
+						sb.append(String.format(" %6.3f ", _data[index(i, j)]));
 				}
 		
 			sb.append(" ]\n"); 
@@ -98,7 +142,7 @@ public class Matrix {
 		
 			for (int i = 0; i < _nRows; i++) {
 				for (int j = 0; j < _nCols; j++) {
-					if (_data[i][j] != m._data[i][j]) {
+					if (_data[index(i, j)] != m._data[m.index(i, j)]) {
 						return false;  //they have to have the same elements for them to be equal
 					}
 				}
@@ -109,6 +153,88 @@ public class Matrix {
 		return false; //if o and matrix do not share the same class type
 	} 
 	
+	/** Returns a hash of the dimensions and elements that agrees with equals() (the same as
+	 *  ImmutableMatrix.hashCode for the same values); the hash changes whenever the matrix does,
+	 *  so a Matrix used as a HashMap key must not be modified
+	 * 
+	 */
+	
+	public int hashCode() {
+		
+		int h = 31 * (31 * _nRows + _nCols);
+		for (int i = 0; i < _nRows; i++) {
+			for (int j = 0; j < _nCols; j++) {
+				h += ChunkedArray.hashElement(i * _nCols + j, _data[index(i, j)]); //row-major position, whatever the storage layout
+			}
+		}
+		return h;
+	}
+	
+	/** Returns the backing array of this matrix (package-private so other linalg kernels can read
+	 *  and write entries without a bounds check per element); element (row, col) is at
+	 *  offset() + row * rowStride() + col * colStride(), so code that assumes plain row-major
+	 *  storage should go through compact() first
+	 * 
+	 * @return _data
+	 */
+	
+	double[] values() {
+		
+		return _data;
+	}
+	
+	/** Returns the index of element (0, 0) in values()
+	 * 
+	 * @return _nOff
+	 */
+	
+	int offset() {
+		
+		return _nOff;
+	}
+	
+	/** Returns the distance in values() between consecutive rows
+	 * 
+	 * @return _nRowStride
+	 */
+	
+	int rowStride() {
+		
+		return _nRowStride;
+	}
+	
+	/** Returns the distance in values() between consecutive columns
+	 * 
+	 * @return _nColStride
+	 */
+	
+	int colStride() {
+		
+		return _nColStride;
+	}
+	
+	/** Returns *this* if values() holds exactly its elements in row-major order, else a compact
+	 *  copy (package-private, for code that only handles plain storage)
+	 * 
+	 * @return compact matrix with the same values
+	 */
+	
+	Matrix compact() {
+		
+		return (_nOff == 0 && _nColStride == 1 && _nRowStride == _nCols && _data.length == _nRows * _nCols) ? this : new Matrix(this);
+	}
+	
+	/** Returns whether this Matrix shares its storage with another Matrix (see getSubMatrixView and
+	 *  getTransposeView): writes to a view change the matrix it was taken from and the other way around
+	 * 
+	 * @return true for a view
+	 */
+	
+	public boolean isView() {
+		
+		return _bView;
+	}
+	
 	/** Return the number of rows in this matrix
 	 *   
 	 * @return _nRows
@@ -133,7 +259,7 @@ public class Matrix {
 	 * 
 	 * @param row
 	 * @param col
-	 * @return _data[row][col]
+	 * @return _data[index(row, col)]
 	 * @throws LinAlgException if row or col indices are out of bounds
 	 */
 
@@ -143,7 +269,7 @@ public class Matrix {
 			throw new LinAlgException("Index requested is out of bounds");
 		}
 		
-		return _data[row][col]; //return the value of the matrix at the specified index
+		return _data[index(row, col)]; //return the value of the matrix at the specified index
 	}
 	
 	/** Return the Vector of numbers corresponding to the provided row index
@@ -162,12 +288,78 @@ public class Matrix {
 		Vector rowVector = new Vector(_nCols); //has to have enough space to hold all the values (number of columns) of that row of the matrix
 			
 		for (int j = 0; j < _nCols; j++) { 
-			double val = this.get(row, j); //use 'get' from above to set val to value at the specifed index j in the requested row
-			rowVector.set(row, val); //set value of our rowVector equal to val
+			rowVector.values()[j] = _data[index(row, j)]; //entry j of the row goes to index j of rowVector
 		}
 		
 		return rowVector; //output the final rowVector
 	}
+	
+	/** Return a Vector view of the provided row: no values are copied, and writes through either
+	 *  the view or this matrix are seen by both
+	 * 
+	 * @param row
+	 * @return view of the row
+	 * @throws LinAlgException if row is out of bounds
+	 */
+	
+	public Vector getRowView(int row) throws LinAlgException {
+		
+		if (row < 0 || row >= _nRows) {
+			throw new LinAlgException("Row requested is out of bounds");
+		}
+		
+		return new Vector(_data, _nOff + row * _nRowStride, _nColStride, _nCols);
+	}
+	
+	/** Return a Vector view of the provided column (strided over the rows; no values are copied)
+	 * 
+	 * @param col
+	 * @return view of the column
+	 * @throws LinAlgException if col is out of bounds
+	 */
+	
+	public Vector getColumnView(int col) throws LinAlgException {
+		
+		if (col < 0 || col >= _nCols) {
+			throw new LinAlgException("Column requested is out of bounds");
+		}
+		
+		return new Vector(_data, _nOff + col * _nColStride, _nRowStride, _nRows);
+	}
+	
+	/** Return a rows x cols Matrix view of the block of this matrix whose top left entry is at
+	 *  (row, col); no values are copied
+	 * 
+	 * @param row
+	 * @param col
+	 * @param rows
+	 * @param cols
+	 * @return view of the block
+	 * @throws LinAlgException if rows or cols is < 1 or the block does not fit inside this matrix
+	 */
+	
+	public Matrix getSubMatrixView(int row, int col, int rows, int cols) throws LinAlgException {
+		
+		if (rows < 1 || cols < 1) {
+			throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+		}
+		if (row < 0 || col < 0 || row + rows > _nRows || col + cols > _nCols) {
+			throw new LinAlgException("Block requested is out of bounds");
+		}
+		
+		return new Matrix(_data, index(row, col), _nRowStride, _nColStride, rows, cols);
+	}
+	
+	/** Return a view of the transpose of this matrix: the row and column strides are swapped, so
+	 *  no values are moved (Multiply reads the view in its storage order)
+	 * 
+	 * @return transposed view
+	 */
+	
+	public Matrix getTransposeView() {
+		
+		return new Matrix(_data, _nOff, _nColStride, _nRowStride, _nCols, _nRows);
+	}
 
 	/** Set the row and col of this matrix to the provided val
 	 * 
@@ -183,7 +375,7 @@ public class Matrix {
 			throw new LinAlgException("Row or column index is out of bounds");
 		}
 		
-		_data[row][col] = val; //set content of matrix at that index to val
+		_data[index(row, col)] = val; //set content of matrix at that index to val
 	}
 	
 	/** Return a new Matrix that is the transpose of *this*, i.e., if "transpose"
@@ -195,14 +387,68 @@ public class Matrix {
 	 */
 	
 	public Matrix transpose() throws LinAlgException {
+		long t0 = Metrics.start();
 		Matrix transpose = new Matrix(_nCols, _nRows); //new matrix with enough rows as the original matrix's columns, and enough columns for the original matrix's rows
 		
-		for (int row = 0; row < _nRows; row++) {
-			for (int col = 0; col < _nCols; col++) {
-				transpose.set(col, row, get(row,col)); //instead of (row, col), the transpose does (col, row) and uses the value from (row, col) to put as content for (col, row)
+		//(row, col) goes to (col, row); the blocked kernel moves cache-sized tiles so neither side is walked column by column
+		Transpose.transpose(_data, _nOff, _nRowStride, _nColStride, transpose._data, 0, _nRows, _nRows, _nCols);
+		Metrics.record(Metrics.Operation.MATRIX_TRANSPOSE, t0, _nRows, _nCols, 0, 0, 8L * _nRows * _nCols);
+		return transpose;
+	}
+	
+	/** Writes the transpose of *this* into out instead of a new Matrix (nothing is allocated)
+	 * 
+	 * @param out
+	 * @throws LinAlgException if out is not a cols x rows matrix or shares storage with *this*
+	 */
+	
+	public void transpose(Matrix out) throws LinAlgException {
+		
+		if (out._nRows != _nCols || out._nCols != _nRows) {
+			throw new LinAlgException("Output matrix has to be " + _nCols + " x " + _nRows);
+		}
+		if (out._data == _data) {
+			throw new LinAlgException("Output matrix cannot share storage with the matrix being transposed");
+		}
+		
+		long t0 = Metrics.start();
+		if (out._nColStride == 1) {
+			Transpose.transpose(_data, _nOff, _nRowStride, _nColStride, out._data, out._nOff, out._nRowStride, _nRows, _nCols);
+		}
+		else { //out is itself a transposed view, so its storage has the layout of *this*
+			for (int row = 0; row < _nRows; row++) {
+				for (int col = 0; col < _nCols; col++) {
+					out._data[out.index(col, row)] = _data[index(row, col)];
+				}
 			}
 		}
-		return transpose;
+		Metrics.record(Metrics.Operation.MATRIX_TRANSPOSE, t0, _nRows, _nCols, 0, 0, 0);
+	}
+	
+	/** Transposes *this* in place without allocating a second matrix: square matrices (and square
+	 *  views) swap blocks across the diagonal, rectangular matrices follow the cycles of the index
+	 *  permutation (slower, but needs only one bit of scratch per element) and swap their dimensions
+	 * 
+	 * @throws LinAlgException if *this* is a rectangular view (the shape of a view cannot change)
+	 */
+	
+	public void transposeInPlace() throws LinAlgException {
+		
+		long t0 = Metrics.start();
+		int rows = _nRows, cols = _nCols;
+		if (rows == cols) {
+			Transpose.squareInPlace(_data, _nOff, _nRowStride, _nColStride, rows);
+		}
+		else if (_bView) {
+			throw new LinAlgException("Cannot transpose a rectangular view in place");
+		}
+		else {
+			Transpose.inPlace(_data, rows, cols);
+			_nRows = cols;
+			_nCols = rows;
+			_nRowStride = _nCols;
+		}
+		Metrics.record(Metrics.Operation.MATRIX_TRANSPOSE, t0, rows, cols, 0, 0, 0);
 	}
 
 	/** Return a new Matrix that is the square identity matrix (1's on diagonal, 0's elsewhere) 
@@ -227,15 +473,7 @@ public class Matrix {
 		Matrix identity = new Matrix(dim, dim); //creates a square matrix with dimension inputted
 		
 		for (int index = 0; index < dim; index++) {
-			for (int j = 0; j < dim; j++) {
-				if (index == j) {
-						identity._data[index][j] = 1; //1's on diagonals
-				}
-				
-				else {
-						identity._data[index][j] = 0; //0's elsewhere
-				}
-			}
+			identity._data[index * dim + index] = 1; //1's on diagonals, the rest is already 0.0
 		}
            
 		return identity;
@@ -243,6 +481,7 @@ public class Matrix {
 
 	/** Returns the Matrix result of multiplying Matrix m1 and m2
 	 *  (look up the definition of matrix multiply if you don't remember it)
+	 *  ... runs on the default pool from Parallelism when the product is large enough
 	 * 
 	 * @param m1
 	 * @param m2
@@ -251,29 +490,87 @@ public class Matrix {
 	 */
 	
 	public static Matrix Multiply(Matrix m1, Matrix m2) throws LinAlgException {
+		
+		return Multiply(m1, m2, Parallelism.getPool());
+	}
+	
+	/** Returns the Matrix result of multiplying Matrix m1 and m2, splitting the output into tiles
+	 *  that run on the given pool (null runs on the calling thread); the result does not depend on
+	 *  the pool since every element is computed by a single task
+	 * 
+	 * @param m1
+	 * @param m2
+	 * @param pool
+	 * @return result
+	 * @throws LinAlgException if m1 columns do not match the size of m2 rows
+	 */
+	
+	public static Matrix Multiply(Matrix m1, Matrix m2, ForkJoinPool pool) throws LinAlgException {
 	
 		if (m1._nCols != m2._nRows) { //the number of columns in matrix 1 has to equal the number of rows in matrix 2 for this multiplication
 			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
 		}
 		
+		long t0 = Metrics.start();
 		Matrix result = new Matrix (m1._nRows, m2._nCols); //the result of the multiplication must have the dimensions of rows of matrix 1 and columns of the matrix 2
-		double val = 0.0;
 		
-		for (int i = 0; i < m1._nRows; i++) { 
-            for (int j = 0; j < m2._nCols; j++) { //for the each row of matrix 1, each element is multiplied with the corresponding element for each of the columns in matrix 2 and then the products of the multiplication  are added together for that row, to become the value of the element in the result matrix
-                for (int k = 0; k < m2._nRows; k++) {  //that is why i cannot be >= rows of matrix 1, and why j cannot be >= columns of matrix 2. 
-                	val += (m1._data[i][k] * m2._data[k][j]); //k has to be < the number of rows of matrix 2 to ensure this multiplication is possible and that the result matrix has the right dimensions as expected from the matrix multiplication formula
-                }
-
-                result.set(i,j,val); //set value of val
-                val = 0.0; //reset for each iteration
-            }
-		}
+		//each element of the result is the sum over k of m1[i][k] * m2[k][j]; the blocked kernel accumulates
+		//those products in the same k order as the i-j-k loop, so the values are bit-for-bit the same
+		ParallelKernels.multiply(m1._data, m1._nOff, m1._nRowStride, m1._nColStride, m2._data, m2._nOff, m2._nRowStride, m2._nColStride,
+				result._data, 0, result._nCols, m1._nRows, m1._nCols, m2._nCols, pool);
+		Metrics.record(Metrics.Operation.MATRIX_MULTIPLY, t0, m1._nRows, m1._nCols, m2._nCols,
+				2L * m1._nRows * m1._nCols * m2._nCols, 8L * m1._nRows * m2._nCols);
 	
 		return result;
 	}
+	
+	/** Writes the Matrix result of multiplying Matrix m1 and m2 into out instead of a new Matrix
+	 *  (any previous contents of out are overwritten; nothing is allocated)
+	 * 
+	 * @param m1
+	 * @param m2
+	 * @param out
+	 * @throws LinAlgException if m1 columns do not match the size of m2 rows, out is not m1 rows x m2 columns, or out shares storage with m1 or m2
+	 */
+	
+	public static void MultiplyInto(Matrix m1, Matrix m2, Matrix out) throws LinAlgException {
+	
+		if (m1._nCols != m2._nRows) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+		if (out._nRows != m1._nRows || out._nCols != m2._nCols) {
+			throw new LinAlgException("Output matrix has to be " + m1._nRows + " x " + m2._nCols);
+		}
+		if (out._data == m1._data || out._data == m2._data) { //every output row reads a whole row of m1 and all of m2
+			throw new LinAlgException("Output matrix cannot share storage with one of the operands");
+		}
+		
+		long t0 = Metrics.start();
+		int m = m1._nRows, p = m2._nCols;
+		if (out._nColStride == 1) { //rows of out are contiguous, so the kernel can accumulate into them directly
+			for (int i = 0; i < m; i++) {
+				Arrays.fill(out._data, out.index(i, 0), out.index(i, 0) + p, 0.0);
+			}
+			ParallelKernels.multiply(m1._data, m1._nOff, m1._nRowStride, m1._nColStride, m2._data, m2._nOff, m2._nRowStride, m2._nColStride,
+					out._data, out._nOff, out._nRowStride, m, m1._nCols, p, Parallelism.getPool());
+		}
+		else { //e.g. a transposed view: compute into a workspace buffer and scatter
+			double[] c = Workspace.acquire(m * p);
+			Arrays.fill(c, 0, m * p, 0.0);
+			ParallelKernels.multiply(m1._data, m1._nOff, m1._nRowStride, m1._nColStride, m2._data, m2._nOff, m2._nRowStride, m2._nColStride,
+					c, 0, p, m, m1._nCols, p, Parallelism.getPool());
+			for (int i = 0; i < m; i++) {
+				for (int j = 0; j < p; j++) {
+					out._data[out.index(i, j)] = c[i * p + j];
+				}
+			}
+			Workspace.release(c);
+		}
+		Metrics.record(Metrics.Operation.MATRIX_MULTIPLY, t0, m, m1._nCols, p, 2L * m * m1._nCols * p, 0);
+	}
 		
 	/** Returns the Vector result of multiplying Matrix m by Vector v (assuming v is a column vector)
+	 *  ... runs on the default pool from Parallelism when the product is large enough
 	 * 
 	 * @param m
 	 * @param v
@@ -283,22 +580,132 @@ public class Matrix {
 
 	public static Vector Multiply(Matrix m, Vector v) throws LinAlgException {
 		
+		return Multiply(m, v, Parallelism.getPool());
+	}
+	
+	/** Returns the Vector result of multiplying Matrix m by Vector v (assuming v is a column vector),
+	 *  splitting the rows across the given pool (null runs on the calling thread)
+	 * 
+	 * @param m
+	 * @param v
+	 * @param pool
+	 * @return resultVM
+	 * @throws LinAlgException if m columns do match the size of v
+	 */
+
+	public static Vector Multiply(Matrix m, Vector v, ForkJoinPool pool) throws LinAlgException {
+		
 		if (m._nCols != v.getDim()) { //the number of columns in the matrix has to equal the dimension of the column for this multiplication to occur
 			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
 		}
 		
+		long t0 = Metrics.start();
 		Vector resultVM = new Vector (m._nRows); //the result of the multiplication must have the dimensions of rows of the matrix and the columns of the vector (which is 1)
-		double val = 0.0;
-		
-		for (int i = 0; i < m._nRows; i++) { 
-            for (int j = 0; j < v.getDim(); j++) { //for the each row of the matrix, each element is multiplied with the corresponding element for the column in the vector and then the products of the multiplication  are added together for that row to become the value of the element in the result vector
-                 //that is why i cannot be >= rows of the matrix, and why j cannot be >= size or dimension of the vector 
-                	val += (m._data[i][j] * v.get(j)); 
-            }
-            	resultVM.set(i, val); //set value
-            	val = 0.0; //reset for each iteration
-        }
+		
+		//each row of the matrix is multiplied elementwise with the vector and the products are summed in order
+		ParallelKernels.gemv(m._data, m._nOff, m._nRowStride, m._nColStride, v.values(), v.offset(), v.stride(),
+				resultVM.values(), 0, 1, m._nRows, m._nCols, pool);
+		Metrics.record(Metrics.Operation.MATRIX_VECTOR_MULTIPLY, t0, m._nRows, m._nCols, 0, 2L * m._nRows * m._nCols, 8L * m._nRows);
+		
 		return resultVM;
 	}
+	
+	/** Writes the Vector result of multiplying Matrix m by Vector v into out instead of a new Vector
+	 *  (nothing is allocated)
+	 * 
+	 * @param m
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if m columns do match the size of v, out does not have m rows, or out shares storage with m or v
+	 */
+
+	public static void MultiplyInto(Matrix m, Vector v, Vector out) throws LinAlgException {
+		
+		if (m._nCols != v.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+		if (out.getDim() != m._nRows) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the number of rows " + m._nRows);
+		}
+		if (out.values() == v.values() || out.values() == m._data) { //every output entry reads all of v and a row of m
+			throw new LinAlgException("Output vector cannot share storage with one of the operands");
+		}
+		
+		long t0 = Metrics.start();
+		ParallelKernels.gemv(m._data, m._nOff, m._nRowStride, m._nColStride, v.values(), v.offset(), v.stride(),
+				out.values(), out.offset(), out.stride(), m._nRows, m._nCols, Parallelism.getPool());
+		Metrics.record(Metrics.Operation.MATRIX_VECTOR_MULTIPLY, t0, m._nRows, m._nCols, 0, 2L * m._nRows * m._nCols, 0);
+	}
+	
+	/** Writes *this* * x into y, as MultiplyInto(this, x, y) (the LinearOperator view of *this*)
+	 * 
+	 * @param x
+	 * @param y
+	 * @throws LinAlgException if the columns of *this* do not match the size of x, y does not have the rows of *this*, or y shares storage with *this* or x
+	 */
+	
+	@Override
+	public void apply(Vector x, Vector y) throws LinAlgException {
+		
+		MultiplyInto(this, x, y);
+	}
+	
+	/** Returns the LU factorization with partial pivoting of *this* (PA = LU), which solves linear
+	 *  systems, computes the determinant and the inverse; *this* is copied, so later changes to it
+	 *  do not affect the factorization
+	 * 
+	 * @return factorization
+	 * @throws LinAlgException if *this* is not square
+	 */
+	
+	public LUDecomposition lu() throws LinAlgException {
+		
+		if (_nRows != _nCols) {
+			throw new LinAlgException("LU factorization needs a square matrix, not " + _nRows + " x " + _nCols);
+		}
+		
+		return new LUDecomposition(this);
+	}
+	
+	/** Returns the Cholesky factorization of *this* (A = L L^T), which solves linear systems with a
+	 *  symmetric positive definite matrix in about half the time of lu(); only the lower triangle
+	 *  of *this* is read, and *this* is copied
+	 * 
+	 * @return factorization
+	 * @throws LinAlgException if *this* is not square or not positive definite
+	 */
+	
+	public CholeskyDecomposition cholesky() throws LinAlgException {
+		
+		if (_nRows != _nCols) {
+			throw new LinAlgException("Cholesky factorization needs a square matrix, not " + _nRows + " x " + _nCols);
+		}
+		
+		return new CholeskyDecomposition(this);
+	}
+	
+	/** Returns the Householder QR factorization of *this* (A = QR), which solves least-squares
+	 *  problems min ||A x - b||; *this* is copied
+	 * 
+	 * @return factorization
+	 * @throws LinAlgException if *this* has fewer rows than columns
+	 */
+	
+	public QRDecomposition qr() throws LinAlgException {
+		
+		if (_nRows < _nCols) {
+			throw new LinAlgException("QR factorization needs at least as many rows as columns, not " + _nRows + " x " + _nCols);
+		}
+		
+		return new QRDecomposition(this);
+	}
+	
+	/** Returns the position of element (row, col) in _data
+	 */
+	
+	private int index(int row, int col) {
+		
+		return _nOff + row * _nRowStride + col * _nColStride;
+	}
 
 }
@@ -0,0 +1,484 @@
+package linalg;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/*** Opt-in instrumentation of the Vector and Matrix operations: per operation, the number of
+ *   calls, the floating point operations and bytes allocated, a latency histogram and a histogram
+ *   of operand shapes, plus a JDK Flight Recorder event for every large operation.
+ *
+ *   Recording is off unless the JVM is started with -Dlinalg.metrics=true or setEnabled(true) is
+ *   called.  When off, an instrumented operation only reads one volatile flag on entry and
+ *   compares a local on exit.  When on, it reads the clock twice and adds to a few counters;
+ *   the counters are LongAdders, whose striped cells let many threads add without contending on
+ *   one cache line, and no locks are taken.
+ *
+ *   Latencies are kept in power-of-two buckets of nanoseconds (percentiles are interpolated
+ *   within a bucket, so they are estimates); shapes are kept with every dimension rounded up to
+ *   a power of two (a 300 x 200 matrix counts as 512x256).  FLOPs count a multiply-add as two
+ *   operations.  Bytes allocated are those of the values arrays an operation creates: a
+ *   constructor reports its array, and an operation returning a new result also reports the
+ *   result (whose constructor is recorded too, under its own entry); kernel workspace is not
+ *   counted.
+ *
+ *   An operation whose FLOPs plus allocated bytes reach getEventThreshold() also commits a
+ *   linalg.Operation event (when JFR is recording with that event enabled), with the operation,
+ *   its dimensions, FLOPs, bytes and latency.
+ *
+ *   snapshot() returns the counters as OperationStats per operation; scrape() formats them as
+ *   text in the Prometheus exposition format.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class Metrics {
+
+	/** The instrumented operations, with the label reported for each and its number of dimensions
+	 */
+
+	public enum Operation {
+		VECTOR_NEW("Vector(int)", 1),                             // also Vector(String)
+		VECTOR_COPY("Vector(Vector)", 1),
+		MATRIX_NEW("Matrix(int,int)", 2),
+		MATRIX_COPY("Matrix(Matrix)", 2),
+		VECTOR_SCALAR_ADD("Vector.scalarAdd", 1),
+		VECTOR_SCALAR_MULT("Vector.scalarMult", 1),
+		VECTOR_ADD("Vector.elementwiseAdd", 1),
+		VECTOR_MULT("Vector.elementwiseMult", 1),
+		VECTOR_SCALED_ADD("Vector.scaledAddInPlace", 1),
+		VECTOR_INNER_PROD("Vector.InnerProd", 1),
+		MATRIX_TRANSPOSE("Matrix.transpose", 2),                  // rows x cols of the source
+		MATRIX_MULTIPLY("Matrix.Multiply(Matrix,Matrix)", 3),     // m x n times n x p, as m x n x p
+		MATRIX_VECTOR_MULTIPLY("Matrix.Multiply(Matrix,Vector)", 2);
+
+		final String _sLabel; // Method name as reported
+		final int _nDims;     // Dimensions in the shape histogram
+
+		Operation(String label, int dims) {
+			_sLabel = label;
+			_nDims = dims;
+		}
+
+		/** Returns the method name reported for this operation
+		 *
+		 * @return label
+		 */
+
+		public String getLabel() {
+
+			return _sLabel;
+		}
+	}
+
+	static final long OFF = Long.MIN_VALUE; // start() result when recording is off
+	static final int BUCKETS = 64;          // Latency buckets: bucket b holds [2^(b-1), 2^b) ns
+	static final int SHAPE_BITS = 5;        // Bits per dimension in a shape key (log2 buckets 0..31)
+
+	private static volatile boolean _bEnabled = Boolean.getBoolean("linalg.metrics");
+	private static volatile long _nEventThreshold = 1L << 24; // FLOPs plus bytes that make an operation large
+
+	private static final AtomicReferenceArray<Stats> STATS = new AtomicReferenceArray<Stats>(Operation.values().length); // replaced whole by reset()
+	static {
+		for (Operation op : Operation.values()) {
+			STATS.set(op.ordinal(), new Stats(op._nDims));
+		}
+	}
+
+	private Metrics() {} // static methods only
+
+	/** Turns recording on or off (counters recorded so far are kept)
+	 *
+	 * @param enabled
+	 */
+
+	public static void setEnabled(boolean enabled) {
+
+		_bEnabled = enabled;
+	}
+
+	/** Returns whether operations are being recorded
+	 *
+	 * @return enabled
+	 */
+
+	public static boolean isEnabled() {
+
+		return _bEnabled;
+	}
+
+	/** Sets the FLOPs plus allocated bytes from which an operation commits a JFR event
+	 *
+	 * @param work
+	 * @throws LinAlgException if work is < 0
+	 */
+
+	public static void setEventThreshold(long work) throws LinAlgException {
+
+		if (work < 0) {
+			throw new LinAlgException("Event threshold " + work + " cannot be negative");
+		}
+
+		_nEventThreshold = work;
+	}
+
+	/** Returns the FLOPs plus allocated bytes from which an operation commits a JFR event
+	 *
+	 * @return _nEventThreshold
+	 */
+
+	public static long getEventThreshold() {
+
+		return _nEventThreshold;
+	}
+
+	/** Clears every counter (operations in progress may still add to the cleared counters)
+	 */
+
+	public static void reset() {
+
+		for (int i = 0; i < STATS.length(); i++) {
+			STATS.set(i, new Stats(STATS.get(i)._nDims)); // a volatile write: other threads see the new counters fully built
+		}
+	}
+
+	/** Returns the counters of every operation called at least once since the last reset
+	 *
+	 * @return stats by operation, in declaration order
+	 */
+
+	public static Map<Operation, OperationStats> snapshot() {
+
+		Map<Operation, OperationStats> result = new EnumMap<Operation, OperationStats>(Operation.class);
+		for (Operation op : Operation.values()) {
+			OperationStats s = STATS.get(op.ordinal()).snapshot(op);
+			if (s.getCalls() > 0) {
+				result.put(op, s);
+			}
+		}
+		return Collections.unmodifiableMap(result);
+	}
+
+	/** Returns snapshot() as Prometheus text: per operation, counters linalg_calls_total,
+	 *  linalg_flops_total, linalg_allocated_bytes_total and linalg_latency_seconds_sum, and
+	 *  latency quantiles 0.5, 0.9, 0.99 and 1 in the summary linalg_latency_seconds
+	 *
+	 * @return text
+	 */
+
+	public static String scrape() {
+
+		Map<Operation, OperationStats> snap = snapshot();
+		StringBuilder sb = new StringBuilder();
+		sb.append("# TYPE linalg_calls_total counter\n");
+		for (OperationStats s : snap.values()) metric(sb, "linalg_calls_total", s, null, s.getCalls());
+		sb.append("# TYPE linalg_flops_total counter\n");
+		for (OperationStats s : snap.values()) metric(sb, "linalg_flops_total", s, null, s.getFlops());
+		sb.append("# TYPE linalg_allocated_bytes_total counter\n");
+		for (OperationStats s : snap.values()) metric(sb, "linalg_allocated_bytes_total", s, null, s.getBytesAllocated());
+		sb.append("# TYPE linalg_latency_seconds summary\n");
+		for (OperationStats s : snap.values()) {
+			for (double q : new double[] { 0.5, 0.9, 0.99, 1.0 }) {
+				metric(sb, "linalg_latency_seconds", s, q, s.percentile(q) * 1e-9);
+			}
+			metric(sb, "linalg_latency_seconds_sum", s, null, s.getTotalNanos() * 1e-9);
+			metric(sb, "linalg_latency_seconds_count", s, null, s.getCalls());
+		}
+		return sb.toString();
+	}
+
+	private static void metric(StringBuilder sb, String name, OperationStats s, Double quantile, double value) {
+		sb.append(name).append("{op=\"").append(s.getOperation().getLabel()).append('"');
+		if (quantile != null) {
+			sb.append(",quantile=\"").append(quantile).append('"');
+		}
+		sb.append("} ").append(value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long)value) : Double.toString(value)).append('\n');
+	}
+
+	/** Marks the start of an operation: returns the clock if recording is on, else OFF */
+	static long start() {
+		return _bEnabled ? System.nanoTime() : OFF;
+	}
+
+	/** Records an operation that started at t0 (from start(); nothing is done for OFF), with
+	 *  dimensions d0..d2 (only the first op._nDims are used), FLOPs and bytes allocated */
+	static void record(Operation op, long t0, int d0, int d1, int d2, long flops, long bytes) {
+		if (t0 != OFF) {
+			add(op, System.nanoTime() - t0, d0, d1, d2, flops, bytes);
+		}
+	}
+
+	private static void add(Operation op, long nanos, int d0, int d1, int d2, long flops, long bytes) {
+
+		STATS.get(op.ordinal()).add(nanos, d0, d1, d2, flops, bytes);
+
+		if (flops + bytes >= _nEventThreshold) {
+			OperationEvent e = new OperationEvent();
+			if (e.isEnabled()) {
+				e.operation = op._sLabel;
+				e.dim0 = d0;
+				e.dim1 = (op._nDims > 1) ? d1 : 0;
+				e.dim2 = (op._nDims > 2) ? d2 : 0;
+				e.flops = flops;
+				e.bytes = bytes;
+				e.latency = nanos;
+				e.commit();
+			}
+		}
+	}
+
+	/** Power-of-two bucket of a dimension (1 -> 0, 2 -> 1, 3..4 -> 2, ...) */
+	static int shapeBucket(int d) {
+		return 32 - Integer.numberOfLeadingZeros(Math.max(d, 1) - 1);
+	}
+
+	/** Power-of-two bucket of a latency (0 -> 0, 1 -> 1, 2..3 -> 2, ...) */
+	static int latencyBucket(long nanos) {
+		return 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0));
+	}
+
+	/** The live counters of one operation
+	 */
+
+	private static final class Stats {
+
+		final int _nDims;
+		final LongAdder _flops = new LongAdder(), _bytes = new LongAdder(), _nanos = new LongAdder();
+		final LongAccumulator _maxNanos = new LongAccumulator(Math::max, 0);
+		final LongAdder[] _latency = new LongAdder[BUCKETS]; // calls per latency bucket (their total is the number of calls)
+		final AtomicReferenceArray<LongAdder> _shapes; // by packed shape key, created on first use
+
+		Stats(int dims) {
+			_nDims = dims;
+			for (int b = 0; b < BUCKETS; b++) {
+				_latency[b] = new LongAdder();
+			}
+			_shapes = new AtomicReferenceArray<LongAdder>(1 << (SHAPE_BITS * dims));
+		}
+
+		void add(long nanos, int d0, int d1, int d2, long flops, long bytes) {
+
+			if (flops != 0) _flops.add(flops); // each add is an atomic update, so skip the ones that add nothing
+			if (bytes != 0) _bytes.add(bytes);
+			_nanos.add(nanos);
+			_maxNanos.accumulate(nanos);
+			_latency[latencyBucket(nanos)].increment();
+
+			int key = shapeBucket(d0);
+			if (_nDims > 1) key = (key << SHAPE_BITS) | shapeBucket(d1);
+			if (_nDims > 2) key = (key << SHAPE_BITS) | shapeBucket(d2);
+			LongAdder count = _shapes.get(key);
+			if (count == null) {
+				_shapes.compareAndSet(key, null, new LongAdder()); // the first thread to get here installs it
+				count = _shapes.get(key);
+			}
+			count.increment();
+		}
+
+		OperationStats snapshot(Operation op) {
+
+			long[] latency = new long[BUCKETS];
+			long calls = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				latency[b] = _latency[b].sum();
+				calls += latency[b];
+			}
+			Map<String, Long> shapes = new LinkedHashMap<String, Long>();
+			for (int key = 0; key < _shapes.length(); key++) {
+				LongAdder count = _shapes.get(key);
+				if (count != null) {
+					StringBuilder sb = new StringBuilder();
+					for (int i = _nDims - 1; i >= 0; i--) {
+						sb.append(1L << ((key >>> (SHAPE_BITS * i)) & ((1 << SHAPE_BITS) - 1))).append(i > 0 ? "x" : "");
+					}
+					shapes.put(sb.toString(), count.sum());
+				}
+			}
+			return new OperationStats(op, calls, _flops.sum(), _bytes.sum(), _nanos.sum(), _maxNanos.get(), latency, shapes);
+		}
+	}
+
+	/** The counters of one operation at the time of a snapshot
+	 */
+
+	public static final class OperationStats {
+
+		private final Operation _op;
+		private final long _nCalls, _nFlops, _nBytes, _nNanos, _nMaxNanos;
+		private final long[] _anLatency;        // Calls per latency bucket
+		private final Map<String, Long> _shapes; // Calls per rounded shape
+
+		OperationStats(Operation op, long calls, long flops, long bytes, long nanos, long maxNanos, long[] latency, Map<String, Long> shapes) {
+			_op = op;
+			_nCalls = calls;
+			_nFlops = flops;
+			_nBytes = bytes;
+			_nNanos = nanos;
+			_nMaxNanos = maxNanos;
+			_anLatency = latency;
+			_shapes = Collections.unmodifiableMap(shapes);
+		}
+
+		/** Returns the operation these counters are for
+		 *
+		 * @return operation
+		 */
+
+		public Operation getOperation() {
+
+			return _op;
+		}
+
+		/** Returns the number of calls
+		 *
+		 * @return calls
+		 */
+
+		public long getCalls() {
+
+			return _nCalls;
+		}
+
+		/** Returns the floating point operations done by all the calls
+		 *
+		 * @return flops
+		 */
+
+		public long getFlops() {
+
+			return _nFlops;
+		}
+
+		/** Returns the bytes of values arrays allocated by all the calls
+		 *
+		 * @return bytes
+		 */
+
+		public long getBytesAllocated() {
+
+			return _nBytes;
+		}
+
+		/** Returns the time spent in all the calls, in nanoseconds
+		 *
+		 * @return nanos
+		 */
+
+		public long getTotalNanos() {
+
+			return _nNanos;
+		}
+
+		/** Returns the latency of the slowest call, in nanoseconds
+		 *
+		 * @return nanos
+		 */
+
+		public long getMaxNanos() {
+
+			return _nMaxNanos;
+		}
+
+		/** Returns the estimated latency in nanoseconds below which a fraction p of the calls fall
+		 *  (interpolated within its power-of-two bucket; p = 1 gives the exact maximum)
+		 *
+		 * @param p
+		 * @return nanos
+		 * @throws LinAlgException if p is not in [0, 1]
+		 */
+
+		public double getLatencyPercentile(double p) throws LinAlgException {
+
+			if (!(p >= 0.0 && p <= 1.0)) {
+				throw new LinAlgException("Percentile " + p + " has to be between 0 and 1");
+			}
+			return percentile(p);
+		}
+
+		/** getLatencyPercentile for a p known to be in [0, 1] */
+		double percentile(double p) {
+
+			long total = 0;
+			for (long c : _anLatency) total += c;
+			if (total == 0) {
+				return 0.0;
+			}
+			if (p == 1.0) {
+				return _nMaxNanos;
+			}
+
+			double rank = p * total, seen = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				if (_anLatency[b] > 0 && seen + _anLatency[b] >= rank) {
+					double lo = (b == 0) ? 0 : (double)(1L << (b - 1)), hi = (b == 0) ? 1 : 2 * lo;
+					return Math.min(lo + (hi - lo) * (rank - seen) / _anLatency[b], _nMaxNanos);
+				}
+				seen += _anLatency[b];
+			}
+			return _nMaxNanos;
+		}
+
+		/** Returns the number of calls per shape, each dimension rounded up to a power of two
+		 *  ("256x512x64" for a 200 x 300 by 300 x 64 product)
+		 *
+		 * @return shapes
+		 */
+
+		public Map<String, Long> getShapes() {
+
+			return _shapes;
+		}
+
+		public String toString() {
+
+			return String.format("%s: %d calls, %d flops, %d bytes, p50 %.0f ns, p99 %.0f ns, max %d ns, shapes %s",
+					_op._sLabel, _nCalls, _nFlops, _nBytes, percentile(0.5), percentile(0.99), _nMaxNanos, _shapes);
+		}
+	}
+
+	/** The JFR event committed for a large operation
+	 */
+
+	@Name("linalg.Operation")
+	@Label("Linear Algebra Operation")
+	@Category("linalg")
+	@Description("A Vector or Matrix operation whose FLOPs plus allocated bytes reached the Metrics event threshold")
+	static final class OperationEvent extends Event {
+
+		@Label("Operation")
+		String operation;
+
+		@Label("Dimension 0")
+		int dim0;
+
+		@Label("Dimension 1")
+		int dim1;
+
+		@Label("Dimension 2")
+		int dim2;
+
+		@Label("FLOPs")
+		long flops;
+
+		@Label("Allocated")
+		@DataAmount
+		long bytes;
+
+		@Label("Latency")
+		@Timespan(Timespan.NANOSECONDS)
+		long latency;
+	}
+}
@@ -0,0 +1,52 @@
+package linalg;
+
+/*** An index over a VectorBatch that answers maximum inner product queries: the k stored vectors
+ *   with the largest InnerProd with a query.  For cosine similarity, normalize the batch (and the
+ *   queries) first with VectorBatch.normalizeInPlace.
+ *
+ *   ExactNeighborIndex scans every vector with blocked GEMM scoring; IVFNeighborIndex only scans
+ *   the clusters closest to the query, trading recall for latency, optionally over compressed
+ *   product-quantized codes.  Indexes are not changed by searches, so they can be shared between
+ *   threads.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public interface NeighborIndex {
+
+	/** Returns the number of indexed vectors
+	 *
+	 * @return size
+	 */
+
+	int getSize();
+
+	/** Returns the dimension of the indexed vectors (and of the queries)
+	 *
+	 * @return dim
+	 */
+
+	int getDim();
+
+	/** Returns the k best neighbors of query, best first (every vector when k is larger than getSize())
+	 *
+	 * @param query
+	 * @param k
+	 * @return neighbors
+	 * @throws LinAlgException if query does not have the index dimension or k is < 1
+	 */
+
+	Neighbors search(Vector query, int k) throws LinAlgException;
+
+	/** Returns the k best neighbors of every vector of queries, result i for query i (at most getSize()
+	 *  each)
+	 *
+	 * @param queries
+	 * @param k
+	 * @return neighbors
+	 * @throws LinAlgException if the queries do not have the index dimension or k is < 1
+	 */
+
+	Neighbors[] search(VectorBatch queries, int k) throws LinAlgException;
+}
@@ -0,0 +1,109 @@
+package linalg;
+
+import java.util.Arrays;
+
+/*** The result of a nearest neighbor search: the ids of the k best vectors found (their positions
+ *   in the indexed VectorBatch) with their scores, best first.
+ *
+ *   Scores are inner products with the query (exact, or estimated from product-quantized codes
+ *   for an IVFNeighborIndex built with codes); ties are broken in favour of the smaller id.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class Neighbors {
+
+	private final int[] _anId;       // Ids, best first
+	private final double[] _adScore; // Scores matching _anId
+
+	Neighbors(int[] id, double[] score) {
+		_anId = id;
+		_adScore = score;
+	}
+
+	/** Returns the number of neighbors found (k, or fewer if fewer vectors were searched)
+	 *
+	 * @return size
+	 */
+
+	public int getSize() {
+
+		return _anId.length;
+	}
+
+	/** Returns the id of the i-th best neighbor
+	 *
+	 * @param i
+	 * @return id
+	 * @throws LinAlgException if i is out of bounds
+	 */
+
+	public int getId(int i) throws LinAlgException {
+
+		check(i);
+		return _anId[i];
+	}
+
+	/** Returns the score of the i-th best neighbor
+	 *
+	 * @param i
+	 * @return score
+	 * @throws LinAlgException if i is out of bounds
+	 */
+
+	public double getScore(int i) throws LinAlgException {
+
+		check(i);
+		return _adScore[i];
+	}
+
+	/** Returns a copy of all the ids, best first
+	 *
+	 * @return ids
+	 */
+
+	public int[] getIds() {
+
+		return _anId.clone();
+	}
+
+	/** Returns a copy of all the scores, best first
+	 *
+	 * @return scores
+	 */
+
+	public double[] getScores() {
+
+		return _adScore.clone();
+	}
+
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < _anId.length; i++) {
+			sb.append(String.format(" %d:%.3f ", _anId[i], _adScore[i]));
+		}
+		return sb.append(" ]").toString();
+	}
+
+	public boolean equals(Object o) {
+
+		if (o instanceof Neighbors) {
+			Neighbors n = (Neighbors)o;
+			return Arrays.equals(_anId, n._anId) && Arrays.equals(_adScore, n._adScore);
+		}
+		return false;
+	}
+
+	public int hashCode() {
+
+		return 31 * Arrays.hashCode(_anId) + Arrays.hashCode(_adScore);
+	}
+
+	private void check(int i) throws LinAlgException {
+		if (i < 0 || i >= _anId.length) {
+			throw new LinAlgException("Neighbor " + i + " is out of bounds");
+		}
+	}
+}
@@ -0,0 +1,313 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*** Fork/join drivers that split Gemm (and FloatGemm) work across a ForkJoinPool.
+ *
+ *   GEMM recursively halves the output along its longer side until a tile falls under the
+ *   sequential threshold; GEMV halves the row range.  Every output element is still computed
+ *   start to finish by exactly one task with the sequential kernel, so the results are
+ *   identical to a sequential run for any pool size or scheduling.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class ParallelKernels {
+
+	private ParallelKernels() {} // static drivers only
+
+	/** Computes C += A * B (A is m x n, B is n x p, C is m x p; zero it first for C = A * B), on pool
+	 *  if it is not null and the product is above the sequential threshold; operands are strided
+	 *  as in Gemm.multiply
+	 */
+
+	static void multiply(double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs, int bCs,
+			double[] c, int cOff, int cRs, int m, int n, int p, ForkJoinPool pool) {
+
+		long threshold = Parallelism.getSequentialThreshold();
+		if (pool == null || (long)m * n * p < threshold) {
+			Gemm.multiply(a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, n, 0, m, 0, p);
+		}
+		else {
+			pool.invoke(new GemmTask(a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, n, 0, m, 0, p, threshold));
+		}
+	}
+
+	/** Computes y = A * x (A is m x n with strides as in Gemm.gemv; x(k) at x[xOff + k*xs] and
+	 *  y(i) at y[yOff + i*ys]), on pool if it is not null and the product is above the sequential
+	 *  threshold; a strided x or y goes through a Workspace buffer so the kernel sees unit stride
+	 */
+
+	static void gemv(double[] a, int aOff, int aRs, int aCs, double[] x, int xOff, int xs,
+			double[] y, int yOff, int ys, int m, int n, ForkJoinPool pool) {
+
+		double[] xu = x, yu = y;
+		int xuOff = xOff, yuOff = yOff;
+		if (xs != 1) {
+			xu = Workspace.acquire(n);
+			for (int k = 0; k < n; k++) xu[k] = x[xOff + k * xs];
+			xuOff = 0;
+		}
+		if (ys != 1) {
+			yu = Workspace.acquire(m);
+			yuOff = 0;
+		}
+
+		long threshold = Parallelism.getSequentialThreshold();
+		if (pool == null || (long)m * n < threshold) {
+			Gemm.gemv(a, aOff, aRs, aCs, xu, xuOff, yu, yuOff, n, 0, m);
+		}
+		else {
+			pool.invoke(new GemvTask(a, aOff, aRs, aCs, xu, xuOff, yu, yuOff, n, 0, m, threshold));
+		}
+
+		if (ys != 1) {
+			for (int i = 0; i < m; i++) y[yOff + i * ys] = yu[i];
+			Workspace.release(yu);
+		}
+		if (xs != 1) {
+			Workspace.release(xu);
+		}
+	}
+
+	/** Computes C += A * B for single-precision operands with double accumulation (FloatGemm; C(i, j)
+	 *  at c[cOff + i*cRs + j*cCs]), split across pool as multiply for double[]
+	 */
+
+	static void multiply(float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs, int bCs,
+			float[] c, int cOff, int cRs, int cCs, int m, int n, int p, ForkJoinPool pool) {
+
+		long threshold = Parallelism.getSequentialThreshold();
+		if (pool == null || (long)m * n * p < threshold) {
+			FloatGemm.multiply(a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs, n, 0, m, 0, p);
+		}
+		else {
+			pool.invoke(new FloatGemmTask(a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, cRs, cCs, n, 0, m, 0, p, threshold));
+		}
+	}
+
+	/** Computes y = A * x for a single-precision A and double x and y (FloatGemm.gemv), strided and
+	 *  split across pool as gemv for double[]
+	 */
+
+	static void gemv(float[] a, int aOff, int aRs, int aCs, double[] x, int xOff, int xs,
+			double[] y, int yOff, int ys, int m, int n, ForkJoinPool pool) {
+
+		double[] xu = x, yu = y;
+		int xuOff = xOff, yuOff = yOff;
+		if (xs != 1) {
+			xu = Workspace.acquire(n);
+			for (int k = 0; k < n; k++) xu[k] = x[xOff + k * xs];
+			xuOff = 0;
+		}
+		if (ys != 1) {
+			yu = Workspace.acquire(m);
+			yuOff = 0;
+		}
+
+		long threshold = Parallelism.getSequentialThreshold();
+		if (pool == null || (long)m * n < threshold) {
+			FloatGemm.gemv(a, aOff, aRs, aCs, xu, xuOff, yu, yuOff, n, 0, m);
+		}
+		else {
+			pool.invoke(new FloatGemvTask(a, aOff, aRs, aCs, xu, xuOff, yu, yuOff, n, 0, m, threshold));
+		}
+
+		if (ys != 1) {
+			for (int i = 0; i < m; i++) y[yOff + i * ys] = yu[i];
+			Workspace.release(yu);
+		}
+		if (xs != 1) {
+			Workspace.release(xu);
+		}
+	}
+
+	/** Computes one output tile of C, splitting it in half along its longer side while it is large
+	 */
+
+	private static final class GemmTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] _adA, _adB, _adC;
+		private final int _nAOff, _nARs, _nACs, _nBOff, _nBRs, _nBCs, _nCOff, _nCRs; // operand layouts
+		private final int _nN;
+		private final int _nRowStart, _nRowEnd, _nColStart, _nColEnd;
+		private final long _nThreshold;
+
+		GemmTask(double[] a, int aOff, int aRs, int aCs, double[] b, int bOff, int bRs, int bCs,
+				double[] c, int cOff, int cRs, int n, int rowStart, int rowEnd, int colStart, int colEnd, long threshold) {
+			_adA = a; _adB = b; _adC = c;
+			_nAOff = aOff; _nARs = aRs; _nACs = aCs;
+			_nBOff = bOff; _nBRs = bRs; _nBCs = bCs;
+			_nCOff = cOff; _nCRs = cRs;
+			_nN = n;
+			_nRowStart = rowStart; _nRowEnd = rowEnd;
+			_nColStart = colStart; _nColEnd = colEnd;
+			_nThreshold = threshold;
+		}
+
+		/** A subtask on another tile of the same product */
+		private GemmTask tile(int rowStart, int rowEnd, int colStart, int colEnd) {
+			return new GemmTask(_adA, _nAOff, _nARs, _nACs, _adB, _nBOff, _nBRs, _nBCs, _adC, _nCOff, _nCRs,
+					_nN, rowStart, rowEnd, colStart, colEnd, _nThreshold);
+		}
+
+		@Override
+		protected void compute() {
+
+			int rows = _nRowEnd - _nRowStart;
+			int cols = _nColEnd - _nColStart;
+			boolean splitRows = rows >= 2 * Gemm.MR && rows >= cols;     //rows split on micro-kernel boundaries
+			boolean splitCols = !splitRows && cols >= 2 * Gemm.MR;
+
+			if ((long)rows * cols * _nN < _nThreshold || (!splitRows && !splitCols)) {
+				Gemm.multiply(_adA, _nAOff, _nARs, _nACs, _adB, _nBOff, _nBRs, _nBCs, _adC, _nCOff, _nCRs,
+						_nN, _nRowStart, _nRowEnd, _nColStart, _nColEnd);
+			}
+			else if (splitRows) {
+				int mid = _nRowStart + (rows / (2 * Gemm.MR)) * Gemm.MR;
+				invokeAll(tile(_nRowStart, mid, _nColStart, _nColEnd), tile(mid, _nRowEnd, _nColStart, _nColEnd));
+			}
+			else {
+				int mid = _nColStart + cols / 2;
+				invokeAll(tile(_nRowStart, _nRowEnd, _nColStart, mid), tile(_nRowStart, _nRowEnd, mid, _nColEnd));
+			}
+		}
+	}
+
+	/** Computes a range of rows of y = A * x, splitting the range in half while it is large
+	 */
+
+	private static final class GemvTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final double[] _adA, _adX, _adY;
+		private final int _nAOff, _nARs, _nACs, _nXOff, _nYOff; // operand layouts
+		private final int _nN, _nRowStart, _nRowEnd;
+		private final long _nThreshold;
+
+		GemvTask(double[] a, int aOff, int aRs, int aCs, double[] x, int xOff, double[] y, int yOff,
+				int n, int rowStart, int rowEnd, long threshold) {
+			_adA = a; _adX = x; _adY = y;
+			_nAOff = aOff; _nARs = aRs; _nACs = aCs; _nXOff = xOff; _nYOff = yOff;
+			_nN = n; _nRowStart = rowStart; _nRowEnd = rowEnd;
+			_nThreshold = threshold;
+		}
+
+		/** A subtask on another row range of the same product */
+		private GemvTask rows(int rowStart, int rowEnd) {
+			return new GemvTask(_adA, _nAOff, _nARs, _nACs, _adX, _nXOff, _adY, _nYOff, _nN, rowStart, rowEnd, _nThreshold);
+		}
+
+		@Override
+		protected void compute() {
+
+			int rows = _nRowEnd - _nRowStart;
+			if ((long)rows * _nN < _nThreshold || rows < 2) {
+				Gemm.gemv(_adA, _nAOff, _nARs, _nACs, _adX, _nXOff, _adY, _nYOff, _nN, _nRowStart, _nRowEnd);
+			}
+			else {
+				int mid = _nRowStart + rows / 2;
+				invokeAll(rows(_nRowStart, mid), rows(mid, _nRowEnd));
+			}
+		}
+	}
+
+	/** GemmTask for FloatGemm: one output tile of a single-precision product
+	 */
+
+	private static final class FloatGemmTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] _afA, _afB, _afC;
+		private final int _nAOff, _nARs, _nACs, _nBOff, _nBRs, _nBCs, _nCOff, _nCRs, _nCCs; // operand layouts
+		private final int _nN;
+		private final int _nRowStart, _nRowEnd, _nColStart, _nColEnd;
+		private final long _nThreshold;
+
+		FloatGemmTask(float[] a, int aOff, int aRs, int aCs, float[] b, int bOff, int bRs, int bCs,
+				float[] c, int cOff, int cRs, int cCs, int n, int rowStart, int rowEnd, int colStart, int colEnd, long threshold) {
+			_afA = a; _afB = b; _afC = c;
+			_nAOff = aOff; _nARs = aRs; _nACs = aCs;
+			_nBOff = bOff; _nBRs = bRs; _nBCs = bCs;
+			_nCOff = cOff; _nCRs = cRs; _nCCs = cCs;
+			_nN = n;
+			_nRowStart = rowStart; _nRowEnd = rowEnd;
+			_nColStart = colStart; _nColEnd = colEnd;
+			_nThreshold = threshold;
+		}
+
+		/** A subtask on another tile of the same product */
+		private FloatGemmTask tile(int rowStart, int rowEnd, int colStart, int colEnd) {
+			return new FloatGemmTask(_afA, _nAOff, _nARs, _nACs, _afB, _nBOff, _nBRs, _nBCs, _afC, _nCOff, _nCRs, _nCCs,
+					_nN, rowStart, rowEnd, colStart, colEnd, _nThreshold);
+		}
+
+		@Override
+		protected void compute() {
+
+			int rows = _nRowEnd - _nRowStart;
+			int cols = _nColEnd - _nColStart;
+			boolean splitRows = rows >= 2 * Gemm.MR && rows >= cols;
+			boolean splitCols = !splitRows && cols >= 2 * Gemm.MR;
+
+			if ((long)rows * cols * _nN < _nThreshold || (!splitRows && !splitCols)) {
+				FloatGemm.multiply(_afA, _nAOff, _nARs, _nACs, _afB, _nBOff, _nBRs, _nBCs, _afC, _nCOff, _nCRs, _nCCs,
+						_nN, _nRowStart, _nRowEnd, _nColStart, _nColEnd);
+			}
+			else if (splitRows) {
+				int mid = _nRowStart + (rows / (2 * Gemm.MR)) * Gemm.MR;
+				invokeAll(tile(_nRowStart, mid, _nColStart, _nColEnd), tile(mid, _nRowEnd, _nColStart, _nColEnd));
+			}
+			else {
+				int mid = _nColStart + cols / 2;
+				invokeAll(tile(_nRowStart, _nRowEnd, _nColStart, mid), tile(_nRowStart, _nRowEnd, mid, _nColEnd));
+			}
+		}
+	}
+
+	/** GemvTask for FloatGemm: a range of rows of a single-precision matrix times a double vector
+	 */
+
+	private static final class FloatGemvTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final float[] _afA;
+		private final double[] _adX, _adY;
+		private final int _nAOff, _nARs, _nACs, _nXOff, _nYOff; // operand layouts
+		private final int _nN, _nRowStart, _nRowEnd;
+		private final long _nThreshold;
+
+		FloatGemvTask(float[] a, int aOff, int aRs, int aCs, double[] x, int xOff, double[] y, int yOff,
+				int n, int rowStart, int rowEnd, long threshold) {
+			_afA = a; _adX = x; _adY = y;
+			_nAOff = aOff; _nARs = aRs; _nACs = aCs; _nXOff = xOff; _nYOff = yOff;
+			_nN = n; _nRowStart = rowStart; _nRowEnd = rowEnd;
+			_nThreshold = threshold;
+		}
+
+		/** A subtask on another row range of the same product */
+		private FloatGemvTask rows(int rowStart, int rowEnd) {
+			return new FloatGemvTask(_afA, _nAOff, _nARs, _nACs, _adX, _nXOff, _adY, _nYOff, _nN, rowStart, rowEnd, _nThreshold);
+		}
+
+		@Override
+		protected void compute() {
+
+			int rows = _nRowEnd - _nRowStart;
+			if ((long)rows * _nN < _nThreshold || rows < 2) {
+				FloatGemm.gemv(_afA, _nAOff, _nARs, _nACs, _adX, _nXOff, _adY, _nYOff, _nN, _nRowStart, _nRowEnd);
+			}
+			else {
+				int mid = _nRowStart + rows / 2;
+				invokeAll(rows(_nRowStart, mid), rows(mid, _nRowEnd));
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*** Global settings for the multi-core execution of Matrix operations.
+ *
+ *   Operations that accept a ForkJoinPool run on that pool; the ones that do not use the
+ *   default pool configured here.  The default pool is owned by the package (it is not the
+ *   JVM-wide common pool) so that its size can be capped when sharing a machine with other
+ *   services.  A parallelism of 1 runs everything on the calling thread.
+ *
+ *   Work is only split when an operation has at least getSequentialThreshold() multiply-adds;
+ *   smaller operations always run sequentially since forking would cost more than it saves.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class Parallelism {
+
+	private static ForkJoinPool _pool = createPool(Runtime.getRuntime().availableProcessors()); // null when sequential
+	private static volatile long _nThreshold = 1L << 18; // Minimum multiply-adds before splitting work across threads
+
+	private Parallelism() {} // settings holder only
+
+	/** Sets the number of worker threads used by default (1 means run on the calling thread)
+	 *
+	 *  The previous default pool is not shut down: operations that fetched it earlier (an LU
+	 *  factorization submits to the same pool once per panel) keep submitting to it until they
+	 *  finish.  Once nobody uses it, its idle workers (daemon threads, so they never hold up JVM
+	 *  exit) are retired one per keep-alive period of 60 seconds, and the pool is then garbage
+	 *  collected.
+	 *
+	 * @param threads
+	 * @throws LinAlgException if threads is < 1
+	 */
+
+	public static synchronized void setParallelism(int threads) throws LinAlgException {
+
+		if (threads < 1) {
+			throw new LinAlgException("Parallelism " + threads + " cannot be less than 1");
+		}
+
+		_pool = createPool(threads); //the old pool retires on its own (see above), shutting it down would reject callers still holding it
+	}
+
+	/** Returns the number of worker threads used by default
+	 *
+	 * @return parallelism
+	 */
+
+	public static synchronized int getParallelism() {
+
+		return (_pool == null) ? 1 : _pool.getParallelism();
+	}
+
+	/** Returns the default pool, or null if operations run sequentially by default
+	 *
+	 * @return _pool
+	 */
+
+	public static synchronized ForkJoinPool getPool() {
+
+		return _pool;
+	}
+
+	/** Sets the minimum number of multiply-adds an operation needs before it is split across threads
+	 *
+	 * @param flops
+	 * @throws LinAlgException if flops is < 1
+	 */
+
+	public static void setSequentialThreshold(long flops) throws LinAlgException {
+
+		if (flops < 1) {
+			throw new LinAlgException("Sequential threshold " + flops + " cannot be less than 1");
+		}
+
+		_nThreshold = flops;
+	}
+
+	/** Returns the minimum number of multiply-adds an operation needs before it is split across threads
+	 *
+	 * @return _nThreshold
+	 */
+
+	public static long getSequentialThreshold() {
+
+		return _nThreshold;
+	}
+
+	/** Creates a pool of the given size, or returns null for a single thread
+	 */
+
+	private static ForkJoinPool createPool(int threads) {
+
+		return (threads <= 1) ? null : new ForkJoinPool(threads);
+	}
+}
@@ -0,0 +1,332 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/*** Householder QR factorization A = QR of an m x n Matrix with m >= n, made by Matrix.qr(), for
+ *   least-squares problems: min ||A x - b|| is solved by x = R^-1 (Q^T b)[0, n).
+ *
+ *   Q is the product H_0 H_1 ... H_(n-1) of Householder reflectors H_j = I - tau_j v_j v_j^T and is
+ *   never formed.  The factorization is blocked: each step reduces a panel of BLOCK columns with
+ *   the unblocked algorithm and accumulates its reflectors in compact WY form (Schreiber and Van
+ *   Loan), H_k0 ... H_(k1-1) = I - V T V^T with V the m x BLOCK matrix of reflector vectors and T
+ *   a small upper triangular matrix.  The rest of the matrix is then updated with
+ *
+ *       C -= V (T^T (V^T C))
+ *
+ *   three matrix products that run through the blocked GEMM kernel on the default pool from
+ *   Parallelism, instead of one rank-1 update per column.  Applying Q or Q^T to right-hand sides
+ *   uses the same block updates.
+ *
+ *   The reflector vectors are stored below the diagonal of R (their leading 1 is implicit) and
+ *   the T factors are kept per block.  A zero on the diagonal of R means A has dependent columns;
+ *   leastSquares and solve then throw.  Rank deficiency is detected only when it is exact.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class QRDecomposition {
+
+	static final int BLOCK = 32; // Reflectors per compact WY block
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private final int _nRows;      // m, rows of the factored matrix
+	private final int _nCols;      // n, columns of the factored matrix (n <= m)
+	private final double[] _adQR;  // R on and above the diagonal, reflector vectors below it, row-major m x n
+	private final double[] _adT;   // T of the block starting at column k0 at k0 * BLOCK, row-major kb x kb
+	private final boolean _bFullRank; // Whether every diagonal entry of R is non-zero
+
+	/** Factors the matrix m (m is copied, not changed); called through Matrix.qr()
+	 *
+	 * @param m
+	 */
+
+	QRDecomposition(Matrix m) {
+
+		int rows = m.getNumRows(), n = m.getNumCols();
+		_nRows = rows;
+		_nCols = n;
+		_adQR = new Matrix(m).values(); // a compact row-major copy, also of a view
+		_adT = new double[n * BLOCK];
+
+		double[] a = _adQR;
+		for (int k0 = 0; k0 < n; k0 += BLOCK) {
+			int k1 = Math.min(k0 + BLOCK, n);
+			factorPanel(k0, k1);
+			if (k1 < n) {
+				applyBlock(k0, k1, true, a, k0 * n + k1, n, n - k1);
+			}
+		}
+
+		boolean full = true;
+		for (int j = 0; j < n; j++) {
+			full &= (a[j * n + j] != 0.0);
+		}
+		_bFullRank = full;
+	}
+
+	/** Reduces columns [k0, k1) with one reflector per column, applying each to the rest of the
+	 *  panel, and fills in the T factor of the block */
+	private void factorPanel(int k0, int k1) {
+
+		int rows = _nRows, n = _nCols, kb = k1 - k0, tOff = k0 * BLOCK;
+		double[] a = _adQR, t = _adT;
+		double[] w = Workspace.acquire(kb);
+		for (int j = k0; j < k1; j++) {
+			int jj = j - k0;
+
+			// reflector for column j: H x = beta e_j, with v(j) = 1 and v below it stored in place
+			double alpha = a[j * n + j];
+			double xnorm = norm(a, (j + 1) * n + j, n, rows - j - 1);
+			double tau = 0.0;
+			if (xnorm != 0.0) {
+				double beta = -Math.copySign(Math.hypot(alpha, xnorm), alpha);
+				tau = (beta - alpha) / beta;
+				double scale = 1.0 / (alpha - beta);
+				for (int i = j + 1; i < rows; i++) {
+					a[i * n + j] *= scale;
+				}
+				a[j * n + j] = beta;
+			}
+
+			// w = v^T A(j:, k0:k1): the part left of j feeds T, the part right of j updates the panel
+			System.arraycopy(a, j * n + k0, w, 0, kb);
+			for (int i = j + 1; i < rows; i++) {
+				double v = a[i * n + j];
+				if (v != 0.0) {
+					KERNELS.axpy(v, a, i * n + k0, w, 0, kb);
+				}
+			}
+			if (tau != 0.0 && j + 1 < k1) { // A(j:, j+1:k1) -= tau v w^T
+				KERNELS.axpy(-tau, w, jj + 1, a, j * n + j + 1, k1 - j - 1);
+				for (int i = j + 1; i < rows; i++) {
+					double v = a[i * n + j];
+					if (v != 0.0) {
+						KERNELS.axpy(-tau * v, w, jj + 1, a, i * n + j + 1, k1 - j - 1);
+					}
+				}
+			}
+
+			// T(0:jj, jj) = -tau T(0:jj, 0:jj) (V(:, 0:jj)^T v), where V^T v is w[0, jj)
+			for (int r = 0; r < jj; r++) {
+				double s = 0.0;
+				for (int c = r; c < jj; c++) {
+					s += t[tOff + r * kb + c] * w[c];
+				}
+				t[tOff + r * kb + jj] = -tau * s;
+			}
+			t[tOff + jj * kb + jj] = tau;
+		}
+		Workspace.release(w);
+	}
+
+	/** Applies the block of reflectors [k0, k1) to rows [k0, m) of the matrix C(i, j) = c[cOff + (i-k0)*cRs + j]
+	 *  with cols columns: C -= V T^T V^T C if transpose (Q^T of the block), else C -= V T V^T C (Q of the block) */
+	private void applyBlock(int k0, int k1, boolean transpose, double[] c, int cOff, int cRs, int cols) {
+
+		int rows = _nRows - k0, kb = k1 - k0, n = _nCols;
+		double[] a = _adQR;
+		ForkJoinPool pool = Parallelism.getPool();
+
+		double[] v = Workspace.acquire(rows * kb); // V with its implicit unit diagonal and zeros above it
+		for (int i = 0; i < rows; i++) {
+			int src = (k0 + i) * n + k0, dst = i * kb;
+			int below = Math.min(i, kb); // columns whose reflector has an entry in this row
+			System.arraycopy(a, src, v, dst, below);
+			if (i < kb) {
+				v[dst + i] = 1.0;
+				Arrays.fill(v, dst + i + 1, dst + kb, 0.0);
+			}
+		}
+
+		double[] w = Workspace.acquire(kb * cols); // W = V^T C
+		Arrays.fill(w, 0, kb * cols, 0.0);
+		ParallelKernels.multiply(v, 0, 1, kb, c, cOff, cRs, 1, w, 0, cols, kb, rows, cols, pool);
+
+		double[] tw = Workspace.acquire(kb * cols); // TW = -T^T W (or -T W)
+		Arrays.fill(tw, 0, kb * cols, 0.0);
+		int tOff = k0 * BLOCK;
+		double[] negT = transpose ? Triangular.negatedCopy(_adT, tOff, 1, kb, kb, kb)
+				: Triangular.negatedCopy(_adT, tOff, kb, 1, kb, kb);
+		Gemm.multiply(negT, 0, kb, 1, w, 0, cols, 1, tw, 0, cols, kb, 0, kb, 0, cols);
+
+		ParallelKernels.multiply(v, 0, kb, 1, tw, 0, cols, 1, c, cOff, cRs, rows, kb, cols, pool); // C += V TW
+
+		Workspace.release(negT);
+		Workspace.release(tw);
+		Workspace.release(w);
+		Workspace.release(v);
+	}
+
+	/** Returns the number of rows of the factored matrix
+	 *
+	 * @return _nRows
+	 */
+
+	public int getNumRows() {
+		return _nRows;
+	}
+
+	/** Returns the number of columns of the factored matrix
+	 *
+	 * @return _nCols
+	 */
+
+	public int getNumCols() {
+		return _nCols;
+	}
+
+	/** Returns whether the columns of the factored matrix are independent (no zero on the diagonal of R)
+	 *
+	 * @return _bFullRank
+	 */
+
+	public boolean isFullRank() {
+		return _bFullRank;
+	}
+
+	/** Returns a new n x n Matrix holding R, the upper triangular factor
+	 *
+	 * @return R
+	 * @throws LinAlgException never in practice (the dimension is positive)
+	 */
+
+	public Matrix getR() throws LinAlgException {
+
+		int n = _nCols;
+		Matrix r = new Matrix(n, n);
+		for (int i = 0; i < n; i++) {
+			System.arraycopy(_adQR, i * n + i, r.values(), i * n + i, n - i);
+		}
+		return r;
+	}
+
+	/** Returns a new m x n Matrix holding the first n columns of Q (orthonormal columns, with A = Q R)
+	 *
+	 * @return Q
+	 * @throws LinAlgException never in practice (the dimensions are positive)
+	 */
+
+	public Matrix getQ() throws LinAlgException {
+
+		int n = _nCols;
+		Matrix q = new Matrix(_nRows, n);
+		double[] d = q.values();
+		for (int j = 0; j < n; j++) {
+			d[j * n + j] = 1.0;
+		}
+		for (int k0 = ((n - 1) / BLOCK) * BLOCK; k0 >= 0; k0 -= BLOCK) { // Q = (block 0) (block 1) ... applied right to left
+			applyBlock(k0, Math.min(k0 + BLOCK, n), false, d, k0 * n, n, n);
+		}
+		return q;
+	}
+
+	/** Returns the x minimizing ||A x - b|| (for square A, the solution of A x = b)
+	 *
+	 * @param b
+	 * @return x
+	 * @throws LinAlgException if the dimension of b does not match the rows of A or A is rank deficient
+	 */
+
+	public Vector leastSquares(Vector b) throws LinAlgException {
+
+		int n = _nCols;
+		if (b.getDim() != _nRows) {
+			throw new LinAlgException("Dimension " + b.getDim() + " of the right-hand side does not match the number of rows " + _nRows);
+		}
+		checkFullRank();
+
+		Vector y = new Vector(b); // Q^T b, then R^-1 of its first n entries
+		for (int k0 = 0; k0 < n; k0 += BLOCK) {
+			applyBlock(k0, Math.min(k0 + BLOCK, n), true, y.values(), k0, 1, 1);
+		}
+		Triangular.upper(_adQR, 0, n, 1, n, false, y.values(), 0);
+
+		Vector x = new Vector(n);
+		System.arraycopy(y.values(), 0, x.values(), 0, n);
+		return x;
+	}
+
+	/** Returns the X minimizing the Frobenius norm of A X - B, one column of X per column of B
+	 *
+	 * @param b
+	 * @return X
+	 * @throws LinAlgException if the rows of b do not match the rows of A or A is rank deficient
+	 */
+
+	public Matrix leastSquares(Matrix b) throws LinAlgException {
+
+		int n = _nCols;
+		if (b.getNumRows() != _nRows) {
+			throw new LinAlgException("Rows " + b.getNumRows() + " of the right-hand side do not match the number of rows " + _nRows);
+		}
+		checkFullRank();
+
+		int r = b.getNumCols();
+		Matrix y = new Matrix(b);
+		for (int k0 = 0; k0 < n; k0 += BLOCK) {
+			applyBlock(k0, Math.min(k0 + BLOCK, n), true, y.values(), k0 * r, r, r);
+		}
+		Triangular.upper(_adQR, 0, n, 1, n, false, y.values(), 0, r, r);
+
+		Matrix x = new Matrix(n, r);
+		System.arraycopy(y.values(), 0, x.values(), 0, n * r);
+		return x;
+	}
+
+	/** Returns the solution x of A x = b for square A
+	 *
+	 * @param b
+	 * @return x
+	 * @throws LinAlgException if A is not square, the dimension of b does not match, or A is singular
+	 */
+
+	public Vector solve(Vector b) throws LinAlgException {
+		checkSquare();
+		return leastSquares(b);
+	}
+
+	/** Returns the solution X of A X = B for square A, one column of X per column of B
+	 *
+	 * @param b
+	 * @return X
+	 * @throws LinAlgException if A is not square, the rows of b do not match, or A is singular
+	 */
+
+	public Matrix solve(Matrix b) throws LinAlgException {
+		checkSquare();
+		return leastSquares(b);
+	}
+
+	private void checkSquare() throws LinAlgException {
+		if (_nRows != _nCols) {
+			throw new LinAlgException("solve needs a square matrix, not " + _nRows + " x " + _nCols + "; use leastSquares");
+		}
+	}
+
+	private void checkFullRank() throws LinAlgException {
+		if (!_bFullRank) {
+			throw new LinAlgException("Matrix is rank deficient");
+		}
+	}
+
+	/** Returns the 2-norm of a[off], a[off + stride], ... (len entries), scaled so that squaring cannot overflow or underflow */
+	private static double norm(double[] a, int off, int stride, int len) {
+
+		double max = 0.0;
+		for (int i = 0, p = off; i < len; i++, p += stride) {
+			max = Math.max(max, Math.abs(a[p]));
+		}
+		if (max == 0.0 || Double.isInfinite(max)) {
+			return max;
+		}
+		double s = 0.0;
+		for (int i = 0, p = off; i < len; i++, p += stride) {
+			double x = a[p] / max;
+			s += x * x;
+		}
+		return max * Math.sqrt(s);
+	}
+}
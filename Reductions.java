@@ -0,0 +1,367 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*** Deterministic reductions of strided double arrays (inner product, sum, norms, min/max and
+ *   argmin/argmax), parallel on the Parallelism pool for long arrays.
+ *
+ *   The array is cut into chunks of CHUNK elements, a split that depends only on the length.
+ *   Each chunk is reduced by one task with several independent accumulators, which hide the
+ *   floating point add latency that bounds a single running sum: the lanes of the SIMD kernels
+ *   for contiguous data, or four scalar accumulators for strided data (element i goes to
+ *   accumulator i mod 4, then (s0 + s1) + (s2 + s3)).  The chunk results are combined in a fixed
+ *   pairwise tree (chunk 2i with 2i + 1, then pairs of pairs, ...).  The summation order is
+ *   therefore the same for any pool size and scheduling, so the results are bit-reproducible
+ *   across thread counts; a pairwise tree also has a smaller rounding error bound than one
+ *   running sum.  An array of at most CHUNK elements is one chunk, reduced as before by the
+ *   kernels.
+ *
+ *   min and max propagate NaN as Math.min and Math.max do, and argMin/argMax return the index of
+ *   the first NaN if there is one, else the first index holding the min/max.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class Reductions {
+
+	static final int CHUNK = 1 << 14; // Elements per chunk: the leaves of the combining tree
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // contiguous chunks: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private Reductions() {} // static kernels only
+
+	/** Returns the sum of a(i) * b(i), where a(i) is a[aOff + i*aStride] and b(i) is b[bOff + i*bStride]
+	 *
+	 * @param a
+	 * @param aOff
+	 * @param aStride
+	 * @param b
+	 * @param bOff
+	 * @param bStride
+	 * @param len
+	 * @return inner product
+	 */
+
+	static double dot(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int len) {
+		return reduce(Op.DOT, a, aOff, aStride, b, bOff, bStride, len);
+	}
+
+	/** Returns the sum of a(i), where a(i) is a[off + i*stride] */
+	static double sum(double[] a, int off, int stride, int len) {
+		return reduce(Op.SUM, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the sum of |a(i)| */
+	static double sumAbs(double[] a, int off, int stride, int len) {
+		return reduce(Op.SUM_ABS, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the sum of a(i)^2 */
+	static double sumSquares(double[] a, int off, int stride, int len) {
+		return reduce(Op.SUM_SQUARES, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the largest |a(i)| */
+	static double maxAbs(double[] a, int off, int stride, int len) {
+		return reduce(Op.MAX_ABS, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the largest a(i) */
+	static double max(double[] a, int off, int stride, int len) {
+		return reduce(Op.MAX, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the smallest a(i) */
+	static double min(double[] a, int off, int stride, int len) {
+		return reduce(Op.MIN, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the first i with the largest a(i) */
+	static int argMax(double[] a, int off, int stride, int len) {
+		return (int)reduce(Op.ARG_MAX, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Returns the first i with the smallest a(i) */
+	static int argMin(double[] a, int off, int stride, int len) {
+		return (int)reduce(Op.ARG_MIN, a, off, stride, null, 0, 0, len);
+	}
+
+	/** Reduces each chunk (in parallel when long enough), then combines the chunk results in order */
+	private static double reduce(Op op, double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int len) {
+
+		if (len <= CHUNK) {
+			return op.chunk(a, aOff, aStride, b, bOff, bStride, 0, len);
+		}
+
+		int chunks = (len + CHUNK - 1) / CHUNK;
+		double[] partial = Workspace.acquire(chunks);
+		long threshold = Parallelism.getSequentialThreshold();
+		ForkJoinPool pool = Parallelism.getPool();
+		if (pool == null || len < threshold) {
+			for (int c = 0; c < chunks; c++) {
+				partial[c] = op.chunk(a, aOff, aStride, b, bOff, bStride, c * CHUNK, Math.min(len, (c + 1) * CHUNK));
+			}
+		}
+		else {
+			pool.invoke(new ReduceTask(op, a, aOff, aStride, b, bOff, bStride, len, partial, 0, chunks, threshold));
+		}
+
+		double result = op.combine(partial, chunks, a, aOff, aStride);
+		Workspace.release(partial);
+		return result;
+	}
+
+	/** The reductions: a chunk kernel and how the chunk results combine, in chunk order (the sums
+	 *  by the pairwise tree, min and max by a fold, argmin and argmax by comparing the elements at
+	 *  the chosen indices); contiguous chunks go to the Kernels (lane-wise accumulators on the SIMD
+	 *  path), strided ones to a loop with four accumulators
+	 */
+
+	private enum Op {
+
+		DOT {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				if (aStride == 1 && bStride == 1) {
+					return KERNELS.dot(a, aOff + start, b, bOff + start, end - start);
+				}
+				double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+				int i = start, ia = aOff + start * aStride, ib = bOff + start * bStride;
+				for (; i + 3 < end; i += 4, ia += 4 * aStride, ib += 4 * bStride) {
+					s0 += a[ia] * b[ib];
+					s1 += a[ia + aStride] * b[ib + bStride];
+					s2 += a[ia + 2 * aStride] * b[ib + 2 * bStride];
+					s3 += a[ia + 3 * aStride] * b[ib + 3 * bStride];
+				}
+				for (; i < end; i++, ia += aStride, ib += bStride) {
+					s0 += a[ia] * b[ib];
+				}
+				return (s0 + s1) + (s2 + s3);
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return pairwise(partial, chunks);
+			}
+		},
+		SUM {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				if (aStride == 1) {
+					return KERNELS.sum(a, aOff + start, end - start);
+				}
+				double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+				int i = start, ia = aOff + start * aStride;
+				for (; i + 3 < end; i += 4, ia += 4 * aStride) {
+					s0 += a[ia];
+					s1 += a[ia + aStride];
+					s2 += a[ia + 2 * aStride];
+					s3 += a[ia + 3 * aStride];
+				}
+				for (; i < end; i++, ia += aStride) {
+					s0 += a[ia];
+				}
+				return (s0 + s1) + (s2 + s3);
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return pairwise(partial, chunks);
+			}
+		},
+		SUM_ABS {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				if (aStride == 1) {
+					return KERNELS.sumAbs(a, aOff + start, end - start);
+				}
+				double s0 = 0.0, s1 = 0.0, s2 = 0.0, s3 = 0.0;
+				int i = start, ia = aOff + start * aStride;
+				for (; i + 3 < end; i += 4, ia += 4 * aStride) {
+					s0 += Math.abs(a[ia]);
+					s1 += Math.abs(a[ia + aStride]);
+					s2 += Math.abs(a[ia + 2 * aStride]);
+					s3 += Math.abs(a[ia + 3 * aStride]);
+				}
+				for (; i < end; i++, ia += aStride) {
+					s0 += Math.abs(a[ia]);
+				}
+				return (s0 + s1) + (s2 + s3);
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return pairwise(partial, chunks);
+			}
+		},
+		SUM_SQUARES {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				return DOT.chunk(a, aOff, aStride, a, aOff, aStride, start, end);
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return pairwise(partial, chunks);
+			}
+		},
+		MAX_ABS {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				if (aStride == 1) {
+					return KERNELS.maxAbs(a, aOff + start, end - start);
+				}
+				double m = 0.0;
+				for (int i = start, ia = aOff + start * aStride; i < end; i++, ia += aStride) {
+					m = Math.max(m, Math.abs(a[ia]));
+				}
+				return m;
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return max(partial, chunks);
+			}
+		},
+		MAX {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				if (aStride == 1) {
+					return KERNELS.max(a, aOff + start, end - start);
+				}
+				double m = a[aOff + start * aStride];
+				for (int i = start + 1, ia = aOff + (start + 1) * aStride; i < end; i++, ia += aStride) {
+					m = Math.max(m, a[ia]);
+				}
+				return m;
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return max(partial, chunks);
+			}
+		},
+		MIN {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				if (aStride == 1) {
+					return KERNELS.min(a, aOff + start, end - start);
+				}
+				double m = a[aOff + start * aStride];
+				for (int i = start + 1, ia = aOff + (start + 1) * aStride; i < end; i++, ia += aStride) {
+					m = Math.min(m, a[ia]);
+				}
+				return m;
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				return min(partial, chunks);
+			}
+		},
+		ARG_MAX {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				return first(a, aOff, aStride, start, end, MAX.chunk(a, aOff, aStride, b, bOff, bStride, start, end));
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				int best = (int)partial[0]; // partial[c] is the index chosen in chunk c
+				for (int c = 1; c < chunks; c++) {
+					int i = (int)partial[c];
+					double x = a[aOff + i * aStride], m = a[aOff + best * aStride];
+					if (x > m || (x != x && m == m)) { // a NaN beats any number, the first NaN wins
+						best = i;
+					}
+				}
+				return best;
+			}
+		},
+		ARG_MIN {
+			double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end) {
+				return first(a, aOff, aStride, start, end, MIN.chunk(a, aOff, aStride, b, bOff, bStride, start, end));
+			}
+			double combine(double[] partial, int chunks, double[] a, int aOff, int aStride) {
+				int best = (int)partial[0];
+				for (int c = 1; c < chunks; c++) {
+					int i = (int)partial[c];
+					double x = a[aOff + i * aStride], m = a[aOff + best * aStride];
+					if (x < m || (x != x && m == m)) {
+						best = i;
+					}
+				}
+				return best;
+			}
+		};
+
+		/** Reduces elements [start, end) (the argmin/argmax ops return the chosen index) */
+		abstract double chunk(double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int start, int end);
+
+		/** Combines the results of chunks [0, chunks) in partial (which may be overwritten) into the
+		 *  result; a is the reduced array, for the argmin/argmax ops to compare the chosen elements */
+		abstract double combine(double[] partial, int chunks, double[] a, int aOff, int aStride);
+
+		/** Sums partial[0, chunks) by a pairwise tree: chunk 2i with 2i + 1, then pairs of pairs, ... */
+		private static double pairwise(double[] partial, int chunks) {
+			for (int width = 1; width < chunks; width *= 2) {
+				for (int c = 0; c + width < chunks; c += 2 * width) {
+					partial[c] += partial[c + width];
+				}
+			}
+			return partial[0];
+		}
+
+		/** Returns the largest of partial[0, chunks) (NaN if any is NaN, as Math.max) */
+		private static double max(double[] partial, int chunks) {
+			double m = partial[0];
+			for (int c = 1; c < chunks; c++) {
+				m = Math.max(m, partial[c]);
+			}
+			return m;
+		}
+
+		/** Returns the smallest of partial[0, chunks) (NaN if any is NaN, as Math.min) */
+		private static double min(double[] partial, int chunks) {
+			double m = partial[0];
+			for (int c = 1; c < chunks; c++) {
+				m = Math.min(m, partial[c]);
+			}
+			return m;
+		}
+
+		/** Returns the first i in [start, end) where a(i) is target (a NaN if target is NaN); the
+		 *  vectorized min/max pass finds the value, this pass only reads up to its first occurrence */
+		private static int first(double[] a, int aOff, int aStride, int start, int end, double target) {
+			boolean nan = Double.isNaN(target);
+			int i = start;
+			for (int ia = aOff + start * aStride; i < end; i++, ia += aStride) {
+				if (nan ? Double.isNaN(a[ia]) : a[ia] == target) {
+					break;
+				}
+			}
+			return i;
+		}
+	}
+
+	/** Reduces a range of chunks into partial, halving the range while it is large
+	 */
+
+	private static final class ReduceTask extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Op _op;
+		private final double[] _adA, _adB, _adPartial;
+		private final int _nAOff, _nAStride, _nBOff, _nBStride, _nLen; // operand layouts
+		private final int _nChunkStart, _nChunkEnd;
+		private final long _nThreshold;
+
+		ReduceTask(Op op, double[] a, int aOff, int aStride, double[] b, int bOff, int bStride, int len,
+				double[] partial, int chunkStart, int chunkEnd, long threshold) {
+			_op = op;
+			_adA = a; _adB = b; _adPartial = partial;
+			_nAOff = aOff; _nAStride = aStride; _nBOff = bOff; _nBStride = bStride; _nLen = len;
+			_nChunkStart = chunkStart; _nChunkEnd = chunkEnd;
+			_nThreshold = threshold;
+		}
+
+		/** A subtask on another chunk range of the same reduction */
+		private ReduceTask chunks(int chunkStart, int chunkEnd) {
+			return new ReduceTask(_op, _adA, _nAOff, _nAStride, _adB, _nBOff, _nBStride, _nLen, _adPartial, chunkStart, chunkEnd, _nThreshold);
+		}
+
+		@Override
+		protected void compute() {
+
+			int chunks = _nChunkEnd - _nChunkStart;
+			if ((long)chunks * CHUNK < _nThreshold || chunks < 2) {
+				for (int c = _nChunkStart; c < _nChunkEnd; c++) {
+					_adPartial[c] = _op.chunk(_adA, _nAOff, _nAStride, _adB, _nBOff, _nBStride, c * CHUNK, Math.min(_nLen, (c + 1) * CHUNK));
+				}
+			}
+			else {
+				int mid = _nChunkStart + chunks / 2;
+				invokeAll(chunks(_nChunkStart, mid), chunks(mid, _nChunkEnd));
+			}
+		}
+	}
+}
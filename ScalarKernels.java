@@ -0,0 +1,171 @@
+package linalg;
+
+/*** Plain Java loops for Kernels; always available and the fallback when the SIMD module is absent.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class ScalarKernels implements Kernels {
+
+	@Override
+	public void addScalar(double[] a, int aOff, double d, double[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + d;
+		}
+	}
+
+	@Override
+	public void multScalar(double[] a, int aOff, double d, double[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * d;
+		}
+	}
+
+	@Override
+	public void add(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + b[bOff + index];
+		}
+	}
+
+	@Override
+	public void mult(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * b[bOff + index];
+		}
+	}
+
+	@Override
+	public double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+		double val = 0.0;
+		for (int index = 0; index < len; index++) {
+			val += a[aOff + index] * b[bOff + index];
+		}
+		return val;
+	}
+
+	@Override
+	public double sum(double[] a, int aOff, int len) {
+		double val = 0.0;
+		for (int index = 0; index < len; index++) {
+			val += a[aOff + index];
+		}
+		return val;
+	}
+
+	@Override
+	public double sumAbs(double[] a, int aOff, int len) {
+		double val = 0.0;
+		for (int index = 0; index < len; index++) {
+			val += Math.abs(a[aOff + index]);
+		}
+		return val;
+	}
+
+	@Override
+	public double maxAbs(double[] a, int aOff, int len) {
+		double val = 0.0;
+		for (int index = 0; index < len; index++) {
+			val = Math.max(val, Math.abs(a[aOff + index]));
+		}
+		return val;
+	}
+
+	@Override
+	public double max(double[] a, int aOff, int len) {
+		double val = a[aOff];
+		for (int index = 1; index < len; index++) {
+			val = Math.max(val, a[aOff + index]);
+		}
+		return val;
+	}
+
+	@Override
+	public double min(double[] a, int aOff, int len) {
+		double val = a[aOff];
+		for (int index = 1; index < len; index++) {
+			val = Math.min(val, a[aOff + index]);
+		}
+		return val;
+	}
+
+	@Override
+	public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+		for (int index = 0; index < len; index++) {
+			y[yOff + index] += alpha * x[xOff + index];
+		}
+	}
+
+	@Override
+	public void axpy4(double a0, double a1, double a2, double a3, double[] x, int xOff,
+			double[] y, int y0, int y1, int y2, int y3, int len) {
+		for (int index = 0; index < len; index++) {
+			double xi = x[xOff + index]; // loaded once, used for all four rows
+			y[y0 + index] += a0 * xi;
+			y[y1 + index] += a1 * xi;
+			y[y2 + index] += a2 * xi;
+			y[y3 + index] += a3 * xi;
+		}
+	}
+
+	@Override
+	public void addScalar(float[] a, int aOff, float d, float[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + d;
+		}
+	}
+
+	@Override
+	public void multScalar(float[] a, int aOff, float d, float[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * d;
+		}
+	}
+
+	@Override
+	public void add(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + b[bOff + index];
+		}
+	}
+
+	@Override
+	public void mult(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int len) {
+		for (int index = 0; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * b[bOff + index];
+		}
+	}
+
+	@Override
+	public void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int len) {
+		for (int index = 0; index < len; index++) {
+			y[yOff + index] += alpha * x[xOff + index];
+		}
+	}
+
+	@Override
+	public double dot(float[] a, int aOff, float[] b, int bOff, int len) {
+		double val = 0.0;
+		for (int index = 0; index < len; index++) {
+			val += (double)a[aOff + index] * b[bOff + index];
+		}
+		return val;
+	}
+
+	@Override
+	public double dot(float[] a, int aOff, double[] b, int bOff, int len) {
+		double val = 0.0;
+		for (int index = 0; index < len; index++) {
+			val += a[aOff + index] * b[bOff + index];
+		}
+		return val;
+	}
+
+	@Override
+	public void axpy(double alpha, float[] x, int xOff, double[] y, int yOff, int len) {
+		for (int index = 0; index < len; index++) {
+			y[yOff + index] += alpha * x[xOff + index];
+		}
+	}
+}
@@ -0,0 +1,600 @@
+package linalg;
+
+import java.util.Arrays;
+
+/*** A two dimensional real-valued (double) matrix that stores only its non-zero entries, in
+ *   compressed sparse row (CSR) or compressed sparse column (CSC) layout.
+ *
+ *   In CSR the non-zeros of row r are _adVal[_anPtr[r] .. _anPtr[r+1]) and _anIdx holds their
+ *   column indices (increasing within a row); CSC is the same with the roles of rows and
+ *   columns swapped.  Memory is O(nnz + rows) for CSR and O(nnz + cols) for CSC.
+ *
+ *   Stored entries behave as in Matrix: equals compares elements with ==, and every product
+ *   multiplies each stored entry, so a stored Inf or NaN times a zero gives NaN.  Entries that are
+ *   not stored are exact zeros that take no part in a product; unlike a dense zero, one of them
+ *   times an Inf or NaN of the other operand adds nothing instead of NaN.
+ *
+ *   A SparseMatrix is immutable once built (use a Builder to assemble one from coordinate
+ *   entries), which is what lets transpose() share the arrays: the transpose of an m x n CSR
+ *   matrix is the n x m CSC matrix with exactly the same three arrays.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public class SparseMatrix implements LinearOperator {
+
+	/** Storage layout: compressed rows or compressed columns */
+	public enum Layout { CSR, CSC }
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // row updates in sparse x dense
+
+	private final int _nRows;      // Number of rows in this matrix
+	private final int _nCols;      // Number of columns in this matrix
+	private final Layout _layout;  // Whether _anPtr indexes rows (CSR) or columns (CSC)
+	private final int[] _anPtr;    // Start of each compressed row/column in _anIdx and _adVal, plus one end marker
+	private final int[] _anIdx;    // Column (CSR) or row (CSC) index of each stored entry
+	private final double[] _adVal; // Value of each stored entry
+
+	/** Wraps already-compressed arrays (package-private: callers must pass valid, sorted data)
+	 */
+
+	SparseMatrix(int rows, int cols, Layout layout, int[] ptr, int[] idx, double[] val) {
+		_nRows = rows;
+		_nCols = cols;
+		_layout = layout;
+		_anPtr = ptr;
+		_anIdx = idx;
+		_adVal = val;
+	}
+
+	/** Builds a sparse matrix holding the non-zero entries of a dense matrix m
+	 *
+	 * @param m
+	 * @param layout
+	 * @return sparse copy of m
+	 */
+
+	public static SparseMatrix fromMatrix(Matrix m, Layout layout) {
+
+		int rows = m.getNumRows(), cols = m.getNumCols();
+		double[] data = m.compact().values(); // a view is scanned through a plain copy
+
+		int nnz = 0;
+		for (double d : data) {
+			if (d != 0.0) nnz++;
+		}
+
+		int[] ptr = new int[rows + 1];
+		int[] idx = new int[nnz];
+		double[] val = new double[nnz];
+		int pos = 0;
+		for (int i = 0; i < rows; i++) { // row-major scan produces CSR directly
+			for (int j = 0; j < cols; j++) {
+				double d = data[i * cols + j];
+				if (d != 0.0) {
+					idx[pos] = j;
+					val[pos++] = d;
+				}
+			}
+			ptr[i + 1] = pos;
+		}
+
+		SparseMatrix csr = new SparseMatrix(rows, cols, Layout.CSR, ptr, idx, val);
+		return csr.toLayout(layout);
+	}
+
+	/** Returns a new dense Matrix with the same entries as *this*
+	 *
+	 * @return dense copy
+	 * @throws LinAlgException never in practice (dimensions are always valid)
+	 */
+
+	public Matrix toMatrix() throws LinAlgException {
+
+		Matrix m = new Matrix(_nRows, _nCols);
+		double[] data = m.values();
+		int major = (_layout == Layout.CSR) ? _nRows : _nCols;
+		for (int a = 0; a < major; a++) {
+			for (int p = _anPtr[a]; p < _anPtr[a + 1]; p++) {
+				if (_layout == Layout.CSR) data[a * _nCols + _anIdx[p]] = _adVal[p];
+				else                       data[_anIdx[p] * _nCols + a] = _adVal[p];
+			}
+		}
+		return m;
+	}
+
+	/** Returns *this* in CSR layout (*this* itself if it already is CSR)
+	 *
+	 * @return CSR matrix
+	 */
+
+	public SparseMatrix toCSR() {
+
+		return (_layout == Layout.CSR) ? this : recompress(Layout.CSR);
+	}
+
+	/** Returns *this* in CSC layout (*this* itself if it already is CSC)
+	 *
+	 * @return CSC matrix
+	 */
+
+	public SparseMatrix toCSC() {
+
+		return (_layout == Layout.CSC) ? this : recompress(Layout.CSC);
+	}
+
+	/** Returns *this* in the given layout (*this* itself if it already has that layout)
+	 *
+	 * @param layout
+	 * @return matrix in layout
+	 */
+
+	public SparseMatrix toLayout(Layout layout) {
+
+		return (layout == Layout.CSR) ? toCSR() : toCSC();
+	}
+
+	/** Compresses *this* along the other axis into the given layout: a counting sort over the
+	 *  minor indices, which also leaves the new minor indices sorted; takes O(nnz + rows + cols)
+	 */
+
+	private SparseMatrix recompress(Layout layout) {
+
+		int nnz = getNnz();
+		int srcMajor = _anPtr.length - 1;
+		int[] ptr = new int[((layout == Layout.CSR) ? _nRows : _nCols) + 1];
+		int[] idx = new int[nnz];
+		double[] val = new double[nnz];
+
+		for (int p = 0; p < nnz; p++) {
+			ptr[_anIdx[p] + 1]++; // count entries per new major index
+		}
+		for (int a = 0; a + 1 < ptr.length; a++) {
+			ptr[a + 1] += ptr[a];
+		}
+
+		int[] next = Arrays.copyOf(ptr, ptr.length - 1); // next free slot in each new major slice
+		for (int a = 0; a < srcMajor; a++) {
+			for (int p = _anPtr[a]; p < _anPtr[a + 1]; p++) {
+				int q = next[_anIdx[p]]++;
+				idx[q] = a;
+				val[q] = _adVal[p];
+			}
+		}
+		return new SparseMatrix(_nRows, _nCols, layout, ptr, idx, val);
+	}
+
+	/** Return the number of rows in this matrix
+	 *
+	 * @return _nRows
+	 */
+
+	public int getNumRows() {
+
+		return _nRows;
+	}
+
+	/** Return the number of columns in this matrix
+	 *
+	 * @return _nCols
+	 */
+
+	public int getNumCols() {
+
+		return _nCols;
+	}
+
+	/** Return the number of stored (non-zero) entries
+	 *
+	 * @return nnz
+	 */
+
+	public int getNnz() {
+
+		return _anPtr[_anPtr.length - 1];
+	}
+
+	/** Return the storage layout of this matrix
+	 *
+	 * @return _layout
+	 */
+
+	public Layout getLayout() {
+
+		return _layout;
+	}
+
+	/** Return the scalar value at the given row and column (0.0 if no entry is stored there);
+	 *  takes O(log nnz-per-row) by binary search
+	 *
+	 * @param row
+	 * @param col
+	 * @return value at (row, col)
+	 * @throws LinAlgException if row or col indices are out of bounds
+	 */
+
+	public double get(int row, int col) throws LinAlgException {
+
+		if (row < 0 || col < 0 || row >= _nRows || col >= _nCols) {
+			throw new LinAlgException("Index requested is out of bounds");
+		}
+
+		int a = (_layout == Layout.CSR) ? row : col;
+		int b = (_layout == Layout.CSR) ? col : row;
+		int p = Arrays.binarySearch(_anIdx, _anPtr[a], _anPtr[a + 1], b);
+		return (p >= 0) ? _adVal[p] : 0.0;
+	}
+
+	/** Return the transpose of *this*: a CSR matrix becomes a CSC matrix over the same arrays
+	 *  (and vice versa), so this takes O(1) time and no copying
+	 *
+	 * @return transpose
+	 */
+
+	public SparseMatrix transpose() {
+
+		Layout swapped = (_layout == Layout.CSR) ? Layout.CSC : Layout.CSR;
+		return new SparseMatrix(_nCols, _nRows, swapped, _anPtr, _anIdx, _adVal);
+	}
+
+	/** Constructs a String representation listing the stored entries as (row, col) value
+	 *
+	 */
+
+	@Override
+	public String toString() {
+
+		StringBuilder sb = new StringBuilder();
+		sb.append(_nRows).append(" x ").append(_nCols).append(" ").append(_layout)
+		  .append(", nnz = ").append(getNnz()).append("\n");
+		SparseMatrix csr = toCSR(); // list in row order regardless of layout
+		for (int i = 0; i < _nRows; i++) {
+			for (int p = csr._anPtr[i]; p < csr._anPtr[i + 1]; p++) {
+				sb.append(String.format(" (%d, %d) %6.3f\n", i, csr._anIdx[p], csr._adVal[p]));
+			}
+		}
+		return sb.toString();
+	}
+
+	/** Tests whether another Object o is a SparseMatrix with the same dimensions and elements
+	 *  (the layouts may differ); elements compare with == as in Matrix.equals, so -0.0 equals 0.0,
+	 *  NaN equals nothing, and an explicitly stored zero equals an absent entry
+	 *
+	 * @param o the object to compare to
+	 */
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (o instanceof SparseMatrix) {
+			SparseMatrix m = (SparseMatrix)o;
+			if (_nRows != m._nRows || _nCols != m._nCols) {
+				return false;
+			}
+			SparseMatrix a = toCSR(), b = m.toCSR();
+			for (int i = 0; i < _nRows; i++) { // merge the two rows by column
+				int p = a._anPtr[i], pEnd = a._anPtr[i + 1], q = b._anPtr[i], qEnd = b._anPtr[i + 1];
+				while (p < pEnd || q < qEnd) {
+					int ca = (p < pEnd) ? a._anIdx[p] : _nCols, cb = (q < qEnd) ? b._anIdx[q] : _nCols;
+					double va = (ca <= cb) ? a._adVal[p++] : 0.0, vb = (cb <= ca) ? b._adVal[q++] : 0.0;
+					if (va != vb) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+
+		return false;
+	}
+
+	/** Returns a hash of the dimensions and the non-zero (row, col, value) entries, consistent with
+	 *  equals whatever the layout (the entry hashes are summed, so their order does not matter)
+	 *
+	 */
+
+	@Override
+	public int hashCode() {
+
+		int hash = 31 * (31 * _nRows + _nCols);
+		for (int a = 0; a < _anPtr.length - 1; a++) {
+			for (int p = _anPtr[a]; p < _anPtr[a + 1]; p++) {
+				if (_adVal[p] != 0.0) { // an explicit 0.0 or -0.0 hashes like an absent entry
+					int index = (_layout == Layout.CSR) ? a * _nCols + _anIdx[p] : _anIdx[p] * _nCols + a;
+					hash += ChunkedArray.hashElement(index, _adVal[p]);
+				}
+			}
+		}
+		return hash;
+	}
+
+	/** Returns the Vector result of multiplying sparse matrix a by Vector x; costs O(nnz)
+	 *
+	 * @param a
+	 * @param x
+	 * @return y = a * x
+	 * @throws LinAlgException if a columns do not match the size of x
+	 */
+
+	public static Vector Multiply(SparseMatrix a, Vector x) throws LinAlgException {
+
+		if (a._nCols != x.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+
+		Vector result = new Vector(a._nRows);
+		MultiplyInto(a, x, result);
+		return result;
+	}
+
+	/** Writes the result of multiplying sparse matrix a by Vector x into out instead of a new Vector;
+	 *  costs O(nnz) and allocates nothing
+	 *
+	 * @param a
+	 * @param x
+	 * @param out
+	 * @throws LinAlgException if a columns do not match the size of x, out does not have a rows, or out shares storage with x
+	 */
+
+	public static void MultiplyInto(SparseMatrix a, Vector x, Vector out) throws LinAlgException {
+
+		if (a._nCols != x.getDim()) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+		if (out.getDim() != a._nRows) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the number of rows " + a._nRows);
+		}
+		if (out.values() == x.values()) {
+			throw new LinAlgException("Output vector cannot share storage with the operand");
+		}
+
+		double[] xv = x.values(), yv = out.values();
+		int xOff = x.offset(), xs = x.stride(); // x and out may be views
+		int yOff = out.offset(), ys = out.stride();
+
+		if (a._layout == Layout.CSR) { // one sparse dot product per row
+			for (int i = 0; i < a._nRows; i++) {
+				double val = 0.0;
+				for (int p = a._anPtr[i]; p < a._anPtr[i + 1]; p++) {
+					val += a._adVal[p] * xv[xOff + a._anIdx[p] * xs];
+				}
+				yv[yOff + i * ys] = val;
+			}
+		}
+		else { // scatter each column, scaled by its x entry (also a zero one: a stored Inf or NaN times 0 is NaN, as in Matrix)
+			for (int i = 0; i < a._nRows; i++) {
+				yv[yOff + i * ys] = 0.0;
+			}
+			for (int j = 0; j < a._nCols; j++) {
+				double xj = xv[xOff + j * xs];
+				for (int p = a._anPtr[j]; p < a._anPtr[j + 1]; p++) {
+					yv[yOff + a._anIdx[p] * ys] += a._adVal[p] * xj;
+				}
+			}
+		}
+	}
+
+	/** Writes *this* * x into y, as MultiplyInto(this, x, y) (the LinearOperator view of *this*)
+	 *
+	 * @param x
+	 * @param y
+	 * @throws LinAlgException if the columns of *this* do not match the size of x, y does not have the rows of *this*, or y shares storage with x
+	 */
+
+	@Override
+	public void apply(Vector x, Vector y) throws LinAlgException {
+		MultiplyInto(this, x, y);
+	}
+
+	/** Returns the dense Matrix result of multiplying sparse matrix a by dense Matrix b;
+	 *  costs O(nnz(a) * b columns)
+	 *
+	 * @param a
+	 * @param b
+	 * @return a * b
+	 * @throws LinAlgException if a columns do not match b rows
+	 */
+
+	public static Matrix Multiply(SparseMatrix a, Matrix b) throws LinAlgException {
+
+		if (a._nCols != b.getNumRows()) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+
+		int p = b.getNumCols();
+		Matrix result = new Matrix(a._nRows, p);
+		Matrix rows = (b.colStride() == 1) ? b : b.compact(); // the axpy kernel needs contiguous rows of b
+		double[] bv = rows.values(), cv = result.values();
+		int bOff = rows.offset(), bRs = rows.rowStride();
+
+		// every stored a(i, k) adds a(i, k) * (row k of b) to row i of the result
+		int major = (a._layout == Layout.CSR) ? a._nRows : a._nCols;
+		for (int s = 0; s < major; s++) {
+			for (int q = a._anPtr[s]; q < a._anPtr[s + 1]; q++) {
+				int i = (a._layout == Layout.CSR) ? s : a._anIdx[q];
+				int k = (a._layout == Layout.CSR) ? a._anIdx[q] : s;
+				KERNELS.axpy(a._adVal[q], bv, bOff + k * bRs, cv, i * p, p);
+			}
+		}
+		return result;
+	}
+
+	/** Returns the sparse (CSR) result of multiplying sparse matrices a and b using Gustavson's
+	 *  row-by-row algorithm; costs O(flops + nnz(result) log) and O(b columns) scratch
+	 *
+	 * @param a
+	 * @param b
+	 * @return a * b
+	 * @throws LinAlgException if a columns do not match b rows
+	 */
+
+	public static SparseMatrix Multiply(SparseMatrix a, SparseMatrix b) throws LinAlgException {
+
+		if (a._nCols != b._nRows) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+
+		SparseMatrix ar = a.toCSR(), br = b.toCSR();
+		int cols = br._nCols;
+		double[] acc = new double[cols];  // dense accumulator for the current result row
+		int[] mark = new int[cols];       // mark[j] == i + 1 when column j already appears in result row i
+		int[] rowIdx = new int[cols];     // columns touched in the current row
+
+		int[] ptr = new int[ar._nRows + 1];
+		int[] idx = new int[Math.max(16, ar.getNnz() + br.getNnz())];
+		double[] val = new double[idx.length];
+		int nnz = 0;
+
+		for (int i = 0; i < ar._nRows; i++) {
+			int count = 0;
+			for (int q = ar._anPtr[i]; q < ar._anPtr[i + 1]; q++) {
+				int k = ar._anIdx[q];
+				double aik = ar._adVal[q];
+				for (int r = br._anPtr[k]; r < br._anPtr[k + 1]; r++) {
+					int j = br._anIdx[r];
+					if (mark[j] != i + 1) {
+						mark[j] = i + 1;
+						acc[j] = 0.0;
+						rowIdx[count++] = j;
+					}
+					acc[j] += aik * br._adVal[r];
+				}
+			}
+
+			Arrays.sort(rowIdx, 0, count); // CSR keeps column indices increasing within a row
+			if (nnz + count > idx.length) {
+				int capacity = Math.max(idx.length * 2, nnz + count);
+				idx = Arrays.copyOf(idx, capacity);
+				val = Arrays.copyOf(val, capacity);
+			}
+			for (int c = 0; c < count; c++) {
+				int j = rowIdx[c];
+				if (acc[j] != 0.0) { // drop exact cancellations
+					idx[nnz] = j;
+					val[nnz++] = acc[j];
+				}
+			}
+			ptr[i + 1] = nnz;
+		}
+
+		return new SparseMatrix(ar._nRows, cols, Layout.CSR, ptr, Arrays.copyOf(idx, nnz), Arrays.copyOf(val, nnz));
+	}
+
+	/** Collects (row, col, value) entries in coordinate (COO) form and compresses them into a
+	 *  SparseMatrix; entries added more than once at the same position are summed and entries
+	 *  that end up 0.0 are not stored
+	 */
+
+	public static class Builder {
+
+		private final int _nRows, _nCols;
+		private int _nSize = 0;                 // Number of entries added so far
+		private int[] _anRow = new int[16];     // Row of each added entry
+		private int[] _anCol = new int[16];     // Column of each added entry
+		private double[] _adVal = new double[16];
+
+		/** Starts an empty rows x cols builder
+		 *
+		 * @param rows
+		 * @param cols
+		 * @throws LinAlgException if either rows or cols is <= 0
+		 */
+
+		public Builder(int rows, int cols) throws LinAlgException {
+
+			if (rows < 1 || cols < 1) {
+				throw new LinAlgException("Number of rows and columns have to both be greater than 0");
+			}
+			_nRows = rows;
+			_nCols = cols;
+		}
+
+		/** Adds val at (row, col)
+		 *
+		 * @param row
+		 * @param col
+		 * @param val
+		 * @return this builder
+		 * @throws LinAlgException if row or col indices are out of bounds
+		 */
+
+		public Builder add(int row, int col, double val) throws LinAlgException {
+
+			if (row < 0 || row >= _nRows || col < 0 || col >= _nCols) {
+				throw new LinAlgException("Row or column index is out of bounds");
+			}
+
+			if (_nSize == _anRow.length) {
+				int capacity = _nSize * 2;
+				_anRow = Arrays.copyOf(_anRow, capacity);
+				_anCol = Arrays.copyOf(_anCol, capacity);
+				_adVal = Arrays.copyOf(_adVal, capacity);
+			}
+			_anRow[_nSize] = row;
+			_anCol[_nSize] = col;
+			_adVal[_nSize++] = val;
+			return this;
+		}
+
+		/** Compresses the entries added so far into a SparseMatrix of the given layout;
+		 *  takes O(nnz + rows + cols) (two counting sorts, no comparison sort)
+		 *
+		 * @param layout
+		 * @return matrix
+		 */
+
+		public SparseMatrix build(Layout layout) {
+
+			boolean csr = (layout == Layout.CSR);
+			int[] major = csr ? _anRow : _anCol, minor = csr ? _anCol : _anRow;
+			int nMajor = csr ? _nRows : _nCols, nMinor = csr ? _nCols : _nRows;
+
+			// 1. bucket by minor index, then 2. stably by major index: entries end up sorted by (major, minor)
+			int[] byMinor = bucket(minor, nMinor, null);
+			int[] order = bucket(major, nMajor, byMinor);
+
+			int[] ptr = new int[nMajor + 1];
+			int[] idx = new int[_nSize];
+			double[] val = new double[_nSize];
+			int nnz = 0, e = 0;
+			for (int a = 0; a < nMajor; a++) {
+				while (e < _nSize && major[order[e]] == a) {
+					int b = minor[order[e]];
+					double sum = 0.0;
+					for (; e < _nSize && major[order[e]] == a && minor[order[e]] == b; e++) {
+						sum += _adVal[order[e]]; // duplicates are adjacent after the sort
+					}
+					if (sum != 0.0) {
+						idx[nnz] = b;
+						val[nnz++] = sum;
+					}
+				}
+				ptr[a + 1] = nnz;
+			}
+
+			return new SparseMatrix(_nRows, _nCols, layout, ptr, Arrays.copyOf(idx, nnz), Arrays.copyOf(val, nnz));
+		}
+
+		/** Stable counting sort of entry numbers by key[entry]; visits entries in the order given by
+		 *  input (or 0.._nSize-1 if input is null) and returns the sorted entry numbers
+		 */
+
+		private int[] bucket(int[] key, int range, int[] input) {
+
+			int[] start = new int[range + 1];
+			for (int e = 0; e < _nSize; e++) {
+				start[key[e] + 1]++;
+			}
+			for (int k = 0; k < range; k++) {
+				start[k + 1] += start[k];
+			}
+			int[] out = new int[_nSize];
+			for (int i = 0; i < _nSize; i++) {
+				int e = (input == null) ? i : input[i];
+				out[start[key[e]]++] = e;
+			}
+			return out;
+		}
+	}
+}
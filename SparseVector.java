@@ -0,0 +1,511 @@
+package linalg;
+
+import java.util.Arrays;
+
+/*** A multidimensional real-valued (double) vector that stores only its non-zero entries as a
+ *   sorted array of indices and a parallel array of values.
+ *
+ *   Memory is O(nnz) regardless of the dimension, and the sparse kernels (InnerProd, elementwise
+ *   operations) walk only the stored entries: sparse-sparse operations merge the two sorted
+ *   index lists, sparse-dense operations gather from the dense Vector at the stored indices.
+ *   scalarAdd is deliberately not offered since adding a non-zero scalar makes every entry
+ *   non-zero; use toVector() first.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public class SparseVector {
+
+	private int _nDim;        // Dimension of the vector
+	private int _nNnz;        // Number of stored entries; only the first _nNnz slots of the arrays are used
+	private int[] _anIdx;     // Indices of the stored entries, strictly increasing
+	private double[] _adVal;  // Values of the stored entries, never 0.0
+
+	/** Constructor: allocates a new all-zero sparse vector of dimension dim
+	 *
+	 * @param dim
+	 * @throws LinAlgException if vector dimension is < 1
+	 */
+
+	public SparseVector(int dim) throws LinAlgException {
+		if (dim <= 0)
+			throw new LinAlgException("Vector dimension " + dim + " cannot be less than 1");
+
+		_nDim = dim;
+		_anIdx = new int[4];
+		_adVal = new double[4];
+	}
+
+	/** Copy constructor: makes a new copy of an existing SparseVector v
+	 *
+	 * @param v
+	 */
+
+	public SparseVector(SparseVector v) {
+		_nDim = v._nDim;
+		_nNnz = v._nNnz;
+		_anIdx = Arrays.copyOf(v._anIdx, Math.max(4, v._nNnz));
+		_adVal = Arrays.copyOf(v._adVal, Math.max(4, v._nNnz));
+	}
+
+	/** Constructor: creates a sparse vector from parallel index and value arrays (indices need not
+	 *  be sorted; repeated indices are summed and zero values are dropped)
+	 *
+	 * @param dim
+	 * @param indices
+	 * @param values
+	 * @throws LinAlgException if dim is < 1, the arrays differ in length, or an index is out of bounds
+	 */
+
+	public SparseVector(int dim, int[] indices, double[] values) throws LinAlgException {
+		this(dim);
+
+		if (indices.length != values.length) {
+			throw new LinAlgException("Index and value arrays have to have the same length");
+		}
+		for (int i = 0; i < indices.length; i++) {
+			if (indices[i] < 0 || indices[i] >= dim) {
+				throw new LinAlgException("Index " + indices[i] + " is out of bounds");
+			}
+		}
+
+		Integer[] order = new Integer[indices.length];
+		for (int i = 0; i < order.length; i++) order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(indices[a], indices[b]));
+
+		_anIdx = new int[Math.max(4, indices.length)];
+		_adVal = new double[_anIdx.length];
+		for (int i = 0; i < order.length; ) {
+			int index = indices[order[i]];
+			double sum = 0.0;
+			for (; i < order.length && indices[order[i]] == index; i++) {
+				sum += values[order[i]];
+			}
+			if (sum != 0.0) {
+				_anIdx[_nNnz] = index;
+				_adVal[_nNnz++] = sum;
+			}
+		}
+	}
+
+	/** Returns a sparse copy of the non-zero entries of a dense Vector v
+	 *
+	 * @param v
+	 * @return sparse copy of v
+	 */
+
+	public static SparseVector fromVector(Vector v) {
+
+		double[] dense = v.values();
+		int off = v.offset(), stride = v.stride(), dim = v.getDim(); // v may be a view
+		int nnz = 0;
+		for (int i = 0; i < dim; i++) {
+			if (dense[off + i * stride] != 0.0) nnz++;
+		}
+
+		SparseVector s = new SparseVector(dim, nnz);
+		for (int i = 0; i < dim; i++) {
+			double d = dense[off + i * stride];
+			if (d != 0.0) {
+				s._anIdx[s._nNnz] = i;
+				s._adVal[s._nNnz++] = d;
+			}
+		}
+		return s;
+	}
+
+	/** Allocates an empty sparse vector with room for capacity entries (dim is trusted to be valid)
+	 */
+
+	private SparseVector(int dim, int capacity) {
+		_nDim = dim;
+		_anIdx = new int[Math.max(4, capacity)];
+		_adVal = new double[_anIdx.length];
+	}
+
+	/** Returns a new dense Vector with the same entries as *this*
+	 *
+	 * @return dense copy
+	 * @throws LinAlgException never in practice (the dimension is always valid)
+	 */
+
+	public Vector toVector() throws LinAlgException {
+
+		Vector v = new Vector(_nDim);
+		double[] dense = v.values();
+		for (int p = 0; p < _nNnz; p++) {
+			dense[_anIdx[p]] = _adVal[p];
+		}
+		return v;
+	}
+
+	/** Converts the vector to a human readable String listing the stored entries as index:value
+	 *
+	 */
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("[ dim ").append(_nDim).append(":");
+		for (int p = 0; p < _nNnz; p++)
+			sb.append(String.format(" %d:%6.3f", _anIdx[p], _adVal[p]));
+		sb.append(" ]");
+		return sb.toString();
+	}
+
+	/** Tests whether o is a SparseVector with the same dimension and the same stored entries
+	 *
+	 * @param o the object to compare to
+	 */
+
+	@Override
+	public boolean equals(Object o) {
+		if (o instanceof SparseVector) {
+			SparseVector v = (SparseVector)o;
+			if (_nDim != v._nDim || _nNnz != v._nNnz) {
+				return false;
+			}
+			for (int p = 0; p < _nNnz; p++)
+				if (_anIdx[p] != v._anIdx[p] || _adVal[p] != v._adVal[p]) {
+					return false;
+				}
+			return true;
+		}
+		return false;
+	}
+
+	/** Returns a hash of the dimension and the stored (index, value) entries, consistent with equals
+	 *  (0.0 and -0.0 hash alike, as they compare equal)
+	 *
+	 */
+
+	@Override
+	public int hashCode() {
+		int hash = 31 * _nDim;
+		for (int p = 0; p < _nNnz; p++)
+			if (_adVal[p] != 0.0) // a stored zero is never expected, but would hash like an absent entry
+				hash += ChunkedArray.hashElement(_anIdx[p], _adVal[p]);
+		return hash;
+	}
+
+	/** Get the dimension of this vector
+	 *
+	 * @return _nDim
+	 */
+
+	public int getDim() {
+
+		return _nDim;
+	}
+
+	/** Get the number of stored (non-zero) entries
+	 *
+	 * @return _nNnz
+	 */
+
+	public int getNnz() {
+
+		return _nNnz;
+	}
+
+	/** Returns the value at the given index (0.0 if nothing is stored there); O(log nnz)
+	 *
+	 * @param index
+	 * @return value at index
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public double get(int index) throws LinAlgException {
+		if (index < 0 || index >= _nDim) {
+			throw new LinAlgException("Index " + index + " is out of bounds");
+		}
+
+		int p = Arrays.binarySearch(_anIdx, 0, _nNnz, index);
+		return (p >= 0) ? _adVal[p] : 0.0;
+	}
+
+	/** Sets the value at the given index; inserting a new non-zero or removing an entry by setting
+	 *  it to 0.0 shifts the entries after it, so this is O(nnz) in the worst case
+	 *
+	 * @param index
+	 * @param val
+	 * @throws LinAlgException if index is out of bounds
+	 */
+
+	public void set(int index, double val) throws LinAlgException {
+		if (index < 0 || index >= _nDim) {
+			throw new LinAlgException("Index " + index + " is out of bounds");
+		}
+
+		int p = Arrays.binarySearch(_anIdx, 0, _nNnz, index);
+		if (p >= 0) {
+			if (val != 0.0) {
+				_adVal[p] = val;
+			}
+			else { // remove the entry to keep only non-zeros
+				System.arraycopy(_anIdx, p + 1, _anIdx, p, _nNnz - p - 1);
+				System.arraycopy(_adVal, p + 1, _adVal, p, _nNnz - p - 1);
+				_nNnz--;
+			}
+		}
+		else if (val != 0.0) { // insert at the position binarySearch reported
+			int at = -p - 1;
+			ensureCapacity(_nNnz + 1);
+			System.arraycopy(_anIdx, at, _anIdx, at + 1, _nNnz - at);
+			System.arraycopy(_adVal, at, _adVal, at + 1, _nNnz - at);
+			_anIdx[at] = index;
+			_adVal[at] = val;
+			_nNnz++;
+		}
+	}
+
+	/** Changes the dimension of this vector; entries at indices >= new_dim are dropped
+	 *  (no reallocation is needed since storage does not depend on the dimension)
+	 *
+	 * @param new_dim
+	 * @throws LinAlgException if vector dimension is < 1
+	 */
+
+	public void changeDim(int new_dim) throws LinAlgException {
+		if (new_dim < 1) {
+			throw new LinAlgException("Dimension has to be at least 1");
+		}
+
+		if (new_dim < _nDim) {
+			int p = Arrays.binarySearch(_anIdx, 0, _nNnz, new_dim);
+			_nNnz = (p >= 0) ? p : -p - 1; // keep entries with index < new_dim
+		}
+		_nDim = new_dim;
+	}
+
+	/** Multiplies all elements of *this* by scalar d (multiplying by 0.0 clears all entries)
+	 *
+	 * @param d
+	 */
+
+	public void scalarMultInPlace(double d) {
+		if (d == 0.0) {
+			_nNnz = 0;
+			return;
+		}
+		for (int p = 0; p < _nNnz; p++) {
+			_adVal[p] *= d;
+		}
+	}
+
+	/** Returns a new SparseVector equal to *this* multiplied by scalar d (does not modify *this*)
+	 *
+	 * @param d
+	 * @return new SparseVector
+	 */
+
+	public SparseVector scalarMult(double d) {
+		SparseVector newVector = new SparseVector(this);
+		newVector.scalarMultInPlace(d);
+		return newVector;
+	}
+
+	/** Performs an elementwise addition of sparse v to *this*, modifies *this*; O(nnz(this) + nnz(v))
+	 *
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public void elementwiseAddInPlace(SparseVector v) throws LinAlgException {
+		SparseVector sum = elementwiseAdd(v);
+		_nNnz = sum._nNnz;
+		_anIdx = sum._anIdx;
+		_adVal = sum._adVal;
+	}
+
+	/** Returns a new SparseVector with the elementwise sum of *this* and sparse v (a merge of the two
+	 *  sorted index lists); O(nnz(this) + nnz(v))
+	 *
+	 * @param v
+	 * @return newVector
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public SparseVector elementwiseAdd(SparseVector v) throws LinAlgException {
+		checkDim(v._nDim);
+
+		SparseVector out = new SparseVector(_nDim, _nNnz + v._nNnz);
+		int p = 0, q = 0;
+		while (p < _nNnz || q < v._nNnz) {
+			int i = (p < _nNnz) ? _anIdx[p] : Integer.MAX_VALUE;
+			int j = (q < v._nNnz) ? v._anIdx[q] : Integer.MAX_VALUE;
+			double val;
+			int index;
+			if (i == j)     { index = i; val = _adVal[p++] + v._adVal[q++]; }
+			else if (i < j) { index = i; val = _adVal[p++]; }
+			else            { index = j; val = v._adVal[q++]; }
+			if (val != 0.0) {
+				out._anIdx[out._nNnz] = index;
+				out._adVal[out._nNnz++] = val;
+			}
+		}
+		return out;
+	}
+
+	/** Returns a new dense Vector with the elementwise sum of *this* and dense v; O(dim) for the
+	 *  copy of v plus O(nnz) for the additions
+	 *
+	 * @param v
+	 * @return newVector
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public Vector elementwiseAdd(Vector v) throws LinAlgException {
+		checkDim(v.getDim());
+
+		Vector out = new Vector(v);
+		double[] dense = out.values();
+		for (int p = 0; p < _nNnz; p++) {
+			dense[_anIdx[p]] += _adVal[p];
+		}
+		return out;
+	}
+
+	/** Performs an elementwise multiplication of *this* by sparse v, modifies *this*
+	 *
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public void elementwiseMultInPlace(SparseVector v) throws LinAlgException {
+		checkDim(v._nDim);
+
+		int out = 0, q = 0;
+		for (int p = 0; p < _nNnz; p++) { // only indices stored in both survive; compacts in place
+			while (q < v._nNnz && v._anIdx[q] < _anIdx[p]) q++;
+			if (q < v._nNnz && v._anIdx[q] == _anIdx[p]) {
+				double val = _adVal[p] * v._adVal[q];
+				if (val != 0.0) {
+					_anIdx[out] = _anIdx[p];
+					_adVal[out++] = val;
+				}
+			}
+		}
+		_nNnz = out;
+	}
+
+	/** Performs an elementwise multiplication of *this* by dense v, modifies *this*; O(nnz)
+	 *
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public void elementwiseMultInPlace(Vector v) throws LinAlgException {
+		checkDim(v.getDim());
+
+		double[] dense = v.values();
+		int off = v.offset(), stride = v.stride(); // v may be a view
+		int out = 0;
+		for (int p = 0; p < _nNnz; p++) {
+			double val = _adVal[p] * dense[off + _anIdx[p] * stride];
+			if (val != 0.0) {
+				_anIdx[out] = _anIdx[p];
+				_adVal[out++] = val;
+			}
+		}
+		_nNnz = out;
+	}
+
+	/** Returns a new SparseVector with the elementwise product of *this* and sparse v
+	 *
+	 * @param v
+	 * @return newVector
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public SparseVector elementwiseMult(SparseVector v) throws LinAlgException {
+		SparseVector newVector = new SparseVector(this);
+		newVector.elementwiseMultInPlace(v);
+		return newVector;
+	}
+
+	/** Returns a new SparseVector with the elementwise product of *this* and dense v (the product
+	 *  is zero wherever *this* is, so it stays sparse)
+	 *
+	 * @param v
+	 * @return newVector
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 */
+
+	public SparseVector elementwiseMult(Vector v) throws LinAlgException {
+		SparseVector newVector = new SparseVector(this);
+		newVector.elementwiseMultInPlace(v);
+		return newVector;
+	}
+
+	/** Inner product of two sparse vectors by merging their sorted index lists; O(nnz(v1) + nnz(v2))
+	 *
+	 * @param v1
+	 * @param v2
+	 * @return dotProduct
+	 * @throws LinAlgException if the dimensions of the two vectors do not match
+	 */
+
+	public static double InnerProd(SparseVector v1, SparseVector v2) throws LinAlgException {
+		v1.checkDim(v2._nDim);
+
+		double dotProduct = 0.0;
+		int p = 0, q = 0;
+		while (p < v1._nNnz && q < v2._nNnz) {
+			int i = v1._anIdx[p], j = v2._anIdx[q];
+			if (i == j)     dotProduct += v1._adVal[p++] * v2._adVal[q++];
+			else if (i < j) p++;
+			else            q++;
+		}
+		return dotProduct;
+	}
+
+	/** Inner product of a sparse and a dense vector, gathering the dense entries at the stored
+	 *  indices; O(nnz(v1))
+	 *
+	 * @param v1
+	 * @param v2
+	 * @return dotProduct
+	 * @throws LinAlgException if the dimensions of the two vectors do not match
+	 */
+
+	public static double InnerProd(SparseVector v1, Vector v2) throws LinAlgException {
+		v1.checkDim(v2.getDim());
+
+		double[] dense = v2.values();
+		int off = v2.offset(), stride = v2.stride(); // v2 may be a view
+		double dotProduct = 0.0;
+		for (int p = 0; p < v1._nNnz; p++) {
+			dotProduct += v1._adVal[p] * dense[off + v1._anIdx[p] * stride];
+		}
+		return dotProduct;
+	}
+
+	/** Inner product of two dense vectors (same as Vector.InnerProd, here so all three combinations
+	 *  are available from one place)
+	 *
+	 * @param v1
+	 * @param v2
+	 * @return dotProduct
+	 * @throws LinAlgException if the dimensions of the two vectors do not match
+	 */
+
+	public static double InnerProd(Vector v1, Vector v2) throws LinAlgException {
+		return Vector.InnerProd(v1, v2);
+	}
+
+	private void checkDim(int dim) throws LinAlgException {
+		if (dim != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > _anIdx.length) {
+			int grown = Math.max(capacity, _anIdx.length * 2);
+			_anIdx = Arrays.copyOf(_anIdx, grown);
+			_adVal = Arrays.copyOf(_adVal, grown);
+		}
+	}
+}
@@ -0,0 +1,217 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/*** Strassen-Winograd matrix multiply for large products, layered on the classical kernel.
+ *
+ *   Each level splits A, B and C into 2 x 2 blocks and forms C from 7 block products and 15
+ *   block additions (Winograd's variant of Strassen's method) instead of 8 products, so an
+ *   n x n product costs O(n^2.81) instead of O(n^3).  The recursion stops once the smallest
+ *   dimension of a product is at most getCrossover(), and that product is computed by the same
+ *   blocked (and, on the default pool, parallel) kernel as Matrix.Multiply.  Odd dimensions are
+ *   peeled: the even part goes through the recursion and the last row, column or rank-1 term
+ *   is fixed up with the classical kernel, so no padding copies are made.
+ *
+ *   Temporaries follow the two-buffer schedule of Boyer, Dumas, Pernet and Zhou (the C blocks
+ *   hold intermediate products), and every level takes its two buffers from one Workspace
+ *   buffer sized for the whole recursion, so a call makes at most one scratch allocation
+ *   (none when the thread's workspace already holds a large enough buffer).
+ *
+ *   Accuracy: the result is NOT bit-identical to Matrix.Multiply and its error bound is weaker.
+ *   With u = 2^-53 the unit roundoff, an n x n product that recurses L levels down to blocks of
+ *   size n0 satisfies the normwise bound (Higham, Accuracy and Stability of Numerical Algorithms,
+ *   2nd ed., ch. 23)
+ *
+ *       max|C' - C|  <=  [ 18^L * (n0^2 + 6*n0) - 6*n ] * u * max|A| * max|B|  + O(u^2)
+ *
+ *   against n^2 * u * max|A| * max|B| for the classical product (L = 0).  Each level multiplies
+ *   the bound by about 18/4 = 4.5 where the classical bound grows by 4, and the bound is only
+ *   normwise: entries of C much smaller than max|A| * max|B| can lose most of their relative
+ *   accuracy.  errorBound(n) evaluates the bracket times u for the current crossover.  Use this
+ *   path for large, well-scaled products where a few lost digits are acceptable; keep the
+ *   classical multiply when entries vary widely in magnitude or results must be reproducible
+ *   against it.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class Strassen {
+
+	private static volatile int _nCrossover = 512; // Products with a dimension at most this use the classical kernel
+
+	private Strassen() {} // static kernels and settings only
+
+	/** Sets the crossover: products whose smallest dimension is at most n use the classical kernel
+	 *
+	 * @param n
+	 * @throws LinAlgException if n is < 2
+	 */
+
+	public static void setCrossover(int n) throws LinAlgException {
+
+		if (n < 2) {
+			throw new LinAlgException("Strassen crossover " + n + " cannot be less than 2");
+		}
+
+		_nCrossover = n;
+	}
+
+	/** Returns the crossover below which the classical kernel is used
+	 *
+	 * @return _nCrossover
+	 */
+
+	public static int getCrossover() {
+
+		return _nCrossover;
+	}
+
+	/** Returns the Matrix result of multiplying m1 and m2 with Strassen-Winograd recursion above the
+	 *  crossover (see the class comment for the error bound); the classical leaf products run on
+	 *  the default pool from Parallelism
+	 *
+	 * @param m1
+	 * @param m2
+	 * @return m1 * m2
+	 * @throws LinAlgException if m1 columns do not match the size of m2 rows or the recursion needs too much scratch
+	 */
+
+	public static Matrix Multiply(Matrix m1, Matrix m2) throws LinAlgException {
+
+		if (m1.getNumCols() != m2.getNumRows()) {
+			throw new LinAlgException("Column dimension of matrix 1 does not match the dimension of matrix 2's rows");
+		}
+
+		Matrix a = (m1.colStride() == 1) ? m1 : m1.compact(); // the block kernels need contiguous rows
+		Matrix b = (m2.colStride() == 1) ? m2 : m2.compact();
+		int m = a.getNumRows(), n = a.getNumCols(), p = b.getNumCols();
+		int crossover = _nCrossover;
+
+		long need = scratch(m, n, p, crossover);
+		if (need > Integer.MAX_VALUE - 8) {
+			throw new LinAlgException("Strassen scratch for " + m + " x " + n + " x " + p + " is too large");
+		}
+
+		Matrix result = new Matrix(m, p);
+		double[] w = Workspace.acquire((int)need);
+		multiply(a.values(), a.offset(), a.rowStride(), b.values(), b.offset(), b.rowStride(),
+				result.values(), 0, p, m, n, p, w, 0, crossover, Parallelism.getPool());
+		Workspace.release(w);
+		return result;
+	}
+
+	/** Returns the factor e such that, for n x n operands at the current crossover,
+	 *  max|C' - C| <= e * max|A| * max|B| (to first order in the unit roundoff)
+	 *
+	 * @param n
+	 * @return error bound factor
+	 */
+
+	public static double errorBound(int n) {
+
+		int crossover = _nCrossover;
+		int levels = 0, n0 = n;
+		while (n0 > crossover) { // peeling halves the even part at each level
+			n0 /= 2;
+			levels++;
+		}
+		double u = Math.ulp(1.0) / 2;
+		return (Math.pow(18, levels) * ((double)n0 * n0 + 6.0 * n0) - 6.0 * n) * u;
+	}
+
+	/** Doubles of scratch the recursion needs for an m x n by n x p product: two buffers per level */
+	private static long scratch(int m, int n, int p, int crossover) {
+
+		long total = 0;
+		while (Math.min(m, Math.min(n, p)) > crossover) {
+			int h = m / 2, k = n / 2, q = p / 2;
+			total += (long)h * Math.max(k, q) + (long)k * q;
+			m = h; n = k; p = q;
+		}
+		return total;
+	}
+
+	/** C = A * B for an m x n A and n x p B (overwriting C), where A(i, j) is a[aOff + i*aRs + j]
+	 *  and likewise for B and C; scratch for this level and below starts at w[wOff]
+	 */
+
+	private static void multiply(double[] a, int aOff, int aRs, double[] b, int bOff, int bRs,
+			double[] c, int cOff, int cRs, int m, int n, int p, double[] w, int wOff, int crossover, ForkJoinPool pool) {
+
+		if (Math.min(m, Math.min(n, p)) <= crossover) {
+			for (int i = 0; i < m; i++) {
+				Arrays.fill(c, cOff + i * cRs, cOff + i * cRs + p, 0.0);
+			}
+			ParallelKernels.multiply(a, aOff, aRs, 1, b, bOff, bRs, 1, c, cOff, cRs, m, n, p, pool);
+			return;
+		}
+
+		int h = m / 2, k = n / 2, q = p / 2; // block sizes of the even part
+		int a11 = aOff, a12 = aOff + k, a21 = aOff + h * aRs, a22 = a21 + k;
+		int b11 = bOff, b12 = bOff + q, b21 = bOff + k * bRs, b22 = b21 + q;
+		int c11 = cOff, c12 = cOff + q, c21 = cOff + h * cRs, c22 = c21 + q;
+		int x = wOff;                        // h x k for the A sums, then h x q for P1
+		int y = x + h * Math.max(k, q);      // k x q for the B sums
+		int next = y + k * q;                // scratch of the block products
+
+		sub(a, a11, aRs, a, a21, aRs, w, x, k, h, k);                       // S3 = A11 - A21
+		sub(b, b22, bRs, b, b12, bRs, w, y, q, k, q);                       // T3 = B22 - B12
+		multiply(w, x, k, w, y, q, c, c21, cRs, h, k, q, w, next, crossover, pool); // P7 = S3 T3 -> C21
+		add(a, a21, aRs, a, a22, aRs, w, x, k, h, k);                       // S1 = A21 + A22
+		sub(b, b12, bRs, b, b11, bRs, w, y, q, k, q);                       // T1 = B12 - B11
+		multiply(w, x, k, w, y, q, c, c22, cRs, h, k, q, w, next, crossover, pool); // P5 = S1 T1 -> C22
+		sub(w, x, k, a, a11, aRs, w, x, k, h, k);                           // S2 = S1 - A11
+		sub(b, b22, bRs, w, y, q, w, y, q, k, q);                           // T2 = B22 - T1
+		multiply(w, x, k, w, y, q, c, c12, cRs, h, k, q, w, next, crossover, pool); // P6 = S2 T2 -> C12
+		sub(a, a12, aRs, w, x, k, w, x, k, h, k);                           // S4 = A12 - S2
+		multiply(w, x, k, b, b22, bRs, c, c11, cRs, h, k, q, w, next, crossover, pool); // P3 = S4 B22 -> C11
+		multiply(a, a11, aRs, b, b11, bRs, w, x, q, h, k, q, w, next, crossover, pool); // P1 = A11 B11 -> X
+		add(w, x, q, c, c12, cRs, c, c12, cRs, h, q);                       // U2 = P1 + P6 -> C12
+		add(c, c12, cRs, c, c21, cRs, c, c21, cRs, h, q);                   // U3 = U2 + P7 -> C21
+		add(c, c12, cRs, c, c22, cRs, c, c12, cRs, h, q);                   // U4 = U2 + P5 -> C12
+		add(c, c21, cRs, c, c22, cRs, c, c22, cRs, h, q);                   // U7 = U3 + P5 -> C22 (done)
+		add(c, c12, cRs, c, c11, cRs, c, c12, cRs, h, q);                   // U5 = U4 + P3 -> C12 (done)
+		sub(w, y, q, b, b21, bRs, w, y, q, k, q);                           // T4 = T2 - B21
+		multiply(a, a22, aRs, w, y, q, c, c11, cRs, h, k, q, w, next, crossover, pool); // P4 = A22 T4 -> C11
+		sub(c, c21, cRs, c, c11, cRs, c, c21, cRs, h, q);                   // U6 = U3 - P4 -> C21 (done)
+		multiply(a, a12, aRs, b, b21, bRs, c, c11, cRs, h, k, q, w, next, crossover, pool); // P2 = A12 B21 -> C11
+		add(w, x, q, c, c11, cRs, c, c11, cRs, h, q);                       // U1 = P1 + P2 -> C11 (done)
+
+		int me = 2 * h, ne = 2 * k, pe = 2 * q; // peel what the even part left out
+		if (ne < n) { // rank-1 term of the last column of A and last row of B
+			Gemm.multiply(a, aOff + ne, aRs, 1, b, bOff + ne * bRs, bRs, 1, c, cOff, cRs, 1, 0, me, 0, pe);
+		}
+		if (pe < p) { // last column of C
+			for (int i = 0; i < me; i++) c[cOff + i * cRs + pe] = 0.0;
+			Gemm.multiply(a, aOff, aRs, 1, b, bOff, bRs, 1, c, cOff, cRs, n, 0, me, pe, p);
+		}
+		if (me < m) { // last row of C
+			Arrays.fill(c, cOff + me * cRs, cOff + me * cRs + p, 0.0);
+			Gemm.multiply(a, aOff, aRs, 1, b, bOff, bRs, 1, c, cOff, cRs, n, me, m, 0, p);
+		}
+	}
+
+	/** Z = X + Y over a rows x cols block (Z may be X or Y) */
+	private static void add(double[] x, int xOff, int xRs, double[] y, int yOff, int yRs,
+			double[] z, int zOff, int zRs, int rows, int cols) {
+		for (int i = 0; i < rows; i++) {
+			int xi = xOff + i * xRs, yi = yOff + i * yRs, zi = zOff + i * zRs;
+			for (int j = 0; j < cols; j++) {
+				z[zi + j] = x[xi + j] + y[yi + j];
+			}
+		}
+	}
+
+	/** Z = X - Y over a rows x cols block (Z may be X or Y) */
+	private static void sub(double[] x, int xOff, int xRs, double[] y, int yOff, int yRs,
+			double[] z, int zOff, int zRs, int rows, int cols) {
+		for (int i = 0; i < rows; i++) {
+			int xi = xOff + i * xRs, yi = yOff + i * yRs, zi = zOff + i * zRs;
+			for (int j = 0; j < cols; j++) {
+				z[zi + j] = x[xi + j] - y[yi + j];
+			}
+		}
+	}
+}
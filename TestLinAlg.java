@@ -1,5 +1,47 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32C;
+
+import linalg.BinaryFormat;
+import linalg.ConcurrentVector;
+import linalg.FloatMatrix;
+import linalg.ExactNeighborIndex;
+import linalg.FloatVector;
+import linalg.IVFNeighborIndex;
+import linalg.ImmutableMatrix;
+import linalg.ImmutableVector;
+import linalg.IterativeSolver;
+import linalg.LUDecomposition;
 import linalg.LinAlgException;
+import linalg.LinearOperator;
+import linalg.MappedMatrix;
+import linalg.Metrics;
+import linalg.Neighbors;
 import linalg.Matrix; // This is Matrix from the linear algebra package you are writing 
+import linalg.Parallelism;
+import linalg.SparseMatrix;
+import linalg.SparseVector;
+import linalg.Strassen;
+import linalg.TopEigen;
+import linalg.TruncatedSVD;
+import linalg.TextFormat;
+import linalg.VectorBatch;
+import linalg.VectorExpr;
 import linalg.Vector; // This is Vector from the linear algebra package you are writing 
  /** This is a small example of test cases.  Write your own test cases to understand all
  *  of the methods in Matrix and Vector.  To test correctness of your implementation,  
@@ -49,8 +91,1534 @@ public class TestLinAlg {
 			System.out.println("15. should throw Exception: " + Matrix.Multiply(m3, v));
 		
 		} catch (LinAlgException e) {
+			System.out.println("EXCEPTION: " + e.getMessage()); // expected from 15: m3 is 5 X 4 but v has 5 entries
+		}
+		
+		try {
+			// Checks of the features added since: each prints "N. what is checked: true" and a false
+			// fails the run (exit status 1, after all the checks have been printed)
+			testMultiply();
+			testParallel();
+			testVectorKernels();
+			testSparseMatrix();
+			testSparseVector();
+			testMappedMatrix();
+			testBinaryFormat();
+			testTextFormat();
+			testVectorExpr();
+			testInto();
+			testViews();
+			testTranspose();
+			testStrassen();
+			testLU();
+			testCholeskyQR();
+			testKrylov();
+			testEigenSVD();
+			testFloat();
+			testVectorBatch();
+			testNeighbors();
+			testReductions();
+			testMetrics();
+			testConcurrentVector();
+			testImmutable();
+		
+		} catch (LinAlgException | IOException e) {
 			System.out.println("EXCEPTION: " + e.getMessage());
 			System.exit(1); // Exits the program
 		}
+		
+		System.out.println(_nFailed + " of " + (_nCheck - 15) + " checks failed");
+		if (_nFailed > 0)
+			System.exit(1);
+	}
+	
+	private static int _nCheck = 15; // Number of the last check printed (1-15 are the sample above)
+	private static int _nFailed = 0; // Checks that printed false
+	
+	/** Prints the next numbered check and counts it as failed unless ok
+	 * 
+	 * @param what
+	 * @param ok
+	 */
+	
+	private static void check(String what, boolean ok) {
+		System.out.println(++_nCheck + ". " + what + ": " + ok);
+		if (!ok)
+			_nFailed++;
+	}
+	
+	/** Returns a rows x cols matrix of uniform values in [-1, 1) drawn from a seeded generator */
+	private static Matrix random(int rows, int cols, long seed) throws LinAlgException {
+		Random r = new Random(seed);
+		Matrix m = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < cols; j++)
+				m.set(i, j, 2 * r.nextDouble() - 1);
+		return m;
+	}
+	
+	/** Returns a vector of dim uniform values in [-1, 1) drawn from a seeded generator */
+	private static Vector random(int dim, long seed) throws LinAlgException {
+		Random r = new Random(seed);
+		Vector v = new Vector(dim);
+		for (int i = 0; i < dim; i++)
+			v.set(i, 2 * r.nextDouble() - 1);
+		return v;
+	}
+	
+	/** Returns a rows x cols matrix with about a quarter of its entries uniform in [-1, 1), the rest 0 */
+	private static Matrix randomSparse(int rows, int cols, long seed) throws LinAlgException {
+		Random r = new Random(seed);
+		Matrix m = new Matrix(rows, cols);
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < cols; j++)
+				if (r.nextInt(4) == 0)
+					m.set(i, j, 2 * r.nextDouble() - 1);
+		return m;
+	}
+	
+	/** Deletes dir and the files in it (the temporary directories of the file-backed tests) */
+	private static void deleteAll(Path dir) throws IOException {
+		File[] files = dir.toFile().listFiles();
+		for (File f : (files == null) ? new File[0] : files)
+			Files.delete(f.toPath());
+		Files.delete(dir);
+	}
+	
+	/** Returns the number of open file descriptors of this process, or -1 if /proc is not there */
+	private static int openDescriptors() {
+		String[] fds = new File("/proc/self/fd").list();
+		return (fds == null) ? -1 : fds.length;
+	}
+	
+	/** Returns the textbook i-j-k triple loop product of a and b */
+	private static Matrix naive(Matrix a, Matrix b) throws LinAlgException {
+		Matrix c = new Matrix(a.getNumRows(), b.getNumCols());
+		for (int i = 0; i < a.getNumRows(); i++)
+			for (int j = 0; j < b.getNumCols(); j++) {
+				double sum = 0.0;
+				for (int k = 0; k < a.getNumCols(); k++)
+					sum += a.get(i, k) * b.get(k, j);
+				c.set(i, j, sum);
+			}
+		return c;
+	}
+	
+	/** Returns the largest |a(i, j) - b(i, j)| */
+	private static double maxDiff(Matrix a, Matrix b) throws LinAlgException {
+		double max = 0.0;
+		for (int i = 0; i < a.getNumRows(); i++)
+			for (int j = 0; j < a.getNumCols(); j++)
+				max = Math.max(max, Math.abs(a.get(i, j) - b.get(i, j)));
+		return max;
+	}
+	
+	/** Returns the largest |a(i) - b(i)| */
+	private static double maxDiff(Vector a, Vector b) throws LinAlgException {
+		double max = 0.0;
+		for (int i = 0; i < a.getDim(); i++)
+			max = Math.max(max, Math.abs(a.get(i) - b.get(i)));
+		return max;
+	}
+	
+	/** Blocked flat-storage GEMM (user-001): the same bits as the triple loop, at sizes that are and
+	 *  are not multiples of the 256 x 256 panels and the 4-row micro-kernel */
+	private static void testMultiply() throws LinAlgException {
+		int[][] shapes = { { 1, 1, 1 }, { 3, 7, 5 }, { 4, 256, 8 }, { 131, 257, 67 }, { 300, 20, 513 } };
+		for (int[] s : shapes) {
+			Matrix a = random(s[0], s[1], 1), b = random(s[1], s[2], 2);
+			check("Multiply " + s[0] + "x" + s[1] + " by " + s[1] + "x" + s[2] + " equals the triple loop exactly",
+					Matrix.Multiply(a, b).equals(naive(a, b)));
+		}
+		Matrix a = random(37, 29, 3);
+		Vector x = random(29, 4);
+		Matrix col = new Matrix(29, 1);
+		for (int k = 0; k < 29; k++)
+			col.set(k, 0, x.get(k));
+		Matrix ax = naive(a, col);
+		Vector y = Matrix.Multiply(a, x);
+		boolean close = y.getDim() == 37;
+		for (int i = 0; i < 37; i++)
+			close &= Math.abs(y.get(i) - ax.get(i, 0)) <= 1e-13; // row dots may be summed in SIMD lanes
+		check("Multiply(Matrix, Vector) matches the triple loop to rounding", close);
+		Matrix c = new Matrix(37, 29);
+		c.set(0, 0, 99);
+		Matrix.MultiplyInto(random(37, 37, 5), a, c);
+		check("Multiply into out overwrites what out held", c.equals(Matrix.Multiply(random(37, 37, 5), a)));
+		boolean threw = false;
+		try {
+			Matrix.Multiply(a, a);
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("Multiply of 37x29 by 37x29 throws LinAlgException", threw);
+		Matrix m = random(6, 9, 6), copy = new Matrix(m);
+		boolean equalBefore = copy.equals(m);
+		copy.set(5, 8, 7.0);
+		check("copy equals the original and writes to it leave the original alone", equalBefore && !copy.equals(m) && m.get(5, 8) != 7.0);
+		int errors = 0;
+		try { new Matrix(65536, 65536); } catch (LinAlgException e) { errors++; } // row * col wraps to 0
+		try { new Matrix(50000, 50000); } catch (LinAlgException e) { errors++; } // row * col wraps negative
+		check("a matrix too large for one array throws LinAlgException", errors == 2);
+	}
+	
+	/** ForkJoinPool Multiply (user-002): the same bits on any number of threads, and changing the
+	 *  parallelism while operations run on the old pool does not make them fail */
+	private static void testParallel() throws LinAlgException {
+		int threads = Parallelism.getParallelism();
+		Matrix a = random(200, 300, 7), b = random(300, 150, 8);
+		Vector x = random(300, 9);
+		Parallelism.setParallelism(1);
+		Matrix seq = Matrix.Multiply(a, b);
+		Vector seqV = Matrix.Multiply(a, x);
+		Parallelism.setParallelism(4);
+		check("Multiply on 4 threads equals Multiply on 1 thread exactly", Matrix.Multiply(a, b).equals(seq));
+		check("Multiply(Matrix, Vector) on 4 threads equals 1 thread exactly", Matrix.Multiply(a, x).equals(seqV));
+		ForkJoinPool pool = new ForkJoinPool(3);
+		check("Multiply on an explicit 3-thread pool equals 1 thread exactly", Matrix.Multiply(a, b, pool).equals(seq));
+		pool.shutdown();
+		check("a null pool runs Multiply on the calling thread", Matrix.Multiply(a, b, null).equals(seq) && Matrix.Multiply(a, x, null).equals(seqV));
+		
+		final Matrix sq = random(300, 300, 10);
+		final Matrix expected = Matrix.Multiply(sq, sq);
+		final String[] failure = { null };
+		Thread worker = new Thread(() -> {
+			try {
+				for (int k = 0; k < 10; k++) {
+					sq.lu();
+					if (!Matrix.Multiply(sq, sq).equals(expected))
+						failure[0] = "wrong product";
+				}
+			} catch (Exception e) { // a RejectedExecutionException from a pool shut down under the operation
+				failure[0] = e.toString();
+			}
+		});
+		worker.start();
+		for (int k = 0; worker.isAlive(); k++)
+			Parallelism.setParallelism(2 + k % 3);
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		check("lu() and Multiply keep working while setParallelism replaces the pool" + (failure[0] == null ? "" : " (" + failure[0] + ")"), failure[0] == null);
+		
+		boolean threw = false;
+		try {
+			Parallelism.setParallelism(0);
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("setParallelism(0) throws LinAlgException", threw);
+		Parallelism.setParallelism(threads);
+	}
+	
+	/** SIMD Vector kernels (user-003): elementwise results equal plain loops exactly at lengths below,
+	 *  at and past a multiple of the lane count (run with and without -Dlinalg.simd=false) */
+	private static void testVectorKernels() throws LinAlgException {
+		boolean add = true, mult = true, scalar = true, scaled = true, dot = true;
+		for (int n : new int[] { 1, 3, 8, 17, 64, 1001 }) {
+			Vector a = random(n, 11 + n), b = random(n, 12 + n);
+			Vector sum = a.elementwiseAdd(b), prod = a.elementwiseMult(b), shifted = a.scalarAdd(0.25), scaledA = a.scalarMult(-3.0);
+			Vector axpy = new Vector(b);
+			axpy.scaledAddInPlace(1.5, a);
+			double ref = 0.0;
+			for (int i = 0; i < n; i++) {
+				add &= sum.get(i) == a.get(i) + b.get(i);
+				mult &= prod.get(i) == a.get(i) * b.get(i);
+				scalar &= shifted.get(i) == a.get(i) + 0.25 && scaledA.get(i) == a.get(i) * -3.0;
+				scaled &= axpy.get(i) == b.get(i) + 1.5 * a.get(i);
+				ref += a.get(i) * b.get(i);
+			}
+			dot &= Math.abs(Vector.InnerProd(a, b) - ref) <= 1e-14 * n; // lanes reassociate the sum
+		}
+		check("elementwiseAdd equals the plain loop exactly", add);
+		check("elementwiseMult equals the plain loop exactly", mult);
+		check("scalarAdd and scalarMult equal the plain loop exactly", scalar);
+		check("scaledAddInPlace equals the plain loop exactly", scaled);
+		check("InnerProd matches the plain loop to rounding", dot);
+		Vector v = random(9, 13), out = new Vector(9);
+		v.scalarMult(2.0, out);
+		check("scalarMult into out equals scalarMult", out.equals(v.scalarMult(2.0)));
+	}
+	
+	/** CSR/CSC SparseMatrix (user-005): conversions are lossless, the layouts are equal with equal
+	 *  hashes, and the sparse multiplies match the dense ones */
+	private static void testSparseMatrix() throws LinAlgException {
+		Matrix a = randomSparse(40, 30, 21), b = randomSparse(30, 25, 22);
+		SparseMatrix csr = SparseMatrix.fromMatrix(a, SparseMatrix.Layout.CSR), csc = SparseMatrix.fromMatrix(a, SparseMatrix.Layout.CSC);
+		check("fromMatrix then toMatrix gives back the matrix in both layouts", csr.toMatrix().equals(a) && csc.toMatrix().equals(a));
+		check("the CSR and CSC forms are equal and hash alike", csr.equals(csc) && csr.hashCode() == csc.hashCode());
+		check("transpose is the dense transpose", csr.transpose().toMatrix().equals(a.transpose()));
+		Vector x = random(30, 23);
+		check("Multiply(SparseMatrix, Vector) matches the dense product to rounding",
+				maxDiff(SparseMatrix.Multiply(csr, x), Matrix.Multiply(a, x)) <= 1e-13
+				&& maxDiff(SparseMatrix.Multiply(csc, x), Matrix.Multiply(a, x)) <= 1e-13);
+		check("Multiply(SparseMatrix, Matrix) matches the dense product to rounding",
+				maxDiff(SparseMatrix.Multiply(csc, b), Matrix.Multiply(a, b)) <= 1e-13);
+		SparseMatrix sb = SparseMatrix.fromMatrix(b, SparseMatrix.Layout.CSC);
+		check("Multiply(SparseMatrix, SparseMatrix) matches the dense product to rounding",
+				maxDiff(SparseMatrix.Multiply(csr, sb).toMatrix(), Matrix.Multiply(a, b)) <= 1e-13);
+		SparseMatrix built = new SparseMatrix.Builder(3, 4).add(1, 2, 2.0).add(0, 0, 1.0).add(1, 2, 3.0).add(0, 0, -1.0).build(SparseMatrix.Layout.CSR);
+		check("Builder sums duplicates and drops entries that cancel", built.getNnz() == 1 && built.get(1, 2) == 5.0 && built.get(0, 0) == 0.0);
+		Matrix d = new Matrix(3, 4);
+		d.set(1, 2, 5.0);
+		SparseMatrix fromDense = SparseMatrix.fromMatrix(d, SparseMatrix.Layout.CSC);
+		check("a built and a converted matrix with the same entries are equal and hash alike", built.equals(fromDense) && built.hashCode() == fromDense.hashCode());
+		Matrix special = new Matrix(2, 3);
+		special.set(0, 1, Double.POSITIVE_INFINITY);
+		special.set(1, 0, Double.NaN);
+		special.set(1, 2, 1.0);
+		SparseMatrix specialCsr = SparseMatrix.fromMatrix(special, SparseMatrix.Layout.CSR), specialCsc = SparseMatrix.fromMatrix(special, SparseMatrix.Layout.CSC);
+		Vector zeros = new Vector(3), dense = Matrix.Multiply(special, zeros);
+		Vector byRows = SparseMatrix.Multiply(specialCsr, zeros), byCols = SparseMatrix.Multiply(specialCsc, zeros);
+		boolean nan = true;
+		for (int i = 0; i < 2; i++)
+			nan &= Double.isNaN(dense.get(i)) && Double.isNaN(byRows.get(i)) && Double.isNaN(byCols.get(i));
+		check("stored Inf and NaN times a zero give NaN in both layouts, as in the dense product", nan);
+		check("a stored NaN makes equals false, as in Matrix.equals", !specialCsr.equals(specialCsc) && !special.equals(new Matrix(special)));
+		SparseMatrix one = new SparseMatrix.Builder(1, 2).add(0, 0, 1.0).build(SparseMatrix.Layout.CSC);
+		Vector inf = new Vector("[ 1 Infinity ]");
+		check("an unstored zero times Inf adds nothing (the documented difference from the dense product)",
+				SparseMatrix.Multiply(one, inf).get(0) == 1.0 && Double.isNaN(Matrix.Multiply(one.toMatrix(), inf).get(0)));
+		boolean threw = false;
+		try {
+			SparseMatrix.Multiply(csr, random(31, 24));
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("Multiply by a vector of the wrong dimension throws LinAlgException", threw);
+	}
+	
+	/** SparseVector (user-006): the merge and gather kernels match the dense ones, set keeps only
+	 *  non-zeros, and equal vectors hash alike */
+	private static void testSparseVector() throws LinAlgException {
+		Matrix rows = randomSparse(2, 500, 24);
+		Vector a = new Vector(rows.getRowView(0)), b = new Vector(rows.getRowView(1)), c = random(500, 25);
+		SparseVector sa = SparseVector.fromVector(a), sb = SparseVector.fromVector(b);
+		check("fromVector then toVector gives back the vector", sa.toVector().equals(a) && sa.getNnz() < 500);
+		check("sparse elementwiseAdd and elementwiseMult equal the dense ones exactly",
+				sa.elementwiseAdd(sb).toVector().equals(a.elementwiseAdd(b)) && sa.elementwiseMult(sb).toVector().equals(a.elementwiseMult(b))
+				&& sa.elementwiseAdd(c).equals(a.elementwiseAdd(c)) && sa.elementwiseMult(c).toVector().equals(a.elementwiseMult(c)));
+		check("sparse-sparse and sparse-dense InnerProd match the dense one to rounding",
+				Math.abs(SparseVector.InnerProd(sa, sb) - Vector.InnerProd(a, b)) <= 1e-13
+				&& Math.abs(SparseVector.InnerProd(sa, c) - Vector.InnerProd(a, c)) <= 1e-13);
+		SparseVector s = new SparseVector(10);
+		s.set(7, 2.0);
+		s.set(3, 1.0);
+		s.set(7, 0.0);
+		check("set inserts in order and setting 0.0 removes the entry", s.getNnz() == 1 && s.get(3) == 1.0 && s.get(7) == 0.0);
+		SparseVector t = new SparseVector(10, new int[] { 5, 3, 5 }, new double[] { 4.0, 1.0, -4.0 });
+		check("equal vectors built differently are equal and hash alike", s.equals(t) && s.hashCode() == t.hashCode());
+		SparseVector neg = new SparseVector(10, new int[] { 3 }, new double[] { -1.0 });
+		check("negating an entry changes equality and the hash", !s.equals(neg) && s.hashCode() != neg.hashCode()
+				&& s.scalarMult(-1.0).equals(neg) && s.scalarMult(-1.0).hashCode() == neg.hashCode());
+		boolean threw = false;
+		try {
+			SparseVector.InnerProd(sa, new SparseVector(499));
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("InnerProd of vectors of different dimensions throws LinAlgException", threw);
+	}
+	
+	/** Memory-mapped MappedMatrix (user-007): values round-trip through the file, the streaming
+	 *  kernels match the heap ones, and a failed create or open closes its file */
+	private static void testMappedMatrix() throws LinAlgException, IOException {
+		Path dir = Files.createTempDirectory("linalg");
+		try {
+			Matrix a = random(300, 270, 26), b = random(270, 40, 27);
+			try (MappedMatrix ma = MappedMatrix.create(dir.resolve("a"), 300, 270)) {
+				for (int i = 0; i < 300; i++)
+					for (int j = 0; j < 270; j++)
+						ma.set(i, j, a.get(i, j));
+				ma.flush();
+				check("a created mapped matrix holds what was set", ma.toMatrix().equals(a));
+				try (MappedMatrix t = ma.transpose(dir.resolve("t")); MappedMatrix c = MappedMatrix.Multiply(ma, b, dir.resolve("c"))) {
+					check("transpose to a file is the heap transpose", t.toMatrix().equals(a.transpose()));
+					check("Multiply(MappedMatrix, Matrix) equals the heap Multiply exactly", c.toMatrix().equals(Matrix.Multiply(a, b)));
+				}
+				Vector x = random(270, 28);
+				check("Multiply(MappedMatrix, Vector) matches the heap product to rounding", maxDiff(MappedMatrix.Multiply(ma, x), Matrix.Multiply(a, x)) <= 1e-13);
+			}
+			try (MappedMatrix ro = MappedMatrix.open(dir.resolve("a"), 300, 270, false)) {
+				boolean threw = false;
+				try {
+					ro.set(0, 0, 1.0);
+				} catch (LinAlgException e) {
+					threw = true;
+				}
+				check("reopened read-only it holds the values and set throws LinAlgException", ro.toMatrix().equals(a) && threw);
+			}
+			
+			int before = openDescriptors();
+			boolean shortThrew = false, wideThrew = false;
+			try {
+				MappedMatrix.open(dir.resolve("a"), 301, 270, false);
+			} catch (LinAlgException e) {
+				shortThrew = true;
+			}
+			try {
+				MappedMatrix.create(dir.resolve("wide"), 1, (1 << 27) + 1); // a row longer than one mapping
+			} catch (LinAlgException e) {
+				wideThrew = true;
+			}
+			check("open of a short file and create of unmappable rows throw and close their files", shortThrew && wideThrew && openDescriptors() == before);
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	/** Binary format (user-008): files and plain streams round-trip every bit, map() sees the same
+	 *  values, and corruption is detected */
+	private static void testBinaryFormat() throws LinAlgException, IOException {
+		Path dir = Files.createTempDirectory("linalg");
+		try {
+			Matrix a = random(400, 400, 29); // 1.28 MB: more than one 1 MB streaming buffer
+			a.set(0, 0, -0.0);
+			a.set(399, 399, Double.NEGATIVE_INFINITY);
+			BinaryFormat.write(a, dir.resolve("a.bin"));
+			Matrix back = BinaryFormat.readMatrix(dir.resolve("a.bin"));
+			check("a Matrix written to a file reads back equal, -0.0 included",
+					back.equals(a) && Double.doubleToRawLongBits(back.get(0, 0)) == Double.doubleToRawLongBits(-0.0));
+			try (MappedMatrix mapped = BinaryFormat.map(dir.resolve("a.bin"), false)) {
+				check("map() of the file holds the same values", mapped.toMatrix().equals(a));
+			}
+			Vector v = a.getColumnView(3);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			BinaryFormat.write(v, Channels.newChannel(bytes)); // not seekable: the checksum is computed first
+			Vector w = BinaryFormat.readVector(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+			Matrix col = BinaryFormat.readMatrix(Channels.newChannel(new ByteArrayInputStream(bytes.toByteArray())));
+			check("a column view written to a stream reads back as the Vector and as a one-column Matrix",
+					w.equals(v) && col.getNumCols() == 1 && col.getColumnView(0).equals(v));
+			
+			BinaryFormat.verify(dir.resolve("a.bin"));
+			byte[] file = Files.readAllBytes(dir.resolve("a.bin"));
+			file[64 + 8 * 1000] ^= 1; // one bit of the payload
+			Files.write(dir.resolve("payload.bin"), file);
+			file[64 + 8 * 1000] ^= 1;
+			file[16] ^= 1; // one bit of the row count
+			Files.write(dir.resolve("header.bin"), file);
+			int thrown = 0;
+			for (String name : new String[] { "payload.bin", "header.bin" }) {
+				try {
+					BinaryFormat.verify(dir.resolve(name));
+				} catch (LinAlgException e) {
+					thrown++;
+				}
+				try {
+					BinaryFormat.readMatrix(dir.resolve(name));
+				} catch (LinAlgException e) {
+					thrown++;
+				}
+			}
+			check("a flipped payload or header bit makes verify and readMatrix throw LinAlgException", thrown == 4);
+			boolean threw = false;
+			try {
+				BinaryFormat.readVector(dir.resolve("a.bin"));
+			} catch (LinAlgException e) {
+				threw = true;
+			}
+			check("readVector of a Matrix file throws LinAlgException", threw);
+			
+			byte[] crafted = Arrays.copyOf(Files.readAllBytes(dir.resolve("a.bin")), 64 + 8);
+			ByteBuffer header = ByteBuffer.wrap(crafted).order(ByteOrder.LITTLE_ENDIAN);
+			header.putLong(16, 1L << 30).putLong(24, 1L << 30); // 8 * rows * cols wraps to Long.MIN_VALUE
+			header.putLong(32, 0L); // the checksum of an empty payload, which an unchecked size would read
+			CRC32C hc = new CRC32C();
+			hc.update(crafted, 0, 40);
+			header.putInt(40, (int) hc.getValue()); // a valid header checksum
+			Files.write(dir.resolve("crafted.bin"), crafted);
+			thrown = 0;
+			try { BinaryFormat.map(dir.resolve("crafted.bin"), false).close(); } catch (LinAlgException e) { thrown++; }
+			try { BinaryFormat.verify(dir.resolve("crafted.bin")); } catch (LinAlgException e) { thrown++; }
+			check("a header whose payload size overflows makes map and verify throw LinAlgException", thrown == 2);
+		} finally {
+			deleteAll(dir);
+		}
+	}
+	
+	/** Text formats (user-009): write then read is lossless in both styles, also across the row
+	 *  blocks readMatrix collects, and the fast number path agrees with Double.parseDouble */
+	private static void testTextFormat() throws LinAlgException, IOException {
+		boolean lossless = true;
+		for (Matrix a : new Matrix[] { random(300, 250, 30), random(2, 70000, 31), random(1, 1, 32) }) { // several blocks, one row per block, one entry
+			for (TextFormat.Style style : TextFormat.Style.values()) {
+				StringWriter text = new StringWriter();
+				TextFormat.write(a, style, text);
+				lossless &= TextFormat.readMatrix(new StringReader(text.toString()), style).equals(a);
+			}
+		}
+		check("write then readMatrix gives back the matrix exactly in both styles", lossless);
+		Vector v = random(1000, 33);
+		StringWriter text = new StringWriter();
+		TextFormat.write(v, text);
+		check("write then readVector gives back the vector exactly", TextFormat.readVector(new StringReader(text.toString())).equals(v));
+		String[] numbers = { "0", "-0", "1", "0.1", "-2.5e3", "1E-5", "123456789012345678901234", "0.30000000000000004", "4.9e-324", "1.7976931348623157e308" };
+		boolean parsed = true;
+		StringBuilder line = new StringBuilder();
+		for (String s : numbers)
+			line.append(line.length() == 0 ? "" : ",").append(s);
+		Matrix row = TextFormat.readMatrix(new StringReader(line.toString()), TextFormat.Style.CSV);
+		for (int j = 0; j < numbers.length; j++)
+			parsed &= Double.doubleToRawLongBits(row.get(0, j)) == Double.doubleToRawLongBits(Double.parseDouble(numbers[j]));
+		check("parsed numbers have the bits of Double.parseDouble", parsed);
+		int thrown = 0;
+		for (String bad : new String[] { "[ 1 2 ]\n[ 3 ]", "", "[ 1 x 2 ]" }) {
+			try {
+				TextFormat.readMatrix(new StringReader(bad), TextFormat.Style.BRACKETED);
+			} catch (LinAlgException e) {
+				thrown++;
+			}
+		}
+		check("ragged rows, no rows and a non-number throw LinAlgException", thrown == 3);
+	}
+	
+	/** Fused VectorExpr (user-010): a pipeline gives the bits of the eager calls, at lengths that do
+	 *  and do not fill the last 1024-element chunk, and outputs that would be read after being
+	 *  written are refused */
+	private static void testVectorExpr() throws LinAlgException {
+		boolean fused = true;
+		for (int n : new int[] { 1, 1024, 2500 }) {
+			Vector v = random(n, 34), w = random(n, 35), u = random(n, 36);
+			Vector eager = v.scalarMult(1.5).elementwiseAdd(w).scalarAdd(-0.25).elementwiseMult(u.elementwiseAdd(w));
+			VectorExpr e = VectorExpr.of(v).scalarMult(1.5).elementwiseAdd(w).scalarAdd(-0.25).elementwiseMult(VectorExpr.of(u).elementwiseAdd(w));
+			fused &= e.eval().equals(eager) && e.eval().equals(eager); // evaluating twice gives the same
+		}
+		check("a fused pipeline equals the eager calls exactly", fused);
+		Vector v = random(300, 37), w = random(300, 38);
+		Vector expected = v.scalarMult(2.0).elementwiseAdd(w);
+		VectorExpr.of(v).scalarMult(2.0).elementwiseAdd(w).eval(v);
+		check("eval into one of its elementwise operands gives the same result", v.equals(expected));
+		Matrix m = random(300, 200, 39), cols = new Matrix(200, 3);
+		Vector x = random(200, 40);
+		VectorExpr.of(x).scalarAdd(1.0).eval(cols.getColumnView(1));
+		check("eval into a strided column view writes that column", cols.getColumnView(1).equals(x.scalarAdd(1.0)));
+		Vector mx = VectorExpr.Multiply(m, VectorExpr.of(x).scalarAdd(1.0)).elementwiseAdd(w).eval();
+		check("a fused matrix-vector product matches Matrix.Multiply to rounding",
+				maxDiff(mx, Matrix.Multiply(m, x.scalarAdd(1.0)).elementwiseAdd(w)) <= 1e-13);
+		int thrown = 0;
+		try {
+			VectorExpr.Multiply(m, VectorExpr.of(w)); // m has 200 columns, w 300 entries
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		Vector y = random(300, 41);
+		try {
+			VectorExpr.Multiply(random(300, 300, 42), VectorExpr.of(y)).eval(y); // y is read for every row
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			VectorExpr.of(v).elementwiseAdd(x);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("mismatched dimensions and an output that is the product's input throw LinAlgException", thrown == 3);
+	}
+	
+	/** into overloads and the per-thread Workspace (user-011): writing into an out argument gives
+	 *  what the allocating call returns, and an expression that uses a matrix-vector node twice
+	 *  leaves the Workspace intact for later operations */
+	private static void testInto() throws LinAlgException {
+		Vector v = random(70, 43), w = random(70, 44), out = new Vector(70);
+		boolean same = true;
+		v.scalarAdd(0.5, out);
+		same &= out.equals(v.scalarAdd(0.5));
+		v.elementwiseAdd(w, out);
+		same &= out.equals(v.elementwiseAdd(w));
+		v.elementwiseMult(w, out);
+		same &= out.equals(v.elementwiseMult(w));
+		Matrix a = random(70, 70, 45), c = new Matrix(70, 70);
+		Matrix.MultiplyInto(a, a, c);
+		same &= c.equals(Matrix.Multiply(a, a));
+		Matrix.MultiplyInto(a, v, out);
+		same &= out.equals(Matrix.Multiply(a, v));
+		a.lu().solve(v, out);
+		same &= out.equals(a.lu().solve(v));
+		check("the into overloads write what the allocating calls return", same);
+		int thrown = 0;
+		try {
+			v.elementwiseAdd(w, new Vector(69));
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			a.lu().solve(v, v); // the permutation would read b after writing it
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("an out argument of the wrong dimension, or that is the right-hand side of solve, throws LinAlgException", thrown == 2);
+		
+		Matrix m = random(50, 40, 46);
+		Vector u = random(40, 47);
+		String failure = null;
+		try {
+			VectorExpr e = VectorExpr.Multiply(m, VectorExpr.of(u).scalarMult(2.0));
+			Vector once = e.eval();
+			for (int k = 0; k < 3 && failure == null; k++) {
+				if (!e.elementwiseAdd(e).eval().equals(once.elementwiseAdd(once)))
+					failure = "wrong sum";
+			}
+			Matrix sq = random(300, 300, 48);
+			sq.lu();
+			Matrix.Multiply(sq, sq);
+			VectorExpr.Multiply(m, VectorExpr.of(u).scalarAdd(1.0)).eval();
+		} catch (RuntimeException e) { // a NullPointerException from a null buffer in the Workspace
+			failure = e.toString();
+		}
+		check("a matrix-vector node used twice in one expression gives the right sum and leaves the Workspace usable"
+				+ (failure == null ? "" : " (" + failure + ")"), failure == null);
+	}
+	
+	/** Zero-copy views (user-012): views read and write the storage of their matrix, and the
+	 *  operations give on a view what they give on a copy of it */
+	private static void testViews() throws LinAlgException {
+		Matrix a = random(60, 50, 49);
+		Vector row = a.getRowView(7), col = a.getColumnView(9);
+		boolean reads = row.isView() && col.isView() && row.equals(a.getRow(7));
+		for (int i = 0; i < 60; i++)
+			reads &= col.get(i) == a.get(i, 9);
+		row.set(9, 42.0);
+		check("row and column views read the matrix and writes go through", reads && a.get(7, 9) == 42.0 && col.get(7) == 42.0);
+		Matrix block = a.getSubMatrixView(10, 5, 20, 30), t = a.getTransposeView();
+		boolean same = t.equals(a.transpose()) && t.getNumRows() == 50 && block.isView();
+		for (int i = 0; i < 20; i++)
+			for (int j = 0; j < 30; j++)
+				same &= block.get(i, j) == a.get(10 + i, 5 + j);
+		block.set(0, 0, -7.0);
+		check("submatrix and transposed views read the matrix and writes go through", same && a.get(10, 5) == -7.0 && t.get(5, 10) == -7.0);
+		Matrix b = random(30, 25, 50);
+		check("Multiply of a submatrix view equals Multiply of its copy exactly", Matrix.Multiply(block, b).equals(Matrix.Multiply(new Matrix(block), b)));
+		check("Multiply of a transposed view equals Multiply of the transpose exactly", Matrix.Multiply(t, random(60, 8, 51)).equals(Matrix.Multiply(a.transpose(), random(60, 8, 51))));
+		Vector x = random(60, 52);
+		check("Multiply(transposed view, Vector) matches the transpose to rounding", maxDiff(Matrix.Multiply(t, x), Matrix.Multiply(a.transpose(), x)) <= 1e-13);
+		check("vector operations on a column view equal those on its copy exactly",
+				col.scalarMult(3.0).equals(new Vector(col).scalarMult(3.0)) && col.elementwiseAdd(x).equals(new Vector(col).elementwiseAdd(x))
+				&& !new Vector(col).isView() && !new Matrix(block).isView());
+		int thrown = 0;
+		try {
+			a.getSubMatrixView(50, 0, 11, 1);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			a.getColumnView(50);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("views that do not fit in the matrix throw LinAlgException", thrown == 2);
+		
+		Matrix strip = new Matrix(1, 5);
+		for (int j = 0; j < 5; j++)
+			strip.set(0, j, 10 * j);
+		Vector src = strip.getSubMatrixView(0, 0, 1, 4).getRowView(0), dst = strip.getSubMatrixView(0, 1, 1, 4).getRowView(0);
+		Vector w = random(4, 159);
+		int overlaps = 0;
+		try { src.scalarAdd(1, dst); } catch (LinAlgException e) { overlaps++; }
+		try { src.scalarMult(2, dst); } catch (LinAlgException e) { overlaps++; }
+		try { w.elementwiseAdd(src, dst); } catch (LinAlgException e) { overlaps++; }
+		try { w.elementwiseMult(src, dst); } catch (LinAlgException e) { overlaps++; }
+		try { dst.elementwiseAddInPlace(src); } catch (LinAlgException e) { overlaps++; }
+		try { dst.elementwiseMultInPlace(src); } catch (LinAlgException e) { overlaps++; }
+		boolean untouched = strip.get(0, 1) == 10 && strip.get(0, 4) == 40;
+		Vector alias = strip.getSubMatrixView(0, 0, 1, 4).getRowView(0);
+		src.scalarAdd(1, alias);
+		w.elementwiseAdd(src, alias);
+		check("into and in-place operations reject overlapping views of one storage but accept the same view",
+				overlaps == 6 && untouched && strip.get(0, 0) == 1 + w.get(0) && strip.get(0, 3) == 31 + w.get(3));
+		
+		Matrix rows = random(4, 6, 160), ref = new Matrix(rows);
+		rows.getRowView(0).elementwiseAddInPlace(rows.getRowView(1));
+		rows.getRowView(2).scaledAddInPlace(-2.0, rows.getRowView(3));
+		rows.getRowView(3).copyFrom(rows.getRowView(1));
+		boolean rowsOk = true;
+		for (int j = 0; j < 6; j++) {
+			rowsOk &= rows.get(0, j) == ref.get(0, j) + ref.get(1, j) && rows.get(2, j) == ref.get(2, j) + -2.0 * ref.get(3, j)
+					&& rows.get(3, j) == ref.get(1, j);
+		}
+		check("in-place operations accept disjoint row views of one matrix", rowsOk);
+		Matrix cols = random(5, 2, 161), pairs = new Matrix(cols);
+		Vector even = cols.getColumnView(0), odd = cols.getColumnView(1); // interleaved: spans overlap, elements do not
+		even.elementwiseMult(odd, odd);
+		even.scaledAddInPlace(0.5, odd);
+		boolean colsOk = true;
+		for (int i = 0; i < 5; i++) {
+			double p = pairs.get(i, 0) * pairs.get(i, 1);
+			colsOk &= cols.get(i, 1) == p && cols.get(i, 0) == pairs.get(i, 0) + 0.5 * p;
+		}
+		check("into and in-place operations accept disjoint interleaved column views", colsOk);
+		Matrix grid = random(4, 4, 162), before = new Matrix(grid);
+		int partial = 0;
+		try { grid.getRowView(1).copyFrom(grid.getColumnView(3)); } catch (LinAlgException e) { partial++; }
+		try { grid.getColumnView(1).scaledAddInPlace(2.0, grid.getRowView(2)); } catch (LinAlgException e) { partial++; }
+		try { grid.getRowView(0).elementwiseMult(grid.getRowView(3), grid.getColumnView(0)); } catch (LinAlgException e) { partial++; }
+		try { dst.scaledAddInPlace(1.0, src); } catch (LinAlgException e) { partial++; }
+		try { dst.copyFrom(src); } catch (LinAlgException e) { partial++; }
+		check("copyFrom, scaledAddInPlace and into operations reject views sharing some elements", partial == 5 && grid.equals(before));
+	}
+	
+	/** Returns the element by element transpose of a */
+	private static Matrix naiveTranspose(Matrix a) throws LinAlgException {
+		Matrix t = new Matrix(a.getNumCols(), a.getNumRows());
+		for (int i = 0; i < a.getNumRows(); i++)
+			for (int j = 0; j < a.getNumCols(); j++)
+				t.set(j, i, a.get(i, j));
+		return t;
+	}
+	
+	/** Cache-oblivious transpose (user-013): out-of-place, into out and in-place transposes equal
+	 *  the element by element one for shapes around the tile size, square and rectangular */
+	private static void testTranspose() throws LinAlgException {
+		int[][] shapes = { { 1, 1 }, { 1, 9 }, { 7, 3 }, { 64, 64 }, { 65, 63 }, { 130, 257 }, { 300, 300 } };
+		boolean copy = true, into = true, inPlace = true;
+		for (int[] s : shapes) {
+			Matrix a = random(s[0], s[1], 53 + s[0]), expected = naiveTranspose(a);
+			copy &= a.transpose().equals(expected);
+			Matrix out = new Matrix(s[1], s[0]);
+			a.transpose(out);
+			into &= out.equals(expected);
+			a.transposeInPlace();
+			inPlace &= a.equals(expected) && a.getNumRows() == s[1];
+		}
+		check("transpose equals the element by element transpose", copy);
+		check("transpose into out equals the element by element transpose", into);
+		check("transposeInPlace equals the element by element transpose, square and rectangular", inPlace);
+		Matrix a = random(90, 90, 54), expected = naiveTranspose(a.getSubMatrixView(20, 30, 40, 40));
+		a.getSubMatrixView(20, 30, 40, 40).transposeInPlace();
+		check("transposeInPlace of a square view transposes that block only",
+				a.getSubMatrixView(20, 30, 40, 40).equals(expected) && a.get(0, 0) == random(90, 90, 54).get(0, 0));
+		Matrix b = random(90, 90, 55), bt = new Matrix(90, 90);
+		b.transpose(bt.getTransposeView());
+		check("transpose into a transposed view writes the matrix itself", bt.equals(b));
+		int thrown = 0;
+		try {
+			a.getSubMatrixView(0, 0, 10, 20).transposeInPlace();
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			a.transpose(a.getTransposeView());
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("transposeInPlace of a rectangular view and transpose into its own storage throw LinAlgException", thrown == 2);
+	}
+	
+	/** Strassen-Winograd (user-014): with a small crossover so that small products recurse, the
+	 *  result stays within errorBound of the classical product (operands are in [-1, 1)) */
+	private static void testStrassen() throws LinAlgException {
+		int crossover = Strassen.getCrossover();
+		Strassen.setCrossover(16);
+		boolean bounded = true, recursed = true;
+		for (int n : new int[] { 64, 97, 130 }) { // 97 and 130 peel an odd row, column and rank-1 term on the way down
+			Matrix a = random(n, n, 56 + n), b = random(n, n, 57 + n);
+			double diff = maxDiff(Strassen.Multiply(a, b), Matrix.Multiply(a, b));
+			bounded &= diff <= Strassen.errorBound(n);
+			recursed &= diff > 0.0; // the classical kernel alone would give the same bits
+		}
+		check("Strassen.Multiply is within errorBound of Multiply for square sizes above the crossover", bounded && recursed);
+		Matrix a = random(70, 90, 58), b = random(90, 50, 59);
+		check("Strassen.Multiply of a rectangular product is within errorBound of its largest dimension",
+				maxDiff(Strassen.Multiply(a, b), Matrix.Multiply(a, b)) <= Strassen.errorBound(90));
+		check("Strassen.Multiply of a transposed view equals Strassen.Multiply of the transpose",
+				Strassen.Multiply(b.getTransposeView(), a.getTransposeView()).equals(Strassen.Multiply(b.transpose(), a.transpose())));
+		check("errorBound grows with the levels of recursion", Strassen.errorBound(16) < Strassen.errorBound(64) && Strassen.errorBound(64) < Strassen.errorBound(256));
+		Strassen.setCrossover(crossover);
+		Matrix c = random(40, 40, 60);
+		check("below the crossover Strassen.Multiply equals Multiply exactly", Strassen.Multiply(c, c).equals(Matrix.Multiply(c, c)));
+		int thrown = 0;
+		try {
+			Strassen.setCrossover(1);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			Strassen.Multiply(a, a);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("a crossover below 2 and mismatched dimensions throw LinAlgException", thrown == 2 && Strassen.getCrossover() == crossover);
+	}
+	
+	/** Blocked LU (user-015): P A = L U, solves leave small residuals at sizes below and above the
+	 *  panel width, and singular matrices are reported */
+	private static void testLU() throws LinAlgException {
+		boolean factors = true, residual = true, inverse = true;
+		for (int n : new int[] { 1, 5, 70, 300 }) {
+			Matrix a = random(n, n, 61 + n);
+			LUDecomposition lu = a.lu();
+			int[] p = lu.getPivot();
+			Matrix pa = new Matrix(n, n);
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					pa.set(i, j, a.get(p[i], j));
+			factors &= maxDiff(Matrix.Multiply(lu.getL(), lu.getU()), pa) <= 1e-12 * n;
+			Vector b = random(n, 62 + n);
+			Matrix bs = random(n, 3, 63 + n);
+			residual &= maxDiff(Matrix.Multiply(a, lu.solve(b)), b) <= 1e-10 && maxDiff(Matrix.Multiply(a, lu.solve(bs)), bs) <= 1e-10;
+			inverse &= maxDiff(Matrix.Multiply(a, lu.inverse()), Matrix.GetIdentity(n)) <= 1e-10;
+		}
+		check("P A equals L U to rounding", factors);
+		check("solve of a Vector and of a Matrix leaves residuals below 1e-10", residual);
+		check("A times inverse() is the identity to 1e-10", inverse);
+		Matrix s = new Matrix(3, 3);
+		s.set(0, 1, 2.0);
+		s.set(1, 0, 3.0);
+		s.set(2, 2, -1.0);
+		check("determinant includes the sign of the row swaps", s.lu().determinant() == 6.0 && Matrix.GetIdentity(4).lu().determinant() == 1.0);
+		Matrix zeroCol = random(4, 4, 65);
+		for (int i = 0; i < 4; i++)
+			zeroCol.set(i, 2, 0.0);
+		boolean threw = false;
+		try {
+			zeroCol.lu().solve(random(4, 66));
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("a matrix with a zero column is singular, has determinant 0 and solve throws LinAlgException",
+				zeroCol.lu().isSingular() && zeroCol.lu().determinant() == 0.0 && threw);
+		threw = false;
+		try {
+			random(3, 4, 67).lu();
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("lu() of a non-square matrix throws LinAlgException", threw);
+	}
+	
+	/** Returns the symmetric positive definite matrix m m^T + n I for a random n x n m */
+	private static Matrix randomSPD(int n, long seed) throws LinAlgException {
+		Matrix m = random(n, n, seed);
+		Matrix a = Matrix.Multiply(m, m.transpose());
+		for (int i = 0; i < n; i++)
+			a.set(i, i, a.get(i, i) + n);
+		return a;
+	}
+	
+	/** Cholesky and Householder QR (user-016): the factors reproduce A, Q has orthonormal columns,
+	 *  solves and least squares leave small residuals, and invalid input is refused */
+	private static void testCholeskyQR() throws LinAlgException {
+		boolean chol = true, cholSolve = true, det = true;
+		for (int n : new int[] { 1, 6, 90, 260 }) {
+			Matrix a = randomSPD(n, 68 + n);
+			Matrix l = a.cholesky().getL();
+			chol &= maxDiff(Matrix.Multiply(l, l.transpose()), a) <= 1e-12 * n * n;
+			Vector b = random(n, 69 + n);
+			cholSolve &= maxDiff(Matrix.Multiply(a, a.cholesky().solve(b)), b) <= 1e-10 * n
+					&& maxDiff(Matrix.Multiply(a, a.cholesky().inverse()), Matrix.GetIdentity(n)) <= 1e-10;
+			if (n < 100) // the determinant of the largest one overflows
+				det &= Math.abs(a.cholesky().determinant() / a.lu().determinant() - 1.0) <= 1e-10;
+		}
+		check("L L^T equals A to rounding", chol);
+		check("Cholesky solve and inverse leave small residuals", cholSolve);
+		check("Cholesky and LU determinants agree", det);
+		
+		boolean qr = true, orthonormal = true, normal = true;
+		for (int[] s : new int[][] { { 1, 1 }, { 9, 4 }, { 120, 70 }, { 200, 200 } }) {
+			Matrix a = random(s[0], s[1], 70 + s[0]);
+			Matrix q = a.qr().getQ(), r = a.qr().getR();
+			qr &= maxDiff(Matrix.Multiply(q, r), a) <= 1e-12 * s[0];
+			orthonormal &= maxDiff(Matrix.Multiply(q.transpose(), q), Matrix.GetIdentity(s[1])) <= 1e-12 * s[0];
+			Vector b = random(s[0], 71 + s[0]);
+			Vector residual = Matrix.Multiply(a, a.qr().leastSquares(b));
+			residual.scaledAddInPlace(-1.0, b);
+			normal &= Matrix.Multiply(a.transpose(), residual).normInf() <= 1e-10; // A^T (A x - b) = 0 at the minimum
+		}
+		check("Q R equals A to rounding", qr);
+		check("Q has orthonormal columns", orthonormal);
+		check("leastSquares satisfies the normal equations", normal);
+		Matrix sq = random(50, 50, 72);
+		Vector b = random(50, 73);
+		check("QR solve of a square system matches LU solve", maxDiff(sq.qr().solve(b), sq.lu().solve(b)) <= 1e-10);
+		
+		Matrix deficient = random(10, 4, 74);
+		for (int i = 0; i < 10; i++)
+			deficient.set(i, 3, 0.0);
+		int thrown = 0;
+		try {
+			deficient.qr().leastSquares(random(10, 75));
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		Matrix indefinite = Matrix.GetIdentity(3);
+		indefinite.set(1, 1, -1.0);
+		try {
+			indefinite.cholesky();
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			random(10, 4, 76).qr().solve(random(10, 77));
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("rank deficient least squares, an indefinite Cholesky and a non-square QR solve throw LinAlgException",
+				thrown == 3 && !deficient.qr().isFullRank());
+	}
+	
+	/** Returns ||b - A x|| / ||b|| */
+	private static double relativeResidual(LinearOperator a, Vector b, Vector x) throws LinAlgException {
+		Vector r = new Vector(b.getDim());
+		a.apply(x, r);
+		r.scaledAddInPlace(-1.0, b);
+		return r.norm2() / b.norm2();
+	}
+	
+	/** Krylov solvers (user-017): CG, BiCGSTAB and GMRES reach the tolerance in true residual on
+	 *  sparse, dense and matrix-free operators, and the Monitor and settings behave */
+	private static void testKrylov() throws LinAlgException {
+		int n = 400;
+		SparseMatrix.Builder lap = new SparseMatrix.Builder(n, n); // 1D Laplacian plus a shift: SPD
+		Vector diag = new Vector(n);
+		for (int i = 0; i < n; i++) {
+			lap.add(i, i, 2.1);
+			diag.set(i, 2.1);
+			if (i > 0) lap.add(i, i - 1, -1.0);
+			if (i + 1 < n) lap.add(i, i + 1, -1.0);
+		}
+		SparseMatrix spd = lap.build(SparseMatrix.Layout.CSR);
+		Vector b = random(n, 78);
+		IterativeSolver solver = new IterativeSolver().setTolerance(1e-10).setMaxIterations(2000);
+		Vector x = new Vector(n);
+		IterativeSolver.Result r = solver.cg(spd, b, x);
+		Vector xj = new Vector(n);
+		IterativeSolver.Result rj = new IterativeSolver().setTolerance(1e-10).setMaxIterations(2000).setPreconditioner(IterativeSolver.Jacobi(diag)).cg(spd, b, xj);
+		check("CG on a sparse SPD system converges to a true residual near the tolerance, with and without Jacobi",
+				r.isConverged() && relativeResidual(spd, b, x) <= 1e-9 && rj.isConverged() && relativeResidual(spd, b, xj) <= 1e-9);
+		
+		Matrix a = random(150, 150, 79);
+		for (int i = 0; i < 150; i++)
+			a.set(i, i, a.get(i, i) + 20.0); // nonsymmetric, diagonally dominant
+		Vector c = random(150, 80);
+		Vector xb = new Vector(150), xg = new Vector(150);
+		boolean bicg = solver.bicgstab(a, c, xb).isConverged() && relativeResidual(a, c, xb) <= 1e-9;
+		boolean gm = new IterativeSolver().setTolerance(1e-10).setRestart(10).gmres(a, c, xg).isConverged() && relativeResidual(a, c, xg) <= 1e-9;
+		check("BiCGSTAB and restarted GMRES on a nonsymmetric system converge to a true residual near the tolerance", bicg && gm);
+		
+		LinearOperator shifted = new LinearOperator() { // A + 5 I, never formed
+			public int getNumRows() { return 150; }
+			public int getNumCols() { return 150; }
+			public void apply(Vector v, Vector y) throws LinAlgException {
+				Matrix.MultiplyInto(a, v, y);
+				y.scaledAddInPlace(5.0, v);
+			}
+		};
+		Vector xm = new Vector(150);
+		check("GMRES on a matrix-free operator converges", solver.gmres(shifted, c, xm).isConverged() && relativeResidual(shifted, c, xm) <= 1e-9);
+		
+		boolean scaled = true; // ||b|| by Vector.norm2 neither underflows to 0 nor overflows to Inf
+		for (double s : new double[] { 1e-170, 1e160 }) {
+			Vector cs = c.scalarMult(s), xs = new Vector(150);
+			scaled &= new IterativeSolver().setTolerance(1e-10).setRestart(10).gmres(a, cs, xs).isConverged()
+					&& relativeResidual(a, cs, xs) <= 1e-9 && maxDiff(xs.scalarMult(1 / s), xg) <= 1e-8;
+			scaled &= !solver.cg(spd, b.scalarMult(s), new Vector(n)).isConverged(); // CG's own inner products cannot represent it: no false success
+		}
+		check("GMRES solves right-hand sides of 1e-170 and 1e160, CG does not report a zero solution as converged", scaled
+				&& Math.abs(c.scalarMult(1e-200).norm2() / 1e-200 - c.norm2()) <= 1e-14 * c.norm2()
+				&& Math.abs(c.scalarMult(1e200).norm2() / 1e200 - c.norm2()) <= 1e-14 * c.norm2());
+		
+		int[] calls = { 0 };
+		IterativeSolver.Result stopped = new IterativeSolver().setMonitor((k, res) -> ++calls[0] < 3).cg(spd, b, new Vector(n));
+		Vector warm = new Vector(x);
+		IterativeSolver.Result again = solver.cg(spd, b, warm);
+		check("a Monitor returning false stops the solve, and a converged guess needs no iterations",
+				stopped.getIterations() == 3 && calls[0] == 3 && !stopped.isConverged() && again.getIterations() == 0);
+		int thrown = 0;
+		try {
+			solver.cg(random(3, 4, 81), random(3, 82), new Vector(3));
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			solver.setTolerance(0.0);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			solver.setRestart(0);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("a non-square operator, a zero tolerance and a zero restart throw LinAlgException", thrown == 3);
+	}
+	
+	/** Returns Q diag(values) P^T with Q (rows x r) and P (cols x r) random orthonormal columns, r = values.length;
+	 *  with P = Q (rows == cols, same seed) it is symmetric with eigenvalues values and zeros */
+	private static Matrix withSpectrum(int rows, int cols, double[] values, long seed) throws LinAlgException {
+		int r = values.length;
+		Matrix q = random(rows, r, seed).qr().getQ(), p = random(cols, r, seed).qr().getQ();
+		Matrix qs = new Matrix(q);
+		for (int i = 0; i < rows; i++)
+			for (int j = 0; j < r; j++)
+				qs.set(i, j, q.get(i, j) * values[j]);
+		return Matrix.Multiply(qs, p.transpose());
+	}
+	
+	/** Lanczos and randomized SVD (user-018): on matrices built with a known spectrum, the top
+	 *  eigenvalues and singular values are found, with small residuals and orthonormal vectors */
+	private static void testEigenSVD() throws LinAlgException {
+		double[] eig = { 50.0, -40.0, 30.0, 20.0, 1.0, 0.5, -0.25 };
+		Matrix a = withSpectrum(200, 200, eig, 83);
+		boolean found = true, residual = true, converged = true;
+		for (TopEigen e : new TopEigen[] { TopEigen.Lanczos(a, 4), TopEigen.Lanczos(a, 4, 6, 1e-10, 84) }) { // the second restarts often
+			converged &= e.isConverged();
+			Matrix x = e.getVectors();
+			for (int i = 0; i < 4; i++) {
+				double theta = e.getValues().get(i);
+				found &= Math.abs(theta - eig[i]) <= 1e-8 * 50.0;
+				Vector xi = new Vector(x.getColumnView(i));
+				Vector r = Matrix.Multiply(a, xi);
+				r.scaledAddInPlace(-theta, xi);
+				residual &= r.norm2() <= 1e-8 * 50.0 && Math.abs(xi.norm2() - 1.0) <= 1e-12;
+			}
+		}
+		check("Lanczos finds the top 4 eigenvalues by magnitude, signs included, also with a small restarted basis", found && converged);
+		check("Lanczos eigenpairs have small residuals and unit vectors", residual);
+		
+		double[] sv = { 8.0, 4.0, 2.0, 1.0, 0.5 };
+		Matrix b = withSpectrum(180, 120, sv, 85);
+		TruncatedSVD svd = TruncatedSVD.Randomized(b, 5);
+		boolean values = svd.getRank() == 5;
+		for (int i = 0; i < 5; i++)
+			values &= Math.abs(svd.getS().get(i) - sv[i]) <= 1e-10;
+		check("Randomized SVD of a rank-5 matrix finds its singular values", values);
+		check("U and V have orthonormal columns and U S V^T rebuilds the matrix",
+				maxDiff(Matrix.Multiply(svd.getU().transpose(), svd.getU()), Matrix.GetIdentity(5)) <= 1e-12
+				&& maxDiff(Matrix.Multiply(svd.getV().transpose(), svd.getV()), Matrix.GetIdentity(5)) <= 1e-12
+				&& maxDiff(svd.toMatrix(), b) <= 1e-12);
+		TruncatedSVD top = TruncatedSVD.Randomized(b, 2, 10, 2, 86);
+		check("a rank-2 truncation keeps the top 2 singular values", Math.abs(top.getS().get(0) - 8.0) <= 1e-10 && Math.abs(top.getS().get(1) - 4.0) <= 1e-10);
+		int thrown = 0;
+		try {
+			TopEigen.Lanczos(random(5, 6, 87), 1);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		try {
+			TruncatedSVD.Randomized(b, 121);
+		} catch (LinAlgException e) {
+			thrown++;
+		}
+		check("Lanczos of a non-square operator and an SVD of rank above min(m, n) throw LinAlgException", thrown == 2);
+	}
+	
+	/** Single precision (user-019): float elementwise results equal float loops, the mixed-precision
+	 *  products equal the double products of the widened operands rounded once, and equal values
+	 *  hash alike */
+	private static void testFloat() throws LinAlgException {
+		FloatVector a = new FloatVector(random(1001, 88)), b = new FloatVector(random(1001, 89));
+		FloatVector sum = a.elementwiseAdd(b), prod = a.elementwiseMult(b), scaled = a.scalarMult(1.5f);
+		boolean elementwise = true;
+		double dot = 0.0;
+		for (int i = 0; i < 1001; i++) {
+			elementwise &= sum.get(i) == a.get(i) + b.get(i) && prod.get(i) == a.get(i) * b.get(i) && scaled.get(i) == a.get(i) * 1.5f;
+			dot += (double)a.get(i) * b.get(i);
+		}
+		check("float elementwise operations equal float loops exactly", elementwise);
+		check("FloatVector.InnerProd matches the double dot of the widened values to rounding",
+				Math.abs(FloatVector.InnerProd(a, b) - dot) <= 1e-13 && FloatVector.InnerProd(a, b.toVector()) == FloatVector.InnerProd(a, b));
+		FloatMatrix fm = new FloatMatrix(random(130, 90, 90)), fn = new FloatMatrix(random(90, 70, 91));
+		check("FloatMatrix.Multiply equals the double product of the widened operands rounded to float",
+				FloatMatrix.Multiply(fm, fn).equals(new FloatMatrix(Matrix.Multiply(fm.toMatrix(), fn.toMatrix()))));
+		Vector x = random(90, 92);
+		check("Multiply(FloatMatrix, Vector) matches the widened double product to rounding",
+				maxDiff(FloatMatrix.Multiply(fm, x), Matrix.Multiply(fm.toMatrix(), x)) <= 1e-13);
+		
+		FloatVector zero = new FloatVector(3), negZero = new FloatVector(3);
+		negZero.set(1, -0.0f);
+		FloatMatrix view = fm.getSubMatrixView(10, 20, 30, 40);
+		check("equal FloatVectors and FloatMatrices hash alike: -0.0f and 0.0f, a view and its copy",
+				zero.equals(negZero) && zero.hashCode() == negZero.hashCode()
+				&& view.equals(new FloatMatrix(view)) && view.hashCode() == new FloatMatrix(view).hashCode()
+				&& fm.getColumnView(3).hashCode() == new FloatVector(fm.getColumnView(3)).hashCode());
+		check("float hashes equal the hashes of the widened Vector and Matrix",
+				a.hashCode() == a.toVector().hashCode() && fm.hashCode() == fm.toMatrix().hashCode() && a.hashCode() != b.hashCode());
+		
+		Matrix spd = randomSPD(60, 93);
+		FloatMatrix fspd = new FloatMatrix(spd);
+		Vector rhs = random(60, 94), sol = new Vector(60);
+		check("CG runs on a FloatMatrix as a LinearOperator", new IterativeSolver().setTolerance(1e-10).cg(fspd, rhs, sol).isConverged()
+				&& relativeResidual(fspd, rhs, sol) <= 1e-9);
+		
+		int errors = 0;
+		try { new FloatMatrix(65536, 65536); } catch (LinAlgException e) { errors++; }
+		try { new FloatMatrix(50000, 50000); } catch (LinAlgException e) { errors++; }
+		check("a FloatMatrix too large for one array throws LinAlgException", errors == 2);
+		
+		Matrix g = random(300, 300, 95);
+		for (int i = 0; i < 300; i++)
+			g.set(i, i, g.get(i, i) + 10.0);
+		Vector gb = random(300, 96);
+		Vector exact = g.lu().solve(gb), single = new FloatMatrix(g).lu().solve(gb);
+		double floatResidual = relativeResidual(g, gb, single);
+		Vector refined = new Vector(300);
+		IterativeSolver.Result refinement = new IterativeSolver().setTolerance(1e-14)
+				.setPreconditioner(IterativeSolver.Inverse(new FloatMatrix(g).lu())).refine(g, gb, refined);
+		Vector diff = new Vector(refined);
+		diff.scaledAddInPlace(-1.0, exact);
+		check("a float LU solves to float accuracy, and refinement against the double matrix reaches double accuracy",
+				floatResidual > 1e-10 && floatResidual < 1e-5 && refinement.isConverged() && refinement.getIterations() <= 5
+				&& relativeResidual(g, gb, refined) <= 1e-14 && diff.norm2() <= 1e-12 * exact.norm2());
+		
+		errors = 0;
+		try { new FloatMatrix(3, 4).lu(); } catch (LinAlgException e) { errors++; }
+		try { new FloatMatrix(3, 3).lu().solve(new Vector(3)); } catch (LinAlgException e) { errors++; }
+		try { new IterativeSolver().refine(g, gb, refined); } catch (LinAlgException e) { errors++; }
+		check("a non-square float LU, a singular solve and refine without a preconditioner throw LinAlgException", errors == 3);
+		
+		FloatMatrix strip = new FloatMatrix(1, 5);
+		FloatVector src = strip.getSubMatrixView(0, 0, 1, 4).getRowView(0), dst = strip.getSubMatrixView(0, 1, 1, 4).getRowView(0);
+		errors = 0;
+		try { src.scalarAdd(1f, dst); } catch (LinAlgException e) { errors++; }
+		try { src.elementwiseMult(src, dst); } catch (LinAlgException e) { errors++; }
+		try { dst.elementwiseAddInPlace(src); } catch (LinAlgException e) { errors++; }
+		src.scalarAdd(1f, strip.getSubMatrixView(0, 0, 1, 4).getRowView(0));
+		check("float into and in-place operations reject overlapping views but accept the same view", errors == 3 && strip.get(0, 3) == 1f && strip.get(0, 4) == 0f);
+		errors = 0;
+		try { dst.scaledAddInPlace(1f, src); } catch (LinAlgException e) { errors++; }
+		try { dst.copyFrom(src); } catch (LinAlgException e) { errors++; }
+		FloatMatrix pair = new FloatMatrix(random(4, 2, 163)), want = new FloatMatrix(pair);
+		pair.getRowView(0).elementwiseAddInPlace(pair.getRowView(1));
+		pair.getColumnView(0).scaledAddInPlace(2f, pair.getColumnView(1)); // interleaved columns
+		pair.getRowView(3).copyFrom(pair.getRowView(2));
+		for (int j = 0; j < 2; j++)
+			want.set(0, j, want.get(0, j) + want.get(1, j));
+		for (int i = 0; i < 4; i++)
+			want.set(i, 0, want.get(i, 0) + 2f * want.get(i, 1));
+		for (int j = 0; j < 2; j++)
+			want.set(3, j, want.get(2, j));
+		check("float scaledAddInPlace and copyFrom reject overlapping views, disjoint rows and columns are accepted", errors == 2 && pair.equals(want));
+	}
+	
+	/** Contiguous VectorBatch (user-020): batch kernels against the same operations vector by vector */
+	private static void testVectorBatch() throws LinAlgException {
+		int size = 37, dim = 53;
+		Vector[] vs = new Vector[size];
+		for (int i = 0; i < size; i++) {
+			vs[i] = random(dim, 95 + i);
+		}
+		VectorBatch batch = new VectorBatch(vs), other = new VectorBatch(random(11, dim, 140));
+		Vector query = random(dim, 141), scores = VectorBatch.InnerProd(batch, query), norms = batch.norms();
+		Matrix cross = VectorBatch.InnerProd(batch, other);
+		boolean pairs = true, normsOk = true, copied = true;
+		for (int i = 0; i < size; i++) {
+			pairs &= Math.abs(scores.get(i) - Vector.InnerProd(vs[i], query)) <= 1e-13;
+			normsOk &= Math.abs(norms.get(i) - vs[i].norm2()) <= 1e-13;
+			copied &= batch.get(i).equals(vs[i]);
+			for (int j = 0; j < other.getSize(); j++) {
+				pairs &= Math.abs(cross.get(i, j) - Vector.InnerProd(vs[i], other.get(j))) <= 1e-13;
+			}
+		}
+		check("VectorBatch holds copies of its vectors", copied);
+		check("batch inner products match Vector.InnerProd per pair to rounding", pairs);
+		check("batch norms match norm2 per vector to rounding", normsOk);
+		
+		Vector shift = random(dim, 142), weights = random(dim, 143);
+		VectorBatch shifted = new VectorBatch(batch);
+		shifted.elementwiseAddInPlace(shift);
+		shifted.elementwiseMultInPlace(weights);
+		shifted.scalarMultInPlace(0.5);
+		VectorBatch doubled = new VectorBatch(batch);
+		doubled.elementwiseAddInPlace(batch);
+		boolean elementwise = true;
+		for (int i = 0; i < size; i++) {
+			elementwise &= shifted.get(i).equals(vs[i].elementwiseAdd(shift).elementwiseMult(weights).scalarMult(0.5))
+					&& doubled.get(i).equals(vs[i].elementwiseAdd(vs[i]));
+		}
+		check("batch elementwise operations equal the per-vector operations exactly", elementwise && batch.get(0).equals(vs[0]));
+		
+		VectorBatch unit = new VectorBatch(batch);
+		unit.set(3, new Vector(dim));
+		unit.normalizeInPlace();
+		boolean normalized = unit.get(3).equals(new Vector(dim));
+		for (int i = 0; i < size; i++) {
+			normalized &= i == 3 || Math.abs(unit.get(i).norm2() - 1.0) <= 1e-14;
+		}
+		check("normalizeInPlace gives unit norms and leaves zero vectors alone", normalized);
+		
+		Vector view = unit.getView(5);
+		view.set(7, 42.0);
+		check("getView writes through to the batch and asMatrix", unit.get(5).get(7) == 42.0 && unit.asMatrix().get(5, 7) == 42.0);
+		
+		int errors = 0;
+		try { VectorBatch.InnerProd(batch, new Vector(dim + 1)); } catch (LinAlgException e) { errors++; }
+		try { batch.elementwiseAddInPlace(new Vector(dim - 1)); } catch (LinAlgException e) { errors++; }
+		try { batch.elementwiseMultInPlace(other); } catch (LinAlgException e) { errors++; }
+		try { batch.set(0, new Vector(dim + 2)); } catch (LinAlgException e) { errors++; }
+		try { VectorBatch.InnerProd(batch, other, new Matrix(size, size)); } catch (LinAlgException e) { errors++; }
+		check("mismatched dimensions throw LinAlgException", errors == 5);
+	}
+	
+	/** Nearest neighbor search (user-021): the exact index and an IVF index probing every list
+	 *  against a brute-force top k of Vector.InnerProd (ties to the smaller id) */
+	private static void testNeighbors() throws LinAlgException {
+		int n = 2000, dim = 24, k = 10;
+		VectorBatch data = new VectorBatch(random(n, dim, 144)), queries = new VectorBatch(random(16, dim, 145));
+		int[][] truth = new int[queries.getSize()][];
+		for (int q = 0; q < truth.length; q++) {
+			truth[q] = bruteForce(data, queries.get(q), k);
+		}
+		
+		int threads = Parallelism.getParallelism();
+		ExactNeighborIndex exact = new ExactNeighborIndex(data);
+		IVFNeighborIndex ivf = IVFNeighborIndex.Build(data, 16, 146);
+		boolean exactOk = true, ivfOk = true, batchOk = true;
+		for (int p : new int[] { 1, 4 }) {
+			Parallelism.setParallelism(p);
+			Neighbors[] batch = exact.search(queries, k), ivfBatch = ivf.setProbes(16).search(queries, k);
+			for (int q = 0; q < truth.length; q++) {
+				Neighbors e = exact.search(queries.get(q), k);
+				exactOk &= Arrays.equals(e.getIds(), truth[q]) && Math.abs(e.getScore(0) - Vector.InnerProd(data.get(truth[q][0]), queries.get(q))) <= 1e-13;
+				ivfOk &= Arrays.equals(ivf.search(queries.get(q), k).getIds(), truth[q]);
+				batchOk &= Arrays.equals(batch[q].getIds(), truth[q]) && Arrays.equals(ivfBatch[q].getIds(), truth[q]);
+			}
+		}
+		Parallelism.setParallelism(threads);
+		check("ExactNeighborIndex returns the brute-force top k, on 1 and 4 threads", exactOk);
+		check("IVFNeighborIndex probing every list returns the exact top k", ivfOk);
+		check("batch searches return the same neighbors as single queries", batchOk);
+		
+		IVFNeighborIndex pq = IVFNeighborIndex.Build(data, 16, 8, 147).setProbes(4);
+		Neighbors approx = pq.search(queries.get(0), k);
+		boolean sorted = approx.getSize() == k;
+		for (int i = 1; i < approx.getSize(); i++) {
+			sorted &= approx.getScore(i - 1) >= approx.getScore(i) && approx.getId(i) >= 0 && approx.getId(i) < n;
+		}
+		check("product-quantized search returns k valid ids, best score first", sorted);
+		
+		int errors = 0;
+		try { exact.search(new Vector(dim + 1), k); } catch (LinAlgException e) { errors++; }
+		try { exact.search(queries.get(0), 0); } catch (LinAlgException e) { errors++; }
+		try { IVFNeighborIndex.Build(data, n + 1, 148); } catch (LinAlgException e) { errors++; }
+		try { ivf.setProbes(0); } catch (LinAlgException e) { errors++; }
+		check("bad queries, list counts and probes throw LinAlgException", errors == 4);
+		
+		errors = 0;
+		try { ivf.search(queries.get(0), -1); } catch (LinAlgException e) { errors++; }
+		try { exact.search(queries, Integer.MIN_VALUE); } catch (LinAlgException e) { errors++; }
+		Neighbors all = exact.search(queries.get(0), Integer.MAX_VALUE); // capped at the index size, not allocated
+		Neighbors[] allIvf = ivf.setProbes(ivf.getLists()).search(queries, Integer.MAX_VALUE);
+		check("k above the index size returns every vector, k < 1 throws LinAlgException",
+				errors == 2 && all.getSize() == n && allIvf[0].getSize() == n && Arrays.equals(all.getIds(), allIvf[0].getIds()));
+	}
+	
+	/** Chunked reductions (user-022): the same bits on any number of threads, for contiguous vectors
+	 *  and strided views long enough to be split into many chunks */
+	private static void testReductions() throws LinAlgException {
+		int n = (1 << 18) + 12345;
+		Vector v = random(n, 149), w = random(n, 150);
+		Matrix m = random(n / 4, 4, 151);
+		Vector col = m.getColumnView(1), col2 = m.getColumnView(3);
+		int threads = Parallelism.getParallelism();
+		double[][] results = new double[4][];
+		for (int p = 1; p <= 4; p++) {
+			Parallelism.setParallelism(p);
+			results[p - 1] = new double[] { v.sum(), v.norm1(), v.norm2(), v.normInf(), Vector.InnerProd(v, w),
+					col.sum(), col.norm2(), Vector.InnerProd(col, col2), v.max(), v.min(), v.argMax(), v.argMin() };
+		}
+		Parallelism.setParallelism(threads);
+		boolean same = true;
+		for (int p = 1; p < 4; p++) {
+			same &= Arrays.equals(results[p], results[0]);
+		}
+		check("sum, norms and InnerProd are bit-identical on 1, 2, 3 and 4 threads", same);
+		
+		double sum = 0.0, abs = 0.0, sq = 0.0, inf = 0.0, dot = 0.0, max = Double.NEGATIVE_INFINITY, min = Double.POSITIVE_INFINITY;
+		int argMax = -1, argMin = -1;
+		for (int i = 0; i < n; i++) {
+			double x = v.get(i);
+			sum += x;
+			abs += Math.abs(x);
+			sq += x * x;
+			inf = Math.max(inf, Math.abs(x));
+			dot += x * w.get(i);
+			if (x > max) { max = x; argMax = i; }
+			if (x < min) { min = x; argMin = i; }
+		}
+		check("reductions match plain loops (sums to rounding, min/max and their indices exactly)",
+				Math.abs(v.sum() - sum) <= 1e-9 * abs && Math.abs(v.norm1() - abs) <= 1e-12 * abs && Math.abs(v.norm2() - Math.sqrt(sq)) <= 1e-12 * Math.sqrt(sq)
+				&& Math.abs(Vector.InnerProd(v, w) - dot) <= 1e-9 * n && v.normInf() == inf
+				&& v.max() == max && v.min() == min && v.argMax() == argMax && v.argMin() == argMin);
+		
+		Vector ties = new Vector(n);
+		ties.set(n - 1, 5.0);
+		ties.set(7, 5.0);
+		ties.set(9, -5.0);
+		ties.set(n - 2, -5.0);
+		boolean tiesOk = ties.argMax() == 7 && ties.argMin() == 9;
+		ties.set(n - 3, Double.NaN);
+		check("argMax/argMin return the first extreme element, or the first NaN",
+				tiesOk && ties.argMax() == n - 3 && ties.argMin() == n - 3 && Double.isNaN(ties.max()) && Double.isNaN(ties.min()));
+	}
+	
+	/** Operation metrics (user-023): exact call, FLOP and byte counts, also from several threads at
+	 *  once, nothing recorded while disabled, and the Prometheus text */
+	private static void testMetrics() throws LinAlgException {
+		boolean enabled = Metrics.isEnabled();
+		Matrix a = random(200, 300, 152), b = random(300, 64, 153);
+		final Vector x = random(10, 154), y = random(10, 155);
+		
+		Metrics.setEnabled(false);
+		Metrics.reset();
+		Matrix.Multiply(a, b);
+		check("nothing is recorded while metrics are disabled", Metrics.snapshot().isEmpty());
+		
+		Metrics.setEnabled(true);
+		new Vector("[ 1.0 2.0 3.0 ]");
+		Matrix.Multiply(a, b);
+		Map<Metrics.Operation, Metrics.OperationStats> snap = Metrics.snapshot();
+		Metrics.OperationStats created = snap.get(Metrics.Operation.VECTOR_NEW), product = snap.get(Metrics.Operation.MATRIX_MULTIPLY);
+		check("Vector(String) and Multiply are recorded with their FLOPs, bytes and shape",
+				created != null && created.getCalls() == 1 && created.getBytesAllocated() == 24
+				&& product != null && product.getCalls() == 1 && product.getFlops() == 2L * 200 * 300 * 64
+				&& product.getShapes().equals(Collections.singletonMap("256x512x64", 1L))
+				&& product.getMaxNanos() > 0 && product.getMaxNanos() <= product.getTotalNanos());
+		
+		Metrics.reset();
+		Thread[] workers = new Thread[4];
+		for (int t = 0; t < workers.length; t++) {
+			workers[t] = new Thread(() -> {
+				try {
+					for (int k = 0; k < 1000; k++) Vector.InnerProd(x, y);
+				} catch (LinAlgException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			workers[t].start();
+		}
+		try {
+			for (Thread t : workers) t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		snap = Metrics.snapshot();
+		Metrics.OperationStats dots = snap.get(Metrics.Operation.VECTOR_INNER_PROD);
+		check("reset clears the counters and calls from 4 threads are all counted",
+				snap.size() == 1 && dots.getCalls() == 4000 && dots.getFlops() == 4000L * 20
+				&& dots.getLatencyPercentile(0.5) <= dots.getLatencyPercentile(0.99) && dots.getLatencyPercentile(1.0) == dots.getMaxNanos());
+		String text = Metrics.scrape();
+		check("scrape writes the counters as Prometheus text",
+				text.contains("# TYPE linalg_calls_total counter\n") && text.contains("linalg_calls_total{op=\"Vector.InnerProd\"} 4000\n")
+				&& text.contains("linalg_flops_total{op=\"Vector.InnerProd\"} 80000\n") && text.contains("linalg_latency_seconds{op=\"Vector.InnerProd\",quantile=\"0.99\"} "));
+		
+		boolean threw = false;
+		try {
+			dots.getLatencyPercentile(1.5);
+		} catch (LinAlgException e) {
+			threw = true;
+		}
+		check("a percentile outside [0, 1] throws LinAlgException", threw);
+		Metrics.reset();
+		Metrics.setEnabled(enabled);
+	}
+	
+	/** Concurrent updates (user-024): no add is lost in ATOMIC mode or through Deltas, snapshots never
+	 *  see half an update, and HOGWILD matches ATOMIC on one thread.  The updates hold small integers
+	 *  so every order of the adds gives the same bits */
+	private static void testConcurrentVector() throws LinAlgException {
+		final int n = 3 * 1024 + 77, reps = 500;
+		final Vector v = new Vector(n);
+		final Matrix m = new Matrix(n, 2);
+		for (int i = 0; i < n; i++) {
+			v.set(i, i % 7 - 3);
+			m.set(i, 1, i % 5 - 2);
+		}
+		final Vector col = m.getColumnView(1);
+		
+		final ConcurrentVector shared = new ConcurrentVector(n);
+		runThreads(4, t -> {
+			for (int k = 0; k < reps; k++) {
+				if (t % 2 == 0) shared.elementwiseAddInPlace(v);
+				else shared.scaledAddInPlace(2.0, col);
+				shared.add(t, 1.0);
+			}
+		});
+		Vector expected = new Vector(n);
+		for (int i = 0; i < n; i++) {
+			expected.set(i, 2 * reps * v.get(i) + 2 * reps * 2.0 * col.get(i) + (i < 4 ? reps : 0));
+		}
+		check("4 threads adding in ATOMIC mode lose no update, also from strided views", shared.snapshot().equals(expected));
+		
+		final ConcurrentVector batched = new ConcurrentVector(n);
+		runThreads(4, t -> {
+			ConcurrentVector.Delta delta = batched.newDelta(7);
+			for (int k = 0; k < reps; k++) {
+				if (k % 10 == 0) delta.scaledAddInPlace(2.0, col);
+				delta.add((t * 997 + k * 31) % n, 1.0);
+			}
+			delta.flush();
+		});
+		expected = new Vector(n);
+		for (int t = 0; t < 4; t++) {
+			for (int k = 0; k < reps; k++) {
+				int i = (t * 997 + k * 31) % n;
+				expected.set(i, expected.get(i) + 1.0);
+			}
+		}
+		Vector updates = new Vector(col);
+		updates.scalarMultInPlace(4 * (reps / 10) * 2.0);
+		expected.elementwiseAddInPlace(updates);
+		check("Deltas flushed every 7 updates and at the end add up to the sum of all updates", batched.snapshot().equals(expected));
+		
+		final ConcurrentVector counter = new ConcurrentVector(n);
+		final Vector ones = new Vector(n);
+		ones.scalarAddInPlace(1.0);
+		Thread writer = new Thread(() -> {
+			try {
+				for (int k = 0; k < 2000; k++) counter.elementwiseAddInPlace(ones);
+			} catch (LinAlgException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		Thread flusher = new Thread(() -> {
+			try {
+				ConcurrentVector.Delta delta = counter.newDelta(1);
+				for (int k = 0; k < 2000; k++) delta.scaledAddInPlace(2.0, ones);
+			} catch (LinAlgException e) {
+				throw new RuntimeException(e);
+			}
+		});
+		writer.start();
+		flusher.start();
+		boolean consistent = true;
+		Vector snap = new Vector(n);
+		for (int k = 0; k < 200; k++) {
+			counter.snapshot(snap);
+			consistent &= snap.max() == snap.min();
+		}
+		join(writer);
+		join(flusher);
+		check("snapshots taken during updates and flushes see each of them entirely or not at all", consistent && counter.get(n - 1) == 6000.0);
+		
+		final ConcurrentVector disjoint = new ConcurrentVector(n);
+		runThreads(4, t -> {
+			for (int k = 0; k < reps; k++) {
+				for (int i = t; i < n; i += 4) disjoint.add(i, 1.0, ConcurrentVector.Mode.HOGWILD);
+			}
+		});
+		Vector filled = new Vector(n);
+		filled.scalarAddInPlace(reps);
+		check("HOGWILD adds from 4 threads to disjoint elements are all kept", disjoint.snapshot().equals(filled));
+		
+		ConcurrentVector atomic = new ConcurrentVector(v), hogwild = new ConcurrentVector(v);
+		atomic.scaledAddInPlace(0.5, col);
+		hogwild.scaledAddInPlace(0.5, col, ConcurrentVector.Mode.HOGWILD);
+		atomic.add(3, 0.25);
+		hogwild.add(3, 0.25, ConcurrentVector.Mode.HOGWILD);
+		atomic.set(5, -1.0);
+		hogwild.set(5, -1.0);
+		check("HOGWILD gives the ATOMIC result on one thread, and get/set/add hit single elements",
+				atomic.snapshot().equals(hogwild.snapshot()) && atomic.get(3) == v.get(3) + 0.5 * col.get(3) + 0.25 && atomic.get(5) == -1.0);
+		
+		int errors = 0;
+		try { new ConcurrentVector(0); } catch (LinAlgException e) { errors++; }
+		try { atomic.get(n); } catch (LinAlgException e) { errors++; }
+		try { atomic.elementwiseAddInPlace(new Vector(n - 1)); } catch (LinAlgException e) { errors++; }
+		try { atomic.snapshot(new Vector(n + 1)); } catch (LinAlgException e) { errors++; }
+		try { atomic.newDelta(0); } catch (LinAlgException e) { errors++; }
+		try { atomic.newDelta().add(-1, 1.0); } catch (LinAlgException e) { errors++; }
+		check("bad dimensions, indices and flush intervals throw LinAlgException", errors == 6);
+	}
+	
+	/** Immutable vectors and matrices (user-025): versions never change, hashes equal the Vector and
+	 *  Matrix hashes and survive sets, and equality holds for NaN and across 0.0 and -0.0 */
+	private static void testImmutable() throws LinAlgException {
+		int n = 3 * 256 + 50;
+		Vector v = random(n, 156), w = random(n, 157);
+		Matrix m = random(40, 30, 158);
+		ImmutableVector iv = ImmutableVector.Of(v), iw = ImmutableVector.Of(w);
+		ImmutableMatrix im = ImmutableMatrix.Of(m), it = ImmutableMatrix.Of(m.getTransposeView());
+		check("hashCode equals the Vector and Matrix hashCode, also for views",
+				iv.hashCode() == v.hashCode() && im.hashCode() == m.hashCode() && it.hashCode() == m.transpose().hashCode()
+				&& ImmutableVector.Of(m.getColumnView(2)).hashCode() == m.getColumnView(2).hashCode() && it.equals(ImmutableMatrix.Of(m.transpose())));
+		
+		ImmutableVector iv2 = iv.set(300, 5.0).set(n - 1, -2.0);
+		ImmutableMatrix im2 = im.set(7, 29, 5.0);
+		Vector v2 = new Vector(v);
+		v2.set(300, 5.0);
+		v2.set(n - 1, -2.0);
+		Matrix m2 = new Matrix(m);
+		m2.set(7, 29, 5.0);
+		check("set returns a new version with the updated hash and leaves the old one unchanged",
+				iv.toVector().equals(v) && iv2.toVector().equals(v2) && iv2.hashCode() == v2.hashCode() && !iv2.equals(iv)
+				&& im.toMatrix().equals(m) && im2.toMatrix().equals(m2) && im2.hashCode() == m2.hashCode()
+				&& iv.set(4, v.get(4)) == iv && iv2.set(300, v.get(300)).set(n - 1, v.get(n - 1)).equals(iv));
+		
+		check("scalarAdd, scalarMult and elementwiseAdd equal the Vector operations",
+				iv.scalarAdd(0.5).toVector().equals(v.scalarAdd(0.5)) && iv.scalarMult(-3.0).toVector().equals(v.scalarMult(-3.0))
+				&& iv.elementwiseAdd(iw).toVector().equals(v.elementwiseAdd(w)) && iv.elementwiseAdd(iw).hashCode() == v.elementwiseAdd(w).hashCode()
+				&& im.scalarMult(2.0).get(3, 4) == 2.0 * m.get(3, 4) && im.scalarAdd(1.0).hashCode() == ImmutableMatrix.Of(im.scalarAdd(1.0).toMatrix()).hashCode());
+		
+		ImmutableVector zeros = ImmutableVector.Zeros(n), sparse = zeros.set(5, 1.0).set(n - 3, 2.0);
+		ImmutableVector negZero = zeros.set(100, -0.0), nan = sparse.set(6, Double.NaN);
+		Vector dense = new Vector(n);
+		dense.set(5, 1.0);
+		dense.set(n - 3, 2.0);
+		check("sparse updates of Zeros match the dense vector, -0.0 equals 0.0 and NaN equals itself",
+				sparse.equals(ImmutableVector.Of(dense)) && sparse.hashCode() == dense.hashCode() && sparse.elementwiseAdd(zeros).equals(sparse)
+				&& negZero.equals(zeros) && negZero.hashCode() == zeros.hashCode() && nan.equals(sparse.set(6, Double.NaN)) && !nan.equals(sparse)
+				&& ImmutableMatrix.Zeros(40, 30).set(7, 29, 5.0).equals(ImmutableMatrix.Of(new Matrix(40, 30)).set(7, 29, 5.0)));
+		
+		Map<ImmutableVector, Integer> keys = new HashMap<ImmutableVector, Integer>();
+		keys.put(iv, 1);
+		keys.put(iv2, 2);
+		keys.put(nan, 3);
+		check("versions work as HashMap keys, NaN included",
+				keys.get(ImmutableVector.Of(v)) == 1 && keys.get(ImmutableVector.Of(v2)) == 2 && keys.get(sparse.set(6, Double.NaN)) == 3 && keys.size() == 3);
+		
+		int errors = 0;
+		try { ImmutableVector.Zeros(0); } catch (LinAlgException e) { errors++; }
+		try { ImmutableMatrix.Zeros(1 << 16, 1 << 16); } catch (LinAlgException e) { errors++; }
+		try { iv.get(n); } catch (LinAlgException e) { errors++; }
+		try { im.set(40, 0, 1.0); } catch (LinAlgException e) { errors++; }
+		try { iv.elementwiseAdd(ImmutableVector.Zeros(n + 1)); } catch (LinAlgException e) { errors++; }
+		check("bad dimensions and indices throw LinAlgException", errors == 5);
+	}
+	
+	/** A task run by each of several threads, given the index of its thread */
+	private interface Worker {
+		void run(int thread) throws LinAlgException;
+	}
+	
+	/** Runs worker on the given number of threads at once and waits for all of them */
+	private static void runThreads(int threads, Worker worker) {
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			final int id = t;
+			workers[t] = new Thread(() -> {
+				try {
+					worker.run(id);
+				} catch (LinAlgException e) {
+					throw new RuntimeException(e);
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread t : workers) join(t);
+	}
+	
+	private static void join(Thread t) {
+		try {
+			t.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/** Returns the ids of the k vectors of data with the highest inner product with query, best first */
+	private static int[] bruteForce(VectorBatch data, Vector query, int k) throws LinAlgException {
+		Integer[] order = new Integer[data.getSize()];
+		double[] score = new double[order.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+			score[i] = Vector.InnerProd(data.get(i), query);
+		}
+		Arrays.sort(order, (i, j) -> score[i] != score[j] ? Double.compare(score[j], score[i]) : Integer.compare(i, j));
+		int[] ids = new int[k];
+		for (int i = 0; i < k; i++) {
+			ids[i] = order[i];
+		}
+		return ids;
 	}
  }
\ No newline at end of file
@@ -0,0 +1,399 @@
+package linalg;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*** Streaming text codecs for Vector and Matrix in two styles:
+ *
+ *     BRACKETED  one "[ v1 v2 ... ]" group per vector or matrix row (what Vector(String) accepts and
+ *                close to what toString prints, but with full precision)
+ *     CSV        one comma-separated line per row
+ *
+ *   Readers tokenize straight out of a fixed char buffer filled from the Reader and parse each
+ *   number in place: plain decimals with at most 15 significant digits and a small exponent are
+ *   converted exactly with one multiply or divide by a power of ten (Clinger's fast path), which
+ *   covers most hand-written and exported data; anything longer falls back to Double.parseDouble
+ *   for that one token.  readRows streams rows to a callback through one reused row array, so
+ *   files of any size are parsed in constant memory.
+ *
+ *   Writers print Double.toString of each entry, the shortest decimal that parses back to the
+ *   same double, so write followed by read is lossless.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class TextFormat {
+
+	/** Text layout of the rows */
+	public enum Style { BRACKETED, CSV }
+
+	/** Receives rows as they are parsed; values is reused for the next row, so copy what you keep */
+	public interface RowConsumer {
+		void row(int index, double[] values, int length) throws LinAlgException;
+	}
+
+	private static final int BUFFER_CHARS = 1 << 16;
+	private static final int BLOCK_DOUBLES = 1 << 16; // readMatrix collects rows in blocks of about this many entries
+	private static final long MAX_ENTRIES = Integer.MAX_VALUE - 8; // Largest array the JVM will allocate
+	private static final double[] POW10 = { // exactly representable powers of ten
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private TextFormat() {} // static codec only
+
+	/** Reads one bracketed vector, e.g. "[ -1.2 2.0 3.1 ]"
+	 *
+	 * @param in
+	 * @return vector
+	 * @throws LinAlgException if the text is not one well-formed bracketed vector
+	 * @throws IOException if reading fails
+	 */
+
+	public static Vector readVector(Reader in) throws LinAlgException, IOException {
+
+		Scanner s = new Scanner(in);
+		double[][] row = { new double[16] };
+		int len = s.bracketedRow(row);
+		if (len < 0) {
+			throw new LinAlgException("Malformed vector initialization: no [ found");
+		}
+		if (s.skipSpace(true) >= 0) {
+			throw new LinAlgException("Malformed vector initialization: text after ] on line " + s._nLine);
+		}
+		Vector v = new Vector(len);
+		System.arraycopy(row[0], 0, v.values(), 0, len);
+		return v;
+	}
+
+	/** Reads a matrix with one row per bracketed group (or CSV line)
+	 *
+	 *  Rows are collected in fixed-size blocks of whole rows (never regrown), and each block is
+	 *  released once it is copied into the result, so the entries are held at most twice.
+	 *
+	 * @param in
+	 * @param style
+	 * @return matrix
+	 * @throws LinAlgException if the text is malformed, rows differ in length, or the matrix has
+	 *                         more entries than an array can hold
+	 * @throws IOException if reading fails
+	 */
+
+	public static Matrix readMatrix(Reader in, Style style) throws LinAlgException, IOException {
+
+		List<double[]> blocks = new ArrayList<>();
+		int[] shape = { 0, -1, 0 }; // rows, cols, rows per block
+		readRows(in, style, (index, values, length) -> {
+			if (shape[1] < 0) {
+				shape[1] = length;
+				shape[2] = Math.max(1, BLOCK_DOUBLES / length);
+			}
+			long need = (long)(index + 1) * length;
+			if (need > MAX_ENTRIES) {
+				throw new LinAlgException("Matrix too large: " + (index + 1) + " rows of " + length + " entries do not fit in one array");
+			}
+			int perBlock = shape[2], r = index % perBlock;
+			if (r == 0) {
+				blocks.add(new double[perBlock * length]); // at most max(BLOCK_DOUBLES, length) entries
+			}
+			System.arraycopy(values, 0, blocks.get(index / perBlock), r * length, length);
+			shape[0] = index + 1;
+		});
+		if (shape[0] == 0) {
+			throw new LinAlgException("Malformed matrix: no rows found");
+		}
+
+		Matrix m = new Matrix(shape[0], shape[1]);
+		double[] data = m.values();
+		int total = shape[0] * shape[1], blockLength = shape[2] * shape[1];
+		for (int b = 0; b < blocks.size(); b++) {
+			int from = b * blockLength; // whole rows before the last block, so no overflow
+			System.arraycopy(blocks.get(b), 0, data, from, Math.min(blockLength, total - from));
+			blocks.set(b, null); // let the block go as soon as it is copied
+		}
+		return m;
+	}
+
+	/** Parses rows one at a time and hands each to consumer; memory use does not depend on the input size
+	 *
+	 * @param in
+	 * @param style
+	 * @param consumer
+	 * @return number of rows read
+	 * @throws LinAlgException if the text is malformed, a row is empty, or rows differ in length
+	 * @throws IOException if reading fails
+	 */
+
+	public static int readRows(Reader in, Style style, RowConsumer consumer) throws LinAlgException, IOException {
+
+		Scanner s = new Scanner(in);
+		double[][] row = { new double[16] };
+		int rows = 0, cols = -1;
+		while (true) {
+			int len = (style == Style.CSV) ? s.csvRow(row) : s.bracketedRow(row);
+			if (len < 0) {
+				return rows; // end of input
+			}
+			if (len == 0) {
+				throw new LinAlgException("Malformed matrix: empty row on line " + s._nLine);
+			}
+			if (cols >= 0 && len != cols) {
+				throw new LinAlgException("Malformed matrix: row " + rows + " has " + len + " entries, expected " + cols);
+			}
+			cols = len;
+			consumer.row(rows++, row[0], len);
+		}
+	}
+
+	/** Writes v as one bracketed group
+	 *
+	 * @param v
+	 * @param out
+	 * @throws IOException if writing fails
+	 */
+
+	public static void write(Vector v, Writer out) throws IOException {
+		writeRow(v.compact().values(), 0, v.getDim(), Style.BRACKETED, out);
+	}
+
+	/** Writes m one row per line in the given style
+	 *
+	 * @param m
+	 * @param style
+	 * @param out
+	 * @throws IOException if writing fails
+	 */
+
+	public static void write(Matrix m, Style style, Writer out) throws IOException {
+		Matrix rows = (m.colStride() == 1) ? m : m.compact(); // rows are written straight from the backing array
+		int cols = m.getNumCols();
+		for (int i = 0; i < m.getNumRows(); i++) {
+			writeRow(rows.values(), rows.offset() + i * rows.rowStride(), cols, style, out);
+			out.write('\n');
+		}
+	}
+
+	private static void writeRow(double[] data, int off, int len, Style style, Writer out) throws IOException {
+		if (style == Style.BRACKETED) {
+			out.write('[');
+			for (int j = 0; j < len; j++) {
+				out.write(' ');
+				out.write(Double.toString(data[off + j]));
+			}
+			out.write(" ]");
+		}
+		else {
+			for (int j = 0; j < len; j++) {
+				if (j > 0) out.write(',');
+				out.write(Double.toString(data[off + j]));
+			}
+		}
+	}
+
+	/** Parses the number in c[start, end) (package-private for reuse by other text readers)
+	 *
+	 * @throws LinAlgException if the characters are not a number
+	 */
+
+	static double parseDouble(char[] c, int start, int end) throws LinAlgException {
+
+		int i = start;
+		boolean neg = false;
+		if (i < end && (c[i] == '-' || c[i] == '+')) {
+			neg = (c[i++] == '-');
+		}
+
+		long mant = 0;   // up to 18 significant digits (19 could overflow a long)
+		int digits = 0;  // significant digits kept in mant
+		int exp = 0;     // decimal exponent to apply to mant
+		boolean any = false, dropped = false;
+
+		for (; i < end && c[i] >= '0' && c[i] <= '9'; i++) {
+			any = true;
+			if (digits < 18) {
+				mant = mant * 10 + (c[i] - '0');
+				if (mant != 0) digits++;
+			}
+			else {
+				exp++;
+				dropped = true;
+			}
+		}
+		if (i < end && c[i] == '.') {
+			for (i++; i < end && c[i] >= '0' && c[i] <= '9'; i++) {
+				any = true;
+				if (digits < 18) {
+					mant = mant * 10 + (c[i] - '0');
+					if (mant != 0) digits++;
+					exp--;
+				}
+				else {
+					dropped = true;
+				}
+			}
+		}
+		if (any && i < end && (c[i] == 'e' || c[i] == 'E')) {
+			int j = i + 1;
+			boolean eneg = false;
+			if (j < end && (c[j] == '-' || c[j] == '+')) {
+				eneg = (c[j++] == '-');
+			}
+			int e = 0;
+			boolean edigits = false;
+			for (; j < end && c[j] >= '0' && c[j] <= '9'; j++) {
+				edigits = true;
+				if (e < 100000) e = e * 10 + (c[j] - '0');
+			}
+			if (edigits) {
+				exp += eneg ? -e : e;
+				i = j;
+			}
+		}
+
+		if (any && i == end) {
+			if (mant == 0) {
+				return neg ? -0.0 : 0.0;
+			}
+			if (!dropped && mant < (1L << 53) && exp >= -22 && exp <= 22) {
+				// both mant and 10^|exp| are exact doubles, so one correctly rounded operation gives the exact answer
+				double d = (exp >= 0) ? mant * POW10[exp] : mant / POW10[-exp];
+				return neg ? -d : d;
+			}
+		}
+
+		String token = new String(c, start, end - start); // slow path (long mantissas, large exponents, NaN, Infinity)
+		try {
+			return Double.parseDouble(token);
+		} catch (NumberFormatException e) {
+			throw new LinAlgException("Malformed number: could not parse " + token);
+		}
+	}
+
+	/** Reads characters through a fixed buffer and cuts them into rows of numbers */
+	private static final class Scanner {
+
+		private final Reader _in;
+		private char[] _acBuf = new char[BUFFER_CHARS];
+		private int _nPos = 0, _nLim = 0;
+		long _nLine = 1;
+
+		Scanner(Reader in) {
+			_in = in;
+		}
+
+		/** Makes at least one more character available after keep (which moves to the buffer start);
+		 *  returns false at end of input */
+		private boolean fill(int keep) throws IOException {
+			int kept = _nLim - keep;
+			if (keep > 0) {
+				System.arraycopy(_acBuf, keep, _acBuf, 0, kept);
+			}
+			else if (kept == _acBuf.length) { // a single token longer than the buffer
+				_acBuf = Arrays.copyOf(_acBuf, _acBuf.length * 2);
+			}
+			_nPos -= keep;
+			_nLim = kept;
+			int n = _in.read(_acBuf, _nLim, _acBuf.length - _nLim);
+			if (n <= 0) {
+				return false;
+			}
+			_nLim += n;
+			return true;
+		}
+
+		/** Skips spaces (and newlines if newlines is true); returns the next char or -1 at end */
+		int skipSpace(boolean newlines) throws IOException {
+			while (true) {
+				if (_nPos == _nLim && !fill(_nPos)) {
+					return -1;
+				}
+				char ch = _acBuf[_nPos];
+				if (ch == '\n') {
+					if (!newlines) return ch;
+					_nLine++;
+				}
+				else if (!Character.isWhitespace(ch)) {
+					return ch;
+				}
+				_nPos++;
+			}
+		}
+
+		/** Parses the number at the current position, ending at whitespace, ',' or ']' */
+		double number() throws LinAlgException, IOException {
+			int start = _nPos;
+			while (true) {
+				if (_nPos == _nLim) {
+					boolean more = fill(start); // the partial token moves to the front of the buffer
+					start = 0;
+					if (!more) break;
+				}
+				char ch = _acBuf[_nPos];
+				if (ch == ',' || ch == ']' || ch == '[' || Character.isWhitespace(ch)) break;
+				_nPos++;
+			}
+			if (_nPos == start) {
+				throw new LinAlgException("Malformed number: empty entry on line " + _nLine);
+			}
+			return parseDouble(_acBuf, start, _nPos);
+		}
+
+		/** Reads "[ n n ... ]" into row[0] (grown as needed); returns its length or -1 at end of input */
+		int bracketedRow(double[][] row) throws LinAlgException, IOException {
+			int ch = skipSpace(true);
+			if (ch < 0) {
+				return -1;
+			}
+			if (ch != '[') {
+				throw new LinAlgException("Malformed vector initialization: missing [ on line " + _nLine);
+			}
+			_nPos++;
+			int len = 0;
+			while (true) {
+				ch = skipSpace(true);
+				if (ch < 0) {
+					throw new LinAlgException("Malformed vector initialization: missing ] on line " + _nLine);
+				}
+				if (ch == ']') {
+					_nPos++;
+					return len;
+				}
+				len = append(row, len, number());
+			}
+		}
+
+		/** Reads one non-blank CSV line into row[0]; returns its length or -1 at end of input */
+		int csvRow(double[][] row) throws LinAlgException, IOException {
+			if (skipSpace(true) < 0) {
+				return -1;
+			}
+			int len = 0;
+			while (true) {
+				len = append(row, len, number());
+				int ch = skipSpace(false);
+				if (ch == ',') {
+					_nPos++;
+					skipSpace(false);
+				}
+				else if (ch < 0 || ch == '\n') {
+					return len;
+				}
+				else {
+					throw new LinAlgException("Malformed CSV: unexpected '" + (char)ch + "' on line " + _nLine);
+				}
+			}
+		}
+
+		private static int append(double[][] row, int len, double val) {
+			if (len == row[0].length) {
+				row[0] = Arrays.copyOf(row[0], len * 2);
+			}
+			row[0][len] = val;
+			return len + 1;
+		}
+	}
+}
@@ -0,0 +1,377 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*** The k dominant eigenpairs (largest in magnitude) of a symmetric operator, computed by Lanczos
+ *   iteration with full reorthogonalization and thick restarts.
+ *
+ *   Lanczos builds an orthonormal basis Q_j of the Krylov space span{q, A q, ..., A^(j-1) q} and
+ *   the small projection T_j = Q_j^T A Q_j (tridiagonal in exact arithmetic); the eigenvalues of
+ *   T_j (Ritz values) converge to the extreme eigenvalues of A after far fewer than n steps, so
+ *   the cost is one apply per step plus O(n m) to keep the basis orthogonal: O(n^2 k) for a dense
+ *   A instead of the O(n^3) of a full eigendecomposition, and O(nnz k) for a sparse one.  Any
+ *   symmetric LinearOperator works; A is only applied.
+ *
+ *   Each new basis vector is orthogonalized against the whole basis twice (classical Gram-Schmidt
+ *   twice, two GEMVs over the basis through Matrix.Multiply), which keeps the basis orthogonal to
+ *   working precision and avoids the spurious copies of converged eigenvalues plain Lanczos
+ *   produces; the coefficients are the column of T_j.  Ritz pair i has residual
+ *   ||A x_i - theta_i x_i|| = beta |s_(j,i)| (beta the norm of the last residual vector), and
+ *   iteration stops once the top k residuals are below the tolerance times the largest Ritz value.
+ *   Convergence is checked at geometrically spaced steps and whenever the basis is full.
+ *
+ *   The basis holds at most m vectors (the basis size, an m x n Matrix).  When it is full the
+ *   iteration restarts thickly (Wu and Simon; Stewart's Krylov-Schur): the best k + (m - k) / 2
+ *   Ritz vectors, formed with one GEMM, become the new basis, T becomes their Ritz values plus the
+ *   coupling to the residual vector, and Lanczos continues from there, so nothing that has
+ *   converged is lost and memory stays fixed.  The small symmetric eigenproblems are solved by
+ *   Householder tridiagonalization and the implicit QL method.
+ *
+ *   Symmetry is not checked; for a nonsymmetric A the results are meaningless.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class TopEigen {
+
+	public static final double TOLERANCE = 1e-10; // Default relative residual of the returned eigenpairs
+	public static final int MAX_RESTARTS = 200;   // Restarts before giving up on convergence
+
+	private final Vector _vValues;   // k eigenvalues, decreasing in magnitude
+	private final Matrix _mVectors;  // n x k eigenvectors as columns
+	private final int _nIterations;  // Applications of A
+	private final boolean _bConverged; // Whether all k residuals reached the tolerance
+
+	private TopEigen(Vector values, Matrix vectors, int iterations, boolean converged) {
+		_vValues = values;
+		_mVectors = vectors;
+		_nIterations = iterations;
+		_bConverged = converged;
+	}
+
+	/** Returns the k eigenpairs of symmetric a that are largest in magnitude, with the default tolerance,
+	 *  a basis of at most max(2k + 20, 40) vectors and a fixed seed
+	 *
+	 * @param a
+	 * @param k
+	 * @return eigenpairs
+	 * @throws LinAlgException if a is not square or k is < 1 or larger than its dimension
+	 */
+
+	public static TopEigen Lanczos(LinearOperator a, int k) throws LinAlgException {
+		return Lanczos(a, k, Math.max(2 * k + 20, 40), TOLERANCE, 0L);
+	}
+
+	/** Returns the k eigenpairs of symmetric a that are largest in magnitude
+	 *
+	 * @param a
+	 * @param k
+	 * @param basis maximum number of Lanczos vectors kept (capped at the dimension of a)
+	 * @param tol relative residual at which an eigenpair counts as converged
+	 * @param seed seed of the random start vector
+	 * @return eigenpairs
+	 * @throws LinAlgException if a is not square, k is < 1 or larger than its dimension, basis is not larger than k (unless it covers the dimension), or tol is not positive
+	 */
+
+	public static TopEigen Lanczos(LinearOperator a, int k, int basis, double tol, long seed) throws LinAlgException {
+
+		int n = a.getNumRows();
+		if (a.getNumCols() != n) {
+			throw new LinAlgException("Eigenvalues need a square operator, not " + n + " x " + a.getNumCols());
+		}
+		if (k < 1 || k > n) {
+			throw new LinAlgException("Number of eigenpairs " + k + " has to be between 1 and " + n);
+		}
+		int m = Math.min(basis, n);
+		if ((m <= k && m < n) || !(tol > 0.0)) {
+			throw new LinAlgException("Basis size has to be greater than " + k + " and the tolerance greater than 0");
+		}
+
+		Matrix q = new Matrix(m, n);               // rows are the basis vectors
+		double[] t = new double[m * m];            // T = Q^T A Q, row-major, leading j x j in use
+		double[] h = new double[m], h2 = new double[m];
+		double[] theta = new double[m], s = new double[m * m];
+		Vector w = new Vector(n), tmp = new Vector(n);
+		Random rng = new Random(seed);
+		randomStart(q, 0, rng, tmp);
+
+		int j = 0, steps = 0, restarts = 0, keep = Math.min(k + (m - k) / 2, m - 1), check = k;
+		double beta = 0.0, tnorm = 0.0;
+		boolean converged = false;
+		while (true) {
+			a.apply(q.getRowView(j), w);
+			steps++;
+
+			Matrix rows = q.getSubMatrixView(0, 0, j + 1, n); // w -= Q^T (Q w), twice; the sums are column j of T
+			orthogonalize(rows, w, new Vector(h, 0, 1, j + 1), tmp);
+			orthogonalize(rows, w, new Vector(h2, 0, 1, j + 1), tmp);
+			for (int i = 0; i <= j; i++) {
+				double c = h[i] + h2[i];
+				t[i * m + j] = c;
+				t[j * m + i] = c;
+			}
+			beta = norm(w);
+			tnorm = Math.max(tnorm, Math.abs(t[j * m + j]) + beta);
+			j++;
+
+			boolean invariant = beta <= Math.ulp(1.0) * tnorm; // A maps the basis into itself: its Ritz pairs are exact
+			if (invariant && j < k) { // not enough directions yet: continue from a new random one
+				randomStart(q, j, rng, tmp);
+				continue;
+			}
+			if (j >= k && (invariant || j == m || j >= check)) {
+				check = j + Math.max(1, j / 4); // geometric spacing keeps the small eigenproblems O(m^3) per cycle
+				symmetricEigen(t, m, j, theta, s);
+				converged = true;
+				for (int i = 0; i < k && converged; i++) {
+					converged = invariant || beta * Math.abs(s[(j - 1) * j + i]) <= tol * Math.abs(theta[0]);
+				}
+				if (converged || (j == m && restarts == MAX_RESTARTS)) {
+					break;
+				}
+				if (j == m) { // thick restart: keep the best Ritz vectors and the residual direction
+					Matrix y = new Matrix(j, keep);
+					for (int i = 0; i < j; i++) {
+						System.arraycopy(s, i * j, y.values(), i * keep, keep);
+					}
+					Matrix ritz = Matrix.Multiply(y.getTransposeView(), q); // keep x n
+					System.arraycopy(ritz.values(), 0, q.values(), 0, keep * n);
+					Arrays.fill(t, 0.0);
+					for (int i = 0; i < keep; i++) {
+						t[i * m + i] = theta[i];
+						double c = beta * s[(j - 1) * j + i];
+						t[i * m + keep] = c;
+						t[keep * m + i] = c;
+					}
+					j = keep;
+					check = keep + 1;
+					restarts++;
+				}
+			}
+			Vector next = q.getRowView(j);
+			next.copyFrom(w);
+			next.scalarMultInPlace(1.0 / beta);
+		}
+
+		Vector values = new Vector(k);
+		System.arraycopy(theta, 0, values.values(), 0, k);
+		Matrix sk = new Matrix(j, k);                   // leading k columns of the j x j S
+		for (int i = 0; i < j; i++) {
+			System.arraycopy(s, i * j, sk.values(), i * k, k);
+		}
+		Matrix vectors = Matrix.Multiply(q.getSubMatrixView(0, 0, j, n).getTransposeView(), sk);
+		return new TopEigen(values, vectors, steps, converged);
+	}
+
+	/** Returns a copy of the eigenvalues, decreasing in magnitude
+	 *
+	 * @return eigenvalues
+	 */
+
+	public Vector getValues() {
+		return new Vector(_vValues);
+	}
+
+	/** Returns a copy of the n x k eigenvectors (column i belongs to eigenvalue i)
+	 *
+	 * @return eigenvectors
+	 */
+
+	public Matrix getVectors() {
+		return new Matrix(_mVectors);
+	}
+
+	/** Returns the number of Lanczos steps taken (applications of A, over all restarts)
+	 *
+	 * @return _nIterations
+	 */
+
+	public int getIterations() {
+		return _nIterations;
+	}
+
+	/** Returns whether every returned eigenpair reached the tolerance
+	 *
+	 * @return _bConverged
+	 */
+
+	public boolean isConverged() {
+		return _bConverged;
+	}
+
+	/** w -= Q^T (Q w) for the basis rows Q, leaving the coefficients Q w in c */
+	private static void orthogonalize(Matrix rows, Vector w, Vector c, Vector tmp) throws LinAlgException {
+		Matrix.MultiplyInto(rows, w, c);
+		Matrix.MultiplyInto(rows.getTransposeView(), c, tmp);
+		w.scaledAddInPlace(-1.0, tmp);
+	}
+
+	/** Sets row j of q to a random unit vector orthogonal to rows [0, j) */
+	private static void randomStart(Matrix q, int j, Random rng, Vector tmp) throws LinAlgException {
+
+		Vector v = q.getRowView(j);
+		for (int i = 0; i < v.getDim(); i++) {
+			v.set(i, rng.nextGaussian());
+		}
+		if (j > 0) {
+			Matrix rows = q.getSubMatrixView(0, 0, j, v.getDim());
+			double[] c = new double[j];
+			orthogonalize(rows, v, new Vector(c, 0, 1, j), tmp);
+			orthogonalize(rows, v, new Vector(c, 0, 1, j), tmp);
+		}
+		v.scalarMultInPlace(1.0 / norm(v));
+	}
+
+	/** Eigenpairs of the leading j x j block of the symmetric row-major t (row stride ld); theta[0, j)
+	 *  gets the eigenvalues decreasing in magnitude and the row-major j x j s the matching
+	 *  eigenvectors as columns (t is not changed)
+	 *
+	 *  Householder reduction to tridiagonal form followed by the implicit QL method, as in the
+	 *  EISPACK routines tred2 and tql2 (and their JAMA port): O(j^3) with a small constant.
+	 */
+	private static void symmetricEigen(double[] t, int ld, int j, double[] theta, double[] s) {
+
+		int n = j;
+		double[] v = new double[n * n], d = new double[n], e = new double[n];
+		for (int r = 0; r < n; r++) {
+			System.arraycopy(t, r * ld, v, r * n, n);
+		}
+
+		// tred2: V becomes the orthogonal reduction, d and e the tridiagonal
+		for (int c = 0; c < n; c++) d[c] = v[(n - 1) * n + c];
+		for (int i = n - 1; i > 0; i--) {
+			double scale = 0.0, h = 0.0;
+			for (int k = 0; k < i; k++) scale += Math.abs(d[k]);
+			if (scale == 0.0) {
+				e[i] = d[i - 1];
+				for (int c = 0; c < i; c++) {
+					d[c] = v[(i - 1) * n + c];
+					v[i * n + c] = 0.0;
+					v[c * n + i] = 0.0;
+				}
+			}
+			else {
+				for (int k = 0; k < i; k++) {
+					d[k] /= scale;
+					h += d[k] * d[k];
+				}
+				double f = d[i - 1], g = Math.sqrt(h);
+				if (f > 0) g = -g;
+				e[i] = scale * g;
+				h -= f * g;
+				d[i - 1] = f - g;
+				for (int c = 0; c < i; c++) e[c] = 0.0;
+				for (int c = 0; c < i; c++) {
+					f = d[c];
+					v[c * n + i] = f;
+					g = e[c] + v[c * n + c] * f;
+					for (int k = c + 1; k <= i - 1; k++) {
+						g += v[k * n + c] * d[k];
+						e[k] += v[k * n + c] * f;
+					}
+					e[c] = g;
+				}
+				f = 0.0;
+				for (int c = 0; c < i; c++) {
+					e[c] /= h;
+					f += e[c] * d[c];
+				}
+				double hh = f / (h + h);
+				for (int c = 0; c < i; c++) e[c] -= hh * d[c];
+				for (int c = 0; c < i; c++) {
+					f = d[c];
+					g = e[c];
+					for (int k = c; k <= i - 1; k++) v[k * n + c] -= (f * e[k] + g * d[k]);
+					d[c] = v[(i - 1) * n + c];
+					v[i * n + c] = 0.0;
+				}
+			}
+			d[i] = h;
+		}
+		for (int i = 0; i < n - 1; i++) { // accumulate the transformations
+			v[(n - 1) * n + i] = v[i * n + i];
+			v[i * n + i] = 1.0;
+			double h = d[i + 1];
+			if (h != 0.0) {
+				for (int k = 0; k <= i; k++) d[k] = v[k * n + i + 1] / h;
+				for (int c = 0; c <= i; c++) {
+					double g = 0.0;
+					for (int k = 0; k <= i; k++) g += v[k * n + i + 1] * v[k * n + c];
+					for (int k = 0; k <= i; k++) v[k * n + c] -= g * d[k];
+				}
+			}
+			for (int k = 0; k <= i; k++) v[k * n + i + 1] = 0.0;
+		}
+		for (int c = 0; c < n; c++) {
+			d[c] = v[(n - 1) * n + c];
+			v[(n - 1) * n + c] = 0.0;
+		}
+		v[(n - 1) * n + n - 1] = 1.0;
+		e[0] = 0.0;
+
+		// tql2: diagonalize the tridiagonal with implicit QL shifts, rotating V along
+		for (int i = 1; i < n; i++) e[i - 1] = e[i];
+		e[n - 1] = 0.0;
+		double f = 0.0, tst1 = 0.0, eps = Math.ulp(1.0);
+		for (int l = 0; l < n; l++) {
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n - 1 && Math.abs(e[m]) > eps * tst1) m++;
+			if (m > l) {
+				do {
+					double g = d[l];
+					double p = (d[l + 1] - g) / (2.0 * e[l]);
+					double r = Math.hypot(p, 1.0);
+					if (p < 0) r = -r;
+					d[l] = e[l] / (p + r);
+					d[l + 1] = e[l] * (p + r);
+					double dl1 = d[l + 1], h = g - d[l];
+					for (int i = l + 2; i < n; i++) d[i] -= h;
+					f += h;
+					p = d[m];
+					double c = 1.0, c2 = c, c3 = c, el1 = e[l + 1], sn = 0.0, s2 = 0.0;
+					for (int i = m - 1; i >= l; i--) {
+						c3 = c2;
+						c2 = c;
+						s2 = sn;
+						g = c * e[i];
+						h = c * p;
+						r = Math.hypot(p, e[i]);
+						e[i + 1] = sn * r;
+						sn = e[i] / r;
+						c = p / r;
+						p = c * d[i] - sn * g;
+						d[i + 1] = h + sn * (c * g + sn * d[i]);
+						for (int k = 0; k < n; k++) {
+							h = v[k * n + i + 1];
+							v[k * n + i + 1] = sn * v[k * n + i] + c * h;
+							v[k * n + i] = c * v[k * n + i] - sn * h;
+						}
+					}
+					p = -sn * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = sn * p;
+					d[l] = c * p;
+				} while (Math.abs(e[l]) > eps * tst1);
+			}
+			d[l] += f;
+			e[l] = 0.0;
+		}
+
+		Integer[] order = new Integer[n];
+		for (int i = 0; i < n; i++) order[i] = i;
+		Arrays.sort(order, (x, y) -> Double.compare(Math.abs(d[y]), Math.abs(d[x])));
+		for (int c = 0; c < n; c++) {
+			int src = order[c];
+			theta[c] = d[src];
+			for (int i = 0; i < n; i++) {
+				s[i * n + c] = v[i * n + src];
+			}
+		}
+	}
+
+	private static double norm(Vector v) throws LinAlgException {
+		return Math.sqrt(Vector.InnerProd(v, v));
+	}
+}
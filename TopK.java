@@ -0,0 +1,137 @@
+package linalg;
+
+/*** A bounded min-heap that keeps the k best (id, score) pairs offered to it, for the nearest
+ *   neighbor searches.
+ *
+ *   The root is the worst pair kept, so an offer that cannot make the top k is rejected with one
+ *   comparison and the common case of a full heap costs O(1); an accepted offer costs O(log k).
+ *   Pairs are ordered by score and then by smaller id, a total order, so the top k of a set of
+ *   pairs does not depend on the order they are offered in (searches over partitions merged in
+ *   any order give the same result).
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class TopK {
+
+	private final int _nK;           // Capacity
+	private final double[] _adScore; // Heap of scores, worst at 0
+	private final int[] _anId;       // Ids matching _adScore
+	private int _nSize;              // Pairs currently kept
+
+	/** Creates an empty heap keeping at most k pairs
+	 *
+	 * @param k
+	 */
+
+	TopK(int k) {
+		_nK = k;
+		_adScore = new double[k];
+		_anId = new int[k];
+	}
+
+	/** Returns the number of pairs kept */
+	int size() {
+		return _nSize;
+	}
+
+	/** Returns whether a pair with this score would currently be kept (true until the heap is full)
+	 */
+
+	boolean accepts(double score) {
+		return _nSize < _nK || score >= _adScore[0];
+	}
+
+	/** Offers the pair (id, score), keeping it if it is among the k best so far
+	 *
+	 * @param id
+	 * @param score
+	 */
+
+	void offer(int id, double score) {
+
+		if (_nSize < _nK) {
+			int i = _nSize++;
+			while (i > 0) { // sift up past better parents
+				int parent = (i - 1) >>> 1;
+				if (!worse(score, id, _adScore[parent], _anId[parent])) {
+					break;
+				}
+				_adScore[i] = _adScore[parent];
+				_anId[i] = _anId[parent];
+				i = parent;
+			}
+			_adScore[i] = score;
+			_anId[i] = id;
+		}
+		else if (worse(_adScore[0], _anId[0], score, id)) {
+			siftDown(id, score);
+		}
+	}
+
+	/** Offers every pair kept by other */
+	void merge(TopK other) {
+		for (int i = 0; i < other._nSize; i++) {
+			offer(other._anId[i], other._adScore[i]);
+		}
+	}
+
+	/** Returns the kept pairs, best first
+	 *
+	 * @return neighbors
+	 */
+
+	Neighbors toNeighbors() {
+
+		int n = _nSize;
+		double[] score = new double[n];
+		int[] id = new int[n];
+		TopK h = new TopK(_nK); // pop a copy so the heap itself is left intact
+		h.merge(this);
+		for (int i = n - 1; i >= 0; i--) { // repeatedly remove the worst
+			score[i] = h._adScore[0];
+			id[i] = h._anId[0];
+			h._nSize--;
+			if (h._nSize > 0) {
+				int lastId = h._anId[h._nSize];
+				double lastScore = h._adScore[h._nSize];
+				h.siftDown(lastId, lastScore);
+			}
+		}
+		return new Neighbors(id, score);
+	}
+
+	/** Empties the heap so it can be reused */
+	void clear() {
+		_nSize = 0;
+	}
+
+	/** Places (id, score) at the root and moves it down below any worse child */
+	private void siftDown(int id, double score) {
+
+		int i = 0, n = _nSize;
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= n) {
+				break;
+			}
+			if (child + 1 < n && worse(_adScore[child + 1], _anId[child + 1], _adScore[child], _anId[child])) {
+				child++;
+			}
+			if (!worse(_adScore[child], _anId[child], score, id)) {
+				break;
+			}
+			_adScore[i] = _adScore[child];
+			_anId[i] = _anId[child];
+			i = child;
+		}
+		_adScore[i] = score;
+		_anId[i] = id;
+	}
+
+	/** Whether (s1, id1) ranks below (s2, id2): lower score, or the same score and a larger id */
+	private static boolean worse(double s1, int id1, double s2, int id2) {
+		return s1 < s2 || (s1 == s2 && id1 > id2);
+	}
+}
@@ -0,0 +1,179 @@
+package linalg;
+
+import java.util.BitSet;
+
+/*** Transpose kernels over flat strided storage.
+ *
+ *   The out-of-place and square in-place kernels are cache-oblivious: they halve the longer
+ *   side of the block until it is at most BLOCK x BLOCK, so at every level of the memory
+ *   hierarchy the source and destination blocks being worked on fit together in cache, and
+ *   both are read and written a cache line (and a page) at a time instead of one column at a
+ *   time.
+ *
+ *   A rectangular matrix cannot be transposed in place by swapping, since its shape changes;
+ *   inPlace follows the cycles of the index permutation instead (element k of the rows x cols
+ *   row-major array moves to k * rows mod (rows*cols - 1)), using one bit per element to mark
+ *   the positions already placed.  It touches memory in a scattered order and is much slower
+ *   than the out-of-place kernel, but needs 1/64th of the matrix size in extra memory instead of a
+ *   full copy.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class Transpose {
+
+	static final int BLOCK = 32; // Leaf block side: a 32 x 32 source block and its transpose (16 KB) fit in L1
+
+	private Transpose() {} // static kernels only
+
+	/** Writes the transpose of the rows x cols matrix S into D, where S(i, j) is
+	 *  src[sOff + i*sRs + j*sCs] and D(j, i) is dst[dOff + j*dRs + i] (rows of D are contiguous)
+	 *
+	 * @param src
+	 * @param sOff
+	 * @param sRs
+	 * @param sCs
+	 * @param dst
+	 * @param dOff
+	 * @param dRs
+	 * @param rows
+	 * @param cols
+	 */
+
+	static void transpose(double[] src, int sOff, int sRs, int sCs, double[] dst, int dOff, int dRs, int rows, int cols) {
+
+		if (rows <= BLOCK && cols <= BLOCK) {
+			for (int i = 0; i < rows; i++) {
+				int s = sOff + i * sRs, d = dOff + i;
+				for (int j = 0; j < cols; j++, s += sCs, d += dRs) {
+					dst[d] = src[s];
+				}
+			}
+		}
+		else if (rows >= cols) { // split the rows of S (columns of D)
+			int h = rows / 2;
+			transpose(src, sOff, sRs, sCs, dst, dOff, dRs, h, cols);
+			transpose(src, sOff + h * sRs, sRs, sCs, dst, dOff + h, dRs, rows - h, cols);
+		}
+		else { // split the columns of S (rows of D)
+			int h = cols / 2;
+			transpose(src, sOff, sRs, sCs, dst, dOff, dRs, rows, h);
+			transpose(src, sOff + h * sCs, sRs, sCs, dst, dOff + h * dRs, dRs, rows, cols - h);
+		}
+	}
+
+	/** Single-precision transpose, as transpose for double[] (used by FloatMatrix)
+	 */
+
+	static void transpose(float[] src, int sOff, int sRs, int sCs, float[] dst, int dOff, int dRs, int rows, int cols) {
+
+		if (rows <= BLOCK && cols <= BLOCK) {
+			for (int i = 0; i < rows; i++) {
+				int s = sOff + i * sRs, d = dOff + i;
+				for (int j = 0; j < cols; j++, s += sCs, d += dRs) {
+					dst[d] = src[s];
+				}
+			}
+		}
+		else if (rows >= cols) {
+			int h = rows / 2;
+			transpose(src, sOff, sRs, sCs, dst, dOff, dRs, h, cols);
+			transpose(src, sOff + h * sRs, sRs, sCs, dst, dOff + h, dRs, rows - h, cols);
+		}
+		else {
+			int h = cols / 2;
+			transpose(src, sOff, sRs, sCs, dst, dOff, dRs, rows, h);
+			transpose(src, sOff + h * sCs, sRs, sCs, dst, dOff + h * dRs, dRs, rows, cols - h);
+		}
+	}
+
+	/** Transposes the n x n matrix A(i, j) = a[off + i*rs + j*cs] in place
+	 *
+	 * @param a
+	 * @param off
+	 * @param rs
+	 * @param cs
+	 * @param n
+	 */
+
+	static void squareInPlace(double[] a, int off, int rs, int cs, int n) {
+		diagonal(a, off, rs, cs, 0, n);
+	}
+
+	/** Transposes the diagonal block [lo, hi) x [lo, hi) in place: its two diagonal halves
+	 *  recursively, then the off-diagonal halves by swapping them with each other */
+	private static void diagonal(double[] a, int off, int rs, int cs, int lo, int hi) {
+
+		if (hi - lo <= BLOCK) {
+			for (int i = lo; i < hi; i++) {
+				for (int j = i + 1; j < hi; j++) {
+					int p = off + i * rs + j * cs, q = off + j * rs + i * cs;
+					double t = a[p]; a[p] = a[q]; a[q] = t;
+				}
+			}
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		diagonal(a, off, rs, cs, lo, mid);
+		diagonal(a, off, rs, cs, mid, hi);
+		swap(a, off, rs, cs, lo, mid, mid, hi);
+	}
+
+	/** Swaps A(i, j) with A(j, i) for i in [i0, i1) and j in [j0, j1) (a block strictly above the diagonal) */
+	private static void swap(double[] a, int off, int rs, int cs, int i0, int i1, int j0, int j1) {
+
+		if (i1 - i0 <= BLOCK && j1 - j0 <= BLOCK) {
+			for (int i = i0; i < i1; i++) {
+				for (int j = j0; j < j1; j++) {
+					int p = off + i * rs + j * cs, q = off + j * rs + i * cs;
+					double t = a[p]; a[p] = a[q]; a[q] = t;
+				}
+			}
+		}
+		else if (i1 - i0 >= j1 - j0) {
+			int mid = (i0 + i1) >>> 1;
+			swap(a, off, rs, cs, i0, mid, j0, j1);
+			swap(a, off, rs, cs, mid, i1, j0, j1);
+		}
+		else {
+			int mid = (j0 + j1) >>> 1;
+			swap(a, off, rs, cs, i0, i1, j0, mid);
+			swap(a, off, rs, cs, i0, i1, mid, j1);
+		}
+	}
+
+	/** Transposes the rows x cols row-major matrix held in a[0, rows*cols) in place, leaving the
+	 *  cols x rows transpose row-major in the same array (cycle-following)
+	 *
+	 * @param a
+	 * @param rows
+	 * @param cols
+	 */
+
+	static void inPlace(double[] a, int rows, int cols) {
+
+		int mn = rows * cols;
+		if (rows == 1 || cols == 1) {
+			return; // a single row or column has the same row-major layout as its transpose
+		}
+
+		long q = mn - 1;              // the first and last elements never move
+		BitSet done = new BitSet(mn);
+		for (int start = 1; start < mn - 1; start++) {
+			if (done.get(start)) {
+				continue; // already placed as part of an earlier cycle
+			}
+			double val = a[start];
+			int cur = start;
+			do { // carry val to its destination and pick up the value found there
+				int next = (int)((long)cur * rows % q);
+				double t = a[next];
+				a[next] = val;
+				val = t;
+				done.set(next);
+				cur = next;
+			} while (cur != start);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package linalg;
+
+import java.util.concurrent.ForkJoinPool;
+
+/*** Triangular solve kernels shared by the factorizations (LU, Cholesky, QR).
+ *
+ *   The triangle T is n x n with T(i, j) at a[off + i*rs + j*cs], so the same kernel serves a
+ *   row-major factor (cs = 1) and its transpose (rs = 1) without copying; only the triangle
+ *   named by the method is read, so the other half of the array may hold a different factor.
+ *
+ *   Single right-hand sides walk the rows of T with dot products when its rows are contiguous
+ *   and its columns with axpys when they are not.  Several right-hand sides (the rows of X are
+ *   contiguous) go a diagonal block of BLOCK rows at a time: the diagonal block is solved with
+ *   row axpys and the rest of X is updated with one GEMM on the default pool from Parallelism,
+ *   so almost all of the work runs in the blocked multiply kernel.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class Triangular {
+
+	static final int BLOCK = 64; // Rows per diagonal block for several right-hand sides
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private Triangular() {} // static kernels only
+
+	/** Overwrites x[xOff, xOff + n) with L^-1 x for the lower triangle L of T (one of rs, cs must be 1)
+	 *
+	 * @param a
+	 * @param off
+	 * @param rs
+	 * @param cs
+	 * @param n
+	 * @param unit whether the diagonal of L is taken as 1 (and not read)
+	 * @param x
+	 * @param xOff
+	 */
+
+	static void lower(double[] a, int off, int rs, int cs, int n, boolean unit, double[] x, int xOff) {
+
+		if (cs == 1) { // rows of L are contiguous
+			for (int i = 0; i < n; i++) {
+				double s = x[xOff + i] - KERNELS.dot(a, off + i * rs, x, xOff, i);
+				x[xOff + i] = unit ? s : s / a[off + i * rs + i];
+			}
+		}
+		else { // columns of L are contiguous
+			for (int j = 0; j < n; j++) {
+				if (!unit) {
+					x[xOff + j] /= a[off + j * rs + j * cs];
+				}
+				KERNELS.axpy(-x[xOff + j], a, off + (j + 1) + j * cs, x, xOff + j + 1, n - j - 1);
+			}
+		}
+	}
+
+	/** Overwrites x[xOff, xOff + n) with U^-1 x for the upper triangle U of T (one of rs, cs must be 1)
+	 *
+	 * @param a
+	 * @param off
+	 * @param rs
+	 * @param cs
+	 * @param n
+	 * @param unit whether the diagonal of U is taken as 1 (and not read)
+	 * @param x
+	 * @param xOff
+	 */
+
+	static void upper(double[] a, int off, int rs, int cs, int n, boolean unit, double[] x, int xOff) {
+
+		if (cs == 1) { // rows of U are contiguous
+			for (int i = n - 1; i >= 0; i--) {
+				double s = x[xOff + i] - KERNELS.dot(a, off + i * rs + i + 1, x, xOff + i + 1, n - i - 1);
+				x[xOff + i] = unit ? s : s / a[off + i * rs + i];
+			}
+		}
+		else { // columns of U are contiguous
+			for (int j = n - 1; j >= 0; j--) {
+				if (!unit) {
+					x[xOff + j] /= a[off + j + j * cs];
+				}
+				KERNELS.axpy(-x[xOff + j], a, off + j * cs, x, xOff, j);
+			}
+		}
+	}
+
+	/** Overwrites the n x r matrix X(i, j) = x[xOff + i*xRs + j] with L^-1 X for the lower triangle L of T
+	 *
+	 * @param a
+	 * @param off
+	 * @param rs
+	 * @param cs
+	 * @param n
+	 * @param unit whether the diagonal of L is taken as 1 (and not read)
+	 * @param x
+	 * @param xOff
+	 * @param xRs
+	 * @param r
+	 */
+
+	static void lower(double[] a, int off, int rs, int cs, int n, boolean unit, double[] x, int xOff, int xRs, int r) {
+
+		ForkJoinPool pool = Parallelism.getPool();
+		for (int k0 = 0; k0 < n; k0 += BLOCK) {
+			int k1 = Math.min(k0 + BLOCK, n);
+			for (int i = k0; i < k1; i++) {
+				for (int t = k0; t < i; t++) {
+					double l = a[off + i * rs + t * cs];
+					if (l != 0.0) {
+						KERNELS.axpy(-l, x, xOff + t * xRs, x, xOff + i * xRs, r);
+					}
+				}
+				if (!unit) {
+					scale(x, xOff + i * xRs, r, 1.0 / a[off + i * rs + i * cs]);
+				}
+			}
+			if (k1 < n) { // X2 -= L21 X1
+				double[] l21 = negatedCopy(a, off + k1 * rs + k0 * cs, rs, cs, n - k1, k1 - k0);
+				ParallelKernels.multiply(l21, 0, k1 - k0, 1, x, xOff + k0 * xRs, xRs, 1,
+						x, xOff + k1 * xRs, xRs, n - k1, k1 - k0, r, pool);
+				Workspace.release(l21);
+			}
+		}
+	}
+
+	/** Overwrites the n x r matrix X(i, j) = x[xOff + i*xRs + j] with U^-1 X for the upper triangle U of T
+	 *
+	 * @param a
+	 * @param off
+	 * @param rs
+	 * @param cs
+	 * @param n
+	 * @param unit whether the diagonal of U is taken as 1 (and not read)
+	 * @param x
+	 * @param xOff
+	 * @param xRs
+	 * @param r
+	 */
+
+	static void upper(double[] a, int off, int rs, int cs, int n, boolean unit, double[] x, int xOff, int xRs, int r) {
+
+		ForkJoinPool pool = Parallelism.getPool();
+		for (int k0 = ((n - 1) / BLOCK) * BLOCK; k0 >= 0; k0 -= BLOCK) {
+			int k1 = Math.min(k0 + BLOCK, n);
+			if (k1 < n) { // X1 -= U12 X2
+				double[] u12 = negatedCopy(a, off + k0 * rs + k1 * cs, rs, cs, k1 - k0, n - k1);
+				ParallelKernels.multiply(u12, 0, n - k1, 1, x, xOff + k1 * xRs, xRs, 1,
+						x, xOff + k0 * xRs, xRs, k1 - k0, n - k1, r, pool);
+				Workspace.release(u12);
+			}
+			for (int i = k1 - 1; i >= k0; i--) {
+				for (int t = i + 1; t < k1; t++) {
+					double u = a[off + i * rs + t * cs];
+					if (u != 0.0) {
+						KERNELS.axpy(-u, x, xOff + t * xRs, x, xOff + i * xRs, r);
+					}
+				}
+				if (!unit) {
+					scale(x, xOff + i * xRs, r, 1.0 / a[off + i * rs + i * cs]);
+				}
+			}
+		}
+	}
+
+	/** Returns a Workspace buffer holding the negated rows x cols block a[off + i*rs + j*cs], row-major
+	 *  (GEMM accumulates, so C -= A * B is computed as C += (-A) * B)
+	 */
+
+	static double[] negatedCopy(double[] a, int off, int rs, int cs, int rows, int cols) {
+
+		double[] neg = Workspace.acquire(rows * cols);
+		for (int i = 0; i < rows; i++) {
+			int s = off + i * rs, d = i * cols;
+			for (int j = 0; j < cols; j++, s += cs) {
+				neg[d + j] = -a[s];
+			}
+		}
+		return neg;
+	}
+
+	private static void scale(double[] x, int off, int len, double d) {
+		for (int j = off; j < off + len; j++) {
+			x[j] *= d;
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package linalg;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/*** A rank-k truncated singular value decomposition A ~ U diag(S) V^T, with U (m x k) and V (n x k)
+ *   having orthonormal columns and S non-increasing, computed by the randomized range finder of
+ *   Halko, Martinsson and Tropp (SIAM Review 53, 2011):
+ *
+ *     1. sketch the range of A with Y = A Omega for a Gaussian n x (k+p) Omega (p = oversampling)
+ *     2. sharpen it with q power iterations Y = A (A^T Y), re-orthonormalizing by QR in between
+ *     3. Q = orthonormal basis of Y; B = Q^T A is only (k+p) x n
+ *     4. take the SVD of the small B (QR of B^T, then one-sided Jacobi on the (k+p) x (k+p) R)
+ *        and map its left vectors back with U = Q U_B
+ *
+ *   Every step with a dimension of A in it is a matrix product through Matrix.Multiply (the
+ *   blocked, parallel GEMM) or a blocked QRDecomposition, so the cost is O(m n k) instead of the
+ *   O(m n min(m, n)) of a full SVD, and only a few (k+p)-column matrices are held besides A.
+ *
+ *   The error is close to the best rank-k approximation when the singular values of A decay; for
+ *   slowly decaying spectra raise the power iterations (each costs two more passes over A).  The
+ *   result is random through Omega; the seed makes it reproducible.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class TruncatedSVD {
+
+	public static final int OVERSAMPLE = 10;       // Default extra sketch columns beyond k
+	public static final int POWER_ITERATIONS = 2;  // Default power iterations
+
+	private final Matrix _mU;  // m x k left singular vectors
+	private final Vector _vS;  // k singular values, non-increasing
+	private final Matrix _mV;  // n x k right singular vectors
+
+	private TruncatedSVD(Matrix u, Vector s, Matrix v) {
+		_mU = u;
+		_vS = s;
+		_mV = v;
+	}
+
+	/** Returns the rank-k randomized SVD of a with the default oversampling and power iterations and a fixed seed
+	 *
+	 * @param a
+	 * @param k
+	 * @return truncated SVD
+	 * @throws LinAlgException if k is < 1 or larger than the smaller dimension of a
+	 */
+
+	public static TruncatedSVD Randomized(Matrix a, int k) throws LinAlgException {
+		return Randomized(a, k, OVERSAMPLE, POWER_ITERATIONS, 0L);
+	}
+
+	/** Returns the rank-k randomized SVD of a
+	 *
+	 * @param a
+	 * @param k
+	 * @param oversample extra sketch columns (5 to 20 is typical)
+	 * @param powerIterations passes of A A^T applied to the sketch (0 to 3 is typical)
+	 * @param seed seed of the Gaussian sketch
+	 * @return truncated SVD
+	 * @throws LinAlgException if k is < 1 or larger than the smaller dimension of a, or oversample or powerIterations is negative
+	 */
+
+	public static TruncatedSVD Randomized(Matrix a, int k, int oversample, int powerIterations, long seed) throws LinAlgException {
+
+		int m = a.getNumRows(), n = a.getNumCols();
+		if (k < 1 || k > Math.min(m, n)) {
+			throw new LinAlgException("Rank " + k + " has to be between 1 and " + Math.min(m, n));
+		}
+		if (oversample < 0 || powerIterations < 0) {
+			throw new LinAlgException("Oversampling and power iterations cannot be negative");
+		}
+
+		int l = Math.min(k + oversample, Math.min(m, n));
+		Matrix omega = new Matrix(n, l);
+		Random rng = new Random(seed);
+		double[] w = omega.values();
+		for (int i = 0; i < w.length; i++) {
+			w[i] = rng.nextGaussian();
+		}
+
+		Matrix at = a.getTransposeView();
+		Matrix q = Matrix.Multiply(a, omega).qr().getQ(); // m x l basis of the sketched range
+		for (int it = 0; it < powerIterations; it++) {     // re-orthonormalize after each product so small singular directions survive rounding
+			Matrix z = Matrix.Multiply(at, q).qr().getQ();
+			q = Matrix.Multiply(a, z).qr().getQ();
+		}
+
+		// B^T = A^T Q is n x l; with B^T = Qb Rb and Rb = Ur S Vr^T, B = Vr S (Qb Ur)^T
+		QRDecomposition bt = Matrix.Multiply(at, q).qr();
+		Matrix r = bt.getR();
+		double[] s = new double[l];
+		Matrix ur = new Matrix(l, l), vr = new Matrix(l, l);
+		jacobiSVD(r.values(), l, s, ur.values(), vr.values());
+
+		Matrix u = Matrix.Multiply(q, vr.getSubMatrixView(0, 0, l, k));
+		Matrix v = Matrix.Multiply(bt.getQ(), ur.getSubMatrixView(0, 0, l, k));
+		Vector sv = new Vector(k);
+		System.arraycopy(s, 0, sv.values(), 0, k);
+		return new TruncatedSVD(u, sv, v);
+	}
+
+	/** Returns the rank k of the decomposition
+	 *
+	 * @return k
+	 */
+
+	public int getRank() {
+		return _vS.getDim();
+	}
+
+	/** Returns a copy of U, the m x k left singular vectors (as columns)
+	 *
+	 * @return U
+	 */
+
+	public Matrix getU() {
+		return new Matrix(_mU);
+	}
+
+	/** Returns a copy of S, the k singular values in non-increasing order
+	 *
+	 * @return S
+	 */
+
+	public Vector getS() {
+		return new Vector(_vS);
+	}
+
+	/** Returns a copy of V, the n x k right singular vectors (as columns)
+	 *
+	 * @return V
+	 */
+
+	public Matrix getV() {
+		return new Matrix(_mV);
+	}
+
+	/** Returns the rank-k approximation U diag(S) V^T as a dense m x n Matrix
+	 *
+	 * @return approximation of A
+	 * @throws LinAlgException never in practice (the factors have matching dimensions)
+	 */
+
+	public Matrix toMatrix() throws LinAlgException {
+
+		Matrix us = new Matrix(_mU);
+		int k = getRank();
+		double[] d = us.values(), s = _vS.values();
+		for (int i = 0; i < d.length; i++) {
+			d[i] *= s[i % k];
+		}
+		return Matrix.Multiply(us, _mV.getTransposeView());
+	}
+
+	/** One-sided Jacobi SVD of the l x l row-major R = U diag(s) V^T, with s non-increasing and the
+	 *  row-major l x l U and V having the singular vectors as columns (R is overwritten)
+	 *
+	 *  Rotations orthogonalize pairs of columns of R until all are orthogonal; the column norms are
+	 *  then the singular values.  Columns are held as rows of the transpose so rotations stream.
+	 */
+	private static void jacobiSVD(double[] r, int l, double[] s, double[] u, double[] v) {
+
+		double[] g = new double[l * l], vt = new double[l * l]; // rows of g are the columns of R, rows of vt the columns of V
+		Transpose.transpose(r, 0, l, 1, g, 0, l, l, l);
+		for (int i = 0; i < l; i++) {
+			vt[i * l + i] = 1.0;
+		}
+
+		double eps = Math.ulp(1.0);
+		for (int sweep = 0; sweep < 60; sweep++) {
+			boolean rotated = false;
+			for (int i = 0; i < l - 1; i++) {
+				for (int j = i + 1; j < l; j++) {
+					double alpha = 0.0, beta = 0.0, gamma = 0.0;
+					for (int c = 0; c < l; c++) {
+						double gi = g[i * l + c], gj = g[j * l + c];
+						alpha += gi * gi;
+						beta += gj * gj;
+						gamma += gi * gj;
+					}
+					if (gamma == 0.0 || Math.abs(gamma) <= eps * Math.sqrt(alpha * beta)) {
+						continue;
+					}
+					rotated = true;
+					double zeta = (beta - alpha) / (2.0 * gamma);
+					double t = Math.signum(zeta) / (Math.abs(zeta) + Math.sqrt(1.0 + zeta * zeta));
+					if (zeta == 0.0) t = 1.0;
+					double cs = 1.0 / Math.sqrt(1.0 + t * t), sn = cs * t;
+					rotate(g, i * l, j * l, l, cs, sn);
+					rotate(vt, i * l, j * l, l, cs, sn);
+				}
+			}
+			if (!rotated) {
+				break;
+			}
+		}
+
+		Integer[] order = new Integer[l]; // sort by decreasing norm
+		double[] norm = new double[l];
+		for (int i = 0; i < l; i++) {
+			order[i] = i;
+			norm[i] = Math.sqrt(Kernels.INSTANCE.dot(g, i * l, g, i * l, l));
+		}
+		Arrays.sort(order, (x, y) -> Double.compare(norm[y], norm[x]));
+		for (int c = 0; c < l; c++) {
+			int src = order[c];
+			s[c] = norm[src];
+			for (int i = 0; i < l; i++) {
+				u[i * l + c] = (norm[src] == 0.0) ? ((i == c) ? 1.0 : 0.0) : g[src * l + i] / norm[src];
+				v[i * l + c] = vt[src * l + i];
+			}
+		}
+	}
+
+	/** (x, y) = (c x - s y, s x + c y) for the rows of a at xOff and yOff */
+	private static void rotate(double[] a, int xOff, int yOff, int len, double c, double s) {
+		for (int t = 0; t < len; t++) {
+			double x = a[xOff + t], y = a[yOff + t];
+			a[xOff + t] = c * x - s * y;
+			a[yOff + t] = s * x + c * y;
+		}
+	}
+}
@@ -13,6 +13,11 @@ public class Vector {
 
 	private int _nDim;       // Dimension of the Vector; nomenclature: _ for data member, n for integer
 	private double[] _adVal; // Contents of the Vector; nomenclature: _ for data member, a for array, d for double
+	private int _nOff;       // Position of element 0 in _adVal (0 unless this is a view)
+	private int _nStride;    // Distance in _adVal between consecutive elements (1 unless this is a view)
+	private boolean _bView;  // Whether _adVal belongs to a Matrix this Vector is a view of
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
 
 	/** Constructor: allocates space for a new vector of dimension dim
 	 * 
@@ -24,23 +29,46 @@ public class Vector {
 		if (dim <= 0) // same as < 1 because dim is an integer
 			throw new LinAlgException("Vector dimension " + dim + " cannot be less than 1");
 		
+		long t0 = Metrics.start(); // OFF unless Metrics recording is on
 		_nDim = dim;
 		_adVal = new double[dim]; // Entries will be automatically initialized to 0.0
+		_nStride = 1;
+		Metrics.record(Metrics.Operation.VECTOR_NEW, t0, dim, 0, 0, 0, 8L * dim);
+	}
+	
+	/** View constructor: a Vector of dim elements that shares data with its owner, element i being
+	 *  data[off + i * stride] (package-private: views are made by Matrix.getRowView and friends)
+	 * 
+	 * @param data
+	 * @param off
+	 * @param stride
+	 * @param dim
+	 */
 	
+	Vector(double[] data, int off, int stride, int dim) {
+		_nDim = dim;
+		_adVal = data;
+		_nOff = off;
+		_nStride = stride;
+		_bView = true;
 	}
 	
 	/** Copy constructor: makes a new copy of an existing Vector v
-	 *                    (note: this explicitly allocates new memory and copies over content)
+	 *                    (note: this explicitly allocates new memory and copies over content,
+	 *                     so the copy of a view is an ordinary Vector)
 	 * 
 	 * @param v
 	 */
 	
 	public Vector(Vector v) {
+		long t0 = Metrics.start();
 		_nDim = v._nDim;
 		_adVal = new double[_nDim]; // This allocates an array of size _nDim
+		_nStride = 1;
 		
 		for (int index = 0; index < _nDim; index++)
-			_adVal[index] = v._adVal[index]; //copying over contents to v
+			_adVal[index] = v._adVal[v._nOff + index * v._nStride]; //copying over contents to v
+		Metrics.record(Metrics.Operation.VECTOR_COPY, t0, _nDim, 0, 0, 0, 8L * _nDim);
 	}
 
 	/** Constructor: creates a new Vector with dimension and values given by init
@@ -61,8 +89,10 @@ public class Vector {
 			throw new LinAlgException("Malformed vector initialization: missing [ or ] in " + init);
 
 		// We don't count the [ and ] in the dimensionality
+		long t0 = Metrics.start();
 		_nDim = split.length - 2;
 		_adVal = new double[_nDim];
+		_nStride = 1;
 		
 		// Parse each number from init and add it to the Vector in order (note the +1 offset to account for [)
 		for (int index = 0; index < _nDim; index++) {
@@ -72,6 +102,7 @@ public class Vector {
 				throw new LinAlgException("Malformed vector initialization: could not parse " + split[index + 1] + " in " + init);
 			}
 		}
+		Metrics.record(Metrics.Operation.VECTOR_NEW, t0, _nDim, 0, 0, 0, 8L * _nDim);
 	}
 
 	/** Overrides method toString() on Object: converts the class to a human readable String
@@ -89,7 +120,7 @@ public class Vector {
 		StringBuilder sb = new StringBuilder();
 		sb.append("[");
 		for (int i = 0; i < _nDim; i++)
-			sb.append(String.format(" %6.3f ", _adVal[i])); // Append each vector value in order
+			sb.append(String.format(" %6.3f ", _adVal[_nOff + i * _nStride])); // Append each vector value in order
 		sb.append(" ]");
 		return sb.toString();
 	}
@@ -115,7 +146,7 @@ public class Vector {
 			}
 			
 			for (int index = 0; index < _nDim; index++)
-				if (_adVal[index] != v._adVal[index]) {
+				if (_adVal[_nOff + index * _nStride] != v._adVal[v._nOff + index * v._nStride]) {
 					return false; // If two Vectors mismatch at any index, they are not equal
 				}
 			
@@ -126,6 +157,76 @@ public class Vector {
 			return false; // Two objects cannot be equal if they don't have the same class type	
 	}
 	
+	/** Overrides hashCode() on Object to agree with equals(): vectors with the same dimension and
+	 *  values have the same hash (0.0 and -0.0 hash alike, as they are ==)
+	 * 
+	 *  Note: the hash changes whenever the vector does, so a Vector used as a HashMap key must not
+	 *        be modified; ImmutableVector caches the same hash and cannot be modified
+	 */
+	
+	@Override
+	public int hashCode() {
+		int h = 31 * _nDim;
+		for (int index = 0; index < _nDim; index++)
+			h += ChunkedArray.hashElement(index, _adVal[_nOff + index * _nStride]); // a sum, so ImmutableVector can update it per element
+		return h;
+	}
+	
+	/** Returns the backing array of this vector (package-private so Matrix kernels can read
+	 *  and write entries without a bounds check per element; callers must not keep it around
+	 *  across a changeDim); element i is at offset() + i * stride(), so code that assumes
+	 *  element i is at index i should go through compact() first
+	 * 
+	 * @return _adVal
+	 */
+	
+	double[] values() {
+		
+		return _adVal;
+	}
+	
+	/** Returns the index of element 0 in values()
+	 * 
+	 * @return _nOff
+	 */
+	
+	int offset() {
+		
+		return _nOff;
+	}
+	
+	/** Returns the distance in values() between consecutive elements
+	 * 
+	 * @return _nStride
+	 */
+	
+	int stride() {
+		
+		return _nStride;
+	}
+	
+	/** Returns *this* if values() holds exactly its elements in order, else a compact copy
+	 *  (package-private, for code that only handles plain storage)
+	 * 
+	 * @return compact vector with the same values
+	 */
+	
+	Vector compact() {
+		
+		return (_nOff == 0 && _nStride == 1 && _adVal.length == _nDim) ? this : new Vector(this);
+	}
+	
+	/** Returns whether this Vector shares its storage with a Matrix (see Matrix.getRowView and
+	 *  Matrix.getColumnView): writes to a view change its matrix and the other way around
+	 * 
+	 * @return true for a view
+	 */
+	
+	public boolean isView() {
+		
+		return _bView;
+	}
+	
 	/** Get the dimension of this vector
 	 * 
 	 * @return: _nDim
@@ -148,7 +249,7 @@ public class Vector {
 			throw new LinAlgException("Index " + index + " is out of bounds");
 		}
 
-		return _adVal[index];
+		return _adVal[_nOff + index * _nStride];
 	}
 
 	/** Set the value val of the vector at the given index (remember: array indices start at 0)
@@ -164,7 +265,7 @@ public class Vector {
 			throw new LinAlgException("Index " + index + " is out of bounds");
 		}
 		else {
-			_adVal[index] = val; //content at that index gets changed to value of val	
+			_adVal[_nOff + index * _nStride] = val; //content at that index gets changed to value of val	
 		}
 	}
 	
@@ -174,7 +275,7 @@ public class Vector {
 	 *      dim are simply lost
 	 * 
 	 * @param new_dim
-	 * @throws LinAlgException if vector dimension is < 1
+	 * @throws LinAlgException if vector dimension is < 1 or this is a view (its storage belongs to a matrix)
 	 */
 	
 	public void changeDim(int new_dim) throws LinAlgException {
@@ -186,6 +287,9 @@ public class Vector {
 		if (new_dim < 1) {
 			throw new LinAlgException("Dimension has to be at least 1");
 		}
+		if (isView()) {
+			throw new LinAlgException("Cannot change the dimension of a view");
+		}
 		
 		double[] array = new double[new_dim];
 		
@@ -218,9 +322,7 @@ public class Vector {
 	 */
 	
 	public void scalarAddInPlace(double d) { //actually changes the vector
-		for (int index = 0; index < _nDim; index++) {
-			_adVal[index] += d; //the new value at _adVal[index] becomes _adVal[index]+d
-		}
+		addScalar(this, d, this); //the new value at _adVal[index] becomes _adVal[index]+d
 	}
 	
 	/** This creates a new Vector, adds a scalar d to it, and returns it
@@ -238,6 +340,20 @@ public class Vector {
 		return newVector;
 	}
 	
+	/** Adds a scalar d to all elements of *this* and writes the result into out instead of a new Vector
+	 *  (out may be *this*, or a view of the same storage that shares no element with it; nothing is allocated)
+	 * 
+	 * @param d
+	 * @param out
+	 * @throws LinAlgException if out does not have the same dimension as *this*, or partly overlaps it
+	 */
+	
+	public void scalarAdd(double d, Vector out) throws LinAlgException {
+		
+		checkOutput(out);
+		addScalar(this, d, out);
+	}
+	
 	/** This multiplies a scalar d by all elements of *this* Vector
 	 *  (should modify *this*)
 	 * 
@@ -245,9 +361,7 @@ public class Vector {
 	 */
 	
 	public void scalarMultInPlace(double d) {
-		for (int index = 0; index < _nDim; index++) {
-			_adVal[index] *= d; //the new value at _adVal[index] becomes _adVal[index]*d
-		}
+		multScalar(this, d, this); //the new value at _adVal[index] becomes _adVal[index]*d
 	}
 	
 	/** This creates a new Vector, multiplies it by a scalar d, and returns it
@@ -264,11 +378,25 @@ public class Vector {
 		
 		return newVector;
 	}
+	
+	/** Multiplies all elements of *this* by a scalar d and writes the result into out instead of a new
+	 *  Vector (out may be *this*, or a view of the same storage that shares no element with it; nothing is allocated)
+	 * 
+	 * @param d
+	 * @param out
+	 * @throws LinAlgException if out does not have the same dimension as *this*, or partly overlaps it
+	 */
+	
+	public void scalarMult(double d, Vector out) throws LinAlgException {
+		
+		checkOutput(out);
+		multScalar(this, d, out);
+	}
 
 	/** Performs an elementwise addition of v to *this*, modifies *this*
 	 * 
 	 * @param v
-	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match, or v partly overlaps *this*
 	 * 
 	 */
 	
@@ -278,9 +406,56 @@ public class Vector {
 			throw new LinAlgException("The dimensions of the two vectors have to match"); //dimension error exception
 		}
 		
+		checkOverlap(this, v);
+		
+		add(this, v, this); //similar to scalarAddInPlace, just occurring with another vector
+	}
+
+	/** Adds d times v to *this* (*this* += d * v), modifies *this*; nothing is allocated
+	 * 
+	 * @param d
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match, or v partly overlaps *this*
+	 */
+	
+	public void scaledAddInPlace(double d, Vector v) throws LinAlgException {
+		
+		if (v._nDim != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+		checkOverlap(this, v);
+		
+		long t0 = Metrics.start();
+		if (v._nStride == 1 && _nStride == 1) {
+			KERNELS.axpy(d, v._adVal, v._nOff, _adVal, _nOff, _nDim);
+		}
 		else {
-			for (int index = 0; index < this._nDim; index++) {
-				this._adVal[index] += v._adVal[index]; //similar to scalarAddInPlace, just occurring with another vector
+			for (int i = 0; i < _nDim; i++) {
+				_adVal[_nOff + i * _nStride] += d * v._adVal[v._nOff + i * v._nStride];
+			}
+		}
+		Metrics.record(Metrics.Operation.VECTOR_SCALED_ADD, t0, _nDim, 0, 0, 2L * _nDim, 0);
+	}
+	
+	/** Overwrites the elements of *this* with those of v, modifies *this*; nothing is allocated
+	 * 
+	 * @param v
+	 * @throws LinAlgException if dimensions of the two vectors do not match, or v partly overlaps *this*
+	 */
+	
+	public void copyFrom(Vector v) throws LinAlgException {
+		
+		if (v._nDim != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+		checkOverlap(this, v);
+		
+		if (v._nStride == 1 && _nStride == 1) {
+			System.arraycopy(v._adVal, v._nOff, _adVal, _nOff, _nDim);
+		}
+		else {
+			for (int i = 0; i < _nDim; i++) {
+				_adVal[_nOff + i * _nStride] = v._adVal[v._nOff + i * v._nStride];
 			}
 		}
 	}
@@ -301,18 +476,35 @@ public class Vector {
 		}
 		
 		else {			
-			for (int index = 0; index < this._nDim; index++) {
-				newVector._adVal[index] = (v._adVal[index] + this._adVal[index]); //content of newVector for each element or index is the content of v and this added together 
-			}
+			add(v, this, newVector); //content of newVector for each element or index is the content of v and this added together 
 		}
 		
 		return newVector;
 	}
 	
+	/** Performs an elementwise addition of *this* and v and writes the result into out instead of a new
+	 *  Vector (out may be *this* or v, or a view that shares no element with them; nothing is allocated)
+	 * 
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if dimensions of the operand and output vectors do not match, or out partly overlaps an operand
+	 */
+	
+	public void elementwiseAdd(Vector v, Vector out) throws LinAlgException {
+		
+		if (v._nDim != this._nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match"); //dimension error exception
+		}
+		checkOutput(out);
+		checkOverlap(out, v);
+		
+		add(v, this, out); //same operand order as elementwiseAdd(v)
+	}
+	
 	/** Performs an elementwise multiplication of v and *this*, modifies *this*
 	 * 
 	 * @param v
-	 * @throws LinAlgException if dimensions of the two operand vectors do not match
+	 * @throws LinAlgException if dimensions of the two operand vectors do not match, or v partly overlaps *this*
 	 */
 	
 	public void elementwiseMultInPlace(Vector v) throws LinAlgException {
@@ -321,11 +513,9 @@ public class Vector {
 			throw new LinAlgException("The dimensions of the two vectors have to match"); //dimension error exception
 		}
 		
-		else {
-			for (int index = 0; index < this._nDim; index++) {
-				this._adVal[index] *= v._adVal[index]; //similar to scalarMultInPlace, just occurring with another vector
-			}
-		}
+		checkOverlap(this, v);
+		
+		mult(this, v, this); //similar to scalarMultInPlace, just occurring with another vector
 	}
 
 	/** Performs an elementwise multiplication of *this* and v and returns a new Vector with result
@@ -343,14 +533,33 @@ public class Vector {
 		
 		Vector newVector = new Vector(_nDim);
 			
-		for (int index = 0; index < this._nDim; index++) {
-				newVector._adVal[index] = (this._adVal[index] * v._adVal[index]); //contents of newVector at an index = (the contents of this * contents of v) at the same index
-		}
+		mult(this, v, newVector); //contents of newVector at an index = (the contents of this * contents of v) at the same index
 
 		return newVector;
 	}
+	
+	/** Performs an elementwise multiplication of *this* and v and writes the result into out instead of
+	 *  a new Vector (out may be *this* or v, or a view that shares no element with them; nothing is allocated)
+	 * 
+	 * @param v
+	 * @param out
+	 * @throws LinAlgException if dimensions of the operand and output vectors do not match, or out partly overlaps an operand
+	 */
+	
+	public void elementwiseMult(Vector v, Vector out) throws LinAlgException {
+		
+		if (v._nDim != this._nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match"); //dimension error exception
+		}
+		checkOutput(out);
+		checkOverlap(out, v);
+		
+		mult(this, v, out);
+	}
 
-	/** Performs an inner product of Vectors v1 and v2 and returns the scalar result
+	/** Performs an inner product of Vectors v1 and v2 and returns the scalar result; long vectors
+	 *  are split into fixed chunks reduced in parallel and combined in a fixed order, so the result
+	 *  is bit-for-bit the same for any number of threads (see Reductions)
 	 * 
 	 * @param v1
 	 * @param v2
@@ -367,11 +576,261 @@ public class Vector {
 		}
 		
 		else {
-			for (int index = 0; index < v1._nDim; index++) {
-				dotProduct += (v1._adVal[index] * v2._adVal[index]); //dot product is when elementwise multiplication occurs and then the values are summed together
-			}		
+			long t0 = Metrics.start();
+			dotProduct = dot(v1, v2); //dot product is when elementwise multiplication occurs and then the values are summed together
+			Metrics.record(Metrics.Operation.VECTOR_INNER_PROD, t0, v1._nDim, 0, 0, 2L * v1._nDim, 0);
 		}
 		
 		return dotProduct;
 	}
+	
+	/** Returns the sum of the elements of this vector (summed in the fixed chunked order of
+	 *  InnerProd, so the result is the same for any number of threads)
+	 * 
+	 * @return sum
+	 */
+	
+	public double sum() {
+		
+		return Reductions.sum(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Returns the L1 norm of this vector, the sum of the absolute values of its elements
+	 * 
+	 * @return norm
+	 */
+	
+	public double norm1() {
+		
+		return Reductions.sumAbs(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Returns the Euclidean (L2) norm of this vector, sqrt(InnerProd(this, this)); when the sum of
+	 *  squares overflows or comes near underflow, the elements are scaled by a power of two near the
+	 *  largest of them first, so a tiny or huge vector still gets a finite, nonzero norm
+	 * 
+	 * @return norm
+	 */
+	
+	public double norm2() {
+		
+		double ss = Reductions.sumSquares(_adVal, _nOff, _nStride, _nDim);
+		if (ss >= 0x1p-900 && ss <= Double.MAX_VALUE) { // the usual case: squares that underflowed cannot matter
+			return Math.sqrt(ss);
+		}
+		double max = Reductions.maxAbs(_adVal, _nOff, _nStride, _nDim);
+		if (max == 0.0 || !Double.isFinite(max)) { // zero, an infinite element, or NaN
+			return max;
+		}
+		int e = Math.getExponent(max);
+		double scale = Math.scalb(1.0, -e); // exact, so the scaled squares lose nothing
+		ss = 0.0;
+		for (int i = 0, idx = _nOff; i < _nDim; i++, idx += _nStride) {
+			double t = _adVal[idx] * scale;
+			ss += t * t;
+		}
+		return Math.scalb(Math.sqrt(ss), e);
+	}
+	
+	/** Returns the L-infinity norm of this vector, the largest absolute value of its elements
+	 * 
+	 * @return norm
+	 */
+	
+	public double normInf() {
+		
+		return Reductions.maxAbs(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Returns the largest element of this vector (NaN if any element is NaN, as Math.max)
+	 * 
+	 * @return max
+	 */
+	
+	public double max() {
+		
+		return Reductions.max(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Returns the smallest element of this vector (NaN if any element is NaN, as Math.min)
+	 * 
+	 * @return min
+	 */
+	
+	public double min() {
+		
+		return Reductions.min(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Returns the index of the largest element of this vector (the first one if it occurs more
+	 *  than once, or the first NaN if there is one, matching max())
+	 * 
+	 * @return index
+	 */
+	
+	public int argMax() {
+		
+		return Reductions.argMax(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Returns the index of the smallest element of this vector (the first one if it occurs more
+	 *  than once, or the first NaN if there is one, matching min())
+	 * 
+	 * @return index
+	 */
+	
+	public int argMin() {
+		
+		return Reductions.argMin(_adVal, _nOff, _nStride, _nDim);
+	}
+	
+	/** Checks that out can hold the result of an elementwise operation on *this*
+	 * 
+	 * @param out
+	 * @throws LinAlgException if out does not have the same dimension as *this*, or partly overlaps it
+	 */
+	
+	private void checkOutput(Vector out) throws LinAlgException {
+		
+		if (out._nDim != _nDim) {
+			throw new LinAlgException("Output dimension " + out._nDim + " does not match the dimension " + _nDim);
+		}
+		checkOverlap(out, this);
+	}
+	
+	/** Checks that out, written element by element while v is read, is either v itself (the same
+	 *  elements in the same order) or shares none of v's elements; two rows, or two columns, of one
+	 *  matrix are disjoint views of the same storage and may be combined
+	 * 
+	 * @param out
+	 * @param v
+	 * @throws LinAlgException if out and v share some but not all of their elements
+	 */
+	
+	private static void checkOverlap(Vector out, Vector v) throws LinAlgException {
+		
+		if (out._adVal == v._adVal && (out._nOff != v._nOff || out._nStride != v._nStride)
+				&& overlaps(out._nOff, out._nStride, out._nDim, v._nOff, v._nStride, v._nDim)) {
+			throw new LinAlgException("Output vector cannot partly overlap an operand");
+		}
+	}
+	
+	/** Returns whether the views {off1 + i * stride1 : 0 <= i < dim1} and {off2 + j * stride2 :
+	 *  0 <= j < dim2} of one array share an element (strides are positive, as for every view in
+	 *  the package); also used by FloatVector
+	 *  
+	 *  Disjoint spans are rejected first.  Otherwise a common element needs i * stride1 - j * stride2
+	 *  = off2 - off1, which has solutions only when gcd(stride1, stride2) divides off2 - off1; they
+	 *  then form one residue class of i, and the test is whether that class has a member in the
+	 *  range of i for which j also lies in [0, dim2).
+	 * 
+	 * @param off1
+	 * @param stride1
+	 * @param dim1
+	 * @param off2
+	 * @param stride2
+	 * @param dim2
+	 * @return whether the two views share an element
+	 */
+	
+	static boolean overlaps(int off1, int stride1, int dim1, int off2, int stride2, int dim2) {
+		
+		if (dim1 == 0 || dim2 == 0
+				|| off1 + (long) (dim1 - 1) * stride1 < off2 || off2 + (long) (dim2 - 1) * stride2 < off1) {
+			return false;
+		}
+		
+		long g = gcd(stride1, stride2), d = (long) off2 - off1;
+		if (d % g != 0) {
+			return false;
+		}
+		long a = stride1 / g, b = stride2 / g, e = d / g;
+		long i0 = Math.floorMod(e, b) * inverseMod(a, b) % b; // i * a = e (mod b)
+		long lo = Math.max(0, -Math.floorDiv(-e, a)); // j >= 0: i * a >= e
+		long hi = Math.min(dim1, Math.floorDiv(e + dim2 * b - 1, a) + 1); // j < dim2: i * a < e + dim2 * b
+		return lo + Math.floorMod(i0 - lo, b) < hi;
+	}
+	
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b; a = b; b = t;
+		}
+		return a;
+	}
+	
+	/** Returns the inverse of a modulo m (a and m coprime), by the extended Euclidean algorithm */
+	
+	private static long inverseMod(long a, long m) {
+		long r0 = m, r1 = a % m, t0 = 0, t1 = 1;
+		while (r1 != 0) {
+			long q = r0 / r1, t;
+			t = r0 - q * r1; r0 = r1; r1 = t;
+			t = t0 - q * t1; t0 = t1; t1 = t;
+		}
+		return Math.floorMod(t0, m);
+	}
+	
+	// The elementwise loops: contiguous operands (stride 1, any offset) go to the kernels, views
+	// with a larger stride (e.g. matrix columns) take a plain strided loop over the same elements;
+	// each is recorded in Metrics once per public operation (the new result of e.g. scalarAdd is
+	// recorded by the copy constructor)
+	
+	private static void addScalar(Vector a, double d, Vector out) {
+		long t0 = Metrics.start();
+		if (a._nStride == 1 && out._nStride == 1) {
+			KERNELS.addScalar(a._adVal, a._nOff, d, out._adVal, out._nOff, a._nDim);
+		}
+		else {
+			for (int i = 0; i < a._nDim; i++) {
+				out._adVal[out._nOff + i * out._nStride] = a._adVal[a._nOff + i * a._nStride] + d;
+			}
+		}
+		Metrics.record(Metrics.Operation.VECTOR_SCALAR_ADD, t0, a._nDim, 0, 0, a._nDim, 0);
+	}
+	
+	private static void multScalar(Vector a, double d, Vector out) {
+		long t0 = Metrics.start();
+		if (a._nStride == 1 && out._nStride == 1) {
+			KERNELS.multScalar(a._adVal, a._nOff, d, out._adVal, out._nOff, a._nDim);
+		}
+		else {
+			for (int i = 0; i < a._nDim; i++) {
+				out._adVal[out._nOff + i * out._nStride] = a._adVal[a._nOff + i * a._nStride] * d;
+			}
+		}
+		Metrics.record(Metrics.Operation.VECTOR_SCALAR_MULT, t0, a._nDim, 0, 0, a._nDim, 0);
+	}
+	
+	private static void add(Vector a, Vector b, Vector out) {
+		long t0 = Metrics.start();
+		if (a._nStride == 1 && b._nStride == 1 && out._nStride == 1) {
+			KERNELS.add(a._adVal, a._nOff, b._adVal, b._nOff, out._adVal, out._nOff, a._nDim);
+		}
+		else {
+			for (int i = 0; i < a._nDim; i++) {
+				out._adVal[out._nOff + i * out._nStride] = a._adVal[a._nOff + i * a._nStride] + b._adVal[b._nOff + i * b._nStride];
+			}
+		}
+		Metrics.record(Metrics.Operation.VECTOR_ADD, t0, a._nDim, 0, 0, a._nDim, 0);
+	}
+	
+	private static void mult(Vector a, Vector b, Vector out) {
+		long t0 = Metrics.start();
+		if (a._nStride == 1 && b._nStride == 1 && out._nStride == 1) {
+			KERNELS.mult(a._adVal, a._nOff, b._adVal, b._nOff, out._adVal, out._nOff, a._nDim);
+		}
+		else {
+			for (int i = 0; i < a._nDim; i++) {
+				out._adVal[out._nOff + i * out._nStride] = a._adVal[a._nOff + i * a._nStride] * b._adVal[b._nOff + i * b._nStride];
+			}
+		}
+		Metrics.record(Metrics.Operation.VECTOR_MULT, t0, a._nDim, 0, 0, a._nDim, 0);
+	}
+	
+	// Inner products go through Reductions for any strides: chunked, parallel when long, and
+	// summed in a fixed order so the result does not depend on the number of threads
+	
+	private static double dot(Vector a, Vector b) {
+		return Reductions.dot(a._adVal, a._nOff, a._nStride, b._adVal, b._nOff, b._nStride, a._nDim);
+	}
 }
@@ -0,0 +1,378 @@
+package linalg;
+
+/*** A batch of N Vectors of the same dimension packed one after another in a single contiguous
+ *   row-major block (vector i is row i of an N x dim Matrix), instead of N separate objects each
+ *   with its own array.
+ *
+ *   Scanning the batch is then a sequential read, and scoring is a matrix product: the inner
+ *   products of every query with every vector, InnerProd(queries, batch), are one GEMM
+ *   queries * batch^T through the blocked, parallel Matrix.Multiply, which keeps a packed panel of
+ *   the batch in cache while all the queries use it.  A single query is one GEMV.
+ *
+ *   getView(i) returns vector i as a Vector view, so any Vector operation can be applied to one
+ *   member without copying; the batched operations below apply to every member in one sweep.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public final class VectorBatch {
+
+	private static final Kernels KERNELS = Kernels.INSTANCE; // inner loops: SIMD when jdk.incubator.vector is enabled, scalar otherwise
+
+	private final Matrix _m; // size x dim, vector i in row i
+
+	/** Allocates a batch of size zero vectors of dimension dim
+	 *
+	 * @param size
+	 * @param dim
+	 * @throws LinAlgException if size or dim is < 1
+	 */
+
+	public VectorBatch(int size, int dim) throws LinAlgException {
+
+		if (size < 1 || dim < 1) {
+			throw new LinAlgException("Batch size " + size + " and dimension " + dim + " have to both be at least 1");
+		}
+
+		_m = new Matrix(size, dim);
+	}
+
+	/** Packs copies of the given vectors into a new batch, vectors[i] becoming vector i
+	 *
+	 * @param vectors
+	 * @throws LinAlgException if vectors is empty or the vectors do not all have the same dimension
+	 */
+
+	public VectorBatch(Vector[] vectors) throws LinAlgException {
+
+		if (vectors.length == 0) {
+			throw new LinAlgException("A batch needs at least one vector");
+		}
+
+		_m = new Matrix(vectors.length, vectors[0].getDim());
+		for (int i = 0; i < vectors.length; i++) {
+			set(i, vectors[i]);
+		}
+	}
+
+	/** Wraps a copy of the rows of m as a batch, row i becoming vector i
+	 *
+	 * @param m
+	 */
+
+	public VectorBatch(Matrix m) {
+
+		_m = new Matrix(m);
+	}
+
+	/** Copy constructor
+	 *
+	 * @param b
+	 */
+
+	public VectorBatch(VectorBatch b) {
+
+		_m = new Matrix(b._m);
+	}
+
+	/** Constructs a String representation of this batch, one vector per line
+	 */
+
+	public String toString() {
+
+		return _m.toString();
+	}
+
+	/** Returns the number of vectors in the batch
+	 *
+	 * @return N
+	 */
+
+	public int getSize() {
+
+		return _m.getNumRows();
+	}
+
+	/** Returns the dimension of the vectors in the batch
+	 *
+	 * @return dim
+	 */
+
+	public int getDim() {
+
+		return _m.getNumCols();
+	}
+
+	/** Returns a copy of vector i
+	 *
+	 * @param i
+	 * @return vector
+	 * @throws LinAlgException if i is out of bounds
+	 */
+
+	public Vector get(int i) throws LinAlgException {
+
+		return _m.getRow(i);
+	}
+
+	/** Returns vector i as a view: no values are copied, and writes through the view change the batch
+	 *
+	 * @param i
+	 * @return view of vector i
+	 * @throws LinAlgException if i is out of bounds
+	 */
+
+	public Vector getView(int i) throws LinAlgException {
+
+		return _m.getRowView(i);
+	}
+
+	/** Overwrites vector i with v
+	 *
+	 * @param i
+	 * @param v
+	 * @throws LinAlgException if i is out of bounds or v does not have the dimension of the batch
+	 */
+
+	public void set(int i, Vector v) throws LinAlgException {
+
+		if (v.getDim() != getDim()) {
+			throw new LinAlgException("Vector dimension " + v.getDim() + " does not match the batch dimension " + getDim());
+		}
+		_m.getRowView(i).copyFrom(v);
+	}
+
+	/** Returns the batch as a size x dim Matrix view (vector i is row i; no values are copied)
+	 *
+	 * @return view
+	 * @throws LinAlgException never in practice (the view covers the whole batch)
+	 */
+
+	public Matrix asMatrix() throws LinAlgException {
+
+		return _m.getSubMatrixView(0, 0, getSize(), getDim());
+	}
+
+	/** Returns the Matrix holding the batch (package-private, for kernels that read the rows
+	 *  directly: vector i is at values()[i * getDim(), (i + 1) * getDim()))
+	 *
+	 * @return _m
+	 */
+
+	Matrix matrix() {
+
+		return _m;
+	}
+
+	/** Returns the Euclidean norms of all the vectors, norm i at index i
+	 *
+	 * @return norms
+	 * @throws LinAlgException never in practice (the size is at least 1)
+	 */
+
+	public Vector norms() throws LinAlgException {
+
+		Vector out = new Vector(getSize());
+		norms(out);
+		return out;
+	}
+
+	/** Writes the Euclidean norms of all the vectors into out (nothing is allocated)
+	 *
+	 * @param out
+	 * @throws LinAlgException if out does not have the size of the batch
+	 */
+
+	public void norms(Vector out) throws LinAlgException {
+
+		int n = getSize(), dim = getDim();
+		if (out.getDim() != n) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the batch size " + n);
+		}
+
+		double[] data = _m.values(), o = out.values();
+		for (int i = 0; i < n; i++) {
+			o[out.offset() + i * out.stride()] = Math.sqrt(KERNELS.dot(data, i * dim, data, i * dim, dim));
+		}
+	}
+
+	/** Scales every vector to unit Euclidean norm, so that inner products become cosine
+	 *  similarities (zero vectors are left as they are)
+	 */
+
+	public void normalizeInPlace() {
+
+		int n = getSize(), dim = getDim();
+		double[] data = _m.values();
+		for (int i = 0; i < n; i++) {
+			double norm = Math.sqrt(KERNELS.dot(data, i * dim, data, i * dim, dim));
+			if (norm > 0.0) {
+				KERNELS.multScalar(data, i * dim, 1.0 / norm, data, i * dim, dim);
+			}
+		}
+	}
+
+	/** Adds the scalar d to every element of every vector
+	 *
+	 * @param d
+	 */
+
+	public void scalarAddInPlace(double d) {
+
+		double[] data = _m.values();
+		KERNELS.addScalar(data, 0, d, data, 0, data.length);
+	}
+
+	/** Multiplies every element of every vector by the scalar d
+	 *
+	 * @param d
+	 */
+
+	public void scalarMultInPlace(double d) {
+
+		double[] data = _m.values();
+		KERNELS.multScalar(data, 0, d, data, 0, data.length);
+	}
+
+	/** Adds v to every vector of the batch (e.g. to subtract a mean, add its negation)
+	 *
+	 * @param v
+	 * @throws LinAlgException if v does not have the dimension of the batch
+	 */
+
+	public void elementwiseAddInPlace(Vector v) throws LinAlgException {
+
+		int n = getSize(), dim = getDim();
+		checkDim(v);
+		Vector c = v.compact(); // the kernels need v contiguous
+		double[] data = _m.values();
+		for (int i = 0; i < n; i++) {
+			KERNELS.add(data, i * dim, c.values(), c.offset(), data, i * dim, dim);
+		}
+	}
+
+	/** Multiplies every vector of the batch elementwise by v (e.g. to apply per-dimension weights)
+	 *
+	 * @param v
+	 * @throws LinAlgException if v does not have the dimension of the batch
+	 */
+
+	public void elementwiseMultInPlace(Vector v) throws LinAlgException {
+
+		int n = getSize(), dim = getDim();
+		checkDim(v);
+		Vector c = v.compact();
+		double[] data = _m.values();
+		for (int i = 0; i < n; i++) {
+			KERNELS.mult(data, i * dim, c.values(), c.offset(), data, i * dim, dim);
+		}
+	}
+
+	/** Adds b to *this* vector by vector (vector i of *this* += vector i of b)
+	 *
+	 * @param b
+	 * @throws LinAlgException if b does not have the size and dimension of *this*
+	 */
+
+	public void elementwiseAddInPlace(VectorBatch b) throws LinAlgException {
+
+		checkShape(b);
+		double[] data = _m.values();
+		KERNELS.add(data, 0, b._m.values(), 0, data, 0, data.length);
+	}
+
+	/** Multiplies *this* elementwise by b, vector by vector
+	 *
+	 * @param b
+	 * @throws LinAlgException if b does not have the size and dimension of *this*
+	 */
+
+	public void elementwiseMultInPlace(VectorBatch b) throws LinAlgException {
+
+		checkShape(b);
+		double[] data = _m.values();
+		KERNELS.mult(data, 0, b._m.values(), 0, data, 0, data.length);
+	}
+
+	/** Returns the inner products of query with every vector of batch (score i at index i), as one
+	 *  matrix-vector product
+	 *
+	 * @param batch
+	 * @param query
+	 * @return scores
+	 * @throws LinAlgException if the dimensions do not match
+	 */
+
+	public static Vector InnerProd(VectorBatch batch, Vector query) throws LinAlgException {
+
+		batch.checkDim(query);
+		return Matrix.Multiply(batch._m, query);
+	}
+
+	/** Writes the inner products of query with every vector of batch into out (nothing is allocated)
+	 *
+	 * @param batch
+	 * @param query
+	 * @param out
+	 * @throws LinAlgException if the dimensions do not match, out does not have the batch size, or out shares storage with query
+	 */
+
+	public static void InnerProd(VectorBatch batch, Vector query, Vector out) throws LinAlgException {
+
+		batch.checkDim(query);
+		Matrix.MultiplyInto(batch._m, query, out);
+	}
+
+	/** Returns all the pairwise inner products of the vectors of a and b: entry (i, j) of the
+	 *  a.getSize() x b.getSize() result is InnerProd(vector i of a, vector j of b), computed as the
+	 *  single GEMM a * b^T
+	 *
+	 * @param a
+	 * @param b
+	 * @return scores
+	 * @throws LinAlgException if the dimensions of the vectors do not match
+	 */
+
+	public static Matrix InnerProd(VectorBatch a, VectorBatch b) throws LinAlgException {
+
+		a.checkSameDim(b);
+		return Matrix.Multiply(a._m, b._m.getTransposeView());
+	}
+
+	/** Writes all the pairwise inner products of the vectors of a and b into out (apart from kernel
+	 *  workspace, nothing is allocated)
+	 *
+	 * @param a
+	 * @param b
+	 * @param out
+	 * @throws LinAlgException if the dimensions of the vectors do not match or out is not a.getSize() x b.getSize()
+	 */
+
+	public static void InnerProd(VectorBatch a, VectorBatch b, Matrix out) throws LinAlgException {
+
+		a.checkSameDim(b);
+		Matrix.MultiplyInto(a._m, b._m.getTransposeView(), out);
+	}
+
+	/** Checks that v has the dimension of the batch */
+	private void checkDim(Vector v) throws LinAlgException {
+		if (v.getDim() != getDim()) {
+			throw new LinAlgException("Vector dimension " + v.getDim() + " does not match the batch dimension " + getDim());
+		}
+	}
+
+	/** Checks that b holds vectors of the dimension of *this* */
+	private void checkSameDim(VectorBatch b) throws LinAlgException {
+		if (b.getDim() != getDim()) {
+			throw new LinAlgException("Batch dimensions " + getDim() + " and " + b.getDim() + " do not match");
+		}
+	}
+
+	/** Checks that b has the size and dimension of *this* */
+	private void checkShape(VectorBatch b) throws LinAlgException {
+		if (b.getSize() != getSize() || b.getDim() != getDim()) {
+			throw new LinAlgException("Batch of " + b.getSize() + " x " + b.getDim() + " does not match " + getSize() + " x " + getDim());
+		}
+	}
+}
@@ -0,0 +1,405 @@
+package linalg;
+
+/*** A lazily evaluated vector expression: records a chain of scalar, elementwise and
+ *   matrix-vector operations and computes the whole chain in one fused pass when eval() is called.
+ *
+ *   For example
+ *
+ *     Vector r = VectorExpr.of(v).scalarMult(a).elementwiseAdd(w).scalarAdd(b).eval();
+ *
+ *   gives the same values as v.scalarMult(a).elementwiseAdd(w).scalarAdd(b), but instead of
+ *   allocating and streaming through a full intermediate Vector per step it walks the output in
+ *   L1-sized chunks and runs every operation on a chunk while it is still in cache.  Each input is
+ *   read once and only the result is allocated.  Each element goes through exactly the same
+ *   arithmetic as the eager methods, so results are identical.
+ *
+ *   Matrix-vector products are fused the same way on their output side (rows of M*x are produced
+ *   chunk by chunk); their input expression x has to be complete before any row can be computed,
+ *   so it is evaluated once into a temporary at the start of eval().
+ *
+ *   Expressions do not copy their operands: changing an operand Vector before eval() changes the
+ *   result.  An expression holds its matrix-vector temporaries only during eval(), so it can be
+ *   evaluated repeatedly, but not from several threads at once.  A subexpression may be used
+ *   more than once (e.g. e.elementwiseAdd(e)); a shared matrix-vector product is materialized
+ *   once per eval().
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+public abstract class VectorExpr {
+
+	static final int CHUNK = 1024; // Elements per fused pass; a few chunk buffers stay in L1
+
+	final int _nDim;     // Dimension of the result
+	final int _nHeight;  // Scratch chunk buffers needed to evaluate this subtree
+	private final double[][] _aadScratch; // Holds the Workspace chunk buffers while this expression is evaluated
+
+	VectorExpr(int dim, int height) {
+		_nDim = dim;
+		_nHeight = height;
+		_aadScratch = new double[height][];
+	}
+
+	/** Starts an expression from Vector v (v is read at eval time, not copied)
+	 *
+	 * @param v
+	 * @return expression for v
+	 */
+
+	public static VectorExpr of(Vector v) {
+		return new Leaf(v);
+	}
+
+	/** Returns the dimension of the result
+	 *
+	 * @return _nDim
+	 */
+
+	public int getDim() {
+		return _nDim;
+	}
+
+	/** Adds scalar d to every element
+	 *
+	 * @param d
+	 * @return expression
+	 */
+
+	public VectorExpr scalarAdd(double d) {
+		return new Scalar(this, d, false);
+	}
+
+	/** Multiplies every element by scalar d
+	 *
+	 * @param d
+	 * @return expression
+	 */
+
+	public VectorExpr scalarMult(double d) {
+		return new Scalar(this, d, true);
+	}
+
+	/** Elementwise addition of Vector v
+	 *
+	 * @param v
+	 * @return expression
+	 * @throws LinAlgException if dimensions of the two operands do not match
+	 */
+
+	public VectorExpr elementwiseAdd(Vector v) throws LinAlgException {
+		return elementwiseAdd(of(v));
+	}
+
+	/** Elementwise addition of expression e
+	 *
+	 * @param e
+	 * @return expression
+	 * @throws LinAlgException if dimensions of the two operands do not match
+	 */
+
+	public VectorExpr elementwiseAdd(VectorExpr e) throws LinAlgException {
+		checkDim(e);
+		return new Binary(this, e, false);
+	}
+
+	/** Elementwise multiplication by Vector v
+	 *
+	 * @param v
+	 * @return expression
+	 * @throws LinAlgException if dimensions of the two operands do not match
+	 */
+
+	public VectorExpr elementwiseMult(Vector v) throws LinAlgException {
+		return elementwiseMult(of(v));
+	}
+
+	/** Elementwise multiplication by expression e
+	 *
+	 * @param e
+	 * @return expression
+	 * @throws LinAlgException if dimensions of the two operands do not match
+	 */
+
+	public VectorExpr elementwiseMult(VectorExpr e) throws LinAlgException {
+		checkDim(e);
+		return new Binary(this, e, true);
+	}
+
+	/** Matrix-vector product m * x
+	 *
+	 * @param m
+	 * @param x
+	 * @return expression
+	 * @throws LinAlgException if m columns do not match the dimension of x
+	 */
+
+	public static VectorExpr Multiply(Matrix m, VectorExpr x) throws LinAlgException {
+		if (m.getNumCols() != x._nDim) {
+			throw new LinAlgException("Column dimension of the matrix does not match the dimension of the vector");
+		}
+		return new MatVec(m, x);
+	}
+
+	/** Evaluates the expression in one fused pass into a new Vector
+	 *
+	 * @return result
+	 * @throws LinAlgException never in practice (dimensions were checked when the expression was built)
+	 */
+
+	public Vector eval() throws LinAlgException {
+		Vector out = new Vector(_nDim);
+		evalInto(out.values(), 0);
+		return out;
+	}
+
+	/** Evaluates the expression in one fused pass into out (which may be a view), without
+	 *  allocating a result; out may be an elementwise operand (each chunk is read before it is
+	 *  written), but not the Vector or Matrix of a matrix-vector product, whose entries are needed
+	 *  for every output row, nor a different view of an operand's storage
+	 *
+	 * @param out
+	 * @throws LinAlgException if out does not have the dimension of the result or overlaps an operand it would overwrite
+	 */
+
+	public void eval(Vector out) throws LinAlgException {
+		if (out.getDim() != _nDim) {
+			throw new LinAlgException("Output dimension " + out.getDim() + " does not match the result dimension " + _nDim);
+		}
+		if (conflicts(out)) {
+			throw new LinAlgException("Output cannot share storage with a matrix-vector operand or a differently laid out operand");
+		}
+		if (out.stride() == 1) {
+			evalInto(out.values(), out.offset());
+		}
+		else { // e.g. a matrix column: evaluate contiguously, then scatter
+			double[] tmp = Workspace.acquire(_nDim);
+			evalInto(tmp, 0);
+			double[] dst = out.values();
+			for (int i = 0, o = out.offset(); i < _nDim; i++, o += out.stride()) {
+				dst[o] = tmp[i];
+			}
+			Workspace.release(tmp);
+		}
+	}
+
+	/** Evaluates the expression into out[outOff, outOff + _nDim), with chunk buffers from the thread's Workspace
+	 */
+
+	void evalInto(double[] out, int outOff) throws LinAlgException {
+		prepare();
+		double[][] scratch = _aadScratch;
+		for (int i = 0; i < _nHeight; i++) {
+			scratch[i] = Workspace.acquire(CHUNK);
+		}
+		double[] chunk = Workspace.acquire(CHUNK);
+		for (int start = 0; start < _nDim; start += CHUNK) {
+			int len = Math.min(CHUNK, _nDim - start);
+			evalChunk(start, len, chunk, scratch, 0);
+			System.arraycopy(chunk, 0, out, outOff + start, len);
+		}
+		Workspace.release(chunk);
+		for (int i = 0; i < _nHeight; i++) {
+			Workspace.release(scratch[i]);
+			scratch[i] = null;
+		}
+		release();
+	}
+
+	/** Writes elements [start, start+len) of the result into out[0, len), using scratch[depth..] */
+	abstract void evalChunk(int start, int len, double[] out, double[][] scratch, int depth);
+
+	/** Materializes the inputs of matrix-vector nodes before the fused pass */
+	abstract void prepare() throws LinAlgException;
+
+	/** Drops temporaries made by prepare() */
+	abstract void release();
+
+	/** Whether writing the result into v chunk by chunk could change an operand before it is read:
+	 *  v shares storage with a matrix-vector operand, or with an elementwise operand laid out differently */
+	abstract boolean conflicts(Vector v);
+
+	/** Whether e is a Vector operand that chunks can read in place (contiguous, possibly offset) */
+	private static boolean isDirect(VectorExpr e) {
+		return (e instanceof Leaf) && ((Leaf)e)._v.stride() == 1;
+	}
+
+	private void checkDim(VectorExpr e) throws LinAlgException {
+		if (e._nDim != _nDim) {
+			throw new LinAlgException("The dimensions of the two vectors have to match");
+		}
+	}
+
+	/** A Vector operand */
+	private static final class Leaf extends VectorExpr {
+		private final Vector _v;
+
+		Leaf(Vector v) {
+			super(v.getDim(), 0);
+			_v = v;
+		}
+
+		@Override
+		void evalChunk(int start, int len, double[] out, double[][] scratch, int depth) {
+			double[] src = _v.values();
+			int stride = _v.stride();
+			if (stride == 1) {
+				System.arraycopy(src, _v.offset() + start, out, 0, len);
+			}
+			else { // a strided view (e.g. a matrix column) is gathered
+				for (int i = 0, o = _v.offset() + start * stride; i < len; i++, o += stride) out[i] = src[o];
+			}
+		}
+
+		@Override
+		void prepare() {}
+
+		@Override
+		void release() {}
+
+		@Override
+		boolean conflicts(Vector v) {
+			return _v.values() == v.values() && (_v.offset() != v.offset() || _v.stride() != v.stride());
+		}
+	}
+
+	/** x + d or x * d */
+	private static final class Scalar extends VectorExpr {
+		private final VectorExpr _x;
+		private final double _d;
+		private final boolean _bMult;
+
+		Scalar(VectorExpr x, double d, boolean mult) {
+			super(x._nDim, x._nHeight);
+			_x = x;
+			_d = d;
+			_bMult = mult;
+		}
+
+		@Override
+		void evalChunk(int start, int len, double[] out, double[][] scratch, int depth) {
+			_x.evalChunk(start, len, out, scratch, depth);
+			if (_bMult) {
+				for (int i = 0; i < len; i++) out[i] *= _d;
+			}
+			else {
+				for (int i = 0; i < len; i++) out[i] += _d;
+			}
+		}
+
+		@Override
+		void prepare() throws LinAlgException { _x.prepare(); }
+
+		@Override
+		void release() { _x.release(); }
+
+		@Override
+		boolean conflicts(Vector v) { return _x.conflicts(v); }
+	}
+
+	/** x + y or x * y; a contiguous Vector y is read in place, otherwise y goes through scratch[depth] */
+	private static final class Binary extends VectorExpr {
+		private final VectorExpr _x, _y;
+		private final boolean _bMult;
+
+		Binary(VectorExpr x, VectorExpr y, boolean mult) {
+			super(x._nDim, isDirect(y) ? x._nHeight : 1 + Math.max(x._nHeight, y._nHeight));
+			_x = x;
+			_y = y;
+			_bMult = mult;
+		}
+
+		@Override
+		void evalChunk(int start, int len, double[] out, double[][] scratch, int depth) {
+			double[] y;
+			int off;
+			_x.evalChunk(start, len, out, scratch, depth + (isDirect(_y) ? 0 : 1));
+			if (isDirect(_y)) {
+				Vector v = ((Leaf)_y)._v;
+				y = v.values();
+				off = v.offset() + start;
+			}
+			else {
+				y = scratch[depth];
+				off = 0;
+				_y.evalChunk(start, len, y, scratch, depth + 1);
+			}
+			if (_bMult) {
+				for (int i = 0; i < len; i++) out[i] *= y[off + i];
+			}
+			else {
+				for (int i = 0; i < len; i++) out[i] = y[off + i] + out[i]; // same operand order as Vector.elementwiseAdd
+			}
+		}
+
+		@Override
+		void prepare() throws LinAlgException { _x.prepare(); _y.prepare(); }
+
+		@Override
+		void release() { _x.release(); _y.release(); }
+
+		@Override
+		boolean conflicts(Vector v) { return _x.conflicts(v) || _y.conflicts(v); }
+	}
+
+	/** m * x, produced row chunk by row chunk from a materialized x; the node may be shared by several
+	 *  parents in one expression, so prepare and release are counted and only the first prepare
+	 *  and the last release do any work */
+	private static final class MatVec extends VectorExpr {
+		private final Matrix _m;
+		private final VectorExpr _x;
+		private double[] _adX;      // x, evaluated by the first prepare()
+		private int _nXOff;         // position of x(0) in _adX
+		private boolean _bPooled;   // whether _adX came from the Workspace
+		private int _nPrepared;     // prepare() calls not yet matched by a release()
+
+		MatVec(Matrix m, VectorExpr x) {
+			super(m.getNumRows(), 0);
+			_m = m;
+			_x = x;
+		}
+
+		@Override
+		void evalChunk(int start, int len, double[] out, double[][] scratch, int depth) {
+			// rows [start, start+len) of m * x land in out[0, len); the kernel follows m's layout (so views work)
+			Gemm.gemv(_m.values(), _m.offset(), _m.rowStride(), _m.colStride(), _adX, _nXOff, out, -start,
+					_m.getNumCols(), start, start + len);
+		}
+
+		@Override
+		void prepare() throws LinAlgException {
+			if (_nPrepared++ > 0) {
+				return; // already materialized for another parent in this eval
+			}
+			_bPooled = !isDirect(_x);
+			if (_bPooled) {
+				_adX = Workspace.acquire(_x._nDim);
+				_nXOff = 0;
+				_x.evalInto(_adX, 0);
+			}
+			else {
+				Vector v = ((Leaf)_x)._v; // no need to copy a contiguous Vector
+				_adX = v.values();
+				_nXOff = v.offset();
+			}
+		}
+
+		@Override
+		void release() {
+			if (--_nPrepared > 0) {
+				return; // still needed by another parent
+			}
+			if (_bPooled) {
+				Workspace.release(_adX);
+			}
+			_adX = null;
+			_bPooled = false;
+		}
+
+		@Override
+		boolean conflicts(Vector v) {
+			return _m.values() == v.values() // a computed x is materialized before any output is written
+					|| ((_x instanceof Leaf) && ((Leaf)_x)._v.values() == v.values());
+		}
+	}
+}
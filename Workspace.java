@@ -0,0 +1,81 @@
+package linalg;
+
+/*** A small per-thread pool of double[] scratch buffers for kernel temporaries (packed GEMM
+ *   panels, fused expression chunks), so that loops calling the same operations over and over
+ *   reuse the same buffers instead of allocating new ones each call.
+ *
+ *   Buffers are handed out with acquire and must be returned with release by the same thread
+ *   once the operation is done with them.  acquire returns the smallest pooled buffer that is
+ *   long enough (its contents are left over from earlier use) or allocates a new one; release
+ *   keeps at most SLOTS buffers per thread, dropping the smallest when full.  Buffers longer than
+ *   MAX_POOLED (the trailing-update copies of a large LU or QR, Strassen scratch) are not kept:
+ *   allocation is cheap next to the work that fills them, and pooling them would pin hundreds of
+ *   MB in every thread, ForkJoin workers included, for the life of the thread.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class Workspace {
+
+	static final int SLOTS = 8; // Buffers kept per thread
+	static final int MAX_POOLED = 1 << 19; // Longest buffer kept, in doubles (4 MB)
+
+	private static final ThreadLocal<Workspace> LOCAL = ThreadLocal.withInitial(Workspace::new);
+
+	private final double[][] _aadFree = new double[SLOTS][]; // Pooled buffers; only the first _nFree are set
+	private int _nFree = 0;
+
+	private Workspace() {} // one per thread, through LOCAL
+
+	/** Returns a buffer of at least length doubles (contents are not cleared)
+	 *
+	 * @param length
+	 * @return buffer
+	 */
+
+	static double[] acquire(int length) {
+
+		Workspace w = LOCAL.get();
+		int best = -1;
+		for (int i = 0; i < w._nFree; i++) { // smallest buffer that is long enough
+			if (w._aadFree[i].length >= length && (best < 0 || w._aadFree[i].length < w._aadFree[best].length)) {
+				best = i;
+			}
+		}
+		if (best < 0) {
+			return new double[length];
+		}
+
+		double[] buf = w._aadFree[best];
+		w._aadFree[best] = w._aadFree[--w._nFree];
+		w._aadFree[w._nFree] = null;
+		return buf;
+	}
+
+	/** Returns a buffer obtained from acquire to this thread's pool (null is ignored, so a
+	 *  release without a buffer cannot put a hole in the pool that a later acquire would trip on)
+	 *
+	 * @param buf
+	 */
+
+	static void release(double[] buf) {
+
+		if (buf == null || buf.length > MAX_POOLED) {
+			return; // left to the garbage collector
+		}
+		Workspace w = LOCAL.get();
+		if (w._nFree < SLOTS) {
+			w._aadFree[w._nFree++] = buf;
+			return;
+		}
+
+		int smallest = 0;
+		for (int i = 1; i < SLOTS; i++) {
+			if (w._aadFree[i].length < w._aadFree[smallest].length) smallest = i;
+		}
+		if (buf.length > w._aadFree[smallest].length) {
+			w._aadFree[smallest] = buf; // keep the larger buffers, they are the expensive ones to allocate
+		}
+	}
+}
@@ -0,0 +1,325 @@
+package linalg;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/*** Kernels on the JDK Vector API: full-width DoubleVector strides of the preferred species and
+ *   a scalar loop for the tail (a masked tail allocates its mask on every call on JDK 17, which
+ *   would defeat the allocation-free into methods).  Only loaded (reflectively, by Kernels.select)
+ *   when the JVM has --add-modules jdk.incubator.vector.
+ *
+ *   This is the only source that imports the incubator module, so it lives in its own source
+ *   directory (simd/) and the rest of the package builds with a plain javac.  Build it second,
+ *   against the classes of the first build and with the module flag:
+ *
+ *   	javac -d out *.java
+ *   	javac --add-modules jdk.incubator.vector -cp out -d out simd/SimdKernels.java
+ *
+ *   Multiplies and adds are kept as separate lanewise operations (no fused multiply-add) so the
+ *   elementwise and axpy results match ScalarKernels exactly.
+ *
+ *   The float loops use the preferred FloatVector species, which has twice the lanes of the double
+ *   one; the mixed-precision loops convert each half of a float vector to a DoubleVector
+ *   (jdk.incubator.vector.FloatVector here, not linalg.FloatVector) and do the arithmetic in double.
+ *
+ * @author scott.sanner@utoronto.ca, neevi.shah@mail.utoronto.ca
+ *
+ */
+
+final class SimdKernels implements Kernels {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+	private static final int LANES = SPECIES.length();
+	private static final VectorSpecies<Float> FLOAT_SPECIES = FloatVector.SPECIES_PREFERRED;
+	private static final int FLOAT_LANES = FLOAT_SPECIES.length();
+	private static final boolean WIDEN = FLOAT_LANES == 2 * LANES; // each float vector converts to exactly two double vectors
+
+	@Override
+	public void addScalar(double[] a, int aOff, double d, double[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector.fromArray(SPECIES, a, aOff + index).add(d).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + d;
+		}
+	}
+
+	@Override
+	public void multScalar(double[] a, int aOff, double d, double[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector.fromArray(SPECIES, a, aOff + index).mul(d).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * d;
+		}
+	}
+
+	@Override
+	public void add(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOff + index);
+			va.add(DoubleVector.fromArray(SPECIES, b, bOff + index)).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + b[bOff + index];
+		}
+	}
+
+	@Override
+	public void mult(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOff + index);
+			va.mul(DoubleVector.fromArray(SPECIES, b, bOff + index)).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * b[bOff + index];
+		}
+	}
+
+	@Override
+	public double dot(double[] a, int aOff, double[] b, int bOff, int len) {
+		DoubleVector acc = DoubleVector.zero(SPECIES); // one partial sum per lane
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector va = DoubleVector.fromArray(SPECIES, a, aOff + index);
+			acc = acc.add(va.mul(DoubleVector.fromArray(SPECIES, b, bOff + index)));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; index < len; index++) {
+			sum += a[aOff + index] * b[bOff + index];
+		}
+		return sum;
+	}
+
+	@Override
+	public double sum(double[] a, int aOff, int len) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			acc = acc.add(DoubleVector.fromArray(SPECIES, a, aOff + index));
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; index < len; index++) {
+			sum += a[aOff + index];
+		}
+		return sum;
+	}
+
+	@Override
+	public double sumAbs(double[] a, int aOff, int len) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			acc = acc.add(DoubleVector.fromArray(SPECIES, a, aOff + index).abs());
+		}
+		double sum = acc.reduceLanes(VectorOperators.ADD);
+		for (; index < len; index++) {
+			sum += Math.abs(a[aOff + index]);
+		}
+		return sum;
+	}
+
+	@Override
+	public double maxAbs(double[] a, int aOff, int len) {
+		DoubleVector acc = DoubleVector.zero(SPECIES);
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			acc = acc.max(DoubleVector.fromArray(SPECIES, a, aOff + index).abs());
+		}
+		double max = acc.reduceLanes(VectorOperators.MAX);
+		for (; index < len; index++) {
+			max = Math.max(max, Math.abs(a[aOff + index]));
+		}
+		return max;
+	}
+
+	@Override
+	public double max(double[] a, int aOff, int len) {
+		int index = 0;
+		double max = a[aOff];
+		int bound = SPECIES.loopBound(len);
+		if (bound > 0) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, a, aOff);
+			for (index = LANES; index < bound; index += LANES) {
+				acc = acc.max(DoubleVector.fromArray(SPECIES, a, aOff + index));
+			}
+			max = acc.reduceLanes(VectorOperators.MAX);
+		}
+		for (; index < len; index++) {
+			max = Math.max(max, a[aOff + index]);
+		}
+		return max;
+	}
+
+	@Override
+	public double min(double[] a, int aOff, int len) {
+		int index = 0;
+		double min = a[aOff];
+		int bound = SPECIES.loopBound(len);
+		if (bound > 0) {
+			DoubleVector acc = DoubleVector.fromArray(SPECIES, a, aOff);
+			for (index = LANES; index < bound; index += LANES) {
+				acc = acc.min(DoubleVector.fromArray(SPECIES, a, aOff + index));
+			}
+			min = acc.reduceLanes(VectorOperators.MIN);
+		}
+		for (; index < len; index++) {
+			min = Math.min(min, a[aOff + index]);
+		}
+		return min;
+	}
+
+	@Override
+	public void axpy(double alpha, double[] x, int xOff, double[] y, int yOff, int len) {
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOff + index);
+			DoubleVector.fromArray(SPECIES, y, yOff + index).add(vx.mul(alpha)).intoArray(y, yOff + index);
+		}
+		for (; index < len; index++) {
+			y[yOff + index] += alpha * x[xOff + index];
+		}
+	}
+
+	@Override
+	public void axpy4(double a0, double a1, double a2, double a3, double[] x, int xOff,
+			double[] y, int y0, int y1, int y2, int y3, int len) {
+		int index = 0;
+		for (int bound = SPECIES.loopBound(len); index < bound; index += LANES) {
+			DoubleVector vx = DoubleVector.fromArray(SPECIES, x, xOff + index); // loaded once, used for all four rows
+			DoubleVector.fromArray(SPECIES, y, y0 + index).add(vx.mul(a0)).intoArray(y, y0 + index);
+			DoubleVector.fromArray(SPECIES, y, y1 + index).add(vx.mul(a1)).intoArray(y, y1 + index);
+			DoubleVector.fromArray(SPECIES, y, y2 + index).add(vx.mul(a2)).intoArray(y, y2 + index);
+			DoubleVector.fromArray(SPECIES, y, y3 + index).add(vx.mul(a3)).intoArray(y, y3 + index);
+		}
+		for (; index < len; index++) { // the tail is shorter than one vector
+			double xi = x[xOff + index];
+			y[y0 + index] += a0 * xi;
+			y[y1 + index] += a1 * xi;
+			y[y2 + index] += a2 * xi;
+			y[y3 + index] += a3 * xi;
+		}
+	}
+
+	@Override
+	public void addScalar(float[] a, int aOff, float d, float[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+			FloatVector.fromArray(FLOAT_SPECIES, a, aOff + index).add(d).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + d;
+		}
+	}
+
+	@Override
+	public void multScalar(float[] a, int aOff, float d, float[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+			FloatVector.fromArray(FLOAT_SPECIES, a, aOff + index).mul(d).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * d;
+		}
+	}
+
+	@Override
+	public void add(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+			FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOff + index);
+			va.add(FloatVector.fromArray(FLOAT_SPECIES, b, bOff + index)).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] + b[bOff + index];
+		}
+	}
+
+	@Override
+	public void mult(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int len) {
+		int index = 0;
+		for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+			FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOff + index);
+			va.mul(FloatVector.fromArray(FLOAT_SPECIES, b, bOff + index)).intoArray(out, outOff + index);
+		}
+		for (; index < len; index++) {
+			out[outOff + index] = a[aOff + index] * b[bOff + index];
+		}
+	}
+
+	@Override
+	public void axpy(float alpha, float[] x, int xOff, float[] y, int yOff, int len) {
+		int index = 0;
+		for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+			FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOff + index);
+			FloatVector.fromArray(FLOAT_SPECIES, y, yOff + index).add(vx.mul(alpha)).intoArray(y, yOff + index);
+		}
+		for (; index < len; index++) {
+			y[yOff + index] += alpha * x[xOff + index];
+		}
+	}
+
+	@Override
+	public double dot(float[] a, int aOff, float[] b, int bOff, int len) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES), acc1 = acc0; // partial sums of the low and high halves
+		int index = 0;
+		if (WIDEN) {
+			for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+				FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOff + index);
+				FloatVector vb = FloatVector.fromArray(FLOAT_SPECIES, b, bOff + index);
+				acc0 = acc0.add(widen(va, 0).mul(widen(vb, 0)));
+				acc1 = acc1.add(widen(va, 1).mul(widen(vb, 1)));
+			}
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for (; index < len; index++) {
+			sum += (double)a[aOff + index] * b[bOff + index];
+		}
+		return sum;
+	}
+
+	@Override
+	public double dot(float[] a, int aOff, double[] b, int bOff, int len) {
+		DoubleVector acc0 = DoubleVector.zero(SPECIES), acc1 = acc0;
+		int index = 0;
+		if (WIDEN) {
+			for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+				FloatVector va = FloatVector.fromArray(FLOAT_SPECIES, a, aOff + index);
+				acc0 = acc0.add(widen(va, 0).mul(DoubleVector.fromArray(SPECIES, b, bOff + index)));
+				acc1 = acc1.add(widen(va, 1).mul(DoubleVector.fromArray(SPECIES, b, bOff + index + LANES)));
+			}
+		}
+		double sum = acc0.add(acc1).reduceLanes(VectorOperators.ADD);
+		for (; index < len; index++) {
+			sum += a[aOff + index] * b[bOff + index];
+		}
+		return sum;
+	}
+
+	@Override
+	public void axpy(double alpha, float[] x, int xOff, double[] y, int yOff, int len) {
+		int index = 0;
+		if (WIDEN) {
+			for (int bound = FLOAT_SPECIES.loopBound(len); index < bound; index += FLOAT_LANES) {
+				FloatVector vx = FloatVector.fromArray(FLOAT_SPECIES, x, xOff + index);
+				int y0 = yOff + index, y1 = y0 + LANES;
+				DoubleVector.fromArray(SPECIES, y, y0).add(widen(vx, 0).mul(alpha)).intoArray(y, y0);
+				DoubleVector.fromArray(SPECIES, y, y1).add(widen(vx, 1).mul(alpha)).intoArray(y, y1);
+			}
+		}
+		for (; index < len; index++) {
+			y[yOff + index] += alpha * x[xOff + index];
+		}
+	}
+
+	/** Lanes [part * LANES, (part + 1) * LANES) of v converted to double */
+	private static DoubleVector widen(FloatVector v, int part) {
+		return (DoubleVector)v.convertShape(VectorOperators.F2D, SPECIES, part);
+	}
+}